@@ -17,8 +17,11 @@
  */
 package com.phloc.procurement.attachment;
 
+import java.io.Writer;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.NotThreadSafe;
 
 import org.joda.time.DateTime;
@@ -27,6 +30,7 @@ import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.mime.IMimeType;
+import com.phloc.commons.state.ESuccess;
 import com.phloc.commons.string.StringHelper;
 import com.phloc.commons.string.ToStringGenerator;
 
@@ -87,6 +91,12 @@ public abstract class AbstractProcAttachment implements IProcAttachment
     return m_aUploadDT;
   }
 
+  @Nonnull
+  public ESuccess writeBase64Encoded (@Nonnull @WillNotClose final Writer aWriter)
+  {
+    return ProcAttachmentBase64.writeBase64Encoded (getInputStream (), aWriter);
+  }
+
   @Override
   public boolean equals (final Object o)
   {
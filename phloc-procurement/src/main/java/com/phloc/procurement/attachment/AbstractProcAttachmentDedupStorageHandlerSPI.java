@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.charset.CCharset;
+import com.phloc.commons.io.IReadableResource;
+import com.phloc.commons.io.file.FileIOError;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.FileUtils;
+import com.phloc.commons.io.file.SimpleFileIO;
+import com.phloc.commons.io.file.filter.FileFilterDirectoryOnly;
+import com.phloc.commons.io.file.filter.FileFilterFileOnly;
+import com.phloc.commons.io.file.iterate.FileSystemIterator;
+import com.phloc.commons.io.resource.FileSystemResource;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.string.StringHelper;
+
+/**
+ * A file-based attachment storage handler that stores each distinct content
+ * only once. The content is addressed by its SHA-256 hash and stored in the
+ * <code>blobs</code> directory. Each attachment directory only contains the
+ * meta data and a reference to the content. The references are counted and a
+ * content is deleted as soon as the last referencing attachment is removed.<br>
+ * Attachments stored by {@link AbstractProcAttachmentFileBasedStorageHandlerSPI}
+ * are still readable, and are converted when they are persisted again.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public abstract class AbstractProcAttachmentDedupStorageHandlerSPI extends AbstractProcAttachmentFileBasedStorageHandlerSPI
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractProcAttachmentDedupStorageHandlerSPI.class);
+  private static final String FILENAME_CONTENT_REF = "content.ref";
+  private static final String DIRNAME_BLOBS = "blobs";
+  private static final String HASH_ALGORITHM = "SHA-256";
+  private static final String TEMP_PREFIX = "blob";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private static final class BlobInfo
+  {
+    private final long m_nSize;
+    private int m_nRefCount = 0;
+
+    BlobInfo (@Nonnegative final long nSize)
+    {
+      m_nSize = nSize;
+    }
+  }
+
+  private final File m_aBlobDir;
+  /** Guards the reference counts and the creation and deletion of blobs */
+  private final Lock m_aBlobLock = new ReentrantLock ();
+  private final Map <String, BlobInfo> m_aBlobs = new HashMap <String, BlobInfo> ();
+  private int m_nReferenceCount = 0;
+  private long m_nLogicalBytes = 0;
+  private long m_nPhysicalBytes = 0;
+
+  /**
+   * Constructor using the default cache bounds.
+   *
+   * @param aBaseDir
+   *        The base directory where the attachments should be handled.
+   */
+  public AbstractProcAttachmentDedupStorageHandlerSPI (@Nonnull final File aBaseDir)
+  {
+    this (aBaseDir, ProcAttachmentCache.DEFAULT_MAX_ENTRY_COUNT, ProcAttachmentCache.DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param aBaseDir
+   *        The base directory where the attachments should be handled.
+   * @param nMaxCacheEntryCount
+   *        The maximum number of resolved attachments to be cached. 0 disables
+   *        caching.
+   * @param nMaxCacheWeight
+   *        The maximum estimated size of all cached attachments in bytes. 0
+   *        disables caching.
+   */
+  public AbstractProcAttachmentDedupStorageHandlerSPI (@Nonnull final File aBaseDir,
+                                                       @Nonnegative final int nMaxCacheEntryCount,
+                                                       @Nonnegative final long nMaxCacheWeight)
+  {
+    super (aBaseDir, nMaxCacheEntryCount, nMaxCacheWeight);
+    m_aBlobDir = new File (aBaseDir, DIRNAME_BLOBS);
+    final FileIOError eError = FileOperations.createDirIfNotExisting (m_aBlobDir);
+    if (eError.isFailure ())
+      throw new IllegalStateException ("Failed to create directory " + m_aBlobDir + ": " + eError.toString ());
+
+    // Leftovers from interrupted uploads
+    for (final File aFile : FileSystemIterator.create (m_aBlobDir, FileFilterFileOnly.getInstance ()))
+      if (aFile.getName ().endsWith (TEMP_EXTENSION))
+        FileOperations.deleteFile (aFile);
+
+    // Count the references of all attachments
+    for (final String sAttachmentID : getAllAttachmentIDs ())
+    {
+      final String sHash = _readContentRef (getExistingAttachmentDirectory (sAttachmentID));
+      if (sHash != null)
+      {
+        final File aBlobFile = _getBlobFile (sHash);
+        if (aBlobFile.exists ())
+          _addReference (sHash, aBlobFile.length ());
+        else
+          s_aLogger.error ("Content " + sHash + " of attachment " + sAttachmentID + " is missing");
+      }
+    }
+    collectGarbage ();
+  }
+
+  @Nonnull
+  private File _getBlobFile (@Nonnull final String sHash)
+  {
+    return new File (m_aBlobDir, sHash.substring (0, 2) + '/' + sHash.substring (2, 4) + '/' + sHash);
+  }
+
+  @Nullable
+  private static String _readContentRef (@Nonnull final File aAttachmentBaseDir)
+  {
+    final File aRefFile = new File (aAttachmentBaseDir, FILENAME_CONTENT_REF);
+    if (!aRefFile.exists ())
+      return null;
+    return StringHelper.trim (SimpleFileIO.readFileAsString (aRefFile, CCharset.CHARSET_ISO_8859_1_OBJ));
+  }
+
+  @Nonnull
+  private static MessageDigest _createDigest ()
+  {
+    try
+    {
+      return MessageDigest.getInstance (HASH_ALGORITHM);
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("Hash algorithm " + HASH_ALGORITHM + " is not supported", ex);
+    }
+  }
+
+  @Nonnull
+  private static String _getContentHash (@Nonnull final IProcAttachment aAttachment)
+  {
+    final MessageDigest aDigest = _createDigest ();
+    final InputStream aIS = aAttachment.getInputStream ();
+    if (aIS == null)
+      throw new IllegalStateException ("Failed to open content of " + aAttachment);
+    try
+    {
+      final byte [] aBuffer = new byte [16 * 1024];
+      int nRead;
+      while ((nRead = aIS.read (aBuffer)) > -1)
+        aDigest.update (aBuffer, 0, nRead);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to read content of " + aAttachment, ex);
+    }
+    finally
+    {
+      StreamUtils.close (aIS);
+    }
+    return StringHelper.getHexEncoded (aDigest.digest ());
+  }
+
+  /**
+   * Must be called with the blob lock held.
+   */
+  private void _addReference (@Nonnull final String sHash, @Nonnegative final long nSize)
+  {
+    BlobInfo aInfo = m_aBlobs.get (sHash);
+    if (aInfo == null)
+    {
+      aInfo = new BlobInfo (nSize);
+      m_aBlobs.put (sHash, aInfo);
+      m_nPhysicalBytes += nSize;
+    }
+    aInfo.m_nRefCount++;
+    m_nReferenceCount++;
+    m_nLogicalBytes += aInfo.m_nSize;
+  }
+
+  /**
+   * Get the blob with the content of the passed attachment, storing it if it
+   * is not yet present, and add a reference to it.
+   */
+  @Nonnull
+  private File _acquireBlob (@Nonnull final String sHash, @Nonnull final IProcAttachment aAttachment)
+  {
+    final File aBlobFile = _getBlobFile (sHash);
+    m_aBlobLock.lock ();
+    try
+    {
+      final BlobInfo aInfo = m_aBlobs.get (sHash);
+      if (aInfo != null)
+      {
+        // Already stored - nothing to write
+        _addReference (sHash, aInfo.m_nSize);
+        return aBlobFile;
+      }
+    }
+    finally
+    {
+      m_aBlobLock.unlock ();
+    }
+
+    // Write outside of the lock, so that uploads of different contents don't
+    // block each other
+    final File aTempFile;
+    try
+    {
+      aTempFile = File.createTempFile (TEMP_PREFIX, TEMP_EXTENSION, m_aBlobDir);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to create temporary file in " + m_aBlobDir, ex);
+    }
+    if (StreamUtils.copyInputStreamToOutputStreamAndCloseOS (aAttachment.getInputStream (),
+                                                             FileUtils.getOutputStream (aTempFile)).isFailure ())
+    {
+      FileOperations.deleteFile (aTempFile);
+      throw new IllegalStateException ("Failed to write content of " + aAttachment + " to " + aTempFile);
+    }
+
+    m_aBlobLock.lock ();
+    try
+    {
+      final BlobInfo aInfo = m_aBlobs.get (sHash);
+      if (aInfo != null)
+      {
+        // Stored concurrently
+        FileOperations.deleteFile (aTempFile);
+        _addReference (sHash, aInfo.m_nSize);
+      }
+      else
+      {
+        FileIOError eError = FileOperations.createDirRecursiveIfNotExisting (aBlobFile.getParentFile ());
+        if (eError.isSuccess ())
+        {
+          // A blob without references may be left over from a crash
+          FileOperations.deleteFileIfExisting (aBlobFile);
+          eError = FileOperations.renameFile (aTempFile, aBlobFile);
+        }
+        if (eError.isFailure ())
+        {
+          FileOperations.deleteFile (aTempFile);
+          throw new IllegalStateException ("Failed to move " + aTempFile + " to " + aBlobFile + ": " + eError.toString ());
+        }
+        _addReference (sHash, aBlobFile.length ());
+      }
+      return aBlobFile;
+    }
+    finally
+    {
+      m_aBlobLock.unlock ();
+    }
+  }
+
+  /**
+   * Remove a reference to a blob and delete it, if it was the last reference.
+   */
+  private void _releaseBlob (@Nonnull final String sHash)
+  {
+    m_aBlobLock.lock ();
+    try
+    {
+      final BlobInfo aInfo = m_aBlobs.get (sHash);
+      if (aInfo == null)
+        return;
+
+      aInfo.m_nRefCount--;
+      m_nReferenceCount--;
+      m_nLogicalBytes -= aInfo.m_nSize;
+      if (aInfo.m_nRefCount == 0)
+      {
+        m_aBlobs.remove (sHash);
+        m_nPhysicalBytes -= aInfo.m_nSize;
+        final File aBlobFile = _getBlobFile (sHash);
+        if (FileOperations.deleteFileIfExisting (aBlobFile).isFailure ())
+          s_aLogger.warn ("Failed to delete unreferenced content " + aBlobFile);
+      }
+    }
+    finally
+    {
+      m_aBlobLock.unlock ();
+    }
+  }
+
+  @Override
+  @Nonnull
+  protected IReadableResource persistAttachmentContent (@Nonnull final File aAttachmentBaseDir,
+                                                        @Nonnull final IProcAttachment aAttachment)
+  {
+    final String sHash = _getContentHash (aAttachment);
+    final String sOldHash = _readContentRef (aAttachmentBaseDir);
+    if (sHash.equals (sOldHash))
+    {
+      // Same content persisted again
+      return new FileSystemResource (_getBlobFile (sHash));
+    }
+
+    final File aBlobFile = _acquireBlob (sHash, aAttachment);
+    if (SimpleFileIO.writeFile (new File (aAttachmentBaseDir, FILENAME_CONTENT_REF),
+                                sHash,
+                                CCharset.CHARSET_ISO_8859_1_OBJ).isFailure ())
+    {
+      _releaseBlob (sHash);
+      throw new IllegalStateException ("Failed to write content reference of " + aAttachment);
+    }
+
+    // Content of a previous version of this attachment, either deduplicated or
+    // not
+    if (sOldHash != null)
+      _releaseBlob (sOldHash);
+    FileOperations.deleteFileIfExisting (new File (aAttachmentBaseDir, FILENAME_ATTACHMENT_DAT));
+    return new FileSystemResource (aBlobFile);
+  }
+
+  @Override
+  @Nonnull
+  protected IReadableResource getAttachmentContent (@Nonnull final File aAttachmentBaseDir)
+  {
+    final String sHash = _readContentRef (aAttachmentBaseDir);
+    if (sHash == null)
+    {
+      // Stored without deduplication
+      return super.getAttachmentContent (aAttachmentBaseDir);
+    }
+    return new FileSystemResource (_getBlobFile (sHash));
+  }
+
+  @Override
+  protected void onBeforeAttachmentRemoval (@Nonnull final File aAttachmentBaseDir)
+  {
+    final String sHash = _readContentRef (aAttachmentBaseDir);
+    if (sHash != null)
+      _releaseBlob (sHash);
+  }
+
+  /**
+   * Delete all stored contents that are not referenced by any attachment. This
+   * is only necessary after a crash, as contents are deleted as soon as their
+   * last reference is removed. It is called automatically upon construction.
+   *
+   * @return The number of deleted contents.
+   */
+  @Nonnegative
+  public final int collectGarbage ()
+  {
+    int nDeleted = 0;
+    m_aBlobLock.lock ();
+    try
+    {
+      for (final File aLevel1 : FileSystemIterator.create (m_aBlobDir, FileFilterDirectoryOnly.getInstance ()))
+        for (final File aLevel2 : FileSystemIterator.create (aLevel1, FileFilterDirectoryOnly.getInstance ()))
+          for (final File aBlobFile : FileSystemIterator.create (aLevel2, FileFilterFileOnly.getInstance ()))
+            if (!m_aBlobs.containsKey (aBlobFile.getName ()))
+            {
+              if (FileOperations.deleteFile (aBlobFile).isSuccess ())
+                nDeleted++;
+              else
+                s_aLogger.warn ("Failed to delete unreferenced content " + aBlobFile);
+            }
+    }
+    finally
+    {
+      m_aBlobLock.unlock ();
+    }
+    if (nDeleted > 0)
+      s_aLogger.info ("Deleted " + nDeleted + " unreferenced contents in " + m_aBlobDir);
+    return nDeleted;
+  }
+
+  /**
+   * @return A snapshot of the deduplication statistics. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public final ProcAttachmentDedupStatistics getDedupStatistics ()
+  {
+    m_aBlobLock.lock ();
+    try
+    {
+      return new ProcAttachmentDedupStatistics (m_aBlobs.size (),
+                                                m_nReferenceCount,
+                                                m_nLogicalBytes,
+                                                m_nPhysicalBytes);
+    }
+    finally
+    {
+      m_aBlobLock.unlock ();
+    }
+  }
+}
@@ -18,13 +18,17 @@
 package com.phloc.procurement.attachment;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
@@ -33,6 +37,7 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.annotations.OverrideOnDemand;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.io.EAppend;
@@ -45,7 +50,6 @@ import com.phloc.commons.io.streams.StreamUtils;
 import com.phloc.commons.microdom.IMicroDocument;
 import com.phloc.commons.microdom.IMicroElement;
 import com.phloc.commons.microdom.impl.MicroDocument;
-import com.phloc.commons.microdom.reader.XMLListHandler;
 import com.phloc.commons.microdom.serialize.MicroReader;
 import com.phloc.commons.microdom.serialize.MicroWriter;
 import com.phloc.commons.mime.IMimeType;
@@ -56,7 +60,10 @@ import com.phloc.commons.string.StringParser;
 import com.phloc.datetime.PDTFactory;
 
 /**
- * Abstract class for a file-based attachment storage handler.
+ * Abstract class for a file-based attachment storage handler. The attachment
+ * directories are laid out according to {@link ProcAttachmentShardedLayout}.
+ * Attachments stored in the old flat layout are still found, but should be
+ * moved with {@link ProcAttachmentStorageMigration}.
  * 
  * @author Philip Helger
  */
@@ -64,83 +71,299 @@ import com.phloc.datetime.PDTFactory;
 public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implements IProcAttachmentStorageHandlerSPI
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractProcAttachmentFileBasedStorageHandlerSPI.class);
-  private static final String FILENAME_ATTACHMENT_DAT = "attachment.dat";
-  private static final String FILENAME_METADATA_XML = "metadata.xml";
+  static final String FILENAME_ATTACHMENT_DAT = "attachment.dat";
+  static final String FILENAME_METADATA_XML = "metadata.xml";
+  private static final String FILENAME_TOC_XML = "toc.xml";
+  private static final String FILENAME_TOC_JOURNAL = "toc.journal";
   private static final String ATTR_ID = "id";
   private static final String ATTR_UPLOADDT = "uploaddt";
   private static final String ELEMENT_TITLE = "title";
   private static final String ELEMENT_MIMETYPE = "mimetype";
+  /** The number of lock stripes. Must be a power of 2. */
+  private static final int LOCK_STRIPES = 64;
 
-  private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock ();
+  /**
+   * The locks guarding the attachment directories and the cache. The lock of
+   * an attachment is determined by its ID.
+   */
+  private final Lock [] m_aStripes = new Lock [LOCK_STRIPES];
+  /** The lock guarding all modifications of the TOC and the journal */
+  private final Lock m_aTOCLock = new ReentrantLock ();
+  /** The lock ensuring that only one TOC compaction runs at a time */
+  private final Lock m_aCompactionLock = new ReentrantLock ();
   /** The base directory */
   private final File m_aBaseDir;
-  /** The table of content files */
-  private final File m_aTOCFile;
+  /** The journal with the changes since the last TOC compaction */
+  private final ProcAttachmentTOCJournal m_aTOCJournal;
   /**
-   * The set with all attachment IDs. Independent of loaded state. Sorted for
-   * consistent storage.
+   * The set with all attachment IDs. Independent of loaded state. May be read
+   * without lock but is only modified with the TOC lock held.
    */
-  private final Set <String> m_aAttachments = new TreeSet <String> ();
+  private final Set <String> m_aAttachments = Collections.newSetFromMap (new ConcurrentHashMap <String, Boolean> ());
   /** The cache with the already resolved attachments from disk. */
-  private final Map <String, IProcAttachment> m_aCache = new HashMap <String, IProcAttachment> ();
+  private final ProcAttachmentCache m_aCache;
 
   /**
-   * Constructor.
+   * Constructor using the default cache bounds.
    * 
    * @param aBaseDir
    *        The base directory where the attachments should be handled.
    */
   public AbstractProcAttachmentFileBasedStorageHandlerSPI (@Nonnull final File aBaseDir)
+  {
+    this (aBaseDir, ProcAttachmentCache.DEFAULT_MAX_ENTRY_COUNT, ProcAttachmentCache.DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param aBaseDir
+   *        The base directory where the attachments should be handled.
+   * @param nMaxCacheEntryCount
+   *        The maximum number of resolved attachments to be cached. 0 disables
+   *        caching.
+   * @param nMaxCacheWeight
+   *        The maximum estimated size of all cached attachments in bytes. 0
+   *        disables caching.
+   */
+  public AbstractProcAttachmentFileBasedStorageHandlerSPI (@Nonnull final File aBaseDir,
+                                                           @Nonnegative final int nMaxCacheEntryCount,
+                                                           @Nonnegative final long nMaxCacheWeight)
   {
     if (aBaseDir == null)
       throw new NullPointerException ("baseDir");
     if (!aBaseDir.exists () || !aBaseDir.isDirectory ())
       throw new IllegalArgumentException (aBaseDir + " is not an existing directory");
     m_aBaseDir = aBaseDir;
-    m_aTOCFile = new File (m_aBaseDir, "toc.xml");
+    m_aCache = new ProcAttachmentCache (nMaxCacheEntryCount, nMaxCacheWeight);
+    for (int i = 0; i < LOCK_STRIPES; ++i)
+      m_aStripes[i] = new ReentrantLock ();
+    m_aTOCJournal = new ProcAttachmentTOCJournal (new File (m_aBaseDir, FILENAME_TOC_XML),
+                                                  new File (m_aBaseDir, FILENAME_TOC_JOURNAL));
+
+    // Read the table of contents and apply all changes since the last
+    // compaction
+    m_aTOCJournal.replay (m_aAttachments);
+    if (m_aTOCJournal.getJournalEntryCount () > 0)
+      compactTOC ();
+  }
 
-    // Read the table of contents
-    if (m_aTOCFile.exists ())
-      if (XMLListHandler.readList (new FileSystemResource (m_aTOCFile), m_aAttachments).isFailure ())
-        s_aLogger.error ("Failed to read TOC file " + m_aTOCFile);
+  /**
+   * @return The base directory of this storage.
+   */
+  @Nonnull
+  protected final File getBaseDirectory ()
+  {
+    return m_aBaseDir;
   }
 
   @Nonnull
-  @ReturnsMutableCopy
-  public final Set <String> getAllAttachmentIDs ()
+  private Lock _getLock (@Nonnull final String sAttachmentID)
+  {
+    return m_aStripes[ProcAttachmentShardedLayout.getShardHash (sAttachmentID) & (LOCK_STRIPES - 1)];
+  }
+
+  /**
+   * Get the directory of an existing attachment. Falls back to the flat layout
+   * for attachments that were not yet migrated.
+   * 
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return The attachment directory. Never <code>null</code>.
+   */
+  @Nonnull
+  protected final File getExistingAttachmentDirectory (@Nonnull final String sAttachmentID)
   {
-    m_aRWLock.readLock ().lock ();
+    final File aDir = ProcAttachmentShardedLayout.getAttachmentDirectory (m_aBaseDir, sAttachmentID);
+    if (!aDir.exists ())
+    {
+      final File aLegacyDir = ProcAttachmentShardedLayout.getLegacyAttachmentDirectory (m_aBaseDir, sAttachmentID);
+      if (aLegacyDir.exists ())
+        return aLegacyDir;
+    }
+    return aDir;
+  }
+
+  /**
+   * Must be called with the compaction lock held. The TOC lock is only held
+   * while taking the snapshot and rotating the journal, so that storing
+   * attachments is not blocked while the TOC file is written. The TOC is sorted
+   * for consistent storage.
+   */
+  private void _compactTOC ()
+  {
+    final Set <String> aSnapshot;
+    m_aTOCLock.lock ();
     try
     {
-      return ContainerHelper.newSet (m_aAttachments);
+      aSnapshot = new TreeSet <String> (m_aAttachments);
+      m_aTOCJournal.rotate ();
     }
     finally
     {
-      m_aRWLock.readLock ().unlock ();
+      m_aTOCLock.unlock ();
     }
+    m_aTOCJournal.writeTOC (aSnapshot);
   }
 
-  public final boolean containsAttachmentOfID (@Nullable final String sAttachmentID)
+  /**
+   * Merge all changes recorded in the TOC journal into the TOC file, e.g.
+   * before a backup. Storing attachments is only blocked while the journal is
+   * rotated.
+   * 
+   * @see #scheduleTOCCompaction(ScheduledExecutorService, long, TimeUnit)
+   */
+  public final void compactTOC ()
   {
-    // TreeSet cannot cope with null keys!
-    if (StringHelper.hasNoText (sAttachmentID))
-      return false;
+    m_aCompactionLock.lock ();
+    try
+    {
+      _compactTOC ();
+    }
+    finally
+    {
+      m_aCompactionLock.unlock ();
+    }
+  }
+
+  /**
+   * Compact the TOC if the journal grew larger than the TOC itself, so that
+   * the amortized costs of a change stay constant.
+   * 
+   * @return {@link EChange#CHANGED} if the TOC was compacted.
+   */
+  @Nonnull
+  public final EChange compactTOCIfNeeded ()
+  {
+    m_aCompactionLock.lock ();
+    try
+    {
+      if (!m_aTOCJournal.isCompactionNeeded (m_aAttachments.size (),
+                                             ProcAttachmentTOCJournal.DEFAULT_MIN_COMPACTION_ENTRIES))
+        return EChange.UNCHANGED;
+      _compactTOC ();
+      return EChange.CHANGED;
+    }
+    finally
+    {
+      m_aCompactionLock.unlock ();
+    }
+  }
+
+  /**
+   * Regularly check in the background whether the TOC needs compaction.
+   * Without this, the TOC journal is only compacted upon construction, upon
+   * {@link #close()} and upon explicit calls to {@link #compactTOC()}.
+   * 
+   * @param aExecutor
+   *        The executor to use. May not be <code>null</code>.
+   * @param nDelay
+   *        The delay between the end of one check and the start of the next.
+   * @param eUnit
+   *        The time unit of the delay. May not be <code>null</code>.
+   * @return The future that can be used to cancel the scheduled checks.
+   */
+  @Nonnull
+  public final ScheduledFuture <?> scheduleTOCCompaction (@Nonnull final ScheduledExecutorService aExecutor,
+                                                          @Nonnegative final long nDelay,
+                                                          @Nonnull final TimeUnit eUnit)
+  {
+    if (aExecutor == null)
+      throw new NullPointerException ("executor");
+    return aExecutor.scheduleWithFixedDelay (new Runnable ()
+    {
+      public void run ()
+      {
+        try
+        {
+          compactTOCIfNeeded ();
+        }
+        catch (final RuntimeException ex)
+        {
+          // Don't cancel subsequent runs - the journal stays valid
+          s_aLogger.error ("Failed to compact the TOC of " + m_aBaseDir, ex);
+        }
+      }
+    }, nDelay, nDelay, eUnit);
+  }
 
-    m_aRWLock.readLock ().lock ();
+  /**
+   * Compact the TOC and close the TOC journal. Afterwards no more attachments
+   * can be persisted or removed.
+   */
+  public final void close ()
+  {
+    m_aCompactionLock.lock ();
     try
     {
-      return m_aAttachments.contains (sAttachmentID);
+      if (m_aTOCJournal.getJournalEntryCount () > 0)
+        _compactTOC ();
+      m_aTOCLock.lock ();
+      try
+      {
+        m_aTOCJournal.close ();
+      }
+      finally
+      {
+        m_aTOCLock.unlock ();
+      }
     }
     finally
     {
-      m_aRWLock.readLock ().unlock ();
+      m_aCompactionLock.unlock ();
     }
   }
 
+  /**
+   * Modify the TOC and record the change in the journal.
+   *
+   * @return The journal sequence number to be synced after all locks were
+   *         released.
+   */
+  private long _changeTOC (final boolean bAdd, @Nonnull final String sAttachmentID)
+  {
+    m_aTOCLock.lock ();
+    try
+    {
+      if (bAdd)
+        m_aAttachments.add (sAttachmentID);
+      else
+        m_aAttachments.remove (sAttachmentID);
+      // Compaction happens in the background
+      return m_aTOCJournal.append (bAdd, sAttachmentID);
+    }
+    finally
+    {
+      m_aTOCLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  public final ProcAttachmentCacheStatistics getCacheStatistics ()
+  {
+    return m_aCache.getStatistics ();
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public final Set <String> getAllAttachmentIDs ()
+  {
+    return ContainerHelper.newSet (m_aAttachments);
+  }
+
+  public final boolean containsAttachmentOfID (@Nullable final String sAttachmentID)
+  {
+    // ConcurrentHashMap cannot cope with null keys!
+    if (StringHelper.hasNoText (sAttachmentID))
+      return false;
+
+    return m_aAttachments.contains (sAttachmentID);
+  }
+
   @Nonnull
   private IProcAttachment _readAttachment (@Nonnull final String sAttachmentID)
   {
-    final File aBaseDir = new File (m_aBaseDir, sAttachmentID);
+    final File aBaseDir = getExistingAttachmentDirectory (sAttachmentID);
     final IMicroDocument aMetaData = MicroReader.readMicroXML (new FileSystemResource (aBaseDir, FILENAME_METADATA_XML));
     if (aMetaData == null)
       throw new IllegalStateException ("MetaData of " + aBaseDir + " could not be read");
@@ -158,36 +381,70 @@ public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implement
                                        eTitle.getTextContent (),
                                        aMimeType,
                                        aUploadDT,
-                                       new FileSystemResource (aBaseDir, FILENAME_ATTACHMENT_DAT));
+                                       getAttachmentContent (aBaseDir));
+  }
+
+  /**
+   * Get the content of a stored attachment.
+   * 
+   * @param aAttachmentBaseDir
+   *        The attachment directory
+   * @return The resource referencing the stored attachment data
+   */
+  @Nonnull
+  @OverrideOnDemand
+  protected IReadableResource getAttachmentContent (@Nonnull final File aAttachmentBaseDir)
+  {
+    return new FileSystemResource (aAttachmentBaseDir, FILENAME_ATTACHMENT_DAT);
   }
 
+  /**
+   * Called before the directory of an attachment is deleted. This includes the
+   * directory in the flat layout, when an attachment that was not yet migrated
+   * is stored again. Called with the lock of the attachment held.
+   * 
+   * @param aAttachmentBaseDir
+   *        The attachment directory
+   */
+  @OverrideOnDemand
+  protected void onBeforeAttachmentRemoval (@Nonnull final File aAttachmentBaseDir)
+  {}
+
   @Nullable
   public final IProcAttachment getAttachmentOfID (@Nullable final String sAttachmentID)
   {
     if (!containsAttachmentOfID (sAttachmentID))
       return null;
 
-    m_aRWLock.writeLock ().lock ();
+    // Already resolved the attachment?
+    IProcAttachment ret = m_aCache.get (sAttachmentID);
+    if (ret != null)
+      return ret;
+
+    final Lock aLock = _getLock (sAttachmentID);
+    aLock.lock ();
     try
     {
-      // Already resolved the attachment?
-      IProcAttachment ret = m_aCache.get (sAttachmentID);
-      if (ret == null)
+      // Check again, as another thread may have resolved or removed it in the
+      // meantime
+      ret = m_aCache.peek (sAttachmentID);
+      if (ret == null && m_aAttachments.contains (sAttachmentID))
       {
         // Not yet cached -> read and put in cache
         ret = _readAttachment (sAttachmentID);
-        m_aCache.put (sAttachmentID, ret);
+        m_aCache.put (ret);
       }
       return ret;
     }
     finally
     {
-      m_aRWLock.writeLock ().unlock ();
+      aLock.unlock ();
     }
   }
 
   /**
-   * Write the attachment content to disk
+   * Write the attachment content to disk. Called with the lock of the
+   * attachment held.
    * 
    * @param aAttachmentBaseDir
    *        The attachment directory
@@ -196,8 +453,9 @@ public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implement
    * @return The resource referencing the stored attachment date
    */
   @Nonnull
-  private static IReadableResource _persistAttachmentContent (@Nonnull final File aAttachmentBaseDir,
-                                                              @Nonnull final IProcAttachment aAttachment)
+  @OverrideOnDemand
+  protected IReadableResource persistAttachmentContent (@Nonnull final File aAttachmentBaseDir,
+                                                        @Nonnull final IProcAttachment aAttachment)
   {
     // Determine the destination file
     final File aFile = new File (aAttachmentBaseDir, FILENAME_ATTACHMENT_DAT);
@@ -244,40 +502,58 @@ public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implement
     if (aAttachment == null)
       throw new NullPointerException ("attachment");
 
-    m_aRWLock.writeLock ().lock ();
+    final String sAttachmentID = aAttachment.getID ();
+    final IProcAttachment ret;
+    final long nSeq;
+    final Lock aLock = _getLock (sAttachmentID);
+    aLock.lock ();
     try
     {
       // Small hint on double storage of attachments!
       if (aAttachment.isPersisted ())
         s_aLogger.warn ("Passed attachment is already persisted: " + aAttachment);
 
-      final String sAttachmentID = aAttachment.getID ();
-      final File aAttachmentBaseDir = new File (m_aBaseDir, sAttachmentID);
-      final FileIOError eError = FileOperations.createDir (aAttachmentBaseDir);
+      final File aAttachmentBaseDir = ProcAttachmentShardedLayout.getAttachmentDirectory (m_aBaseDir, sAttachmentID);
+      final File aExistingDir = getExistingAttachmentDirectory (sAttachmentID);
+      FileIOError eError = FileOperations.createDirRecursiveIfNotExisting (aAttachmentBaseDir);
       if (eError.isFailure ())
         throw new IllegalStateException ("Failed to create directory " + aAttachmentBaseDir + ": " + eError.toString ());
 
       // Persist the main items
-      final IReadableResource aContentRes = _persistAttachmentContent (aAttachmentBaseDir, aAttachment);
+      final IReadableResource aContentRes = persistAttachmentContent (aAttachmentBaseDir, aAttachment);
       _persistAttachmentMetaData (aAttachmentBaseDir, aAttachment);
 
-      // Add to TOC and persist
-      m_aAttachments.add (sAttachmentID);
-      XMLListHandler.writeList (m_aAttachments, FileUtils.getOutputStream (m_aTOCFile));
+      // Don't leave an outdated copy in the flat layout. If it was the current
+      // version, it is removed like any other attachment directory.
+      final File aLegacyDir = ProcAttachmentShardedLayout.getLegacyAttachmentDirectory (m_aBaseDir, sAttachmentID);
+      if (aLegacyDir.equals (aExistingDir))
+        onBeforeAttachmentRemoval (aLegacyDir);
+      eError = FileOperations.deleteDirRecursiveIfExisting (aLegacyDir);
+      if (eError.isFailure ())
+        s_aLogger.warn ("Failed to delete outdated directory " + aLegacyDir + ": " + eError.toString ());
+      m_aCache.remove (sAttachmentID);
+
+      // Add to TOC and append to the journal
+      nSeq = _changeTOC (true, sAttachmentID);
 
       s_aLogger.info ("Stored attachment " + sAttachmentID);
 
       // Return the link to the persisted resource
-      return new ProcResourceAttachment (aAttachment.getID (),
-                                         aAttachment.getTitle (),
-                                         aAttachment.getMIMEType (),
-                                         PDTFactory.getCurrentDateTime (),
-                                         aContentRes);
+      ret = new ProcResourceAttachment (aAttachment.getID (),
+                                        aAttachment.getTitle (),
+                                        aAttachment.getMIMEType (),
+                                        PDTFactory.getCurrentDateTime (),
+                                        aContentRes);
     }
     finally
     {
-      m_aRWLock.writeLock ().unlock ();
+      aLock.unlock ();
     }
+
+    // Force the journal to disk outside of the lock, so that concurrent
+    // uploads share a single fsync
+    m_aTOCJournal.sync (nSeq);
+    return ret;
   }
 
   @Nonnull
@@ -286,11 +562,18 @@ public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implement
     if (!containsAttachmentOfID (sAttachmentID))
       return EChange.UNCHANGED;
 
-    m_aRWLock.writeLock ().lock ();
+    final long nSeq;
+    final Lock aLock = _getLock (sAttachmentID);
+    aLock.lock ();
     try
     {
+      // Removed concurrently?
+      if (!m_aAttachments.contains (sAttachmentID))
+        return EChange.UNCHANGED;
+
       // Simply delete the whole attachment directory
-      final File aAttachmentBaseDir = new File (m_aBaseDir, sAttachmentID);
+      final File aAttachmentBaseDir = getExistingAttachmentDirectory (sAttachmentID);
+      onBeforeAttachmentRemoval (aAttachmentBaseDir);
       final FileIOError eError = FileOperations.deleteDirRecursive (aAttachmentBaseDir);
       if (eError.isFailure ())
         throw new IllegalStateException ("Failed to deleted directory " +
@@ -298,17 +581,18 @@ public abstract class AbstractProcAttachmentFileBasedStorageHandlerSPI implement
                                          ": " +
                                          eError.toString ());
 
-      // Remove from TOC and persist TOC
-      m_aAttachments.remove (sAttachmentID);
-      XMLListHandler.writeList (m_aAttachments, FileUtils.getOutputStream (m_aTOCFile));
+      // Remove from TOC and append to the journal
+      m_aCache.remove (sAttachmentID);
+      nSeq = _changeTOC (false, sAttachmentID);
 
       s_aLogger.info ("Removed attachment " + sAttachmentID);
-
-      return EChange.CHANGED;
     }
     finally
     {
-      m_aRWLock.writeLock ().unlock ();
+      aLock.unlock ();
     }
+
+    m_aTOCJournal.sync (nSeq);
+    return EChange.CHANGED;
   }
 }
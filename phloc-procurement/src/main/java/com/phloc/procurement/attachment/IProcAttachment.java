@@ -17,13 +17,17 @@
  */
 package com.phloc.procurement.attachment;
 
+import java.io.Writer;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
 
 import com.phloc.commons.annotations.Nonempty;
 import com.phloc.commons.id.IHasID;
 import com.phloc.commons.io.IInputStreamProvider;
 import com.phloc.commons.mime.IMimeType;
+import com.phloc.commons.state.ESuccess;
 
 /**
  * Describes a single attachment to a procurement document.
@@ -56,4 +60,15 @@ public interface IProcAttachment extends IInputStreamProvider, IHasID <String>
    */
   @Nonnull
   String getBase64Encoded ();
+
+  /**
+   * Write the base64 encoded version of this attachment's data to the passed
+   * writer, without holding the whole encoded data in memory.
+   * 
+   * @param aWriter
+   *        The writer to write to. May not be <code>null</code>. Is not closed.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  ESuccess writeBase64Encoded (@Nonnull @WillNotClose Writer aWriter);
 }
@@ -83,4 +83,11 @@ public interface IProcAttachmentStorageHandlerSPI
    */
   @Nonnull
   EChange removeAttachment (@Nullable String sAttachmentID);
+
+  /**
+   * @return A snapshot of the statistics of the cache of resolved attachments,
+   *         or <code>null</code> if this storage handler does not cache.
+   */
+  @Nullable
+  ProcAttachmentCacheStatistics getCacheStatistics ();
 }
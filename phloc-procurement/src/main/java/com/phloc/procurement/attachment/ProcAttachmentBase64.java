@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillClose;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.base64.Base64;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.state.ESuccess;
+
+/**
+ * Streaming Base64 handling for attachment data, so that large attachments
+ * never need to be held in memory completely.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcAttachmentBase64
+{
+  /**
+   * The number of bytes encoded at once. Must be a multiple of 3, so that only
+   * the last chunk is padded.
+   */
+  private static final int CHUNK_SIZE = 3 * 16 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcAttachmentBase64.class);
+
+  /**
+   * An input stream on the characters of a Base64 encoded text. As Base64 only
+   * uses ASCII characters, each character is a single byte.
+   */
+  private static final class ASCIIInputStream extends InputStream
+  {
+    private final CharSequence m_aText;
+    private int m_nPos = 0;
+
+    ASCIIInputStream (@Nonnull final CharSequence aText)
+    {
+      m_aText = aText;
+    }
+
+    @Override
+    public int read ()
+    {
+      return m_nPos < m_aText.length () ? m_aText.charAt (m_nPos++) & 0xff : -1;
+    }
+
+    @Override
+    public int read (final byte [] aBuf, final int nOfs, final int nLen)
+    {
+      if (m_nPos >= m_aText.length ())
+        return -1;
+      final int nCount = Math.min (nLen, m_aText.length () - m_nPos);
+      for (int i = 0; i < nCount; ++i)
+        aBuf[nOfs + i] = (byte) m_aText.charAt (m_nPos++);
+      return nCount;
+    }
+  }
+
+  private ProcAttachmentBase64 ()
+  {
+    // never instantiate
+  }
+
+  /**
+   * Base64 encode the content of the passed input stream chunk by chunk and
+   * write it to the passed writer.
+   *
+   * @param aIS
+   *        The input stream to read from. May be <code>null</code>. Is closed
+   *        afterwards.
+   * @param aWriter
+   *        The writer to write the Base64 encoded data to. May not be
+   *        <code>null</code>. Is not closed.
+   * @return {@link ESuccess#FAILURE} if the input stream is <code>null</code>
+   *         or reading or writing failed.
+   */
+  @Nonnull
+  public static ESuccess writeBase64Encoded (@Nullable @WillClose final InputStream aIS,
+                                             @Nonnull @WillNotClose final Writer aWriter)
+  {
+    if (aWriter == null)
+      throw new NullPointerException ("writer");
+    if (aIS == null)
+      return ESuccess.FAILURE;
+
+    try
+    {
+      final byte [] aBuffer = new byte [CHUNK_SIZE];
+      int nFilled;
+      do
+      {
+        // Fill the buffer completely, as only the last chunk may be padded
+        nFilled = 0;
+        int nRead;
+        while (nFilled < aBuffer.length && (nRead = aIS.read (aBuffer, nFilled, aBuffer.length - nFilled)) > -1)
+          nFilled += nRead;
+        if (nFilled > 0)
+          aWriter.write (Base64.encodeBytes (aBuffer, 0, nFilled));
+      } while (nFilled == aBuffer.length);
+      return ESuccess.SUCCESS;
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to Base64 encode attachment data", ex);
+      return ESuccess.FAILURE;
+    }
+    finally
+    {
+      StreamUtils.close (aIS);
+    }
+  }
+
+  /**
+   * Get an input stream that decodes the passed Base64 encoded text on the fly.
+   * Whitespaces are ignored. Illegal characters are reported as
+   * {@link IOException} when reading.
+   *
+   * @param aBase64
+   *        The Base64 encoded text. May not be <code>null</code>.
+   * @return The input stream with the decoded data. Never <code>null</code>.
+   */
+  @Nonnull
+  public static InputStream getDecodingInputStream (@Nonnull final CharSequence aBase64)
+  {
+    if (aBase64 == null)
+      throw new NullPointerException ("base64");
+    return new Base64.InputStream (new ASCIIInputStream (aBase64), Base64.DECODE);
+  }
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.string.StringHelper;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A bounded cache for resolved attachments with least-recently-used eviction.
+ * Both the number of entries and their estimated total size are bounded. To
+ * keep contention low, the cache is split into independently locked segments,
+ * each holding an equal share of the bounds. Therefore the eviction order is
+ * only LRU within a segment.<br>
+ * Lookups never lock: they read from a concurrent map and record the access in
+ * a small buffer of the segment. The buffer is applied to the LRU order under
+ * the segment lock before each modification, or by a lookup that finds the
+ * buffer half full and the lock free. Accesses are dropped while the buffer is
+ * full, so under heavy load the eviction order is only approximately LRU.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcAttachmentCache
+{
+  /** The default maximum number of cached attachments */
+  public static final int DEFAULT_MAX_ENTRY_COUNT = 10000;
+  /** The default maximum estimated size of all cached attachments */
+  public static final long DEFAULT_MAX_WEIGHT = 16L * CGlobal.BYTES_PER_MEGABYTE;
+
+  private static final int MAX_SEGMENTS = 16;
+  /** Estimated bytes per entry independent of the attachment */
+  private static final int ENTRY_OVERHEAD = 256;
+  /** The maximum number of buffered accesses per segment */
+  private static final int ACCESS_BUFFER_SIZE = 128;
+
+  private static final class Entry
+  {
+    private final IProcAttachment m_aAttachment;
+    private final int m_nWeight;
+
+    Entry (@Nonnull final IProcAttachment aAttachment, @Nonnegative final int nWeight)
+    {
+      m_aAttachment = aAttachment;
+      m_nWeight = nWeight;
+    }
+  }
+
+  private static final class Segment
+  {
+    private final Lock m_aLock = new ReentrantLock ();
+    // For lookups without locking. Only modified with the lock held.
+    private final Map <String, Entry> m_aMap = new ConcurrentHashMap <String, Entry> ();
+    // Access order for LRU. Guarded by the lock.
+    private final LinkedHashMap <String, Entry> m_aLRU = new LinkedHashMap <String, Entry> (16, 0.75f, true);
+    private final ConcurrentLinkedQueue <String> m_aAccessBuffer = new ConcurrentLinkedQueue <String> ();
+    private final AtomicInteger m_aAccessBufferSize = new AtomicInteger (0);
+    // Guarded by the lock
+    private long m_nWeight = 0;
+  }
+
+  private final int m_nMaxEntryCount;
+  private final long m_nMaxWeight;
+  private final Segment [] m_aSegments;
+  private final int m_nMaxSegmentEntryCount;
+  private final long m_nMaxSegmentWeight;
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aEvictions = new AtomicLong (0);
+
+  public ProcAttachmentCache ()
+  {
+    this (DEFAULT_MAX_ENTRY_COUNT, DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param nMaxEntryCount
+   *        The maximum number of cached attachments. 0 disables caching.
+   * @param nMaxWeight
+   *        The maximum estimated size of all cached attachments in bytes. 0
+   *        disables caching.
+   */
+  public ProcAttachmentCache (@Nonnegative final int nMaxEntryCount, @Nonnegative final long nMaxWeight)
+  {
+    if (nMaxEntryCount < 0)
+      throw new IllegalArgumentException ("Illegal max entry count " + nMaxEntryCount);
+    if (nMaxWeight < 0)
+      throw new IllegalArgumentException ("Illegal max weight " + nMaxWeight);
+    m_nMaxEntryCount = nMaxEntryCount;
+    m_nMaxWeight = nMaxWeight;
+
+    // Use a power of 2 segments, but never more segments than entries
+    int nSegments = 1;
+    while (nSegments * 2 <= Math.min (MAX_SEGMENTS, nMaxEntryCount))
+      nSegments *= 2;
+    m_aSegments = new Segment [nSegments];
+    for (int i = 0; i < nSegments; ++i)
+      m_aSegments[i] = new Segment ();
+    m_nMaxSegmentEntryCount = nMaxEntryCount / nSegments;
+    m_nMaxSegmentWeight = nMaxWeight / nSegments;
+  }
+
+  /**
+   * Estimate the memory occupied by a cached attachment. Only the meta data is
+   * considered, as the content itself is not held in memory.
+   *
+   * @param aAttachment
+   *        The attachment to be weighed. May not be <code>null</code>.
+   * @return The estimated number of bytes.
+   */
+  @Nonnegative
+  static int getEstimatedWeight (@Nonnull final IProcAttachment aAttachment)
+  {
+    return ENTRY_OVERHEAD +
+           2 *
+           (StringHelper.getLength (aAttachment.getID ()) + StringHelper.getLength (aAttachment.getTitle ()));
+  }
+
+  @Nonnull
+  private Segment _getSegment (@Nonnull final String sAttachmentID)
+  {
+    // Use other bits than the lock stripes of the storage handler
+    return m_aSegments[(ProcAttachmentShardedLayout.getShardHash (sAttachmentID) >>> 16) & (m_aSegments.length - 1)];
+  }
+
+  /**
+   * Apply all buffered accesses to the LRU order. Must be called with the
+   * segment lock held.
+   */
+  private static void _drainAccessBuffer (@Nonnull final Segment aSegment)
+  {
+    String sAttachmentID;
+    while ((sAttachmentID = aSegment.m_aAccessBuffer.poll ()) != null)
+    {
+      aSegment.m_aAccessBufferSize.decrementAndGet ();
+      // Moves the entry to the end of the access order, if it is still present
+      aSegment.m_aLRU.get (sAttachmentID);
+    }
+  }
+
+  private static void _recordAccess (@Nonnull final Segment aSegment, @Nonnull final String sAttachmentID)
+  {
+    final int nSize = aSegment.m_aAccessBufferSize.incrementAndGet ();
+    if (nSize > ACCESS_BUFFER_SIZE)
+    {
+      // Buffer is full - drop this access
+      aSegment.m_aAccessBufferSize.decrementAndGet ();
+    }
+    else
+      aSegment.m_aAccessBuffer.offer (sAttachmentID);
+
+    // Drain only if nobody else holds the lock, so that lookups never block
+    if (nSize >= ACCESS_BUFFER_SIZE / 2 && aSegment.m_aLock.tryLock ())
+    {
+      try
+      {
+        _drainAccessBuffer (aSegment);
+      }
+      finally
+      {
+        aSegment.m_aLock.unlock ();
+      }
+    }
+  }
+
+  @Nullable
+  private IProcAttachment _get (@Nonnull final String sAttachmentID)
+  {
+    final Segment aSegment = _getSegment (sAttachmentID);
+    final Entry aEntry = aSegment.m_aMap.get (sAttachmentID);
+    if (aEntry == null)
+      return null;
+    _recordAccess (aSegment, sAttachmentID);
+    return aEntry.m_aAttachment;
+  }
+
+  /**
+   * Get the cached attachment and record a hit or a miss.
+   *
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return <code>null</code> if the attachment is not cached.
+   */
+  @Nullable
+  public IProcAttachment get (@Nonnull final String sAttachmentID)
+  {
+    final IProcAttachment ret = _get (sAttachmentID);
+    if (ret != null)
+      m_aHits.incrementAndGet ();
+    else
+      m_aMisses.incrementAndGet ();
+    return ret;
+  }
+
+  /**
+   * Get the cached attachment without recording a hit or a miss. Use this for
+   * repeated checks of the same lookup.
+   *
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return <code>null</code> if the attachment is not cached.
+   */
+  @Nullable
+  public IProcAttachment peek (@Nonnull final String sAttachmentID)
+  {
+    return _get (sAttachmentID);
+  }
+
+  private static void _remove (@Nonnull final Segment aSegment, @Nonnull final String sAttachmentID)
+  {
+    final Entry aOld = aSegment.m_aLRU.remove (sAttachmentID);
+    if (aOld != null)
+    {
+      aSegment.m_aMap.remove (sAttachmentID);
+      aSegment.m_nWeight -= aOld.m_nWeight;
+    }
+  }
+
+  /**
+   * Add an attachment to the cache, evicting the least recently used
+   * attachments of the same segment if a bound is exceeded. Attachments that
+   * exceed the weight of a whole segment on their own are not cached.
+   *
+   * @param aAttachment
+   *        The attachment to be cached. May not be <code>null</code>.
+   */
+  public void put (@Nonnull final IProcAttachment aAttachment)
+  {
+    final String sAttachmentID = aAttachment.getID ();
+    final int nWeight = getEstimatedWeight (aAttachment);
+    final Segment aSegment = _getSegment (sAttachmentID);
+    aSegment.m_aLock.lock ();
+    try
+    {
+      _drainAccessBuffer (aSegment);
+      _remove (aSegment, sAttachmentID);
+      if (m_nMaxSegmentEntryCount == 0 || nWeight > m_nMaxSegmentWeight)
+        return;
+
+      final Entry aEntry = new Entry (aAttachment, nWeight);
+      aSegment.m_aLRU.put (sAttachmentID, aEntry);
+      aSegment.m_aMap.put (sAttachmentID, aEntry);
+      aSegment.m_nWeight += nWeight;
+
+      // Evict least recently used entries
+      final Iterator <Map.Entry <String, Entry>> it = aSegment.m_aLRU.entrySet ().iterator ();
+      while (aSegment.m_aLRU.size () > m_nMaxSegmentEntryCount || aSegment.m_nWeight > m_nMaxSegmentWeight)
+      {
+        final Map.Entry <String, Entry> aEvicted = it.next ();
+        it.remove ();
+        aSegment.m_aMap.remove (aEvicted.getKey ());
+        aSegment.m_nWeight -= aEvicted.getValue ().m_nWeight;
+        m_aEvictions.incrementAndGet ();
+      }
+    }
+    finally
+    {
+      aSegment.m_aLock.unlock ();
+    }
+  }
+
+  public void remove (@Nonnull final String sAttachmentID)
+  {
+    final Segment aSegment = _getSegment (sAttachmentID);
+    aSegment.m_aLock.lock ();
+    try
+    {
+      _remove (aSegment, sAttachmentID);
+    }
+    finally
+    {
+      aSegment.m_aLock.unlock ();
+    }
+  }
+
+  public void clear ()
+  {
+    for (final Segment aSegment : m_aSegments)
+    {
+      aSegment.m_aLock.lock ();
+      try
+      {
+        aSegment.m_aLRU.clear ();
+        aSegment.m_aMap.clear ();
+        aSegment.m_nWeight = 0;
+      }
+      finally
+      {
+        aSegment.m_aLock.unlock ();
+      }
+    }
+  }
+
+  @Nonnegative
+  public int getMaxEntryCount ()
+  {
+    return m_nMaxEntryCount;
+  }
+
+  @Nonnegative
+  public long getMaxWeight ()
+  {
+    return m_nMaxWeight;
+  }
+
+  /**
+   * @return A snapshot of the current statistics. Never <code>null</code>.
+   */
+  @Nonnull
+  public ProcAttachmentCacheStatistics getStatistics ()
+  {
+    int nEntryCount = 0;
+    long nWeight = 0;
+    for (final Segment aSegment : m_aSegments)
+    {
+      aSegment.m_aLock.lock ();
+      try
+      {
+        nEntryCount += aSegment.m_aLRU.size ();
+        nWeight += aSegment.m_nWeight;
+      }
+      finally
+      {
+        aSegment.m_aLock.unlock ();
+      }
+    }
+    return new ProcAttachmentCacheStatistics (m_aHits.get (),
+                                              m_aMisses.get (),
+                                              m_aEvictions.get (),
+                                              nEntryCount,
+                                              nWeight,
+                                              m_nMaxEntryCount,
+                                              m_nMaxWeight);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("maxEntryCount", m_nMaxEntryCount)
+                                       .append ("maxWeight", m_nMaxWeight)
+                                       .append ("segments", m_aSegments.length)
+                                       .toString ();
+  }
+}
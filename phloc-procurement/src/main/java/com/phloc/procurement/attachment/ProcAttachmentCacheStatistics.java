@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A snapshot of the statistics of a {@link ProcAttachmentCache}.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcAttachmentCacheStatistics
+{
+  private final long m_nHits;
+  private final long m_nMisses;
+  private final long m_nEvictions;
+  private final int m_nEntryCount;
+  private final long m_nWeight;
+  private final int m_nMaxEntryCount;
+  private final long m_nMaxWeight;
+
+  public ProcAttachmentCacheStatistics (@Nonnegative final long nHits,
+                                        @Nonnegative final long nMisses,
+                                        @Nonnegative final long nEvictions,
+                                        @Nonnegative final int nEntryCount,
+                                        @Nonnegative final long nWeight,
+                                        @Nonnegative final int nMaxEntryCount,
+                                        @Nonnegative final long nMaxWeight)
+  {
+    m_nHits = nHits;
+    m_nMisses = nMisses;
+    m_nEvictions = nEvictions;
+    m_nEntryCount = nEntryCount;
+    m_nWeight = nWeight;
+    m_nMaxEntryCount = nMaxEntryCount;
+    m_nMaxWeight = nMaxWeight;
+  }
+
+  @Nonnegative
+  public long getHits ()
+  {
+    return m_nHits;
+  }
+
+  @Nonnegative
+  public long getMisses ()
+  {
+    return m_nMisses;
+  }
+
+  /**
+   * @return The ratio of hits to all lookups between 0 and 1. 0 if no lookup
+   *         was performed yet.
+   */
+  public double getHitRatio ()
+  {
+    final long nTotal = m_nHits + m_nMisses;
+    return nTotal == 0 ? 0 : (double) m_nHits / nTotal;
+  }
+
+  /**
+   * @return The number of entries that were removed because a bound of the
+   *         cache was exceeded. Explicit removals are not counted.
+   */
+  @Nonnegative
+  public long getEvictions ()
+  {
+    return m_nEvictions;
+  }
+
+  @Nonnegative
+  public int getEntryCount ()
+  {
+    return m_nEntryCount;
+  }
+
+  /**
+   * @return The estimated number of bytes occupied by all cached entries.
+   */
+  @Nonnegative
+  public long getWeight ()
+  {
+    return m_nWeight;
+  }
+
+  @Nonnegative
+  public int getMaxEntryCount ()
+  {
+    return m_nMaxEntryCount;
+  }
+
+  @Nonnegative
+  public long getMaxWeight ()
+  {
+    return m_nMaxWeight;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("hits", m_nHits)
+                                       .append ("misses", m_nMisses)
+                                       .append ("evictions", m_nEvictions)
+                                       .append ("entryCount", m_nEntryCount)
+                                       .append ("weight", m_nWeight)
+                                       .append ("maxEntryCount", m_nMaxEntryCount)
+                                       .append ("maxWeight", m_nMaxWeight)
+                                       .toString ();
+  }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * A snapshot of the statistics of a deduplicating attachment storage.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcAttachmentDedupStatistics
+{
+  private final int m_nBlobCount;
+  private final int m_nReferenceCount;
+  private final long m_nLogicalBytes;
+  private final long m_nPhysicalBytes;
+
+  public ProcAttachmentDedupStatistics (@Nonnegative final int nBlobCount,
+                                        @Nonnegative final int nReferenceCount,
+                                        @Nonnegative final long nLogicalBytes,
+                                        @Nonnegative final long nPhysicalBytes)
+  {
+    m_nBlobCount = nBlobCount;
+    m_nReferenceCount = nReferenceCount;
+    m_nLogicalBytes = nLogicalBytes;
+    m_nPhysicalBytes = nPhysicalBytes;
+  }
+
+  /**
+   * @return The number of distinct contents stored.
+   */
+  @Nonnegative
+  public int getBlobCount ()
+  {
+    return m_nBlobCount;
+  }
+
+  /**
+   * @return The number of attachments referencing a stored content.
+   */
+  @Nonnegative
+  public int getReferenceCount ()
+  {
+    return m_nReferenceCount;
+  }
+
+  /**
+   * @return The number of bytes that would be stored without deduplication.
+   */
+  @Nonnegative
+  public long getLogicalBytes ()
+  {
+    return m_nLogicalBytes;
+  }
+
+  /**
+   * @return The number of bytes actually stored.
+   */
+  @Nonnegative
+  public long getPhysicalBytes ()
+  {
+    return m_nPhysicalBytes;
+  }
+
+  @Nonnegative
+  public long getSavedBytes ()
+  {
+    return m_nLogicalBytes - m_nPhysicalBytes;
+  }
+
+  /**
+   * @return The ratio of logical to physical bytes. 1 if nothing is stored.
+   */
+  public double getDedupRatio ()
+  {
+    return m_nPhysicalBytes == 0 ? 1 : (double) m_nLogicalBytes / m_nPhysicalBytes;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("blobCount", m_nBlobCount)
+                                       .append ("referenceCount", m_nReferenceCount)
+                                       .append ("logicalBytes", m_nLogicalBytes)
+                                       .append ("physicalBytes", m_nPhysicalBytes)
+                                       .toString ();
+  }
+}
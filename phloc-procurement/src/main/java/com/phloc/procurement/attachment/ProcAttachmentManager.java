@@ -17,9 +17,9 @@
  */
 package com.phloc.procurement.attachment;
 
+import java.util.Collections;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -36,8 +36,13 @@ import com.phloc.commons.state.EChange;
 @ThreadSafe
 public final class ProcAttachmentManager implements IProcAttachmentResolver
 {
-  private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock ();
   private final IProcAttachmentStorageHandlerSPI m_aStorageHandler;
+  /**
+   * The IDs of the attachments currently being created. The storage handler
+   * itself is thread-safe, so this is only needed to reliably detect duplicate
+   * IDs without serializing all uploads.
+   */
+  private final Set <String> m_aCreating = Collections.newSetFromMap (new ConcurrentHashMap <String, Boolean> ());
 
   public ProcAttachmentManager (@Nonnull final IProcAttachmentStorageHandlerSPI aStorageHandler)
   {
@@ -49,15 +54,7 @@ public final class ProcAttachmentManager implements IProcAttachmentResolver
   @Nullable
   public IProcAttachment getAttachmentOfID (@Nullable final String sAttachmentID)
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aStorageHandler.getAttachmentOfID (sAttachmentID);
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aStorageHandler.getAttachmentOfID (sAttachmentID);
   }
 
   /**
@@ -75,7 +72,8 @@ public final class ProcAttachmentManager implements IProcAttachmentResolver
       throw new NullPointerException ("attachment");
     final String sAttachmentID = aAttachment.getID ();
 
-    m_aRWLock.writeLock ().lock ();
+    if (!m_aCreating.add (sAttachmentID))
+      throw new IllegalArgumentException ("Passed attachment ID '" + sAttachmentID + "' is already being created!");
     try
     {
       // Is the ID already contained?
@@ -88,7 +86,7 @@ public final class ProcAttachmentManager implements IProcAttachmentResolver
     }
     finally
     {
-      m_aRWLock.writeLock ().unlock ();
+      m_aCreating.remove (sAttachmentID);
     }
   }
 
@@ -102,15 +100,7 @@ public final class ProcAttachmentManager implements IProcAttachmentResolver
   @Nonnull
   public EChange removeAttachment (@Nullable final String sAttachmentID)
   {
-    m_aRWLock.writeLock ().lock ();
-    try
-    {
-      return m_aStorageHandler.removeAttachment (sAttachmentID);
-    }
-    finally
-    {
-      m_aRWLock.writeLock ().unlock ();
-    }
+    return m_aStorageHandler.removeAttachment (sAttachmentID);
   }
 
   /**
@@ -120,14 +110,6 @@ public final class ProcAttachmentManager implements IProcAttachmentResolver
   @ReturnsMutableCopy
   public Set <String> getAllAttachmentIDs ()
   {
-    m_aRWLock.readLock ().lock ();
-    try
-    {
-      return m_aStorageHandler.getAllAttachmentIDs ();
-    }
-    finally
-    {
-      m_aRWLock.readLock ().unlock ();
-    }
+    return m_aStorageHandler.getAllAttachmentIDs ();
   }
 }
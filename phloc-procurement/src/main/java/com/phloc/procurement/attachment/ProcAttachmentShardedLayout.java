@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.string.StringHelper;
+
+/**
+ * Determines the directory of an attachment within a file based attachment
+ * storage. The attachment directories are distributed over two levels of 256
+ * shard directories each, so that no single directory contains too many
+ * entries. The shard of an attachment only depends on its ID.<br>
+ * Note: the hash function must never be changed, as this would make all
+ * existing attachments unreachable.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcAttachmentShardedLayout
+{
+  /** The number of characters of a shard directory name */
+  public static final int SHARD_NAME_LENGTH = 2;
+
+  private ProcAttachmentShardedLayout ()
+  {
+    // never instantiate
+  }
+
+  /**
+   * Get the hash used to determine the shard of an attachment. The hash code of
+   * a {@link String} is defined by the JLS and therefore stable. It is
+   * scrambled afterwards so that similar IDs end up in different shards.
+   *
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return The scrambled hash.
+   */
+  public static int getShardHash (@Nonnull final String sAttachmentID)
+  {
+    int h = sAttachmentID.hashCode ();
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  @Nonnull
+  private static String _getShardName (final int nValue)
+  {
+    return StringHelper.getHexStringLeadingZero (nValue & 0xff, SHARD_NAME_LENGTH);
+  }
+
+  /**
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return The relative path of the attachment directory, e.g.
+   *         <code>3f/a0/id</code>. Never <code>null</code>.
+   */
+  @Nonnull
+  public static String getRelativePath (@Nonnull final String sAttachmentID)
+  {
+    final int nHash = getShardHash (sAttachmentID);
+    return _getShardName (nHash) + '/' + _getShardName (nHash >>> 8) + '/' + sAttachmentID;
+  }
+
+  /**
+   * @param aBaseDir
+   *        The base directory of the storage. May not be <code>null</code>.
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return The sharded directory of the attachment. Never <code>null</code>.
+   */
+  @Nonnull
+  public static File getAttachmentDirectory (@Nonnull final File aBaseDir, @Nonnull final String sAttachmentID)
+  {
+    return new File (aBaseDir, getRelativePath (sAttachmentID));
+  }
+
+  /**
+   * @param aBaseDir
+   *        The base directory of the storage. May not be <code>null</code>.
+   * @param sAttachmentID
+   *        The attachment ID. May not be <code>null</code>.
+   * @return The directory of the attachment in the old, flat layout. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static File getLegacyAttachmentDirectory (@Nonnull final File aBaseDir, @Nonnull final String sAttachmentID)
+  {
+    return new File (aBaseDir, sAttachmentID);
+  }
+
+  /**
+   * @param sName
+   *        The directory name to check. May be <code>null</code>.
+   * @return <code>true</code> if the passed name is a valid shard directory
+   *         name.
+   */
+  public static boolean isShardName (@Nullable final String sName)
+  {
+    if (sName == null || sName.length () != SHARD_NAME_LENGTH)
+      return false;
+    for (final char c : sName.toCharArray ())
+      if (Character.digit (c, 16) < 0 || Character.isUpperCase (c))
+        return false;
+    return true;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.File;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.io.file.FileIOError;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.FileUtils;
+import com.phloc.commons.io.file.filter.FileFilterDirectoryOnly;
+import com.phloc.commons.io.file.iterate.FileSystemIterator;
+
+/**
+ * Migrates a file based attachment storage from the old flat layout, where all
+ * attachment directories reside directly in the base directory, to the layout
+ * defined by {@link ProcAttachmentShardedLayout}. The migration can be
+ * interrupted and restarted at any time, but it must not run while a storage
+ * handler is modifying the same directory.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcAttachmentStorageMigration
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcAttachmentStorageMigration.class);
+
+  private ProcAttachmentStorageMigration ()
+  {
+    // never instantiate
+  }
+
+  /**
+   * @param aDir
+   *        The directory to check.
+   * @return <code>true</code> if the passed directory is an attachment
+   *         directory in the flat layout.
+   */
+  static boolean isLegacyAttachmentDirectory (@Nonnull final File aDir)
+  {
+    // Shard directories never contain the attachment files directly
+    return FileUtils.existsFile (new File (aDir, AbstractProcAttachmentFileBasedStorageHandlerSPI.FILENAME_METADATA_XML));
+  }
+
+  /**
+   * Move all attachment directories from the flat layout into their shard
+   * directories.
+   *
+   * @param aBaseDir
+   *        The base directory of the attachment storage. May not be
+   *        <code>null</code>.
+   * @return The number of migrated attachments.
+   */
+  @Nonnegative
+  public static int migrateToShardedLayout (@Nonnull final File aBaseDir)
+  {
+    if (aBaseDir == null)
+      throw new NullPointerException ("baseDir");
+    if (!FileUtils.existsDir (aBaseDir))
+      throw new IllegalArgumentException (aBaseDir + " is not an existing directory");
+
+    int nMigrated = 0;
+    for (final File aDir : FileSystemIterator.create (aBaseDir, FileFilterDirectoryOnly.getInstance ()))
+      if (isLegacyAttachmentDirectory (aDir))
+      {
+        final String sAttachmentID = aDir.getName ();
+        final File aTargetDir = ProcAttachmentShardedLayout.getAttachmentDirectory (aBaseDir, sAttachmentID);
+        if (aTargetDir.exists ())
+        {
+          // Left over from an interrupted migration or a duplicate
+          s_aLogger.warn ("Not migrating " + aDir + " because " + aTargetDir + " already exists");
+          continue;
+        }
+
+        FileIOError eError = FileOperations.createDirRecursiveIfNotExisting (aTargetDir.getParentFile ());
+        if (eError.isSuccess ())
+          eError = FileOperations.renameDir (aDir, aTargetDir);
+        if (eError.isFailure ())
+          throw new IllegalStateException ("Failed to move " + aDir + " to " + aTargetDir + ": " + eError.toString ());
+        nMigrated++;
+        if ((nMigrated % 10000) == 0)
+          s_aLogger.info ("Migrated " + nMigrated + " attachments so far");
+      }
+
+    s_aLogger.info ("Migrated " + nMigrated + " attachments in " + aBaseDir + " to the sharded layout");
+    return nMigrated;
+  }
+}
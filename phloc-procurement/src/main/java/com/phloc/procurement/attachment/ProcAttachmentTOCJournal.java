@@ -0,0 +1,405 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Set;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.charset.CCharset;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.resource.FileSystemResource;
+import com.phloc.commons.io.streams.NonBlockingByteArrayOutputStream;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.microdom.reader.XMLListHandler;
+import com.phloc.commons.microdom.serialize.MicroWriter;
+
+/**
+ * Append-only journal for the table of contents of a file based attachment
+ * storage. Each change is appended as a single line (<code>+id</code> or
+ * <code>-id</code>) so that storing an attachment does not require rewriting
+ * the whole table of contents. The journal is merged into the TOC file upon
+ * compaction, which happens in two steps: {@link #rotate()} quickly moves the
+ * current journal aside and {@link #writeTOC(Collection)} afterwards writes
+ * the new TOC file and deletes the rotated journal. Until the TOC file was
+ * written, the rotated journal is replayed upon startup.<br>
+ * Appending and rotating must be performed by the caller under an exclusive
+ * lock. Writing the TOC file must only be performed by one thread at a time,
+ * but not under the lock for appending. {@link #sync(long)} may be called
+ * concurrently, so that concurrent writers share a single fsync call.
+ *
+ * @author Philip Helger
+ */
+final class ProcAttachmentTOCJournal
+{
+  /** The minimum number of journal entries before a compaction is performed */
+  public static final int DEFAULT_MIN_COMPACTION_ENTRIES = 1000;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcAttachmentTOCJournal.class);
+  private static final char PREFIX_ADD = '+';
+  private static final char PREFIX_REMOVE = '-';
+  private static final char SEPARATOR = '\n';
+  private static final String TEMP_EXTENSION = ".tmp";
+  private static final String ROTATED_EXTENSION = ".rotated";
+
+  private final File m_aTOCFile;
+  private final File m_aJournalFile;
+  private final File m_aRotatedJournalFile;
+  private final Object m_aSyncLock = new Object ();
+  private FileOutputStream m_aJournalOS;
+  private volatile int m_nJournalEntries = 0;
+  /** The number of rotated entries not yet written to the TOC file */
+  private volatile int m_nRotatedEntries = 0;
+  private volatile long m_nWrittenSeq = 0;
+  // Guarded by m_aSyncLock
+  private long m_nSyncedSeq = 0;
+
+  ProcAttachmentTOCJournal (@Nonnull final File aTOCFile, @Nonnull final File aJournalFile)
+  {
+    if (aTOCFile == null)
+      throw new NullPointerException ("TOCFile");
+    if (aJournalFile == null)
+      throw new NullPointerException ("journalFile");
+    m_aTOCFile = aTOCFile;
+    m_aJournalFile = aJournalFile;
+    m_aRotatedJournalFile = new File (aJournalFile.getParentFile (), aJournalFile.getName () + ROTATED_EXTENSION);
+  }
+
+  /**
+   * Read the TOC file and replay all complete journal entries on top of it,
+   * including the entries of a rotated journal that was not yet merged into
+   * the TOC file. An incomplete trailing entry, as left by a crash during
+   * writing, is discarded and cut off from the journal. Afterwards the journal
+   * is opened for appending.
+   *
+   * @param aTarget
+   *        The set to be filled. May not be <code>null</code>.
+   */
+  void replay (@Nonnull final Set <String> aTarget)
+  {
+    if (m_aTOCFile.exists ())
+      if (XMLListHandler.readList (new FileSystemResource (m_aTOCFile), aTarget).isFailure ())
+        s_aLogger.error ("Failed to read TOC file " + m_aTOCFile);
+
+    // The rotated entries are older than the ones of the current journal
+    m_nRotatedEntries = _replay (m_aRotatedJournalFile, aTarget);
+    m_nJournalEntries = _replay (m_aJournalFile, aTarget);
+    m_aJournalOS = _openJournal ();
+  }
+
+  @Nonnegative
+  private static int _replay (@Nonnull final File aFile, @Nonnull final Set <String> aTarget)
+  {
+    if (!aFile.exists ())
+      return 0;
+
+    final byte [] aBytes = StreamUtils.getAllBytes (new FileSystemResource (aFile));
+    if (aBytes == null)
+      throw new IllegalStateException ("Failed to read TOC journal " + aFile);
+
+    int nEntries = 0;
+    int nStart = 0;
+    for (int i = 0; i < aBytes.length; ++i)
+      if (aBytes[i] == SEPARATOR)
+      {
+        final String sLine = new String (aBytes, nStart, i - nStart, CCharset.CHARSET_UTF_8_OBJ);
+        if (sLine.length () > 1 && sLine.charAt (0) == PREFIX_ADD)
+          aTarget.add (sLine.substring (1));
+        else
+          if (sLine.length () > 1 && sLine.charAt (0) == PREFIX_REMOVE)
+            aTarget.remove (sLine.substring (1));
+          else
+            s_aLogger.warn ("Ignoring illegal TOC journal entry '" + sLine + "' in " + aFile);
+        nEntries++;
+        nStart = i + 1;
+      }
+
+    if (nStart < aBytes.length)
+    {
+      s_aLogger.warn ("Discarding incomplete last TOC journal entry of " +
+                      (aBytes.length - nStart) +
+                      " bytes in " +
+                      aFile);
+      _truncate (aFile, nStart);
+    }
+    return nEntries;
+  }
+
+  @Nonnull
+  private FileOutputStream _openJournal ()
+  {
+    try
+    {
+      return new FileOutputStream (m_aJournalFile, true);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to open TOC journal " + m_aJournalFile, ex);
+    }
+  }
+
+  private static void _truncate (@Nonnull final File aFile, @Nonnegative final long nLength)
+  {
+    RandomAccessFile aRAF = null;
+    try
+    {
+      aRAF = new RandomAccessFile (aFile, "rw");
+      aRAF.setLength (nLength);
+      aRAF.getFD ().sync ();
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to truncate TOC journal " + aFile, ex);
+    }
+    finally
+    {
+      StreamUtils.close (aRAF);
+    }
+  }
+
+  /**
+   * Append a single change to the journal. The data is handed to the operating
+   * system but not yet forced to disk - call {@link #sync(long)} for this.
+   *
+   * @param bAdd
+   *        <code>true</code> if the attachment was added, <code>false</code> if
+   *        it was removed.
+   * @param sAttachmentID
+   *        The ID of the attachment. May not be <code>null</code>.
+   * @return The sequence number to be passed to {@link #sync(long)}.
+   */
+  long append (final boolean bAdd, @Nonnull final String sAttachmentID)
+  {
+    if (sAttachmentID.indexOf (SEPARATOR) >= 0)
+      throw new IllegalArgumentException ("Attachment ID may not contain line breaks: " + sAttachmentID);
+    if (m_aJournalOS == null)
+      throw new IllegalStateException ("TOC journal " + m_aJournalFile + " is not open");
+
+    final String sLine = (bAdd ? PREFIX_ADD : PREFIX_REMOVE) + sAttachmentID + SEPARATOR;
+    try
+    {
+      // One single write call, so that a crash leaves at most one incomplete
+      // entry at the end
+      m_aJournalOS.write (sLine.getBytes (CCharset.CHARSET_UTF_8_OBJ));
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to append to TOC journal " + m_aJournalFile, ex);
+    }
+    m_nJournalEntries++;
+    return ++m_nWrittenSeq;
+  }
+
+  /**
+   * Ensure that the journal entry with the passed sequence number is on disk.
+   * If another thread is currently syncing, this thread waits and afterwards
+   * checks whether its entry was already covered, so that concurrent writers
+   * are batched into a single fsync.
+   *
+   * @param nSeq
+   *        The sequence number as returned by {@link #append(boolean, String)}
+   */
+  void sync (final long nSeq)
+  {
+    synchronized (m_aSyncLock)
+    {
+      if (m_nSyncedSeq >= nSeq || m_aJournalOS == null)
+        return;
+
+      // Everything written up to now is covered by this sync
+      final long nTargetSeq = m_nWrittenSeq;
+      try
+      {
+        m_aJournalOS.getFD ().sync ();
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to sync TOC journal " + m_aJournalFile, ex);
+      }
+      m_nSyncedSeq = nTargetSeq;
+    }
+  }
+
+  /**
+   * @return The number of entries that are not yet contained in the TOC file.
+   */
+  @Nonnegative
+  int getJournalEntryCount ()
+  {
+    return m_nJournalEntries + m_nRotatedEntries;
+  }
+
+  /**
+   * Check if the journal should be compacted. This is the case if it has more
+   * entries than the TOC itself, so that the amortized costs of a change stay
+   * constant.
+   *
+   * @param nTOCSize
+   *        The current number of TOC entries.
+   * @param nMinEntries
+   *        The minimum number of journal entries before a compaction is
+   *        considered.
+   * @return <code>true</code> if {@link #compact(Collection)} should be called.
+   */
+  boolean isCompactionNeeded (@Nonnegative final int nTOCSize, @Nonnegative final int nMinEntries)
+  {
+    return getJournalEntryCount () >= Math.max (nTOCSize, nMinEntries);
+  }
+
+  /**
+   * Move all entries of the current journal to the rotated journal and start
+   * a new empty journal. Pending entries are synced before. If the rotated
+   * journal of a previous failed compaction is still present, the entries are
+   * appended to it.
+   */
+  void rotate ()
+  {
+    synchronized (m_aSyncLock)
+    {
+      if (m_aJournalOS == null)
+        throw new IllegalStateException ("TOC journal " + m_aJournalFile + " is not open");
+      try
+      {
+        // Concurrent writers may still wait for their entries in sync(long)
+        m_aJournalOS.getFD ().sync ();
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to sync TOC journal " + m_aJournalFile, ex);
+      }
+      m_nSyncedSeq = m_nWrittenSeq;
+      StreamUtils.close (m_aJournalOS);
+      m_aJournalOS = null;
+
+      try
+      {
+        if (m_aRotatedJournalFile.exists ())
+        {
+          final FileOutputStream aFOS = new FileOutputStream (m_aRotatedJournalFile, true);
+          try
+          {
+            aFOS.write (Files.readAllBytes (m_aJournalFile.toPath ()));
+            aFOS.getFD ().sync ();
+          }
+          finally
+          {
+            StreamUtils.close (aFOS);
+          }
+          _truncate (m_aJournalFile, 0);
+        }
+        else
+          Files.move (m_aJournalFile.toPath (), m_aRotatedJournalFile.toPath (), StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (final IOException ex)
+      {
+        throw new IllegalStateException ("Failed to rotate TOC journal " + m_aJournalFile, ex);
+      }
+      finally
+      {
+        // Creates a new file if the old one was moved
+        m_aJournalOS = _openJournal ();
+      }
+    }
+    m_nRotatedEntries += m_nJournalEntries;
+    m_nJournalEntries = 0;
+  }
+
+  /**
+   * Write the passed complete TOC to the TOC file and delete the rotated
+   * journal. The new TOC file is written to a temporary file first and is
+   * atomically moved afterwards. If a crash happens before the rotated journal
+   * is deleted, the replay of its entries is idempotent.
+   *
+   * @param aAttachmentIDs
+   *        All attachment IDs at the time of the last {@link #rotate()}. May
+   *        not be <code>null</code>.
+   */
+  void writeTOC (@Nonnull final Collection <String> aAttachmentIDs)
+  {
+    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+    if (MicroWriter.writeToStream (XMLListHandler.createListDocument (aAttachmentIDs), aBAOS).isFailure ())
+      throw new IllegalStateException ("Failed to serialize TOC");
+
+    final File aTempFile = new File (m_aTOCFile.getParentFile (), m_aTOCFile.getName () + TEMP_EXTENSION);
+    FileOutputStream aFOS = null;
+    try
+    {
+      aFOS = new FileOutputStream (aTempFile);
+      aFOS.write (aBAOS.toByteArray ());
+      aFOS.getFD ().sync ();
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to write TOC file " + aTempFile, ex);
+    }
+    finally
+    {
+      StreamUtils.close (aFOS);
+    }
+
+    try
+    {
+      Files.move (aTempFile.toPath (),
+                  m_aTOCFile.toPath (),
+                  StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to move " + aTempFile + " to " + m_aTOCFile, ex);
+    }
+
+    // All rotated entries are now contained in the TOC file
+    FileOperations.deleteFileIfExisting (m_aRotatedJournalFile);
+    s_aLogger.info ("Compacted " + m_nRotatedEntries + " TOC journal entries into " + m_aTOCFile);
+    m_nRotatedEntries = 0;
+  }
+
+  /**
+   * Rotate the journal and write the passed complete TOC in one step. Must be
+   * called under the exclusive lock for appending.
+   *
+   * @param aAttachmentIDs
+   *        All current attachment IDs. May not be <code>null</code>.
+   */
+  void compact (@Nonnull final Collection <String> aAttachmentIDs)
+  {
+    rotate ();
+    writeTOC (aAttachmentIDs);
+  }
+
+  void close ()
+  {
+    synchronized (m_aSyncLock)
+    {
+      StreamUtils.close (m_aJournalOS);
+      m_aJournalOS = null;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.hash.HashCodeGenerator;
+import com.phloc.commons.mime.IMimeType;
+import com.phloc.commons.state.ESuccess;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.datetime.PDTFactory;
+
+/**
+ * Implementation of the {@link IProcAttachment} interface based on Base64
+ * encoded data, as e.g. read from an XML document. The data is only decoded
+ * while it is read, so the decoded data is never held in memory completely.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcBase64Attachment extends AbstractProcAttachment
+{
+  private final String m_sBase64;
+
+  public ProcBase64Attachment (@Nonnull @Nonempty final String sID,
+                               @Nonnull @Nonempty final String sTitle,
+                               @Nullable final IMimeType aMIMEType,
+                               @Nonnull final String sBase64)
+  {
+    super (sID, sTitle, aMIMEType, PDTFactory.getCurrentDateTime ());
+    if (sBase64 == null)
+      throw new NullPointerException ("base64");
+    m_sBase64 = sBase64;
+  }
+
+  @Nonnull
+  public InputStream getInputStream ()
+  {
+    return ProcAttachmentBase64.getDecodingInputStream (m_sBase64);
+  }
+
+  public boolean isPersisted ()
+  {
+    return false;
+  }
+
+  @Nonnull
+  public String getBase64Encoded ()
+  {
+    return m_sBase64;
+  }
+
+  @Override
+  @Nonnull
+  public ESuccess writeBase64Encoded (@Nonnull @WillNotClose final Writer aWriter)
+  {
+    try
+    {
+      aWriter.write (m_sBase64);
+      return ESuccess.SUCCESS;
+    }
+    catch (final IOException ex)
+    {
+      return ESuccess.FAILURE;
+    }
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (!super.equals (o))
+      return false;
+    final ProcBase64Attachment rhs = (ProcBase64Attachment) o;
+    return m_sBase64.equals (rhs.m_sBase64);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return HashCodeGenerator.getDerived (super.hashCode ()).append (m_sBase64).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ()).append ("base64Length", m_sBase64.length ()).toString ();
+  }
+}
@@ -25,12 +25,9 @@ import javax.annotation.Nullable;
 import org.joda.time.DateTime;
 
 import com.phloc.commons.annotations.Nonempty;
-import com.phloc.commons.base64.Base64;
-import com.phloc.commons.charset.CCharset;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.io.IReadableResource;
-import com.phloc.commons.io.streams.NonBlockingByteArrayOutputStream;
-import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.io.streams.NonBlockingStringWriter;
 import com.phloc.commons.mime.IMimeType;
 import com.phloc.commons.mime.MimeTypeDeterminator;
 import com.phloc.commons.string.ToStringGenerator;
@@ -94,10 +91,10 @@ public class ProcResourceAttachment extends AbstractProcAttachment
   @Nonnull
   public String getBase64Encoded ()
   {
-    final Base64.InputStream aIS = new Base64.InputStream (getInputStream (), Base64.ENCODE);
-    final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
-    StreamUtils.copyInputStreamToOutputStreamAndCloseOS (aIS, aBAOS);
-    return aBAOS.getAsString (CCharset.CHARSET_ISO_8859_1_OBJ);
+    // Encode directly into the characters of the result
+    final NonBlockingStringWriter aSW = new NonBlockingStringWriter ();
+    writeBase64Encoded (aSW);
+    return aSW.getAsString ();
   }
 
   @Override
@@ -17,10 +17,44 @@
  */
 package com.phloc.procurement.db;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.persistence.Cache;
+import javax.persistence.CacheRetrieveMode;
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.TypedQuery;
+
+import org.eclipse.persistence.annotations.BatchFetchType;
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.config.ResultSetType;
+import org.eclipse.persistence.queries.ScrollableCursor;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
 
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.state.ISuccessIndicator;
 import com.phloc.db.jpa.IEntityManagerProvider;
 import com.phloc.db.jpa.JPAEnabledManager;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.domain.IProcObject;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
 
 /**
  * Abstract base class for entity managers. Provides the
@@ -30,8 +64,882 @@ import com.phloc.db.jpa.JPAEnabledManager;
  */
 public abstract class AbstractProcManager extends JPAEnabledManager
 {
+  /** The default number of rows fetched per JDBC round-trip when iterating */
+  public static final int DEFAULT_ITERATE_FETCH_SIZE = 100;
+  /** The default number of elements after which the entity manager is cleared */
+  public static final int DEFAULT_ITERATE_CLEAR_INTERVAL = 500;
+  /** The default number of objects saved within a single bulk transaction */
+  public static final int DEFAULT_BULK_CHUNK_SIZE = 100;
+  /** The maximum number of IDs passed in a single IN clause */
+  public static final int MAX_IN_LIST_SIZE = 500;
+  /** The default number of retries after a resolved save conflict */
+  public static final int DEFAULT_MAX_CONFLICT_RETRIES = 3;
+
+  private static final ThreadLocal <Boolean> s_aPrimaryForced = new ThreadLocal <Boolean> ();
+
+  private final ProcRoutingEntityManagerProvider m_aRoutingProvider;
+  private volatile boolean m_bReadReplicaEnabled = true;
+  private volatile boolean m_bOutboxEnabled = false;
+  private final List <IProcDocumentStateListener> m_aDocumentStateListeners = new CopyOnWriteArrayList <IProcDocumentStateListener> ();
+  private volatile ProcDocumentArchive m_aDocumentArchive;
+  private volatile ProcSharedEntityCache m_aSharedEntityCache;
+
   protected AbstractProcManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
   {
-    super (aEntityMgrProvider);
+    this (new ProcRoutingEntityManagerProvider (aEntityMgrProvider));
+  }
+
+  private AbstractProcManager (@Nonnull final ProcRoutingEntityManagerProvider aRoutingProvider)
+  {
+    super (aRoutingProvider);
+    m_aRoutingProvider = aRoutingProvider;
+  }
+
+  @Nullable
+  public final IEntityManagerProvider getReadReplicaEntityManagerProvider ()
+  {
+    return m_aRoutingProvider.getReplica ();
+  }
+
+  /**
+   * Set the entity manager provider of a read-only replica. If present, the
+   * list and count methods of this manager read from the replica, as long as
+   * the replica is enabled and the calling thread does not force the primary
+   * (see {@link #runOnPrimary(INonThrowingCallable)}). Objects read from the
+   * replica must not be modified in place - re-read them by ID before. The
+   * entity manager factory of the replica should be created with
+   * {@link ProcSharedEntityCache#getReplicaEntityManagerFactoryProperties()}.
+   * Otherwise its shared cache is only invalidated by bulk state changes and by
+   * a {@link ProcSharedEntityCache} that knows the replica.
+   *
+   * @param aReadReplicaEntityMgrProvider
+   *        The replica provider. May be <code>null</code> to read everything
+   *        from the primary.
+   */
+  public final void setReadReplicaEntityManagerProvider (@Nullable final IEntityManagerProvider aReadReplicaEntityMgrProvider)
+  {
+    m_aRoutingProvider.setReplica (aReadReplicaEntityMgrProvider);
+  }
+
+  public final boolean isReadReplicaEnabled ()
+  {
+    return m_bReadReplicaEnabled;
+  }
+
+  public final void setReadReplicaEnabled (final boolean bReadReplicaEnabled)
+  {
+    m_bReadReplicaEnabled = bReadReplicaEnabled;
+  }
+
+  /**
+   * @return <code>true</code> if the calling thread is currently within
+   *         {@link #runOnPrimary(INonThrowingCallable)}.
+   */
+  public static final boolean isPrimaryForced ()
+  {
+    return Boolean.TRUE.equals (s_aPrimaryForced.get ());
+  }
+
+  /**
+   * Execute the passed callable so that all reads of all managers in the
+   * calling thread go to the primary. Use this when reading data that was just
+   * written.
+   *
+   * @param aCallable
+   *        The callable to execute. May not be <code>null</code>.
+   * @return The result of the callable.
+   */
+  @Nullable
+  public static final <T> T runOnPrimary (@Nonnull final INonThrowingCallable <T> aCallable)
+  {
+    if (aCallable == null)
+      throw new NullPointerException ("callable");
+
+    final Boolean aOld = s_aPrimaryForced.get ();
+    s_aPrimaryForced.set (Boolean.TRUE);
+    try
+    {
+      return aCallable.call ();
+    }
+    finally
+    {
+      if (aOld == null)
+        s_aPrimaryForced.remove ();
+      else
+        s_aPrimaryForced.set (aOld);
+    }
+  }
+
+  /**
+   * Like {@link #doSelect(Callable)} but executed on the read replica if one is
+   * present and enabled.
+   *
+   * @param aCallable
+   *        The callable to execute. May not be <code>null</code>.
+   * @return The execution result and never <code>null</code>.
+   */
+  @Nonnull
+  protected final <T> JPAExecutionResult <T> doSelectReadOnly (@Nonnull final Callable <T> aCallable)
+  {
+    if (!m_bReadReplicaEnabled || isPrimaryForced () || m_aRoutingProvider.getReplica () == null)
+      return doSelect (aCallable);
+
+    final boolean bOld = m_aRoutingProvider.isUseReplica ();
+    m_aRoutingProvider.setUseReplica (true);
+    try
+    {
+      return doSelect (aCallable);
+    }
+    finally
+    {
+      m_aRoutingProvider.setUseReplica (bOld);
+    }
+  }
+
+  /**
+   * Add a listener that is notified after document states were changed by
+   * this manager.
+   *
+   * @param aListener
+   *        The listener to add. May not be <code>null</code>.
+   */
+  public final void addDocumentStateListener (@Nonnull final IProcDocumentStateListener aListener)
+  {
+    if (aListener == null)
+      throw new NullPointerException ("listener");
+    m_aDocumentStateListeners.add (aListener);
+  }
+
+  /**
+   * Remove a previously added document state listener.
+   *
+   * @param aListener
+   *        The listener to remove. May be <code>null</code>.
+   */
+  public final void removeDocumentStateListener (@Nullable final IProcDocumentStateListener aListener)
+  {
+    m_aDocumentStateListeners.remove (aListener);
+  }
+
+  public final boolean isOutboxEnabled ()
+  {
+    return m_bOutboxEnabled;
+  }
+
+  /**
+   * Enable or disable the outbox. If enabled, every modification made by this
+   * manager appends a {@link ProcOutboxEvent} in the same transaction. The
+   * entity class must be part of the persistence unit.
+   *
+   * @param bOutboxEnabled
+   *        <code>true</code> to enable the outbox.
+   */
+  public final void setOutboxEnabled (final boolean bOutboxEnabled)
+  {
+    m_bOutboxEnabled = bOutboxEnabled;
+  }
+
+  /**
+   * Append an outbox event for the passed object, if the outbox is enabled.
+   * Must be called within a transaction.
+   *
+   * @param eChangeType
+   *        The change type. May not be <code>null</code>.
+   * @param aObject
+   *        The changed object. May not be <code>null</code>.
+   */
+  protected final void appendOutboxEvent (@Nonnull final EProcChangeType eChangeType, @Nonnull final IProcObject aObject)
+  {
+    appendOutboxEvent (eChangeType, aObject, null);
+  }
+
+  /**
+   * Append an outbox event for the passed object, if the outbox is enabled.
+   * Must be called within a transaction.
+   *
+   * @param eChangeType
+   *        The change type. May not be <code>null</code>.
+   * @param aObject
+   *        The changed object. May not be <code>null</code>.
+   * @param eNewState
+   *        The new document state. May be <code>null</code>.
+   */
+  protected final void appendOutboxEvent (@Nonnull final EProcChangeType eChangeType,
+                                          @Nonnull final IProcObject aObject,
+                                          @Nullable final EProcState eNewState)
+  {
+    if (m_bOutboxEnabled)
+    {
+      final EntityManager aEM = getEntityManager ();
+      if (aObject.getID () == 0)
+      {
+        // Ensure the ID is assigned
+        aEM.flush ();
+      }
+      aEM.persist (new ProcOutboxEvent (aObject.getClass (), aObject.getID (), eChangeType, eNewState));
+    }
+  }
+
+  @Nullable
+  public final ProcSharedEntityCache getSharedEntityCache ()
+  {
+    return m_aSharedEntityCache;
+  }
+
+  /**
+   * Set the shared entity cache to record the ID lookups of this manager and
+   * to be invalidated upon modifications.
+   *
+   * @param aSharedEntityCache
+   *        The shared cache to use. May be <code>null</code> to disable.
+   */
+  public final void setSharedEntityCache (@Nullable final ProcSharedEntityCache aSharedEntityCache)
+  {
+    m_aSharedEntityCache = aSharedEntityCache;
+  }
+
+  /**
+   * Find an entity by ID and record the lookup in the shared entity cache
+   * statistics, if present. Must be called within a select or a transaction.
+   *
+   * @param aClass
+   *        The entity class. May not be <code>null</code>.
+   * @param nID
+   *        The ID to search.
+   * @return <code>null</code> if no such entity exists.
+   */
+  @Nullable
+  protected final <T extends IProcObject> T findEntity (@Nonnull final Class <T> aClass, final int nID)
+  {
+    final EntityManager aEM = getEntityManager ();
+    final ProcSharedEntityCache aSharedEntityCache = m_aSharedEntityCache;
+    if (aSharedEntityCache != null)
+      aSharedEntityCache.recordLookup (aEM.getEntityManagerFactory ().getCache (), aClass, nID);
+    return aEM.find (aClass, Integer.valueOf (nID));
+  }
+
+  /**
+   * Load the entities with the passed IDs in the order of the IDs, using one
+   * query per {@value #MAX_IN_LIST_SIZE} IDs. IDs without an entity are
+   * skipped. Must be called within a select or a transaction.
+   *
+   * @param aClass
+   *        The entity class. May not be <code>null</code>.
+   * @param aIDs
+   *        The IDs to load. May not be <code>null</code>.
+   * @return The found entities. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected final <T extends IProcObject> List <T> getEntitiesOfIDs (@Nonnull final Class <T> aClass,
+                                                                     @Nonnull final List <Integer> aIDs)
+  {
+    final Map <Integer, T> aFound = new HashMap <Integer, T> ();
+    for (int nStart = 0; nStart < aIDs.size (); nStart += MAX_IN_LIST_SIZE)
+    {
+      final List <Integer> aChunkIDs = aIDs.subList (nStart, Math.min (nStart + MAX_IN_LIST_SIZE, aIDs.size ()));
+      for (final T aEntity : getEntityManager ().createQuery ("SELECT p FROM " +
+                                                                  aClass.getSimpleName () +
+                                                                  " p WHERE p.ID IN :ids",
+                                                              aClass)
+                                                .setParameter ("ids", aChunkIDs)
+                                                .getResultList ())
+        aFound.put (Integer.valueOf (aEntity.getID ()), aEntity);
+    }
+
+    final List <T> ret = new ArrayList <T> (aFound.size ());
+    for (final Integer aID : aIDs)
+    {
+      final T aEntity = aFound.get (aID);
+      if (aEntity != null)
+        ret.add (aEntity);
+    }
+    return ret;
+  }
+
+  /**
+   * Invalidate the passed object in the shared entity cache, if present. Must
+   * be called after the modifying transaction finished.
+   *
+   * @param aObject
+   *        The modified object. May not be <code>null</code>.
+   */
+  protected final void invalidateSharedEntityCache (@Nonnull final IProcObject aObject)
+  {
+    final ProcSharedEntityCache aSharedEntityCache = m_aSharedEntityCache;
+    if (aSharedEntityCache != null && aObject.getID () != 0)
+      aSharedEntityCache.invalidate (aObject.getClass ().asSubclass (IProcObject.class), aObject.getID ());
+  }
+
+  @Nullable
+  public final ProcDocumentArchive getDocumentArchive ()
+  {
+    return m_aDocumentArchive;
+  }
+
+  /**
+   * Set the archive to which documents are moved by the archiving methods and
+   * from which archived documents are read back.
+   *
+   * @param aDocumentArchive
+   *        The archive to use. May be <code>null</code> to disable archive
+   *        support.
+   */
+  public final void setDocumentArchive (@Nullable final ProcDocumentArchive aDocumentArchive)
+  {
+    m_aDocumentArchive = aDocumentArchive;
+  }
+
+  @Nonnull
+  protected final ProcDocumentArchive getDocumentArchiveOrThrow ()
+  {
+    final ProcDocumentArchive ret = m_aDocumentArchive;
+    if (ret == null)
+      throw new IllegalStateException ("No document archive is present");
+    return ret;
+  }
+
+  protected final void fireDocumentStateChanged (@Nonnull final EProcDocumentType eType,
+                                                 final boolean bOldDeleted,
+                                                 @Nullable final EProcState eOldState,
+                                                 final boolean bNewDeleted,
+                                                 @Nullable final EProcState eNewState)
+  {
+    for (final IProcDocumentStateListener aListener : m_aDocumentStateListeners)
+      aListener.onDocumentStateChanged (eType, bOldDeleted, eOldState, bNewDeleted, eNewState);
+  }
+
+  protected final void fireDocumentsSaved (@Nonnull final EProcDocumentType eType)
+  {
+    for (final IProcDocumentStateListener aListener : m_aDocumentStateListeners)
+      aListener.onDocumentsSaved (eType);
+  }
+
+  /**
+   * Ensure the passed client ID is valid for a client-scoped query.
+   * 
+   * @param nClient
+   *        The client ID to check.
+   * @throws IllegalArgumentException
+   *         if the client ID is negative
+   */
+  protected static void checkClient (final int nClient)
+  {
+    if (nClient < 0)
+      throw new IllegalArgumentException ("Illegal client " + nClient);
+  }
+
+  /**
+   * Execute a keyset page query. The passed query must already filter for IDs
+   * greater than the key of the previous page and must be sorted by ascending
+   * ID. One more row than requested is fetched to determine whether a
+   * following page is present.
+   * 
+   * @param aQuery
+   *        The query to execute. May not be <code>null</code>.
+   * @param nPageSize
+   *        The maximum number of elements in the page. Must be &gt; 0.
+   * @return The resulting page. Never <code>null</code>.
+   */
+  @Nonnull
+  protected static <T extends IProcObject> ProcKeysetPage <T> getKeysetPage (@Nonnull final TypedQuery <T> aQuery,
+                                                                            @Nonnegative final int nPageSize)
+  {
+    return ProcKeysetPage.createFromOverfetch (aQuery.setMaxResults (nPageSize + 1).getResultList (), nPageSize);
+  }
+
+  /**
+   * Apply the passed fetch profile to a document query. The lines are join
+   * fetched together with the documents, whereas the attachments are batch
+   * loaded for all documents with a single additional IN query, so that the
+   * result set is not multiplied by lines times attachments.<br>
+   * Join fetching collections must not be combined with a maximum result
+   * count, so this method should not be used for paginated queries.
+   *
+   * @param aQuery
+   *        The query to modify. May not be <code>null</code>.
+   * @param eProfile
+   *        The fetch profile to apply. May not be <code>null</code>.
+   * @param sLinesPath
+   *        The JPQL path to the lines collection, e.g.
+   *        <code>p.order.orderItems</code>. May not be <code>null</code>.
+   * @param sAttachmentsPath
+   *        The JPQL path to the attachments collection, e.g.
+   *        <code>p.order.attachments</code>. May not be <code>null</code>.
+   * @return The passed query for chaining.
+   */
+  @Nonnull
+  protected static <T> TypedQuery <T> applyFetchProfile (@Nonnull final TypedQuery <T> aQuery,
+                                                         @Nonnull final EProcFetchProfile eProfile,
+                                                         @Nonnull final String sLinesPath,
+                                                         @Nonnull final String sAttachmentsPath)
+  {
+    if (eProfile == null)
+      throw new NullPointerException ("profile");
+
+    if (eProfile.isFetchLines ())
+      aQuery.setHint (QueryHints.LEFT_FETCH, sLinesPath);
+    if (eProfile.isFetchAttachments ())
+    {
+      aQuery.setHint (QueryHints.BATCH, sAttachmentsPath);
+      aQuery.setHint (QueryHints.BATCH_TYPE, BatchFetchType.IN);
+    }
+    return aQuery;
+  }
+
+  /**
+   * Iterate all results of the passed query using a forward-only scrollable
+   * JDBC cursor, so that the result set is never materialized in memory. The
+   * persistence context is cleared regularly, so the objects passed to the
+   * callback are detached after the callback returned and should not be
+   * retained by the caller.<br>
+   * Must be called within {@link #doSelect(java.util.concurrent.Callable)} or
+   * {@link #doInTransaction(java.util.concurrent.Callable)}.
+   * 
+   * @param aQuery
+   *        The query to iterate. May not be <code>null</code>.
+   * @param nFetchSize
+   *        The JDBC fetch size to use. Must be &gt; 0.
+   * @param nClearInterval
+   *        The number of elements after which the entity manager is cleared.
+   *        Must be &gt; 0.
+   * @param aCallback
+   *        The callback to be invoked for every single result element. May not
+   *        be <code>null</code>.
+   * @return The number of iterated elements.
+   */
+  @Nonnegative
+  protected final <T> int iterateQuery (@Nonnull final TypedQuery <T> aQuery,
+                                        @Nonnegative final int nFetchSize,
+                                        @Nonnegative final int nClearInterval,
+                                        @Nonnull final INonThrowingRunnableWithParameter <? super T> aCallback)
+  {
+    if (nFetchSize <= 0)
+      throw new IllegalArgumentException ("Illegal fetch size " + nFetchSize);
+    if (nClearInterval <= 0)
+      throw new IllegalArgumentException ("Illegal clear interval " + nClearInterval);
+    if (aCallback == null)
+      throw new NullPointerException ("callback");
+
+    aQuery.setHint (QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+    aQuery.setHint (QueryHints.RESULT_SET_TYPE, ResultSetType.ForwardOnly);
+    aQuery.setHint (QueryHints.JDBC_FETCH_SIZE, Integer.valueOf (nFetchSize));
+
+    final ScrollableCursor aCursor = (ScrollableCursor) aQuery.getSingleResult ();
+    int nCount = 0;
+    try
+    {
+      while (aCursor.hasNext ())
+      {
+        @SuppressWarnings ("unchecked")
+        final T aElement = (T) aCursor.next ();
+        aCallback.run (aElement);
+        ++nCount;
+
+        // Release all managed objects to keep the memory constant
+        if ((nCount % nClearInterval) == 0)
+          getEntityManager ().clear ();
+      }
+    }
+    finally
+    {
+      aCursor.close ();
+    }
+    return nCount;
+  }
+
+  private <T> void _mergeChunk (@Nonnull final List <T> aChunk, @Nonnull final ProcBulkSaveResult <T> aResult)
+  {
+    final ISuccessIndicator aChunkSuccess = doInTransaction (new Runnable ()
+    {
+      public final void run ()
+      {
+        final EntityManager aEM = getEntityManager ();
+        for (final T aObject : aChunk)
+        {
+          final T aMerged = aEM.merge (aObject);
+          if (aMerged instanceof IProcObject)
+            appendOutboxEvent (EProcChangeType.SAVED, (IProcObject) aMerged);
+        }
+        // Send all statements of the chunk to the database at once
+        aEM.flush ();
+      }
+    });
+    // Don't let the persistence context grow with the number of objects
+    getEntityManager ().clear ();
+
+    if (aChunkSuccess.isSuccess ())
+    {
+      for (final T aObject : aChunk)
+        aResult.addSuccess (aObject);
+    }
+    else
+    {
+      // The whole chunk was rolled back - save all objects separately to
+      // determine the erroneous ones
+      for (final T aObject : aChunk)
+      {
+        final ISuccessIndicator aSuccess = doInTransaction (new Runnable ()
+        {
+          public final void run ()
+          {
+            final T aMerged = getEntityManager ().merge (aObject);
+            if (aMerged instanceof IProcObject)
+              appendOutboxEvent (EProcChangeType.SAVED, (IProcObject) aMerged);
+          }
+        });
+        getEntityManager ().clear ();
+        if (aSuccess.isSuccess ())
+          aResult.addSuccess (aObject);
+        else
+          aResult.addFailure (aObject);
+      }
+    }
+  }
+
+  /**
+   * Save many objects in chunks. Each chunk is merged in a separate transaction
+   * and flushed at once, so that the JDBC statements can be batched if
+   * <code>eclipselink.jdbc.batch-writing</code> is enabled in the persistence
+   * unit. After each chunk the entity manager is cleared, so all objects
+   * previously managed by it are detached. If a chunk fails, its objects are
+   * saved one by one, so that only the really erroneous objects are reported
+   * as failed.
+   * 
+   * @param aObjects
+   *        The objects to be saved. May not be <code>null</code>.
+   * @param nChunkSize
+   *        The maximum number of objects per transaction. Must be &gt; 0.
+   * @return The result per object. Never <code>null</code>.
+   */
+  @Nonnull
+  protected final <T> ProcBulkSaveResult <T> mergeAllInChunks (@Nonnull final Collection <? extends T> aObjects,
+                                                              @Nonnegative final int nChunkSize)
+  {
+    if (aObjects == null)
+      throw new NullPointerException ("objects");
+    if (nChunkSize <= 0)
+      throw new IllegalArgumentException ("Illegal chunk size " + nChunkSize);
+
+    final ProcBulkSaveResult <T> ret = new ProcBulkSaveResult <T> ();
+    final List <T> aChunk = new ArrayList <T> (Math.min (nChunkSize, aObjects.size ()));
+    for (final T aObject : aObjects)
+    {
+      if (aObject == null)
+        throw new NullPointerException ("object");
+      aChunk.add (aObject);
+      if (aChunk.size () == nChunkSize)
+      {
+        _mergeChunk (aChunk, ret);
+        aChunk.clear ();
+      }
+    }
+    if (!aChunk.isEmpty ())
+      _mergeChunk (aChunk, ret);
+    return ret;
+  }
+
+  /**
+   * Check if the passed exception or one of its causes indicates a failed
+   * optimistic lock.
+   * 
+   * @param t
+   *        The exception to check. May be <code>null</code>.
+   * @return <code>true</code> if the object was modified concurrently.
+   */
+  public static final boolean isOptimisticLockFailure (@Nullable final Throwable t)
+  {
+    Throwable aCur = t;
+    while (aCur != null)
+    {
+      if (aCur instanceof javax.persistence.OptimisticLockException ||
+          aCur instanceof org.eclipse.persistence.exceptions.OptimisticLockException)
+        return true;
+      if (aCur.getCause () == aCur)
+        break;
+      aCur = aCur.getCause ();
+    }
+    return false;
+  }
+
+  /**
+   * Save a single object with optimistic locking. If the object was modified
+   * concurrently, the current database state is read and passed to the
+   * resolver. Whatever the resolver returns is saved in the next attempt.
+   * 
+   * @param aClass
+   *        The entity class. May not be <code>null</code>.
+   * @param aObject
+   *        The object to be saved. May not be <code>null</code>.
+   * @param aResolver
+   *        The optional conflict resolver. If <code>null</code> every conflict
+   *        is reported to the caller.
+   * @param nMaxRetries
+   *        The maximum number of retries after resolved conflicts.
+   * @return The save result and never <code>null</code>.
+   */
+  @Nonnull
+  protected final <T extends IProcObject> ProcSaveResult <T> mergeWithConflictCheck (@Nonnull final Class <T> aClass,
+                                                                                     @Nonnull final T aObject,
+                                                                                     @Nullable final IProcConflictResolver <T> aResolver,
+                                                                                     @Nonnegative final int nMaxRetries)
+  {
+    if (aClass == null)
+      throw new NullPointerException ("class");
+    if (aObject == null)
+      throw new NullPointerException ("object");
+    if (nMaxRetries < 0)
+      throw new IllegalArgumentException ("Illegal max retries " + nMaxRetries);
+
+    T aToSave = aObject;
+    int nAttempts = 0;
+    while (true)
+    {
+      ++nAttempts;
+      final T aFinalToSave = aToSave;
+      final JPAExecutionResult <T> aResult = doInTransaction (new Callable <T> ()
+      {
+        public final T call ()
+        {
+          final T aMerged = getEntityManager ().merge (aFinalToSave);
+          appendOutboxEvent (EProcChangeType.SAVED, aMerged);
+          return aMerged;
+        }
+      });
+      if (aResult.isSuccess ())
+        return ProcSaveResult.createSuccess (aResult.get (), nAttempts);
+      if (!isOptimisticLockFailure (aResult.getThrowable ()))
+        return ProcSaveResult.createFailure (aResult.getThrowable (), nAttempts);
+
+      // Read the current state, bypassing all caches
+      final int nID = aFinalToSave.getID ();
+      final T aCurrent = doSelect (new Callable <T> ()
+      {
+        public final T call ()
+        {
+          final Map <String, Object> aHints = ContainerHelper.newMap ();
+          aHints.put ("javax.persistence.cache.retrieveMode", CacheRetrieveMode.BYPASS);
+          aHints.put (QueryHints.REFRESH, HintValues.TRUE);
+          return getEntityManager ().find (aClass, Integer.valueOf (nID), aHints);
+        }
+      }).get ();
+      if (aCurrent == null)
+        return ProcSaveResult.createFailure (aResult.getThrowable (), nAttempts);
+
+      if (aResolver == null || nAttempts > nMaxRetries)
+        return ProcSaveResult.createConflict (aCurrent, aResult.getThrowable (), nAttempts);
+      final T aResolved = aResolver.resolveConflict (aFinalToSave, aCurrent);
+      if (aResolved == null)
+        return ProcSaveResult.createConflict (aCurrent, aResult.getThrowable (), nAttempts);
+      aToSave = aResolved;
+    }
+  }
+
+  /**
+   * Get the IDs of all documents that may be archived. Documents without an
+   * issue date are aged by the fallback date attribute of the document type,
+   * if present.
+   * 
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param aIssuedBefore
+   *        The exclusive maximum issue date. May not be <code>null</code>.
+   * @param aClosedStates
+   *        The states in which a document is considered closed. May not be
+   *        <code>null</code>.
+   * @param nMaxCount
+   *        The maximum number of IDs to return. Must be &gt; 0.
+   * @return The matching IDs in ascending order. Never <code>null</code>.
+   * @see IProcDocumentArchiver#getAllArchiveCandidateIDs(LocalDate, Collection,
+   *      int)
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected final List <Integer> getArchiveCandidateIDs (@Nonnull final EProcDocumentType eType,
+                                                         @Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates,
+                                                         @Nonnegative final int nMaxCount)
+  {
+    if (eType == null)
+      throw new NullPointerException ("type");
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+    if (nMaxCount <= 0)
+      throw new IllegalArgumentException ("Illegal max count " + nMaxCount);
+
+    final List <Integer> ret = doSelect (new Callable <List <Integer>> ()
+    {
+      public final List <Integer> call ()
+      {
+        final String sDocument = "p." + eType.getDocumentAttribute ();
+        final String sFallbackDate = eType.getFallbackDateAttribute ();
+        final StringBuilder aQueryString = new StringBuilder ("SELECT p.ID FROM " +
+                                                              eType.getEntityName () +
+                                                              " p WHERE (" +
+                                                              sDocument +
+                                                              ".issueDate < :issuedbefore");
+        if (sFallbackDate != null)
+          aQueryString.append (" OR (" + sDocument + ".issueDate IS NULL AND p." + sFallbackDate + " < :datebefore)");
+        aQueryString.append (") AND (" + sDocument + ".deleted = true");
+        if (!aClosedStates.isEmpty ())
+          aQueryString.append (" OR p.state IN :states");
+        aQueryString.append (") ORDER BY p.ID");
+        final TypedQuery <Integer> aQuery = getEntityManager ().createQuery (aQueryString.toString (), Integer.class)
+                                                               .setParameter ("issuedbefore", aIssuedBefore);
+        if (sFallbackDate != null)
+          aQuery.setParameter ("datebefore", aIssuedBefore.toDateTimeAtStartOfDay ());
+        if (!aClosedStates.isEmpty ())
+          aQuery.setParameter ("states", aClosedStates);
+        return aQuery.setMaxResults (nMaxCount).getResultList ();
+      }
+    }).get ();
+    return ret == null ? new ArrayList <Integer> () : ContainerHelper.newList (ret);
+  }
+
+  /**
+   * Check whether a single document matches the criteria of
+   * {@link #getArchiveCandidateIDs(EProcDocumentType, LocalDate, Collection, int)}
+   * . Used to re-check a candidate on the entity loaded for archiving.
+   * 
+   * @param aIssueDate
+   *        The issue date of the document. May be <code>null</code>.
+   * @param aFallbackDate
+   *        The fallback date of the document, if the document type has one.
+   *        May be <code>null</code>.
+   * @param bDeleted
+   *        <code>true</code> if the document is deleted.
+   * @param eState
+   *        The state of the document. May be <code>null</code>.
+   * @param aIssuedBefore
+   *        The exclusive maximum issue date. May not be <code>null</code>.
+   * @param aClosedStates
+   *        The states in which a document is considered closed. May not be
+   *        <code>null</code>.
+   * @return <code>true</code> if the document may be archived.
+   */
+  protected static final boolean isArchiveCandidate (@Nullable final LocalDate aIssueDate,
+                                                     @Nullable final DateTime aFallbackDate,
+                                                     final boolean bDeleted,
+                                                     @Nullable final EProcState eState,
+                                                     @Nonnull final LocalDate aIssuedBefore,
+                                                     @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+
+    final boolean bOldEnough = aIssueDate != null ? aIssueDate.isBefore (aIssuedBefore)
+                                                  : aFallbackDate != null &&
+                                                    aFallbackDate.isBefore (aIssuedBefore.toDateTimeAtStartOfDay ());
+    return bOldEnough && (bDeleted || aClosedStates.contains (eState));
+  }
+
+  /**
+   * Change the state of many documents with set-based statements instead of
+   * loading and modifying each document separately. Only non-deleted documents
+   * whose current state is contained in the expected states are changed. The
+   * matching rows are locked with a single SELECT ... FOR UPDATE and changed
+   * with a single bulk UPDATE per {@value #MAX_IN_LIST_SIZE} IDs, all within one
+   * transaction. As bulk updates bypass the persistence context, the changed
+   * documents are evicted from the shared cache afterwards.
+   * 
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param aIDs
+   *        The IDs of the documents to change. May not be <code>null</code>.
+   * @param aExpectedStates
+   *        The states a document must currently be in to be changed. May not
+   *        be <code>null</code>.
+   * @param eNewState
+   *        The new state. May not be <code>null</code>.
+   * @return The IDs of all documents that were actually changed. Never
+   *         <code>null</code> but empty if the transaction failed.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  protected final List <Integer> changeStateInBulk (@Nonnull final EProcDocumentType eType,
+                                                    @Nonnull final Collection <Integer> aIDs,
+                                                    @Nonnull final Collection <EProcState> aExpectedStates,
+                                                    @Nonnull final EProcState eNewState)
+  {
+    if (eType == null)
+      throw new NullPointerException ("type");
+    if (aIDs == null)
+      throw new NullPointerException ("IDs");
+    if (aExpectedStates == null)
+      throw new NullPointerException ("expectedStates");
+    if (eNewState == null)
+      throw new NullPointerException ("newState");
+
+    if (aIDs.isEmpty () || aExpectedStates.isEmpty ())
+      return new ArrayList <Integer> ();
+
+    final List <Integer> aAllIDs = ContainerHelper.newList (ContainerHelper.newSet (aIDs));
+    final Map <Integer, EProcState> aChanged = ContainerHelper.newOrderedMap ();
+    final JPAExecutionResult <?> ret = doInTransaction (new Runnable ()
+    {
+      public final void run ()
+      {
+        final EntityManager aEM = getEntityManager ();
+        for (int nStart = 0; nStart < aAllIDs.size (); nStart += MAX_IN_LIST_SIZE)
+        {
+          final List <Integer> aChunkIDs = aAllIDs.subList (nStart, Math.min (nStart + MAX_IN_LIST_SIZE, aAllIDs.size ()));
+
+          // Lock all matching rows so that the update affects exactly them
+          final List <Object []> aRows = aEM.createQuery ("SELECT p.ID, p.state FROM " +
+                                                              eType.getEntityName () +
+                                                              " p WHERE p.ID IN :ids AND p.state IN :states AND p." +
+                                                              eType.getDocumentAttribute () +
+                                                              ".deleted = false",
+                                                          Object [].class)
+                                            .setParameter ("ids", aChunkIDs)
+                                            .setParameter ("states", aExpectedStates)
+                                            .setLockMode (LockModeType.PESSIMISTIC_WRITE)
+                                            .getResultList ();
+          if (aRows.isEmpty ())
+            continue;
+
+          final List <Integer> aMatchingIDs = new ArrayList <Integer> (aRows.size ());
+          for (final Object [] aRow : aRows)
+          {
+            aMatchingIDs.add ((Integer) aRow[0]);
+            aChanged.put ((Integer) aRow[0], (EProcState) aRow[1]);
+          }
+
+          aEM.createQuery ("UPDATE " +
+                           eType.getEntityName () +
+                           " p SET p.state = :newstate, p.version = p.version + 1 WHERE p.ID IN :ids")
+             .setParameter ("newstate", eNewState)
+             .setParameter ("ids", aMatchingIDs)
+             .executeUpdate ();
+          if (m_bOutboxEnabled)
+          {
+            for (final Integer aID : aMatchingIDs)
+              aEM.persist (new ProcOutboxEvent (eType.getImplClass (),
+                                                aID.intValue (),
+                                                EProcChangeType.STATE_CHANGED,
+                                                eNewState));
+          }
+        }
+      }
+    });
+    if (ret.isFailure ())
+      return new ArrayList <Integer> ();
+
+    if (!aChanged.isEmpty ())
+    {
+      // The replica must not keep the previous state either
+      final List <Cache> aCaches = m_aRoutingProvider.getAllSharedCaches ();
+      for (final Map.Entry <Integer, EProcState> aEntry : aChanged.entrySet ())
+      {
+        for (final Cache aCache : aCaches)
+          aCache.evict (eType.getImplClass (), aEntry.getKey ());
+        fireDocumentStateChanged (eType, false, aEntry.getValue (), false, eNewState);
+      }
+    }
+    return ContainerHelper.newList (aChanged.keySet ());
   }
 }
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.id.IHasID;
+import com.phloc.commons.lang.EnumHelper;
+
+/**
+ * Defines which parts of an order or invoice are loaded together with the
+ * header, so that list views don't trigger one lazy query per document.
+ *
+ * @author Philip Helger
+ */
+public enum EProcFetchProfile implements IHasID <String>
+{
+  /** Only the header, customer/supplier and the document itself */
+  HEADER_ONLY ("header", false, false),
+  /** Additionally the order items or invoice lines */
+  WITH_LINES ("lines", true, false),
+  /** Additionally the order items or invoice lines and all attachments */
+  WITH_LINES_AND_ATTACHMENTS ("linesattachments", true, true);
+
+  private final String m_sID;
+  private final boolean m_bFetchLines;
+  private final boolean m_bFetchAttachments;
+
+  private EProcFetchProfile (@Nonnull @Nonempty final String sID,
+                             final boolean bFetchLines,
+                             final boolean bFetchAttachments)
+  {
+    m_sID = sID;
+    m_bFetchLines = bFetchLines;
+    m_bFetchAttachments = bFetchAttachments;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  public boolean isFetchLines ()
+  {
+    return m_bFetchLines;
+  }
+
+  public boolean isFetchAttachments ()
+  {
+    return m_bFetchAttachments;
+  }
+
+  @Nullable
+  public static EProcFetchProfile getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EProcFetchProfile.class, sID);
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * Hook for distributing invalidations of the {@link ProcSharedEntityCache} to
+ * other cluster nodes. The receiving nodes must call
+ * {@link ProcSharedEntityCache#onRemoteInvalidation(Class, int)} on their own
+ * cache.
+ *
+ * @author Philip Helger
+ */
+public interface IProcCacheInvalidationBroadcaster
+{
+  /**
+   * Distribute the invalidation of a single entity. Called after the entity
+   * was evicted on the local node.
+   *
+   * @param aSource
+   *        The cache on which the invalidation happened. Never
+   *        <code>null</code>.
+   * @param aEntityClass
+   *        The class of the invalidated entity. Never <code>null</code>.
+   * @param nID
+   *        The ID of the invalidated entity.
+   */
+  void broadcastInvalidation (@Nonnull ProcSharedEntityCache aSource,
+                              @Nonnull Class <? extends IProcObject> aEntityClass,
+                              int nID);
+}
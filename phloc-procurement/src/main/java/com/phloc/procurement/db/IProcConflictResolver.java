@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * Callback that is invoked when an object could not be saved, because it was
+ * modified concurrently in the meantime.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The domain object type
+ */
+public interface IProcConflictResolver <DATATYPE extends IProcObject>
+{
+  /**
+   * Resolve a concurrent modification.
+   *
+   * @param aOwn
+   *        The object that should have been saved. Never <code>null</code>.
+   * @param aCurrent
+   *        The current object as stored in the database. Never
+   *        <code>null</code>.
+   * @return The object to be saved instead. This is usually the current object
+   *         with the own changes applied, so that it carries the current
+   *         version. May be <code>null</code> to give up and report the
+   *         conflict.
+   */
+  @Nullable
+  DATATYPE resolveConflict (@Nonnull DATATYPE aOwn, @Nonnull DATATYPE aCurrent);
+}
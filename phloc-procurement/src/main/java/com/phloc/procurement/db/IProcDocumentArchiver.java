@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.joda.time.LocalDate;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.state.impl.SuccessWithValue;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * Interface for managers that can move documents into a
+ * {@link ProcDocumentArchive}.
+ *
+ * @author Philip Helger
+ */
+public interface IProcDocumentArchiver
+{
+  /**
+   * @return The type of documents handled. Never <code>null</code>.
+   */
+  @Nonnull
+  EProcDocumentType getDocumentType ();
+
+  /**
+   * Get the IDs of all documents that may be archived. These are all documents
+   * issued before the passed date that are either deleted or in one of the
+   * passed closed states. Incoming documents without an issue date are
+   * considered by their receive date instead. Outgoing documents without an
+   * issue date are never archived, as their age is unknown.
+   *
+   * @param aIssuedBefore
+   *        The exclusive maximum issue date. May not be <code>null</code>.
+   * @param aClosedStates
+   *        The states in which a document is considered closed. May not be
+   *        <code>null</code> but may be empty to only archive deleted
+   *        documents.
+   * @param nMaxCount
+   *        The maximum number of IDs to return. Must be &gt; 0.
+   * @return The matching IDs in ascending order. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  List <Integer> getAllArchiveCandidateIDs (@Nonnull LocalDate aIssuedBefore,
+                                            @Nonnull Collection <EProcState> aClosedStates,
+                                            @Nonnegative int nMaxCount);
+
+  /**
+   * Move a single document including its lines and attachment links into the
+   * archive and remove it from the database. The attachments themselves stay
+   * in the attachment storage. The criteria of
+   * {@link #getAllArchiveCandidateIDs(LocalDate, Collection, int)} are checked
+   * again within the transaction, so that a document that was undeleted or
+   * reopened in the meantime is not archived.
+   *
+   * @param nID
+   *        The ID of the document to archive.
+   * @param aIssuedBefore
+   *        The exclusive maximum issue date. May not be <code>null</code>.
+   * @param aClosedStates
+   *        The states in which a document is considered closed. May not be
+   *        <code>null</code> but may be empty to only archive deleted
+   *        documents.
+   * @return A failure if archiving failed. Otherwise a success with
+   *         {@link EChange#CHANGED} if the document was archived and
+   *         {@link EChange#UNCHANGED} if it is not present in the database or
+   *         no longer matches the criteria. Never <code>null</code>.
+   */
+  @Nonnull
+  SuccessWithValue <EChange> archiveDocument (int nID,
+                                              @Nonnull LocalDate aIssuedBefore,
+                                              @Nonnull Collection <EProcState> aClosedStates);
+}
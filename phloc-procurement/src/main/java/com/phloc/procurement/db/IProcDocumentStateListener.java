@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * Listener interface that is notified by the document managers after the
+ * state of documents was changed successfully.
+ *
+ * @author Philip Helger
+ */
+public interface IProcDocumentStateListener
+{
+  /**
+   * Called after the state or the deletion flag of a single document was
+   * changed.
+   *
+   * @param eType
+   *        The document type. Never <code>null</code>.
+   * @param bOldDeleted
+   *        The old deletion flag
+   * @param eOldState
+   *        The old state. May be <code>null</code>.
+   * @param bNewDeleted
+   *        The new deletion flag
+   * @param eNewState
+   *        The new state. May be <code>null</code>.
+   */
+  void onDocumentStateChanged (@Nonnull EProcDocumentType eType,
+                               boolean bOldDeleted,
+                               @Nullable EProcState eOldState,
+                               boolean bNewDeleted,
+                               @Nullable EProcState eNewState);
+
+  /**
+   * Called after documents were saved, for which the previous state is not
+   * known.
+   *
+   * @param eType
+   *        The document type. Never <code>null</code>.
+   */
+  void onDocumentsSaved (@Nonnull EProcDocumentType eType);
+}
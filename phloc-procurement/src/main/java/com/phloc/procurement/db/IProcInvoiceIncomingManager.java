@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+
+/**
+ * Interface for the incoming invoice managers. It is implemented by the JPA based
+ * {@link ProcInvoiceIncomingManager} and by the in-memory implementation.
+ *
+ * @author Philip Helger
+ */
+public interface IProcInvoiceIncomingManager
+{
+  @Nonnull
+  ISuccessIndicator saveInvoice (@Nonnull ProcInvoiceIncoming aInvoice);
+
+  @Nonnull
+  ISuccessIndicator deleteInvoice (@Nonnull ProcInvoiceIncoming aInvoice);
+
+  @Nonnull
+  ISuccessIndicator undeleteInvoice (@Nonnull ProcInvoiceIncoming aInvoice);
+
+  @Nonnull
+  ISuccessIndicator acceptInvoice (@Nonnull ProcInvoiceIncoming aInvoice);
+
+  @Nonnull
+  ISuccessIndicator rejectInvoice (@Nonnull ProcInvoiceIncoming aInvoice);
+
+  @Nonnull
+  ISuccessIndicator changeInvoiceState (@Nonnull ProcInvoiceIncoming aInvoice, @Nonnull EProcState eNewState);
+
+  @Nonnull
+  List <Integer> acceptInvoices (@Nonnull Collection <Integer> aInvoiceIDs);
+
+  @Nonnull
+  List <Integer> rejectInvoices (@Nonnull Collection <Integer> aInvoiceIDs);
+
+  @Nonnull
+  List <Integer> changeInvoicesState (@Nonnull Collection <Integer> aInvoiceIDs, @Nonnull EProcState eNewState);
+
+  /**
+   * Change the state of all passed documents that are not deleted and
+   * currently in one of the expected states.
+   *
+   * @param aInvoiceIDs
+   *        The IDs of the documents to change. May not be <code>null</code>.
+   * @param aExpectedStates
+   *        The states from which the transition is allowed. May not be
+   *        <code>null</code>.
+   * @param eNewState
+   *        The new state. May not be <code>null</code>.
+   * @return The IDs of the changed documents. Never <code>null</code>.
+   */
+  @Nonnull
+  List <Integer> changeInvoicesState (@Nonnull Collection <Integer> aInvoiceIDs,
+                                     @Nonnull Collection <EProcState> aExpectedStates,
+                                     @Nonnull EProcState eNewState);
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllInvoices ();
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllInvoices (@Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllInvoiceHeaders ();
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllInvoiceHeaders (@Nullable EProcState eState);
+
+  @Nonnull
+  ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (int nAfterID, @Nonnegative int nPageSize);
+
+  /**
+   * Get a single page of the active documents in ascending ID order.
+   *
+   * @param eState
+   *        The optional state to filter. May be <code>null</code>.
+   * @param nClient
+   *        The client to filter. Pass a negative value for all clients.
+   * @param nAfterID
+   *        The key of the previous page as returned by
+   *        {@link ProcKeysetPage#getNextPageKey()} or
+   *        {@link ProcKeysetPage#FIRST_PAGE_KEY} for the first page.
+   * @param nPageSize
+   *        The maximum number of documents per page. Must be &gt; 0.
+   * @return The page and never <code>null</code>.
+   */
+  @Nonnull
+  ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (@Nullable EProcState eState,
+                                                        int nClient,
+                                                        int nAfterID,
+                                                        @Nonnegative int nPageSize);
+
+  @Nonnegative
+  int iterateAllInvoices (@Nonnull INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback);
+
+  @Nonnegative
+  int iterateAllInvoices (@Nullable EProcState eState, @Nonnull INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback);
+
+  @Nonnegative
+  long getCountAllInvoices ();
+
+  @Nonnegative
+  long getCountAllInvoices (@Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllDeletedInvoices ();
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllDeletedInvoices (@Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountAllDeletedInvoices ();
+
+  @Nonnegative
+  long getCountAllDeletedInvoices (@Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountOfNewInvoices ();
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllInvoicesOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllInvoiceHeadersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  int iterateAllInvoicesOfClient (@Nonnegative int nClient,
+                                  @Nullable EProcState eState,
+                                  @Nonnull INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback);
+
+  @Nonnegative
+  long getCountAllInvoicesOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcInvoiceIncoming> getAllDeletedInvoicesOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountAllDeletedInvoicesOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountOfNewInvoicesOfClient (@Nonnegative int nClient);
+
+  @Nullable
+  ProcInvoiceIncoming getActiveInvoiceOfID (int nInvoiceID);
+
+  @Nullable
+  ProcInvoiceIncoming getAnyInvoiceOfID (int nInvoiceID);
+
+  @Nonnull
+  EProcDocumentType getDocumentType ();
+}
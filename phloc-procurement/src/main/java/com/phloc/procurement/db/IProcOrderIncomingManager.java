@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.order.ProcOrderIncoming;
+
+/**
+ * Interface for the incoming order managers. It is implemented by the JPA based
+ * {@link ProcOrderIncomingManager} and by the in-memory implementation.
+ *
+ * @author Philip Helger
+ */
+public interface IProcOrderIncomingManager
+{
+  @Nonnull
+  ISuccessIndicator saveOrder (@Nonnull ProcOrderIncoming aOrder);
+
+  @Nonnull
+  ISuccessIndicator deleteOrder (@Nonnull ProcOrderIncoming aOrder);
+
+  @Nonnull
+  ISuccessIndicator undeleteOrder (@Nonnull ProcOrderIncoming aOrder);
+
+  @Nonnull
+  ISuccessIndicator acceptOrder (@Nonnull ProcOrderIncoming aOrder);
+
+  @Nonnull
+  ISuccessIndicator rejectOrder (@Nonnull ProcOrderIncoming aOrder);
+
+  @Nonnull
+  ISuccessIndicator changeOrderState (@Nonnull ProcOrderIncoming aOrder, @Nonnull EProcState eNewState);
+
+  @Nonnull
+  List <Integer> acceptOrders (@Nonnull Collection <Integer> aOrderIDs);
+
+  @Nonnull
+  List <Integer> rejectOrders (@Nonnull Collection <Integer> aOrderIDs);
+
+  @Nonnull
+  List <Integer> changeOrdersState (@Nonnull Collection <Integer> aOrderIDs, @Nonnull EProcState eNewState);
+
+  /**
+   * Change the state of all passed documents that are not deleted and
+   * currently in one of the expected states.
+   *
+   * @param aOrderIDs
+   *        The IDs of the documents to change. May not be <code>null</code>.
+   * @param aExpectedStates
+   *        The states from which the transition is allowed. May not be
+   *        <code>null</code>.
+   * @param eNewState
+   *        The new state. May not be <code>null</code>.
+   * @return The IDs of the changed documents. Never <code>null</code>.
+   */
+  @Nonnull
+  List <Integer> changeOrdersState (@Nonnull Collection <Integer> aOrderIDs,
+                                   @Nonnull Collection <EProcState> aExpectedStates,
+                                   @Nonnull EProcState eNewState);
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllOrders ();
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllOrders (@Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllOrderHeaders ();
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllOrderHeaders (@Nullable EProcState eState);
+
+  @Nonnull
+  ProcKeysetPage <ProcOrderIncoming> getOrdersPage (int nAfterID, @Nonnegative int nPageSize);
+
+  /**
+   * Get a single page of the active documents in ascending ID order.
+   *
+   * @param eState
+   *        The optional state to filter. May be <code>null</code>.
+   * @param nClient
+   *        The client to filter. Pass a negative value for all clients.
+   * @param nAfterID
+   *        The key of the previous page as returned by
+   *        {@link ProcKeysetPage#getNextPageKey()} or
+   *        {@link ProcKeysetPage#FIRST_PAGE_KEY} for the first page.
+   * @param nPageSize
+   *        The maximum number of documents per page. Must be &gt; 0.
+   * @return The page and never <code>null</code>.
+   */
+  @Nonnull
+  ProcKeysetPage <ProcOrderIncoming> getOrdersPage (@Nullable EProcState eState,
+                                                    int nClient,
+                                                    int nAfterID,
+                                                    @Nonnegative int nPageSize);
+
+  @Nonnegative
+  int iterateAllOrders (@Nonnull INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback);
+
+  @Nonnegative
+  int iterateAllOrders (@Nullable EProcState eState, @Nonnull INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback);
+
+  @Nonnegative
+  long getCountAllOrders ();
+
+  @Nonnegative
+  long getCountAllOrders (@Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllDeletedOrders ();
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllDeletedOrders (@Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountAllDeletedOrders ();
+
+  @Nonnegative
+  long getCountAllDeletedOrders (@Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountOfNewOrders ();
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllOrdersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcDocumentHeader> getAllOrderHeadersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  int iterateAllOrdersOfClient (@Nonnegative int nClient,
+                                @Nullable EProcState eState,
+                                @Nonnull INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback);
+
+  @Nonnegative
+  long getCountAllOrdersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnull
+  List <ProcOrderIncoming> getAllDeletedOrdersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountAllDeletedOrdersOfClient (@Nonnegative int nClient, @Nullable EProcState eState);
+
+  @Nonnegative
+  long getCountOfNewOrdersOfClient (@Nonnegative int nClient);
+
+  @Nullable
+  ProcOrderIncoming getActiveOrderOfID (int nOrderID);
+
+  @Nullable
+  ProcOrderIncoming getAnyOrderOfID (int nOrderID);
+
+  @Nonnull
+  EProcDocumentType getDocumentType ();
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.state.ESuccess;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
+
+/**
+ * Listener interface for the {@link ProcOutboxDispatcher}. Events are
+ * delivered at least once, so implementations must be idempotent.
+ *
+ * @author Philip Helger
+ */
+public interface IProcOutboxEventListener
+{
+  /**
+   * Deliver a single event.
+   *
+   * @param aEvent
+   *        The event to deliver. Never <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the event could not be delivered and
+   *         should be delivered again later.
+   */
+  @Nonnull
+  ESuccess onOutboxEvent (@Nonnull ProcOutboxEvent aEvent);
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
+
+/**
+ * Interface for the outbox managers. It is implemented by the JPA based
+ * {@link ProcOutboxManager} and used by the {@link ProcOutboxDispatcher}.
+ *
+ * @author Philip Helger
+ */
+public interface IProcOutboxManager
+{
+  /**
+   * @param nMaxCount
+   *        The maximum number of events to return. Must be &gt; 0.
+   * @return The oldest pending events in the order of creation. May be
+   *         <code>null</code> if reading failed.
+   */
+  List <ProcOutboxEvent> getPendingEvents (@Nonnegative int nMaxCount);
+
+  @Nonnegative
+  long getCountPendingEvents ();
+
+  /**
+   * Remove the passed events after they were dispatched.
+   *
+   * @param aEventIDs
+   *        The IDs of the dispatched events. May not be <code>null</code>.
+   * @return {@link com.phloc.commons.state.ESuccess}
+   */
+  @Nonnull
+  ISuccessIndicator removeEvents (@Nonnull Collection <Integer> aEventIDs);
+}
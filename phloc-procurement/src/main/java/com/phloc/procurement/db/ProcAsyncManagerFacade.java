@@ -0,0 +1,350 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.invoice.ProcInvoiceOutgoing;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+import com.phloc.procurement.party.IProcParty;
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcMasterData;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Non-blocking facade for the most common manager lookups. All calls are
+ * executed in a {@link ProcManagerExecutor} and return a
+ * {@link CompletableFuture}, so that callers can compose further steps without
+ * blocking. Independent lookups that are needed to build an outgoing document
+ * are executed in parallel.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcAsyncManagerFacade
+{
+  private final ProcManagerExecutor m_aExecutor;
+  private final ProcMasterDataManager m_aMasterDataMgr;
+  private final ProcCustomerManager m_aCustomerMgr;
+  private final ProcSupplierManager m_aSupplierMgr;
+  private final ProcOrderOutgoingManager m_aOrderOutgoingMgr;
+  private final ProcInvoiceOutgoingManager m_aInvoiceOutgoingMgr;
+
+  public ProcAsyncManagerFacade (@Nonnull final ProcManagerExecutor aExecutor,
+                                 @Nonnull final ProcMasterDataManager aMasterDataMgr,
+                                 @Nonnull final ProcCustomerManager aCustomerMgr,
+                                 @Nonnull final ProcSupplierManager aSupplierMgr,
+                                 @Nonnull final ProcOrderOutgoingManager aOrderOutgoingMgr,
+                                 @Nonnull final ProcInvoiceOutgoingManager aInvoiceOutgoingMgr)
+  {
+    if (aExecutor == null)
+      throw new NullPointerException ("executor");
+    if (aMasterDataMgr == null)
+      throw new NullPointerException ("masterDataMgr");
+    if (aCustomerMgr == null)
+      throw new NullPointerException ("customerMgr");
+    if (aSupplierMgr == null)
+      throw new NullPointerException ("supplierMgr");
+    if (aOrderOutgoingMgr == null)
+      throw new NullPointerException ("orderOutgoingMgr");
+    if (aInvoiceOutgoingMgr == null)
+      throw new NullPointerException ("invoiceOutgoingMgr");
+    m_aExecutor = aExecutor;
+    m_aMasterDataMgr = aMasterDataMgr;
+    m_aCustomerMgr = aCustomerMgr;
+    m_aSupplierMgr = aSupplierMgr;
+    m_aOrderOutgoingMgr = aOrderOutgoingMgr;
+    m_aInvoiceOutgoingMgr = aInvoiceOutgoingMgr;
+  }
+
+  @Nonnull
+  public ProcManagerExecutor getExecutor ()
+  {
+    return m_aExecutor;
+  }
+
+  /**
+   * Run an arbitrary manager call asynchronously.
+   *
+   * @param aCallable
+   *        The callable to execute. May not be <code>null</code>.
+   * @return The future of the execution and never <code>null</code>.
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> submit (@Nonnull final INonThrowingCallable <T> aCallable)
+  {
+    return m_aExecutor.supplyAsync (aCallable);
+  }
+
+  @Nonnull
+  public CompletableFuture <ProcMasterData> getMasterData ()
+  {
+    return submit (new INonThrowingCallable <ProcMasterData> ()
+    {
+      public ProcMasterData call ()
+      {
+        return m_aMasterDataMgr.getMasterData ();
+      }
+    });
+  }
+
+  @Nonnull
+  public CompletableFuture <ProcCustomer> getActiveCustomerOfID (final int nCustomerID)
+  {
+    return submit (new INonThrowingCallable <ProcCustomer> ()
+    {
+      public ProcCustomer call ()
+      {
+        return m_aCustomerMgr.getActiveCustomerOfID (nCustomerID);
+      }
+    });
+  }
+
+  @Nonnull
+  public CompletableFuture <ProcSupplier> getActiveSupplierOfID (final int nSupplierID)
+  {
+    return submit (new INonThrowingCallable <ProcSupplier> ()
+    {
+      public ProcSupplier call ()
+      {
+        return m_aSupplierMgr.getActiveSupplierOfID (nSupplierID);
+      }
+    });
+  }
+
+  @Nonnull
+  public CompletableFuture <ProcOrderOutgoing> getAnyOrderOutgoingOfID (final int nOrderID)
+  {
+    return submit (new INonThrowingCallable <ProcOrderOutgoing> ()
+    {
+      public ProcOrderOutgoing call ()
+      {
+        return m_aOrderOutgoingMgr.getAnyOrderOfID (nOrderID);
+      }
+    });
+  }
+
+  @Nonnull
+  public CompletableFuture <ProcInvoiceOutgoing> getAnyInvoiceOutgoingOfID (final int nInvoiceID)
+  {
+    return submit (new INonThrowingCallable <ProcInvoiceOutgoing> ()
+    {
+      public ProcInvoiceOutgoing call ()
+      {
+        return m_aInvoiceOutgoingMgr.getAnyInvoiceOfID (nInvoiceID);
+      }
+    });
+  }
+
+  @Nonnull
+  private static <PARTYTYPE extends IProcParty, DOCTYPE> ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE> _getContext (@Nonnull final Future <ProcMasterData> aMasterData,
+                                                                                                                          @Nonnull final Future <PARTYTYPE> aParty,
+                                                                                                                          @Nullable final Future <DOCTYPE> aDocument,
+                                                                                                                          @Nonnegative final long nTimeout,
+                                                                                                                          @Nonnull final TimeUnit eUnit) throws TimeoutException,
+                                                                                                                                                         ExecutionException,
+                                                                                                                                                         InterruptedException
+  {
+    // All lookups share the same deadline
+    final long nDeadline = System.nanoTime () + eUnit.toNanos (nTimeout);
+    boolean bSuccess = false;
+    try
+    {
+      final ProcMasterData aMasterDataObj = ProcManagerExecutor.get (aMasterData,
+                                                                     nDeadline - System.nanoTime (),
+                                                                     TimeUnit.NANOSECONDS);
+      final PARTYTYPE aPartyObj = ProcManagerExecutor.get (aParty, nDeadline - System.nanoTime (), TimeUnit.NANOSECONDS);
+      final DOCTYPE aDocumentObj = aDocument == null ? null : ProcManagerExecutor.get (aDocument,
+                                                                                       nDeadline - System.nanoTime (),
+                                                                                       TimeUnit.NANOSECONDS);
+      bSuccess = true;
+      return new ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE> (aMasterDataObj, aPartyObj, aDocumentObj);
+    }
+    finally
+    {
+      if (!bSuccess)
+      {
+        // Don't leave pending lookups behind
+        aMasterData.cancel (true);
+        aParty.cancel (true);
+        if (aDocument != null)
+          aDocument.cancel (true);
+      }
+    }
+  }
+
+  @Nonnull
+  private static <PARTYTYPE extends IProcParty, DOCTYPE> CompletableFuture <ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE>> _combine (@Nonnull final CompletableFuture <ProcMasterData> aMasterData,
+                                                                                                                                         @Nonnull final CompletableFuture <PARTYTYPE> aParty,
+                                                                                                                                         @Nullable final CompletableFuture <DOCTYPE> aDocument)
+  {
+    final CompletableFuture <DOCTYPE> aRealDocument = aDocument != null ? aDocument
+                                                                        : CompletableFuture.<DOCTYPE> completedFuture (null);
+    return CompletableFuture.allOf (aMasterData, aParty, aRealDocument)
+                            .thenApply (new Function <Void, ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE>> ()
+                            {
+                              public ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE> apply (final Void aIgnored)
+                              {
+                                // All futures are completed at this point
+                                return new ProcOutgoingDocumentContext <PARTYTYPE, DOCTYPE> (aMasterData.join (),
+                                                                                             aParty.join (),
+                                                                                             aRealDocument.join ());
+                              }
+                            });
+  }
+
+  /**
+   * Load the master data, the customer and optionally an existing outgoing
+   * invoice in parallel without blocking the caller.
+   *
+   * @param nCustomerID
+   *        The ID of the customer to load.
+   * @param nInvoiceID
+   *        The ID of the outgoing invoice to load or a negative value if a new
+   *        invoice is to be created.
+   * @return The future that is completed when all lookups are done. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <ProcOutgoingDocumentContext <ProcCustomer, ProcInvoiceOutgoing>> getOutgoingInvoiceContextAsync (final int nCustomerID,
+                                                                                                                             final int nInvoiceID)
+  {
+    return _combine (getMasterData (),
+                     getActiveCustomerOfID (nCustomerID),
+                     nInvoiceID < 0 ? null : getAnyInvoiceOutgoingOfID (nInvoiceID));
+  }
+
+  /**
+   * Load the master data, the supplier and optionally an existing outgoing
+   * order in parallel without blocking the caller.
+   *
+   * @param nSupplierID
+   *        The ID of the supplier to load.
+   * @param nOrderID
+   *        The ID of the outgoing order to load or a negative value if a new
+   *        order is to be created.
+   * @return The future that is completed when all lookups are done. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <ProcOutgoingDocumentContext <ProcSupplier, ProcOrderOutgoing>> getOutgoingOrderContextAsync (final int nSupplierID,
+                                                                                                                         final int nOrderID)
+  {
+    return _combine (getMasterData (),
+                     getActiveSupplierOfID (nSupplierID),
+                     nOrderID < 0 ? null : getAnyOrderOutgoingOfID (nOrderID));
+  }
+
+  /**
+   * Load the master data, the customer and optionally an existing outgoing
+   * invoice in parallel.
+   *
+   * @param nCustomerID
+   *        The ID of the customer to load.
+   * @param nInvoiceID
+   *        The ID of the outgoing invoice to load or a negative value if a new
+   *        invoice is to be created.
+   * @param nTimeout
+   *        The maximum time to wait for all lookups together.
+   * @param eUnit
+   *        The unit of the timeout. May not be <code>null</code>.
+   * @return The loaded context and never <code>null</code>.
+   * @throws TimeoutException
+   *         If not all lookups finished in time. All pending lookups are
+   *         cancelled.
+   * @throws ExecutionException
+   *         If a lookup failed
+   * @throws InterruptedException
+   *         If waiting was interrupted
+   */
+  @Nonnull
+  public ProcOutgoingDocumentContext <ProcCustomer, ProcInvoiceOutgoing> getOutgoingInvoiceContext (final int nCustomerID,
+                                                                                                    final int nInvoiceID,
+                                                                                                    @Nonnegative final long nTimeout,
+                                                                                                    @Nonnull final TimeUnit eUnit) throws TimeoutException,
+                                                                                                                                   ExecutionException,
+                                                                                                                                   InterruptedException
+  {
+    if (eUnit == null)
+      throw new NullPointerException ("unit");
+
+    return _getContext (getMasterData (),
+                        getActiveCustomerOfID (nCustomerID),
+                        nInvoiceID < 0 ? null : getAnyInvoiceOutgoingOfID (nInvoiceID),
+                        nTimeout,
+                        eUnit);
+  }
+
+  /**
+   * Load the master data, the supplier and optionally an existing outgoing
+   * order in parallel.
+   *
+   * @param nSupplierID
+   *        The ID of the supplier to load.
+   * @param nOrderID
+   *        The ID of the outgoing order to load or a negative value if a new
+   *        order is to be created.
+   * @param nTimeout
+   *        The maximum time to wait for all lookups together.
+   * @param eUnit
+   *        The unit of the timeout. May not be <code>null</code>.
+   * @return The loaded context and never <code>null</code>.
+   * @throws TimeoutException
+   *         If not all lookups finished in time. All pending lookups are
+   *         cancelled.
+   * @throws ExecutionException
+   *         If a lookup failed
+   * @throws InterruptedException
+   *         If waiting was interrupted
+   */
+  @Nonnull
+  public ProcOutgoingDocumentContext <ProcSupplier, ProcOrderOutgoing> getOutgoingOrderContext (final int nSupplierID,
+                                                                                                final int nOrderID,
+                                                                                                @Nonnegative final long nTimeout,
+                                                                                                @Nonnull final TimeUnit eUnit) throws TimeoutException,
+                                                                                                                               ExecutionException,
+                                                                                                                               InterruptedException
+  {
+    if (eUnit == null)
+      throw new NullPointerException ("unit");
+
+    return _getContext (getMasterData (),
+                        getActiveSupplierOfID (nSupplierID),
+                        nOrderID < 0 ? null : getAnyOrderOutgoingOfID (nOrderID),
+                        nTimeout,
+                        eUnit);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("executor", m_aExecutor).toString ();
+  }
+}
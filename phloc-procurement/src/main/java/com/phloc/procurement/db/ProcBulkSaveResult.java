@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * The result of a bulk save operation. Contains the information which of the
+ * passed objects were saved successfully and which were not. The overall
+ * result is only successful if no single object failed.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The saved domain object type
+ */
+@NotThreadSafe
+public final class ProcBulkSaveResult <DATATYPE> implements ISuccessIndicator
+{
+  private final List <DATATYPE> m_aSucceeded = new ArrayList <DATATYPE> ();
+  private final List <DATATYPE> m_aFailed = new ArrayList <DATATYPE> ();
+
+  public ProcBulkSaveResult ()
+  {}
+
+  void addSuccess (@Nonnull final DATATYPE aObject)
+  {
+    m_aSucceeded.add (aObject);
+  }
+
+  void addFailure (@Nonnull final DATATYPE aObject)
+  {
+    m_aFailed.add (aObject);
+  }
+
+  /**
+   * @return All objects that were saved successfully, in the order they were
+   *         passed in. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <DATATYPE> getAllSucceeded ()
+  {
+    return ContainerHelper.newList (m_aSucceeded);
+  }
+
+  @Nonnegative
+  public int getSucceededCount ()
+  {
+    return m_aSucceeded.size ();
+  }
+
+  /**
+   * @return All objects that could not be saved, in the order they were passed
+   *         in. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <DATATYPE> getAllFailed ()
+  {
+    return ContainerHelper.newList (m_aFailed);
+  }
+
+  @Nonnegative
+  public int getFailedCount ()
+  {
+    return m_aFailed.size ();
+  }
+
+  public boolean isSuccess ()
+  {
+    return m_aFailed.isEmpty ();
+  }
+
+  public boolean isFailure ()
+  {
+    return !m_aFailed.isEmpty ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("succeeded", m_aSucceeded.size ())
+                                       .append ("failed", m_aFailed.size ())
+                                       .toString ();
+  }
+}
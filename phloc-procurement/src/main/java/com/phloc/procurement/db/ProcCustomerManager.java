@@ -17,6 +17,7 @@
  */
 package com.phloc.procurement.db;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -27,62 +28,99 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.state.ISuccessIndicator;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
 import com.phloc.procurement.idscheme.IEntityIDScheme;
+import com.phloc.procurement.outbox.EProcChangeType;
 import com.phloc.procurement.party.IProcCustomer;
+import com.phloc.procurement.party.IProcCustomerPaymentTerm;
 import com.phloc.procurement.party.ProcCustomer;
 
 public class ProcCustomerManager extends AbstractProcManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcCustomerManager.class);
 
+  private volatile ProcPartySearchIndex <ProcCustomer> m_aSearchIndex = new ProcPartySearchIndex <ProcCustomer> ();
+  private final ProcPartyLookupCache <ProcCustomer> m_aLookupCache = new ProcPartyLookupCache <ProcCustomer> (ProcPartyLookupCache.DEFAULT_MAX_SIZE);
+
   public ProcCustomerManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
   {
     super (aEntityMgrProvider);
   }
 
+  private void _invalidateSharedEntityCache (@Nonnull final IProcCustomer aCustomer)
+  {
+    invalidateSharedEntityCache (aCustomer);
+    final List <? extends IProcCustomerPaymentTerm> aPaymentTerms = aCustomer.getPaymentTerms ();
+    if (aPaymentTerms != null)
+      for (final IProcCustomerPaymentTerm aPaymentTerm : aPaymentTerms)
+        invalidateSharedEntityCache (aPaymentTerm);
+  }
+
   @Nonnull
   public final ISuccessIndicator saveCustomer (@Nonnull final IProcCustomer aCustomer)
   {
-    return doInTransaction (new Runnable ()
+    final JPAExecutionResult <IProcCustomer> ret = doInTransaction (new Callable <IProcCustomer> ()
     {
-      public final void run ()
+      public final IProcCustomer call ()
       {
-        getEntityManager ().merge (aCustomer);
+        final IProcCustomer aMerged = getEntityManager ().merge (aCustomer);
+        appendOutboxEvent (EProcChangeType.SAVED, aMerged);
         s_aLogger.info ("Customer saved: " + aCustomer);
+        return aMerged;
       }
     });
+    m_aLookupCache.invalidate (aCustomer);
+    _invalidateSharedEntityCache (ret.isSuccess () ? ret.get () : aCustomer);
+    if (ret.isSuccess ())
+      _updateSearchIndex ((ProcCustomer) ret.get ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteCustomer (@Nonnull final ProcCustomer aCustomer)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aCustomer.setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aCustomer);
         s_aLogger.info ("Customer deleted: " + aCustomer);
       }
     });
+    m_aLookupCache.invalidate (aCustomer);
+    invalidateSharedEntityCache (aCustomer);
+    if (ret.isSuccess ())
+      _updateSearchIndex (aCustomer);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteCustomer (@Nonnull final ProcCustomer aCustomer)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aCustomer.setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aCustomer);
         s_aLogger.info ("Customer undeleted: " + aCustomer);
       }
     });
+    m_aLookupCache.invalidate (aCustomer);
+    invalidateSharedEntityCache (aCustomer);
+    if (ret.isSuccess ())
+      _updateSearchIndex (aCustomer);
+    return ret;
   }
 
   @Nullable
-  public final ProcCustomer getCustomerFromEntityID (final IEntityIDScheme aEntityIDScheme, final String sEntityID)
+  private ProcCustomer _getCustomerFromEntityIDNoCache (@Nullable final IEntityIDScheme aEntityIDScheme,
+                                                        @Nullable final String sEntityID)
   {
     return doSelect (new Callable <ProcCustomer> ()
     {
@@ -104,10 +142,36 @@ public class ProcCustomerManager extends AbstractProcManager
     }).get ();
   }
 
+  @Nullable
+  public final ProcCustomer getCustomerFromEntityID (final IEntityIDScheme aEntityIDScheme, final String sEntityID)
+  {
+    return m_aLookupCache.get (aEntityIDScheme, sEntityID, new INonThrowingCallable <ProcCustomer> ()
+    {
+      @Nullable
+      public final ProcCustomer call ()
+      {
+        return _getCustomerFromEntityIDNoCache (aEntityIDScheme, sEntityID);
+      }
+    }, new INonThrowingCallableWithParameter <ProcCustomer, Integer> ()
+    {
+      @Nullable
+      public final ProcCustomer call (@Nonnull final Integer aID)
+      {
+        return getAnyCustomerOfID (aID.intValue ());
+      }
+    });
+  }
+
+  @Nonnull
+  public final ProcPartyLookupCache <ProcCustomer> getLookupCache ()
+  {
+    return m_aLookupCache;
+  }
+
   @Nonnull
   public final List <ProcCustomer> getAllCustomers ()
   {
-    return doSelect (new Callable <List <ProcCustomer>> ()
+    return doSelectReadOnly (new Callable <List <ProcCustomer>> ()
     {
       public final List <ProcCustomer> call ()
       {
@@ -120,7 +184,7 @@ public class ProcCustomerManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllCustomers ()
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
@@ -133,7 +197,7 @@ public class ProcCustomerManager extends AbstractProcManager
   @Nonnull
   public final List <ProcCustomer> getAllDeletedCustomers ()
   {
-    return doSelect (new Callable <List <ProcCustomer>> ()
+    return doSelectReadOnly (new Callable <List <ProcCustomer>> ()
     {
       public final List <ProcCustomer> call ()
       {
@@ -146,7 +210,7 @@ public class ProcCustomerManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedCustomers ()
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
@@ -156,6 +220,96 @@ public class ProcCustomerManager extends AbstractProcManager
     }).get ().longValue ();
   }
 
+  @Nonnull
+  public final List <ProcCustomer> getAllCustomersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcCustomer>> ()
+    {
+      public final List <ProcCustomer> call ()
+      {
+        return getEntityManager ().createQuery ("SELECT p FROM ProcCustomer p" + " WHERE p.deleted = false AND p.client = :client",
+                                                ProcCustomer.class)
+                                  .setParameter ("client", Integer.valueOf (nClient))
+                                  .getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllCustomersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcCustomer p"
+                                                                         + " WHERE p.deleted = false AND p.client = :client")
+                                                           .setParameter ("client", Integer.valueOf (nClient)));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcCustomer> getAllDeletedCustomersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcCustomer>> ()
+    {
+      public final List <ProcCustomer> call ()
+      {
+        return getEntityManager ().createQuery ("SELECT p FROM ProcCustomer p" + " WHERE p.deleted = true AND p.client = :client",
+                                                ProcCustomer.class)
+                                  .setParameter ("client", Integer.valueOf (nClient))
+                                  .getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedCustomersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcCustomer p"
+                                                                         + " WHERE p.deleted = true AND p.client = :client")
+                                                           .setParameter ("client", Integer.valueOf (nClient)));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nullable
+  public final ProcCustomer getCustomerFromEntityID (@Nonnegative final int nClient,
+                                                     @Nullable final IEntityIDScheme aEntityIDScheme,
+                                                     @Nullable final String sEntityID)
+  {
+    checkClient (nClient);
+    // Not cached, as the lookup cache is not client aware
+    return doSelect (new Callable <ProcCustomer> ()
+    {
+      @Nullable
+      public final ProcCustomer call ()
+      {
+        final List <ProcCustomer> aTmp = getEntityManager ().createQuery ("SELECT p FROM ProcCustomer p"
+                                                                          + " WHERE p.deleted = false AND p.client = :client AND p.entityIDScheme = :scheme AND p.entityID = :value",
+                                                                          ProcCustomer.class)
+                                         .setParameter ("client", Integer.valueOf (nClient))
+                                         .setParameter ("scheme", aEntityIDScheme)
+                                         .setParameter ("value", sEntityID)
+                                         .getResultList ();
+        if (aTmp.isEmpty ())
+          return null;
+        if (aTmp.size () > 1)
+          s_aLogger.warn ("Too many results (" + aTmp.size () + ") for client " + nClient + " and " + aEntityIDScheme + "/" + sEntityID);
+        return aTmp.get (0);
+      }
+    }).get ();
+  }
+
   @Nullable
   public final ProcCustomer getActiveCustomerOfID (final int nCustomerID)
   {
@@ -167,7 +321,7 @@ public class ProcCustomerManager extends AbstractProcManager
     {
       public final ProcCustomer call ()
       {
-        final ProcCustomer aCustomer = getEntityManager ().find (ProcCustomer.class, Integer.valueOf (nCustomerID));
+        final ProcCustomer aCustomer = findEntity (ProcCustomer.class, nCustomerID);
         return aCustomer == null || aCustomer.isDeleted () ? null : aCustomer;
       }
     }).get ();
@@ -184,11 +338,19 @@ public class ProcCustomerManager extends AbstractProcManager
     {
       public final ProcCustomer call ()
       {
-        return getEntityManager ().find (ProcCustomer.class, Integer.valueOf (nCustomerID));
+        return findEntity (ProcCustomer.class, nCustomerID);
       }
     }).get ();
   }
 
+  /**
+   * Get all customers whose entity ID or name contains the passed string. Use
+   * {@link #searchCustomers(String, int)} for a ranked, token based search.
+   *
+   * @param sSearchString
+   *        The string to search. May not be <code>null</code>.
+   * @return All matching customers. Never <code>null</code>.
+   */
   @Nonnull
   public final List <ProcCustomer> getAllMatchingCustomers (final String sSearchString)
   {
@@ -205,4 +367,94 @@ public class ProcCustomerManager extends AbstractProcManager
       }
     }).get ();
   }
+
+  @Nonnull
+  public final ProcPartySearchIndex <ProcCustomer> getSearchIndex ()
+  {
+    return m_aSearchIndex;
+  }
+
+  /**
+   * Set the search index to be used. All manager instances working on the
+   * same database should share one index, so that the changes made via one
+   * instance are visible to the searches of all others and the index is built
+   * only once.
+   *
+   * @param aSearchIndex
+   *        The search index to use. May not be <code>null</code>.
+   */
+  public final void setSearchIndex (@Nonnull final ProcPartySearchIndex <ProcCustomer> aSearchIndex)
+  {
+    if (aSearchIndex == null)
+      throw new NullPointerException ("searchIndex");
+    m_aSearchIndex = aSearchIndex;
+  }
+
+  private void _updateSearchIndex (@Nonnull final ProcCustomer aCustomer)
+  {
+    // Read the field once, as it may be replaced concurrently
+    final ProcPartySearchIndex <ProcCustomer> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.update (aCustomer);
+  }
+
+  @Nonnull
+  private INonThrowingCallable <List <ProcCustomer>> _getSearchIndexProvider ()
+  {
+    return new INonThrowingCallable <List <ProcCustomer>> ()
+    {
+      public List <ProcCustomer> call ()
+      {
+        // A lagging replica would miss the latest changes
+        final List <ProcCustomer> aCustomers = runOnPrimary (new INonThrowingCallable <List <ProcCustomer>> ()
+        {
+          public List <ProcCustomer> call ()
+          {
+            return getAllCustomers ();
+          }
+        });
+        s_aLogger.info ("Customer search index built with " + aCustomers.size () + " entries");
+        return aCustomers;
+      }
+    };
+  }
+
+  public final void rebuildSearchIndex ()
+  {
+    final ProcPartySearchIndex <ProcCustomer> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.rebuild (_getSearchIndexProvider ());
+  }
+
+  /**
+   * Search the customers with the search index. Contrary to a LIKE query, the
+   * name, the entity ID, the VATIN, the city and the zip code are searched
+   * token-wise (exact, prefix and fuzzy) and the results are ranked by
+   * relevance.
+   *
+   * @param sQuery
+   *        The search query. May be <code>null</code>.
+   * @param nMaxResults
+   *        The maximum number of results. Must be &gt; 0.
+   * @return The matching customers in ranked order. Never <code>null</code>.
+   */
+  @Nonnull
+  public final List <ProcCustomer> searchCustomers (@Nullable final String sQuery, @Nonnegative final int nMaxResults)
+  {
+    final ProcPartySearchIndex <ProcCustomer> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.ensureInitialized (_getSearchIndexProvider ());
+    final List <Integer> aIDs = aSearchIndex.search (sQuery, nMaxResults);
+    if (aIDs.isEmpty ())
+      return new ArrayList <ProcCustomer> ();
+
+    return doSelectReadOnly (new Callable <List <ProcCustomer>> ()
+    {
+      public final List <ProcCustomer> call ()
+      {
+        final List <ProcCustomer> ret = new ArrayList <ProcCustomer> ();
+        for (final ProcCustomer aCustomer : getEntitiesOfIDs (ProcCustomer.class, aIDs))
+          if (!aCustomer.isDeleted ())
+            ret.add (aCustomer);
+        return ret;
+      }
+    }).get ();
+  }
 }
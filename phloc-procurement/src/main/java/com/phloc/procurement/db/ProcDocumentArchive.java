@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.FileUtils;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.microdom.IMicroDocument;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.microdom.impl.MicroDocument;
+import com.phloc.commons.microdom.serialize.MicroReader;
+import com.phloc.commons.microdom.serialize.MicroWriter;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.state.ESuccess;
+import com.phloc.procurement.domain.EProcDocumentType;
+
+/**
+ * A file based archive for documents that were removed from the database. Each
+ * document is stored as a separate GZip compressed XML file in a sub directory
+ * per document type, so that single documents can be read back without
+ * scanning the whole archive.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcDocumentArchive
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcDocumentArchive.class);
+  private static final String FILE_EXTENSION = ".xml.gz";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  private final File m_aBaseDir;
+
+  /**
+   * Constructor.
+   *
+   * @param aBaseDir
+   *        The base directory where the archive files should be stored. Must be
+   *        an existing directory.
+   */
+  public ProcDocumentArchive (@Nonnull final File aBaseDir)
+  {
+    if (aBaseDir == null)
+      throw new NullPointerException ("baseDir");
+    if (!aBaseDir.exists () || !aBaseDir.isDirectory ())
+      throw new IllegalArgumentException (aBaseDir + " is not an existing directory");
+    m_aBaseDir = aBaseDir;
+  }
+
+  @Nonnull
+  private File _getFile (@Nonnull final EProcDocumentType eType, final int nID)
+  {
+    return new File (new File (m_aBaseDir, eType.getID ()), Integer.toString (nID) + FILE_EXTENSION);
+  }
+
+  public boolean containsDocument (@Nonnull final EProcDocumentType eType, final int nID)
+  {
+    return _getFile (eType, nID).isFile ();
+  }
+
+  /**
+   * Write a document to a new temporary file next to its final archive file.
+   * Afterwards call either {@link #commitDocument(EProcDocumentType, int, File)}
+   * to move it into place or {@link #discardDocument(File)} to delete it, e.g.
+   * depending on the outcome of the database transaction removing the
+   * document.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param nID
+   *        The document ID.
+   * @param eDocument
+   *        The serialized document. May not be <code>null</code>.
+   * @return The temporary file or <code>null</code> if writing failed.
+   */
+  @Nullable
+  public File prepareDocument (@Nonnull final EProcDocumentType eType,
+                               final int nID,
+                               @Nonnull final IMicroElement eDocument)
+  {
+    if (eDocument == null)
+      throw new NullPointerException ("document");
+
+    final File aFile = _getFile (eType, nID);
+    FileUtils.ensureParentDirectoryIsPresent (aFile);
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    aDoc.appendChild (eDocument.getClone ());
+
+    File aTempFile;
+    try
+    {
+      // Unique name, so that concurrent writers of the same document don't
+      // interfere
+      aTempFile = File.createTempFile (aFile.getName () + '.', TEMP_EXTENSION, aFile.getParentFile ());
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to create temporary archive file for " + eType + " " + nID, ex);
+      return null;
+    }
+
+    final OutputStream aOS = FileUtils.getOutputStream (aTempFile);
+    if (aOS == null)
+    {
+      discardDocument (aTempFile);
+      return null;
+    }
+    try
+    {
+      // Closes the stream and finishes the GZip trailer
+      if (MicroWriter.writeToStream (aDoc, new GZIPOutputStream (aOS)).isFailure ())
+      {
+        StreamUtils.close (aOS);
+        discardDocument (aTempFile);
+        return null;
+      }
+    }
+    catch (final IOException ex)
+    {
+      StreamUtils.close (aOS);
+      s_aLogger.error ("Failed to archive " + eType + " " + nID, ex);
+      discardDocument (aTempFile);
+      return null;
+    }
+    return aTempFile;
+  }
+
+  /**
+   * Atomically move a file created by
+   * {@link #prepareDocument(EProcDocumentType, int, IMicroElement)} into place.
+   * An existing archive file of the same document is replaced.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param nID
+   *        The document ID.
+   * @param aTempFile
+   *        The temporary file. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  public ESuccess commitDocument (@Nonnull final EProcDocumentType eType, final int nID, @Nonnull final File aTempFile)
+  {
+    if (aTempFile == null)
+      throw new NullPointerException ("tempFile");
+
+    final File aFile = _getFile (eType, nID);
+    try
+    {
+      Files.move (aTempFile.toPath (),
+                  aFile.toPath (),
+                  StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+      return ESuccess.SUCCESS;
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to move " + aTempFile + " to " + aFile, ex);
+      return ESuccess.FAILURE;
+    }
+  }
+
+  /**
+   * Delete a file created by
+   * {@link #prepareDocument(EProcDocumentType, int, IMicroElement)} that should
+   * not be committed.
+   *
+   * @param aTempFile
+   *        The temporary file. May be <code>null</code>.
+   */
+  public void discardDocument (@Nullable final File aTempFile)
+  {
+    if (aTempFile != null)
+      FileOperations.deleteFileIfExisting (aTempFile);
+  }
+
+  /**
+   * Write a document to the archive. An existing archive file of the same
+   * document is overwritten. The content is first written to a temporary file
+   * which is then moved atomically, so that readers never see a partially
+   * written file.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param nID
+   *        The document ID.
+   * @param eDocument
+   *        The serialized document. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  public ESuccess writeDocument (@Nonnull final EProcDocumentType eType,
+                                 final int nID,
+                                 @Nonnull final IMicroElement eDocument)
+  {
+    final File aTempFile = prepareDocument (eType, nID, eDocument);
+    if (aTempFile == null)
+      return ESuccess.FAILURE;
+    if (commitDocument (eType, nID, aTempFile).isFailure ())
+    {
+      discardDocument (aTempFile);
+      return ESuccess.FAILURE;
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Read a document from the archive.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param nID
+   *        The document ID.
+   * @return <code>null</code> if no such document is archived or if the archive
+   *         file could not be read.
+   */
+  @Nullable
+  public IMicroElement readDocument (@Nonnull final EProcDocumentType eType, final int nID)
+  {
+    final File aFile = _getFile (eType, nID);
+    if (!aFile.isFile ())
+      return null;
+
+    final InputStream aIS = FileUtils.getInputStream (aFile);
+    if (aIS == null)
+      return null;
+    try
+    {
+      final IMicroDocument aDoc = MicroReader.readMicroXML (new GZIPInputStream (aIS));
+      if (aDoc == null)
+      {
+        s_aLogger.error ("Failed to parse archive file " + aFile);
+        return null;
+      }
+      return aDoc.getDocumentElement ();
+    }
+    catch (final IOException ex)
+    {
+      StreamUtils.close (aIS);
+      s_aLogger.error ("Failed to read archive file " + aFile, ex);
+      return null;
+    }
+  }
+
+  @Nonnull
+  public EChange removeDocument (@Nonnull final EProcDocumentType eType, final int nID)
+  {
+    final File aFile = _getFile (eType, nID);
+    if (!aFile.isFile ())
+      return EChange.UNCHANGED;
+    return EChange.valueOf (FileOperations.deleteFile (aFile).isSuccess ());
+  }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.state.EChange;
+import com.phloc.commons.state.impl.SuccessWithValue;
+import com.phloc.datetime.PDTFactory;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * Moves old documents that are deleted or closed from the database into the
+ * archive. Each run archives at most a batch of documents per document type
+ * and limits the number of documents archived per second, so that the mover
+ * can run alongside the regular load. Use
+ * {@link #schedule(ScheduledExecutorService, long, TimeUnit)} to run it
+ * regularly.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcDocumentArchiveMover implements Runnable
+{
+  /** The default minimum age in days of a document to be archived */
+  public static final int DEFAULT_MIN_AGE_DAYS = 2 * 365;
+  /** The default maximum number of documents per type archived in one run */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+  /** The default maximum number of documents archived per second */
+  public static final int DEFAULT_MAX_DOCUMENTS_PER_SECOND = 10;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcDocumentArchiveMover.class);
+
+  private final List <IProcDocumentArchiver> m_aArchivers;
+  private final Map <EProcDocumentType, Set <EProcState>> m_aClosedStates = new ConcurrentHashMap <EProcDocumentType, Set <EProcState>> ();
+  private volatile int m_nMinAgeDays = DEFAULT_MIN_AGE_DAYS;
+  private volatile int m_nBatchSize = DEFAULT_BATCH_SIZE;
+  private volatile int m_nMaxDocumentsPerSecond = DEFAULT_MAX_DOCUMENTS_PER_SECOND;
+  private final AtomicLong m_aArchivedCount = new AtomicLong ();
+  private final AtomicLong m_aFailedCount = new AtomicLong ();
+
+  public ProcDocumentArchiveMover (@Nonnull final Collection <? extends IProcDocumentArchiver> aArchivers)
+  {
+    if (aArchivers == null)
+      throw new NullPointerException ("archivers");
+    m_aArchivers = ContainerHelper.newList (aArchivers);
+
+    // Incoming documents are closed once they were handled, outgoing documents
+    // once the partner finally accepted or paid them
+    m_aClosedStates.put (EProcDocumentType.ORDER_INCOMING, EnumSet.of (EProcState.ACCEPTED, EProcState.REJECTED));
+    m_aClosedStates.put (EProcDocumentType.ORDER_OUTGOING, EnumSet.of (EProcState.ACCEPTED));
+    m_aClosedStates.put (EProcDocumentType.INVOICE_INCOMING, EnumSet.of (EProcState.ACCEPTED, EProcState.REJECTED));
+    m_aClosedStates.put (EProcDocumentType.INVOICE_OUTGOING, EnumSet.of (EProcState.PAID));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public Set <EProcState> getClosedStates (@Nonnull final EProcDocumentType eType)
+  {
+    final Set <EProcState> ret = m_aClosedStates.get (eType);
+    return ret == null ? EnumSet.noneOf (EProcState.class) : EnumSet.copyOf (ret);
+  }
+
+  /**
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param aClosedStates
+   *        The states in which a non-deleted document of the passed type may
+   *        be archived. May be empty to only archive deleted documents.
+   */
+  public void setClosedStates (@Nonnull final EProcDocumentType eType, @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (eType == null)
+      throw new NullPointerException ("type");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+    final Set <EProcState> aStates = EnumSet.noneOf (EProcState.class);
+    aStates.addAll (aClosedStates);
+    m_aClosedStates.put (eType, aStates);
+  }
+
+  @Nonnegative
+  public int getMinAgeDays ()
+  {
+    return m_nMinAgeDays;
+  }
+
+  public void setMinAgeDays (@Nonnegative final int nMinAgeDays)
+  {
+    if (nMinAgeDays < 0)
+      throw new IllegalArgumentException ("Illegal min age " + nMinAgeDays);
+    m_nMinAgeDays = nMinAgeDays;
+  }
+
+  @Nonnegative
+  public int getBatchSize ()
+  {
+    return m_nBatchSize;
+  }
+
+  public void setBatchSize (@Nonnegative final int nBatchSize)
+  {
+    if (nBatchSize <= 0)
+      throw new IllegalArgumentException ("Illegal batch size " + nBatchSize);
+    m_nBatchSize = nBatchSize;
+  }
+
+  @Nonnegative
+  public int getMaxDocumentsPerSecond ()
+  {
+    return m_nMaxDocumentsPerSecond;
+  }
+
+  /**
+   * @param nMaxDocumentsPerSecond
+   *        The maximum number of documents to be archived per second. 0 means
+   *        unlimited.
+   */
+  public void setMaxDocumentsPerSecond (@Nonnegative final int nMaxDocumentsPerSecond)
+  {
+    if (nMaxDocumentsPerSecond < 0)
+      throw new IllegalArgumentException ("Illegal max documents per second " + nMaxDocumentsPerSecond);
+    m_nMaxDocumentsPerSecond = nMaxDocumentsPerSecond;
+  }
+
+  /**
+   * @return The total number of documents archived by this mover.
+   */
+  @Nonnegative
+  public long getArchivedCount ()
+  {
+    return m_aArchivedCount.get ();
+  }
+
+  /**
+   * @return The total number of documents that could not be archived by this
+   *         mover.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  /**
+   * Archive the documents of a single type.
+   *
+   * @return <code>false</code> if archiving was interrupted.
+   */
+  private boolean _archive (@Nonnull final IProcDocumentArchiver aArchiver,
+                            @Nonnull final LocalDate aIssuedBefore,
+                            final long nDelayMillis)
+  {
+    final EProcDocumentType eType = aArchiver.getDocumentType ();
+    final Set <EProcState> aClosedStates = getClosedStates (eType);
+    final List <Integer> aIDs = aArchiver.getAllArchiveCandidateIDs (aIssuedBefore, aClosedStates, m_nBatchSize);
+    int nArchived = 0;
+    for (final Integer aID : aIDs)
+    {
+      SuccessWithValue <EChange> aResult;
+      try
+      {
+        aResult = aArchiver.archiveDocument (aID.intValue (), aIssuedBefore, aClosedStates);
+      }
+      catch (final RuntimeException ex)
+      {
+        // Continue with the next document
+        s_aLogger.error ("Error archiving " + eType + " " + aID, ex);
+        aResult = SuccessWithValue.createFailure (EChange.UNCHANGED);
+      }
+      if (aResult.isSuccess ())
+      {
+        if (aResult.get ().isChanged ())
+        {
+          m_aArchivedCount.incrementAndGet ();
+          nArchived++;
+        }
+      }
+      else
+      {
+        m_aFailedCount.incrementAndGet ();
+        s_aLogger.warn ("Failed to archive " + eType + " " + aID);
+      }
+
+      // Throttle
+      if (nDelayMillis > 0)
+        try
+        {
+          Thread.sleep (nDelayMillis);
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          return false;
+        }
+    }
+    if (!aIDs.isEmpty ())
+      s_aLogger.info ("Archived " + nArchived + " of " + aIDs.size () + " " + eType + " documents");
+    return true;
+  }
+
+  /**
+   * Archive one batch per document type. Errors are logged and never
+   * propagated, because an exception would cancel all subsequent runs of a
+   * scheduled mover.
+   */
+  public void run ()
+  {
+    final LocalDate aIssuedBefore = PDTFactory.getCurrentLocalDate ().minusDays (m_nMinAgeDays);
+    final int nMaxPerSecond = m_nMaxDocumentsPerSecond;
+    final long nDelayMillis = nMaxPerSecond == 0 ? 0 : 1000 / nMaxPerSecond;
+
+    for (final IProcDocumentArchiver aArchiver : m_aArchivers)
+      try
+      {
+        if (!_archive (aArchiver, aIssuedBefore, nDelayMillis))
+        {
+          s_aLogger.info ("Archiving was interrupted");
+          return;
+        }
+      }
+      catch (final RuntimeException ex)
+      {
+        // Continue with the next document type
+        s_aLogger.error ("Error archiving " + aArchiver.getDocumentType () + " documents", ex);
+      }
+  }
+
+  /**
+   * Run this mover regularly.
+   *
+   * @param aExecutor
+   *        The executor to use. May not be <code>null</code>.
+   * @param nDelay
+   *        The delay between the end of one run and the start of the next run.
+   * @param eUnit
+   *        The time unit of the delay. May not be <code>null</code>.
+   * @return The future that can be used to cancel the scheduled runs.
+   */
+  @Nonnull
+  public ScheduledFuture <?> schedule (@Nonnull final ScheduledExecutorService aExecutor,
+                                       @Nonnegative final long nDelay,
+                                       @Nonnull final TimeUnit eUnit)
+  {
+    if (aExecutor == null)
+      throw new NullPointerException ("executor");
+    return aExecutor.scheduleWithFixedDelay (this, nDelay, nDelay, eUnit);
+  }
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.joda.time.DateTime;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.microdom.impl.MicroElement;
+import com.phloc.commons.string.StringParser;
+import com.phloc.datetime.PDTFactory;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.exchange.ProcAttachmentReadHandlerDoNothing;
+import com.phloc.procurement.exchange.SimpleProcSerializer;
+import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+import com.phloc.procurement.invoice.ProcInvoiceOutgoing;
+import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+import com.phloc.procurement.party.IProcParty;
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Converts documents from and to the XML representation used in the
+ * {@link ProcDocumentArchive}. The lines are contained in the archived
+ * document, whereas attachments are only referenced by ID, as they remain in
+ * the attachment storage. Parties are referenced by ID as well.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcDocumentArchiveSerializer
+{
+  private static final String ATTR_ID = "id";
+  private static final String ATTR_CLIENT = "client";
+  private static final String ATTR_STATE = "state";
+  private static final String ATTR_PARTY = "party";
+  private static final String ATTR_RECEIVEDT = "receivedt";
+
+  private ProcDocumentArchiveSerializer ()
+  {}
+
+  @Nonnull
+  private static IMicroElement _writeHeader (@Nonnull final EProcDocumentType eType,
+                                             final int nID,
+                                             final int nClient,
+                                             @Nullable final EProcState eState,
+                                             @Nullable final IProcParty aParty,
+                                             @Nullable final DateTime aReceiveDT)
+  {
+    final IMicroElement eElement = new MicroElement (eType.getID ());
+    eElement.setAttribute (ATTR_ID, nID);
+    eElement.setAttribute (ATTR_CLIENT, nClient);
+    if (eState != null)
+      eElement.setAttribute (ATTR_STATE, eState.getID ());
+    if (aParty != null)
+      eElement.setAttribute (ATTR_PARTY, aParty.getID ());
+    if (aReceiveDT != null)
+      eElement.setAttribute (ATTR_RECEIVEDT, Long.toString (aReceiveDT.getMillis ()));
+    return eElement;
+  }
+
+  private static int _getID (@Nonnull final IMicroElement eElement)
+  {
+    return StringParser.parseInt (eElement.getAttribute (ATTR_ID), CGlobal.ILLEGAL_UINT);
+  }
+
+  private static int _getClient (@Nonnull final IMicroElement eElement)
+  {
+    return StringParser.parseInt (eElement.getAttribute (ATTR_CLIENT), 0);
+  }
+
+  @Nullable
+  private static EProcState _getState (@Nonnull final IMicroElement eElement)
+  {
+    return EProcState.getFromIDOrNull (eElement.getAttribute (ATTR_STATE));
+  }
+
+  @Nullable
+  private static DateTime _getReceiveDateTime (@Nonnull final IMicroElement eElement)
+  {
+    final String sReceiveDT = eElement.getAttribute (ATTR_RECEIVEDT);
+    return sReceiveDT == null ? null : PDTFactory.createDateTimeFromMillis (StringParser.parseLong (sReceiveDT, 0));
+  }
+
+  /**
+   * @param eElement
+   *        The archived document element. May not be <code>null</code>.
+   * @return The ID of the referenced customer or supplier or
+   *         {@link CGlobal#ILLEGAL_UINT} if no party is referenced.
+   */
+  public static int getPartyID (@Nonnull final IMicroElement eElement)
+  {
+    return StringParser.parseInt (eElement.getAttribute (ATTR_PARTY), CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public static IMicroElement writeOrderIncoming (@Nonnull final ProcOrderIncoming aOrder)
+  {
+    final IMicroElement eElement = _writeHeader (EProcDocumentType.ORDER_INCOMING,
+                                                 aOrder.getID (),
+                                                 aOrder.getClient (),
+                                                 aOrder.getState (),
+                                                 aOrder.getCustomer (),
+                                                 aOrder.getReceiveDateTime ());
+    if (aOrder.getOrder () != null)
+      eElement.appendChild (SimpleProcSerializer.writeOrder (aOrder.getOrder (), false));
+    return eElement;
+  }
+
+  @Nonnull
+  public static ProcOrderIncoming readOrderIncoming (@Nonnull final IMicroElement eElement,
+                                                     @Nullable final ProcCustomer aCustomer)
+  {
+    final ProcOrderIncoming aOrder = new ProcOrderIncoming ();
+    aOrder.setID (_getID (eElement));
+    aOrder.setClient (_getClient (eElement));
+    final EProcState eState = _getState (eElement);
+    if (eState != null)
+      aOrder.setState (eState);
+    if (aCustomer != null)
+      aOrder.setCustomer (aCustomer);
+    final DateTime aReceiveDT = _getReceiveDateTime (eElement);
+    if (aReceiveDT != null)
+      aOrder.setReceiveDateTime (aReceiveDT);
+    final IMicroElement eOrder = eElement.getFirstChildElement (SimpleProcSerializer.ELEMENT_ORDER);
+    if (eOrder != null)
+      aOrder.setOrder (SimpleProcSerializer.readOrder (eOrder, new ProcAttachmentReadHandlerDoNothing (), true));
+    return aOrder;
+  }
+
+  @Nonnull
+  public static IMicroElement writeOrderOutgoing (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    final IMicroElement eElement = _writeHeader (EProcDocumentType.ORDER_OUTGOING,
+                                                 aOrder.getID (),
+                                                 aOrder.getClient (),
+                                                 aOrder.getState (),
+                                                 aOrder.getSupplier (),
+                                                 null);
+    if (aOrder.getOrder () != null)
+      eElement.appendChild (SimpleProcSerializer.writeOrder (aOrder.getOrder (), false));
+    return eElement;
+  }
+
+  @Nonnull
+  public static ProcOrderOutgoing readOrderOutgoing (@Nonnull final IMicroElement eElement,
+                                                     @Nullable final ProcSupplier aSupplier)
+  {
+    final ProcOrderOutgoing aOrder = new ProcOrderOutgoing ();
+    aOrder.setID (_getID (eElement));
+    aOrder.setClient (_getClient (eElement));
+    final EProcState eState = _getState (eElement);
+    if (eState != null)
+      aOrder.setState (eState);
+    if (aSupplier != null)
+      aOrder.setSupplier (aSupplier);
+    final IMicroElement eOrder = eElement.getFirstChildElement (SimpleProcSerializer.ELEMENT_ORDER);
+    if (eOrder != null)
+      aOrder.setOrder (SimpleProcSerializer.readOrder (eOrder, new ProcAttachmentReadHandlerDoNothing (), true));
+    return aOrder;
+  }
+
+  @Nonnull
+  public static IMicroElement writeInvoiceIncoming (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    final IMicroElement eElement = _writeHeader (EProcDocumentType.INVOICE_INCOMING,
+                                                 aInvoice.getID (),
+                                                 aInvoice.getClient (),
+                                                 aInvoice.getState (),
+                                                 aInvoice.getSupplier (),
+                                                 aInvoice.getReceiveDateTime ());
+    if (aInvoice.getInvoice () != null)
+      eElement.appendChild (SimpleProcSerializer.writeInvoice (aInvoice.getInvoice (), false));
+    return eElement;
+  }
+
+  @Nonnull
+  public static ProcInvoiceIncoming readInvoiceIncoming (@Nonnull final IMicroElement eElement,
+                                                         @Nullable final ProcSupplier aSupplier)
+  {
+    final ProcInvoiceIncoming aInvoice = new ProcInvoiceIncoming ();
+    aInvoice.setID (_getID (eElement));
+    aInvoice.setClient (_getClient (eElement));
+    final EProcState eState = _getState (eElement);
+    if (eState != null)
+      aInvoice.setState (eState);
+    if (aSupplier != null)
+      aInvoice.setSupplier (aSupplier);
+    final DateTime aReceiveDT = _getReceiveDateTime (eElement);
+    if (aReceiveDT != null)
+      aInvoice.setReceiveDateTime (aReceiveDT);
+    final IMicroElement eInvoice = eElement.getFirstChildElement (SimpleProcSerializer.ELEMENT_INVOICE);
+    if (eInvoice != null)
+      aInvoice.setInvoice (SimpleProcSerializer.readInvoice (eInvoice, new ProcAttachmentReadHandlerDoNothing (), true));
+    return aInvoice;
+  }
+
+  @Nonnull
+  public static IMicroElement writeInvoiceOutgoing (@Nonnull final ProcInvoiceOutgoing aInvoice)
+  {
+    final IMicroElement eElement = _writeHeader (EProcDocumentType.INVOICE_OUTGOING,
+                                                 aInvoice.getID (),
+                                                 aInvoice.getClient (),
+                                                 aInvoice.getState (),
+                                                 aInvoice.getCustomer (),
+                                                 null);
+    if (aInvoice.getInvoice () != null)
+      eElement.appendChild (SimpleProcSerializer.writeInvoice (aInvoice.getInvoice (), false));
+    return eElement;
+  }
+
+  @Nonnull
+  public static ProcInvoiceOutgoing readInvoiceOutgoing (@Nonnull final IMicroElement eElement,
+                                                         @Nullable final ProcCustomer aCustomer)
+  {
+    final ProcInvoiceOutgoing aInvoice = new ProcInvoiceOutgoing ();
+    aInvoice.setID (_getID (eElement));
+    aInvoice.setClient (_getClient (eElement));
+    final EProcState eState = _getState (eElement);
+    if (eState != null)
+      aInvoice.setState (eState);
+    if (aCustomer != null)
+      aInvoice.setCustomer (aCustomer);
+    final IMicroElement eInvoice = eElement.getFirstChildElement (SimpleProcSerializer.ELEMENT_INVOICE);
+    if (eInvoice != null)
+      aInvoice.setInvoice (SimpleProcSerializer.readInvoice (eInvoice, new ProcAttachmentReadHandlerDoNothing (), true));
+    return aInvoice;
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * An immutable snapshot of the number of documents per document type,
+ * deletion flag and state.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcDocumentCounters
+{
+  private static final int STATE_COUNT = EProcState.values ().length;
+
+  // [type][deleted][state]
+  private final long [][][] m_aCounts;
+  private final long m_nCreationTime;
+
+  ProcDocumentCounters (@Nonnull final long [][][] aCounts, final long nCreationTime)
+  {
+    m_aCounts = aCounts;
+    m_nCreationTime = nCreationTime;
+  }
+
+  /**
+   * @return A new zero-initialized counter array indexed by document type
+   *         ordinal, deletion index and state ordinal.
+   */
+  @Nonnull
+  static long [][][] createEmptyCounts ()
+  {
+    return new long [EProcDocumentType.values ().length] [2] [STATE_COUNT];
+  }
+
+  static int getDeletedIndex (final boolean bDeleted)
+  {
+    return bDeleted ? 1 : 0;
+  }
+
+  /**
+   * @return The time in milliseconds when the counters were read from the
+   *         database.
+   */
+  public long getCreationTime ()
+  {
+    return m_nCreationTime;
+  }
+
+  /**
+   * Get the number of documents.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param bDeleted
+   *        <code>true</code> to count deleted documents, <code>false</code> to
+   *        count active documents.
+   * @param eState
+   *        The state to count. May be <code>null</code> to count documents in
+   *        all states.
+   * @return The number of matching documents.
+   */
+  @Nonnegative
+  public long getCount (@Nonnull final EProcDocumentType eType, final boolean bDeleted, @Nullable final EProcState eState)
+  {
+    final long [] aStateCounts = m_aCounts[eType.ordinal ()][getDeletedIndex (bDeleted)];
+    if (eState != null)
+      return aStateCounts[eState.ordinal ()];
+
+    long ret = 0;
+    for (final long nCount : aStateCounts)
+      ret += nCount;
+    return ret;
+  }
+
+  /**
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @return The number of active documents in state
+   *         {@link EProcState#RECEIVED}.
+   */
+  @Nonnegative
+  public long getCountOfNew (@Nonnull final EProcDocumentType eType)
+  {
+    return getCount (eType, false, EProcState.RECEIVED);
+  }
+
+  /**
+   * Get a copy of these counters with a single document moved from one state
+   * to another.
+   *
+   * @param eType
+   *        The document type. May not be <code>null</code>.
+   * @param bOldDeleted
+   *        The old deletion flag
+   * @param eOldState
+   *        The old state. May be <code>null</code> for a new document.
+   * @param bNewDeleted
+   *        The new deletion flag
+   * @param eNewState
+   *        The new state. May be <code>null</code> for a removed document.
+   * @return The adjusted counters. Never <code>null</code>.
+   */
+  @Nonnull
+  public ProcDocumentCounters getAdjusted (@Nonnull final EProcDocumentType eType,
+                                           final boolean bOldDeleted,
+                                           @Nullable final EProcState eOldState,
+                                           final boolean bNewDeleted,
+                                           @Nullable final EProcState eNewState)
+  {
+    final long [][][] aCounts = createEmptyCounts ();
+    for (int i = 0; i < aCounts.length; ++i)
+      for (int j = 0; j < 2; ++j)
+        System.arraycopy (m_aCounts[i][j], 0, aCounts[i][j], 0, STATE_COUNT);
+
+    final long [][] aTypeCounts = aCounts[eType.ordinal ()];
+    if (eOldState != null)
+    {
+      final int nOld = getDeletedIndex (bOldDeleted);
+      aTypeCounts[nOld][eOldState.ordinal ()] = Math.max (0, aTypeCounts[nOld][eOldState.ordinal ()] - 1);
+    }
+    if (eNewState != null)
+      aTypeCounts[getDeletedIndex (bNewDeleted)][eNewState.ordinal ()]++;
+    return new ProcDocumentCounters (aCounts, m_nCreationTime);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("creationTime", m_nCreationTime).toString ();
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+public class ProcDocumentCountersManager extends AbstractProcManager implements IProcDocumentStateListener
+{
+  /** Default time to live of the cached counters: 10 seconds */
+  public static final long DEFAULT_CACHE_TTL_MILLIS = 10 * 1000;
+
+  private final AtomicReference <ProcDocumentCounters> m_aCache = new AtomicReference <ProcDocumentCounters> ();
+  private volatile long m_nCacheTTLMillis = DEFAULT_CACHE_TTL_MILLIS;
+
+  public ProcDocumentCountersManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
+  {
+    super (aEntityMgrProvider);
+  }
+
+  @Nonnegative
+  public final long getCacheTTLMillis ()
+  {
+    return m_nCacheTTLMillis;
+  }
+
+  public final void setCacheTTLMillis (@Nonnegative final long nCacheTTLMillis)
+  {
+    if (nCacheTTLMillis < 0)
+      throw new IllegalArgumentException ("Illegal TTL " + nCacheTTLMillis);
+    m_nCacheTTLMillis = nCacheTTLMillis;
+  }
+
+  public final void invalidateCache ()
+  {
+    m_aCache.set (null);
+  }
+
+  @Nonnull
+  private JPAExecutionResult <ProcDocumentCounters> _readCounters ()
+  {
+    return doSelectReadOnly (new Callable <ProcDocumentCounters> ()
+    {
+      public final ProcDocumentCounters call ()
+      {
+        final long [][][] aCounts = ProcDocumentCounters.createEmptyCounts ();
+        for (final EProcDocumentType eType : EProcDocumentType.values ())
+        {
+          final String sDeleted = "p." + eType.getDocumentAttribute () + ".deleted";
+          final List <Object []> aRows = getEntityManager ().createQuery ("SELECT p.state, " +
+                                                                              sDeleted +
+                                                                              ", COUNT(p) FROM " +
+                                                                              eType.getEntityName () +
+                                                                              " p GROUP BY p.state, " +
+                                                                              sDeleted,
+                                                                          Object [].class).getResultList ();
+          for (final Object [] aRow : aRows)
+          {
+            final EProcState eState = (EProcState) aRow[0];
+            if (eState != null)
+            {
+              final boolean bDeleted = ((Boolean) aRow[1]).booleanValue ();
+              aCounts[eType.ordinal ()][ProcDocumentCounters.getDeletedIndex (bDeleted)][eState.ordinal ()] += ((Number) aRow[2]).longValue ();
+            }
+          }
+        }
+        return new ProcDocumentCounters (aCounts, System.currentTimeMillis ());
+      }
+    });
+  }
+
+  @Nullable
+  public final ProcDocumentCounters getCounters ()
+  {
+    final ProcDocumentCounters aCached = m_aCache.get ();
+    if (aCached != null)
+    {
+      final long nTTL = m_nCacheTTLMillis;
+      if (nTTL == 0 || System.currentTimeMillis () - aCached.getCreationTime () < nTTL)
+        return aCached;
+    }
+
+    final JPAExecutionResult <ProcDocumentCounters> aResult = _readCounters ();
+    // Don't cache errors and don't overwrite counters that were adjusted or
+    // invalidated concurrently
+    if (aResult.isSuccess ())
+      m_aCache.compareAndSet (aCached, aResult.get ());
+    return aResult.get ();
+  }
+
+  public final void onDocumentStateChanged (@Nonnull final EProcDocumentType eType,
+                                            final boolean bOldDeleted,
+                                            @Nullable final EProcState eOldState,
+                                            final boolean bNewDeleted,
+                                            @Nullable final EProcState eNewState)
+  {
+    if (bOldDeleted == bNewDeleted && eOldState == eNewState)
+      return;
+
+    while (true)
+    {
+      final ProcDocumentCounters aCached = m_aCache.get ();
+      if (aCached == null)
+        return;
+      if (m_aCache.compareAndSet (aCached,
+                                  aCached.getAdjusted (eType, bOldDeleted, eOldState, bNewDeleted, eNewState)))
+        return;
+    }
+  }
+
+  public final void onDocumentsSaved (@Nonnull final EProcDocumentType eType)
+  {
+    // Unknown previous state - re-read on next access
+    invalidateCache ();
+  }
+}
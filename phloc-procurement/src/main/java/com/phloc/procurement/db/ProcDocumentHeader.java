@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.math.BigDecimal;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.joda.time.LocalDate;
+
+import com.phloc.commons.equals.EqualsUtils;
+import com.phloc.commons.hash.HashCodeGenerator;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.masterdata.currency.ECurrency;
+import com.phloc.masterdata.currency.IReadonlyCurrencyValue;
+import com.phloc.masterdata.currency.ReadonlyCurrencyValue;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * A read-only projection of the header data of an order or invoice, as needed
+ * for overview tables. Instances are created directly by JPQL constructor
+ * expressions so that no entity graph is loaded. The total is taken from the
+ * persisted document totals.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class ProcDocumentHeader
+{
+  private final int m_nID;
+  private final String m_sDocumentNumber;
+  private final LocalDate m_aIssueDate;
+  private final String m_sPartyName;
+  private final EProcState m_eState;
+  private final IReadonlyCurrencyValue m_aTotalGrossAmount;
+
+  @Nullable
+  private static IReadonlyCurrencyValue _createAmount (@Nullable final String sCurrencyID,
+                                                      @Nullable final BigDecimal aValue)
+  {
+    if (aValue == null)
+      return null;
+    final ECurrency eCurrency = ECurrency.getFromIDOrNull (sCurrencyID);
+    return eCurrency == null ? null : new ReadonlyCurrencyValue (eCurrency, aValue);
+  }
+
+  /**
+   * Constructor used by the JPQL constructor expressions.
+   *
+   * @param nID
+   *        The ID of the incoming or outgoing document object.
+   * @param sDocumentNumber
+   *        The order or invoice number. May be <code>null</code>.
+   * @param aIssueDate
+   *        The issue date. May be <code>null</code>.
+   * @param sPartyName
+   *        The name of the customer or supplier. May be <code>null</code>.
+   * @param eState
+   *        The document state. May be <code>null</code>.
+   * @param sTotalCurrencyID
+   *        The ID of the currency of the totals. May be <code>null</code>.
+   * @param aTotalGrossValue
+   *        The persisted total gross value. May be <code>null</code>.
+   */
+  public ProcDocumentHeader (final int nID,
+                             @Nullable final String sDocumentNumber,
+                             @Nullable final LocalDate aIssueDate,
+                             @Nullable final String sPartyName,
+                             @Nullable final EProcState eState,
+                             @Nullable final String sTotalCurrencyID,
+                             @Nullable final BigDecimal aTotalGrossValue)
+  {
+    this (nID, sDocumentNumber, aIssueDate, sPartyName, eState, _createAmount (sTotalCurrencyID, aTotalGrossValue));
+  }
+
+  public ProcDocumentHeader (final int nID,
+                             @Nullable final String sDocumentNumber,
+                             @Nullable final LocalDate aIssueDate,
+                             @Nullable final String sPartyName,
+                             @Nullable final EProcState eState,
+                             @Nullable final IReadonlyCurrencyValue aTotalGrossAmount)
+  {
+    m_nID = nID;
+    m_sDocumentNumber = sDocumentNumber;
+    m_aIssueDate = aIssueDate;
+    m_sPartyName = sPartyName;
+    m_eState = eState;
+    m_aTotalGrossAmount = aTotalGrossAmount;
+  }
+
+  /**
+   * @return The ID of the incoming or outgoing document object, that can be
+   *         used to load the whole document.
+   */
+  public int getID ()
+  {
+    return m_nID;
+  }
+
+  @Nullable
+  public String getDocumentNumber ()
+  {
+    return m_sDocumentNumber;
+  }
+
+  @Nullable
+  public LocalDate getIssueDate ()
+  {
+    return m_aIssueDate;
+  }
+
+  @Nullable
+  public String getPartyName ()
+  {
+    return m_sPartyName;
+  }
+
+  @Nullable
+  public EProcState getState ()
+  {
+    return m_eState;
+  }
+
+  @Nullable
+  public IReadonlyCurrencyValue getTotalGrossAmount ()
+  {
+    return m_aTotalGrossAmount;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final ProcDocumentHeader rhs = (ProcDocumentHeader) o;
+    return m_nID == rhs.m_nID &&
+           EqualsUtils.equals (m_sDocumentNumber, rhs.m_sDocumentNumber) &&
+           EqualsUtils.equals (m_aIssueDate, rhs.m_aIssueDate) &&
+           EqualsUtils.equals (m_sPartyName, rhs.m_sPartyName) &&
+           EqualsUtils.equals (m_eState, rhs.m_eState) &&
+           EqualsUtils.equals (m_aTotalGrossAmount, rhs.m_aTotalGrossAmount);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_nID)
+                                       .append (m_sDocumentNumber)
+                                       .append (m_aIssueDate)
+                                       .append (m_sPartyName)
+                                       .append (m_eState)
+                                       .append (m_aTotalGrossAmount)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ID", m_nID)
+                                       .append ("documentNumber", m_sDocumentNumber)
+                                       .append ("issueDate", m_aIssueDate)
+                                       .append ("partyName", m_sPartyName)
+                                       .append ("state", m_eState)
+                                       .append ("totalGrossAmount", m_aTotalGrossAmount)
+                                       .toString ();
+  }
+}
@@ -17,8 +17,12 @@
  */
 package com.phloc.procurement.db;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -26,15 +30,26 @@ import javax.annotation.Nullable;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.joda.time.LocalDate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.state.impl.SuccessWithValue;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.CProcQuery;
+import com.phloc.procurement.domain.EProcDocumentType;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.party.ProcSupplier;
 
-public class ProcInvoiceIncomingManager extends AbstractProcManager
+public class ProcInvoiceIncomingManager extends AbstractProcManager implements IProcDocumentArchiver, IProcInvoiceIncomingManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcInvoiceIncomingManager.class);
 
@@ -46,81 +61,198 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
   @Nonnull
   public final ISuccessIndicator saveInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
-        getEntityManager ().merge (aInvoice);
+        appendOutboxEvent (EProcChangeType.SAVED, getEntityManager ().merge (aInvoice));
         s_aLogger.info ("Incoming invoice saved: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentsSaved (EProcDocumentType.INVOICE_INCOMING);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcSaveResult <ProcInvoiceIncoming> saveInvoice (@Nonnull final ProcInvoiceIncoming aInvoice,
+                                                                 @Nullable final IProcConflictResolver <ProcInvoiceIncoming> aResolver)
+  {
+    final ProcSaveResult <ProcInvoiceIncoming> ret = mergeWithConflictCheck (ProcInvoiceIncoming.class,
+                                                                             aInvoice,
+                                                                             aResolver,
+                                                                             DEFAULT_MAX_CONFLICT_RETRIES);
+    if (ret.isSuccess ())
+    {
+      s_aLogger.info ("Incoming invoice saved: " + ret.getSavedObject ());
+      fireDocumentsSaved (EProcDocumentType.INVOICE_INCOMING);
+    }
+    else
+      if (ret.isConflict ())
+        s_aLogger.warn ("Incoming invoice was modified concurrently: " + aInvoice);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcBulkSaveResult <ProcInvoiceIncoming> saveAllInvoices (@Nonnull final Collection <? extends ProcInvoiceIncoming> aInvoices)
+  {
+    return saveAllInvoices (aInvoices, DEFAULT_BULK_CHUNK_SIZE);
+  }
+
+  @Nonnull
+  public final ProcBulkSaveResult <ProcInvoiceIncoming> saveAllInvoices (@Nonnull final Collection <? extends ProcInvoiceIncoming> aInvoices,
+                                                                         @Nonnegative final int nChunkSize)
+  {
+    final ProcBulkSaveResult <ProcInvoiceIncoming> ret = mergeAllInChunks (aInvoices, nChunkSize);
+    s_aLogger.info ("Incoming invoices saved: " + ret.getSucceededCount () + " succeeded, " + ret.getFailedCount () + " failed");
+    if (ret.getSucceededCount () > 0)
+      fireDocumentsSaved (EProcDocumentType.INVOICE_INCOMING);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.getInvoice ().setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aInvoice);
         s_aLogger.info ("Incoming invoice deleted: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.getInvoice ().setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aInvoice);
         s_aLogger.info ("Incoming invoice undeleted: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator acceptInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         // Change state in DB
         aInvoice.setState (EProcState.ACCEPTED);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aInvoice, aInvoice.getState ());
         s_aLogger.info ("Incoming invoice accepted: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator rejectInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         // Change state in DB
         aInvoice.setState (EProcState.REJECTED);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aInvoice, aInvoice.getState ());
         s_aLogger.info ("Incoming invoice reject: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator changeInvoiceState (final ProcInvoiceIncoming aInvoice, final EProcState eNewState)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.setState (eNewState);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aInvoice, aInvoice.getState ());
         s_aLogger.info ("Incoming invoice state changed to " + eNewState + ": " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
+  }
+
+  @Nonnull
+  public final List <Integer> acceptInvoices (@Nonnull final Collection <Integer> aInvoiceIDs)
+  {
+    return changeInvoicesState (aInvoiceIDs, EnumSet.of (EProcState.RECEIVED), EProcState.ACCEPTED);
+  }
+
+  @Nonnull
+  public final List <Integer> rejectInvoices (@Nonnull final Collection <Integer> aInvoiceIDs)
+  {
+    return changeInvoicesState (aInvoiceIDs, EnumSet.of (EProcState.RECEIVED), EProcState.REJECTED);
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeInvoicesState (aInvoiceIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs,
+                                                   @Nonnull final Collection <EProcState> aExpectedStates,
+                                                   @Nonnull final EProcState eNewState)
+  {
+    final List <Integer> ret = changeStateInBulk (EProcDocumentType.INVOICE_INCOMING, aInvoiceIDs, aExpectedStates, eNewState);
+    s_aLogger.info ("Incoming invoices state changed to " + eNewState + ": " + ret.size () + " of " + aInvoiceIDs.size ());
+    return ret;
   }
 
   @Nonnull
@@ -132,15 +264,101 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcInvoiceIncoming> getAllInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcInvoiceIncoming>> ()
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
+    {
+      public final List <ProcInvoiceIncoming> call ()
+      {
+        return _getQueryAll (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoicesWithProfile (@Nonnull final EProcFetchProfile eProfile)
+  {
+    return getAllInvoicesWithProfile (null, eProfile);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoicesWithProfile (@Nullable final EProcState eState,
+                                                                     @Nonnull final EProcFetchProfile eProfile)
+  {
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
     {
       public final List <ProcInvoiceIncoming> call ()
       {
-        return _getQueryAll (false, eState).getResultList ();
+        return applyFetchProfile (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                  eProfile,
+                                  "p.invoice.invoiceLines",
+                                  "p.invoice.attachments").getResultList ();
       }
     }).get ();
   }
 
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders ()
+  {
+    return getAllInvoiceHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders (@Nullable final EProcState eState)
+  {
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getInvoicesPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (@Nullable final EProcState eState,
+                                                                     final int nClient,
+                                                                     final int nAfterID,
+                                                                     @Nonnegative final int nPageSize)
+  {
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    return doSelectReadOnly (new Callable <ProcKeysetPage <ProcInvoiceIncoming>> ()
+    {
+      public final ProcKeysetPage <ProcInvoiceIncoming> call ()
+      {
+        return getKeysetPage (_getQueryPage (false, eState, nClient, nAfterID), nPageSize);
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoices (@Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    return iterateAllInvoices (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoices (@Nullable final EProcState eState,
+                                       @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
   @Nonnegative
   public final long getCountAllInvoices ()
   {
@@ -150,11 +368,11 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (false, eState));
+        return getSelectCountResultObj (_getCountAll (false, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
@@ -168,11 +386,11 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcInvoiceIncoming> getAllDeletedInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcInvoiceIncoming>> ()
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
     {
       public final List <ProcInvoiceIncoming> call ()
       {
-        return _getQueryAll (true, eState).getResultList ();
+        return _getQueryAll (true, eState, CGlobal.ILLEGAL_UINT).getResultList ();
       }
     }).get ();
   }
@@ -186,54 +404,199 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedInvoices (final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (true, eState));
+        return getSelectCountResultObj (_getCountAll (true, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
 
   public final long getCountOfNewInvoices ()
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcInvoiceIncoming p"
-                                                                         + " WHERE p.invoice.deleted = false AND p.state = :state")
-                                                           .setParameter ("state", EProcState.RECEIVED));
+        return getSelectCountResultObj (_getCountAll (false, EProcState.RECEIVED, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
 
   @Nonnull
-  private TypedQuery <ProcInvoiceIncoming> _getQueryAll (final boolean bDeleted, final EProcState eState)
+  public final List <ProcInvoiceIncoming> getAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
+    {
+      public final List <ProcInvoiceIncoming> call ()
+      {
+        return _getQueryAll (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoicesOfClient (@Nonnegative final int nClient,
+                                                                  @Nullable final EProcState eState,
+                                                                  @Nonnull final EProcFetchProfile eProfile)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
+    {
+      public final List <ProcInvoiceIncoming> call ()
+      {
+        return applyFetchProfile (_getQueryAll (false, eState, nClient),
+                                  eProfile,
+                                  "p.invoice.invoiceLines",
+                                  "p.invoice.attachments").getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeadersOfClient (@Nonnegative final int nClient,
+                                                                       @Nullable final EProcState eState)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT p FROM ProcInvoiceIncoming p WHERE p.invoice.deleted = :deleted");
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoicesOfClient (@Nonnegative final int nClient,
+                                               @Nullable final EProcState eState,
+                                               @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, nClient),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
+  @Nonnegative
+  public final long getCountAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceIncoming>> ()
+    {
+      public final List <ProcInvoiceIncoming> call ()
+      {
+        return _getQueryAll (true, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (true, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnegative
+  public final long getCountOfNewInvoicesOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, EProcState.RECEIVED, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  private TypedQuery <ProcInvoiceIncoming> _getQueryAll (final boolean bDeleted, final EProcState eState,
+                                                         final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceIncoming.QUERY_ALL, eState != null, nClient >= 0);
+    final TypedQuery <ProcInvoiceIncoming> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                          ProcInvoiceIncoming.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final TypedQuery <ProcInvoiceIncoming> aQuery = getEntityManager ().createQuery (aQueryString.toString (),
-                                                                                     ProcInvoiceIncoming.class);
+  @Nonnull
+  private Query _getCountAll (final boolean bDeleted, final EProcState eState,
+                              final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceIncoming.QUERY_COUNT, eState != null, nClient >= 0);
+    final Query aQuery = getEntityManager ().createNamedQuery (sQueryName);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
   @Nonnull
-  private Query _getCountAll (final boolean bDeleted, final EProcState eState)
+  private TypedQuery <ProcInvoiceIncoming> _getQueryPage (final boolean bDeleted,
+                                                          @Nullable final EProcState eState,
+                                                          final int nClient,
+                                                          final int nAfterID)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT COUNT(p) FROM ProcInvoiceIncoming p WHERE p.invoice.deleted = :deleted");
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceIncoming.QUERY_PAGE, eState != null, nClient >= 0);
+    final TypedQuery <ProcInvoiceIncoming> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                          ProcInvoiceIncoming.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
+    aQuery.setParameter ("afterid", Integer.valueOf (nAfterID));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final Query aQuery = getEntityManager ().createQuery (aQueryString.toString ());
+  private TypedQuery <ProcDocumentHeader> _getQueryHeaders (final boolean bDeleted, @Nullable final EProcState eState,
+                                                            final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceIncoming.QUERY_HEADERS, eState != null, nClient >= 0);
+    final TypedQuery <ProcDocumentHeader> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                         ProcDocumentHeader.class);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
@@ -263,12 +626,120 @@ public class ProcInvoiceIncomingManager extends AbstractProcManager
     if (nInvoiceID < 0)
       return null;
 
-    return doSelect (new Callable <ProcInvoiceIncoming> ()
+    final ProcInvoiceIncoming ret = doSelect (new Callable <ProcInvoiceIncoming> ()
     {
       public final ProcInvoiceIncoming call ()
       {
         return getEntityManager ().find (ProcInvoiceIncoming.class, Integer.valueOf (nInvoiceID));
       }
     }).get ();
+    if (ret != null)
+      return ret;
+
+    // Not in the database - maybe it was archived
+    return _getArchivedInvoiceOfID (nInvoiceID);
+  }
+
+  @Nullable
+  private ProcInvoiceIncoming _getArchivedInvoiceOfID (final int nInvoiceID)
+  {
+    final ProcDocumentArchive aArchive = getDocumentArchive ();
+    if (aArchive == null)
+      return null;
+    final IMicroElement eElement = aArchive.readDocument (EProcDocumentType.INVOICE_INCOMING, nInvoiceID);
+    if (eElement == null)
+      return null;
+
+    // Parties are not archived
+    final int nSupplierID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcSupplier aSupplier = nSupplierID < 0 ? null : doSelect (new Callable <ProcSupplier> ()
+    {
+      public final ProcSupplier call ()
+      {
+        return getEntityManager ().find (ProcSupplier.class, Integer.valueOf (nSupplierID));
+      }
+    }).get ();
+    return ProcDocumentArchiveSerializer.readInvoiceIncoming (eElement, aSupplier);
+  }
+
+  @Nonnull
+  public final EProcDocumentType getDocumentType ()
+  {
+    return EProcDocumentType.INVOICE_INCOMING;
+  }
+
+  @Nonnull
+  public final List <Integer> getAllArchiveCandidateIDs (@Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates,
+                                                         @Nonnegative final int nMaxCount)
+  {
+    return getArchiveCandidateIDs (EProcDocumentType.INVOICE_INCOMING, aIssuedBefore, aClosedStates, nMaxCount);
+  }
+
+  @Nonnull
+  public final SuccessWithValue <EChange> archiveDocument (final int nInvoiceID,
+                                                         @Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+
+    final ProcDocumentArchive aArchive = getDocumentArchiveOrThrow ();
+    final AtomicReference <File> aTempFile = new AtomicReference <File> ();
+    final JPAExecutionResult <ProcInvoiceIncoming> ret = doInTransaction (new Callable <ProcInvoiceIncoming> ()
+    {
+      public final ProcInvoiceIncoming call ()
+      {
+        final ProcInvoiceIncoming aInvoice = getEntityManager ().find (ProcInvoiceIncoming.class, Integer.valueOf (nInvoiceID));
+        if (aInvoice == null)
+          return null;
+
+        // Re-check the criteria, as the document may have changed since the
+        // candidates were selected
+        if (!isArchiveCandidate (aInvoice.getInvoice ().getIssueDate (),
+                                 aInvoice.getReceiveDateTime (),
+                                 aInvoice.getInvoice ().isDeleted (),
+                                 aInvoice.getState (),
+                                 aIssuedBefore,
+                                 aClosedStates))
+        {
+          s_aLogger.info ("Not archiving incoming invoice " + aInvoice + ", as it no longer matches the criteria");
+          return null;
+        }
+
+        // Write the archive before removing, so that a failure leaves the
+        // database untouched. It is only moved into place after the commit.
+        aTempFile.set (aArchive.prepareDocument (EProcDocumentType.INVOICE_INCOMING,
+                                                 nInvoiceID,
+                                                 ProcDocumentArchiveSerializer.writeInvoiceIncoming (aInvoice)));
+        if (aTempFile.get () == null)
+          throw new IllegalStateException ("Failed to archive incoming invoice " + nInvoiceID);
+        getEntityManager ().remove (aInvoice);
+        appendOutboxEvent (EProcChangeType.ARCHIVED, aInvoice);
+        s_aLogger.info ("Incoming invoice archived: " + aInvoice);
+        return aInvoice;
+      }
+    });
+    if (ret.isFailure ())
+    {
+      aArchive.discardDocument (aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.UNCHANGED);
+    }
+    if (ret.get () == null)
+      return SuccessWithValue.createSuccess (EChange.UNCHANGED);
+    if (aArchive.commitDocument (EProcDocumentType.INVOICE_INCOMING, nInvoiceID, aTempFile.get ()).isFailure ())
+    {
+      // The document is no longer in the database - keep the temporary file
+      s_aLogger.error ("Archived incoming invoice " + nInvoiceID + " is only contained in " + aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.CHANGED);
+    }
+    fireDocumentStateChanged (EProcDocumentType.INVOICE_INCOMING,
+                              ret.get ().getInvoice ().isDeleted (),
+                              ret.get ().getState (),
+                              false,
+                              null);
+    return SuccessWithValue.createSuccess (EChange.CHANGED);
   }
 }
@@ -17,8 +17,11 @@
  */
 package com.phloc.procurement.db;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -26,16 +29,27 @@ import javax.annotation.Nullable;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.joda.time.LocalDate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.state.impl.SuccessWithValue;
 import com.phloc.commons.string.StringHelper;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.CProcQuery;
+import com.phloc.procurement.domain.EProcDocumentType;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.invoice.ProcInvoiceOutgoing;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.party.ProcCustomer;
 
-public class ProcInvoiceOutgoingManager extends AbstractProcManager
+public class ProcInvoiceOutgoingManager extends AbstractProcManager implements IProcDocumentArchiver, IProcInvoiceOutgoingManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcInvoiceOutgoingManager.class);
 
@@ -47,53 +61,121 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
   @Nonnull
   public final ISuccessIndicator saveInvoice (@Nonnull final ProcInvoiceOutgoing aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
-        getEntityManager ().merge (aInvoice);
+        appendOutboxEvent (EProcChangeType.SAVED, getEntityManager ().merge (aInvoice));
         s_aLogger.info ("Outgoing invoice saved: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentsSaved (EProcDocumentType.INVOICE_OUTGOING);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcSaveResult <ProcInvoiceOutgoing> saveInvoice (@Nonnull final ProcInvoiceOutgoing aInvoice,
+                                                                 @Nullable final IProcConflictResolver <ProcInvoiceOutgoing> aResolver)
+  {
+    final ProcSaveResult <ProcInvoiceOutgoing> ret = mergeWithConflictCheck (ProcInvoiceOutgoing.class,
+                                                                             aInvoice,
+                                                                             aResolver,
+                                                                             DEFAULT_MAX_CONFLICT_RETRIES);
+    if (ret.isSuccess ())
+    {
+      s_aLogger.info ("Outgoing invoice saved: " + ret.getSavedObject ());
+      fireDocumentsSaved (EProcDocumentType.INVOICE_OUTGOING);
+    }
+    else
+      if (ret.isConflict ())
+        s_aLogger.warn ("Outgoing invoice was modified concurrently: " + aInvoice);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteInvoice (@Nonnull final ProcInvoiceOutgoing aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.getInvoice ().setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aInvoice);
         s_aLogger.info ("Outgoing invoice deleted: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteInvoice (@Nonnull final ProcInvoiceOutgoing aInvoice)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.getInvoice ().setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aInvoice);
         s_aLogger.info ("Outgoing invoice undeleted: " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator changeInvoiceState (final ProcInvoiceOutgoing aInvoice, final EProcState eNewState)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aInvoice.getInvoice ().isDeleted ();
+    final EProcState eOldState = aInvoice.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aInvoice.setState (eNewState);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aInvoice, aInvoice.getState ());
         s_aLogger.info ("Outgoing invoice state changed to " + eNewState + ": " + aInvoice);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.INVOICE_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aInvoice.getInvoice ().isDeleted (),
+                                aInvoice.getState ());
+    return ret;
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeInvoicesState (aInvoiceIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs,
+                                                   @Nonnull final Collection <EProcState> aExpectedStates,
+                                                   @Nonnull final EProcState eNewState)
+  {
+    final List <Integer> ret = changeStateInBulk (EProcDocumentType.INVOICE_OUTGOING, aInvoiceIDs, aExpectedStates, eNewState);
+    s_aLogger.info ("Outgoing invoices state changed to " + eNewState + ": " + ret.size () + " of " + aInvoiceIDs.size ());
+    return ret;
   }
 
   @Nullable
@@ -107,10 +189,35 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
       @Nullable
       public ProcInvoiceOutgoing call () throws Exception
       {
-        final List <ProcInvoiceOutgoing> aTmp = getEntityManager ().createQuery ("SELECT p FROM ProcInvoiceOutgoing p"
-                                                                                     + " WHERE p.invoice.deleted = false AND p.invoice.invoiceNumber = :invoiceNumber",
-                                                                                 ProcInvoiceOutgoing.class)
-                                                                   .setParameter ("invoiceNumber", sInvoiceNumber)
+        final List <ProcInvoiceOutgoing> aTmp = getEntityManager ().createNamedQuery (ProcInvoiceOutgoing.QUERY_BY_NUMBER,
+                                                                                      ProcInvoiceOutgoing.class)
+                                                                   .setParameter ("number", sInvoiceNumber)
+                                                                   .getResultList ();
+        if (aTmp.isEmpty ())
+          return null;
+        if (aTmp.size () > 1)
+          s_aLogger.warn ("Too many results (" + aTmp.size () + ") for " + sInvoiceNumber);
+        return aTmp.get (0);
+      }
+    }).get ();
+  }
+
+  @Nullable
+  public final ProcInvoiceOutgoing getActiveInvoiceOfInvoiceNumber (@Nonnegative final int nClient, @Nullable final String sInvoiceNumber)
+  {
+    checkClient (nClient);
+    if (StringHelper.hasNoText (sInvoiceNumber))
+      return null;
+
+    return doSelect (new Callable <ProcInvoiceOutgoing> ()
+    {
+      @Nullable
+      public ProcInvoiceOutgoing call () throws Exception
+      {
+        final List <ProcInvoiceOutgoing> aTmp = getEntityManager ().createNamedQuery (ProcInvoiceOutgoing.QUERY_BY_NUMBER + CProcQuery.SUFFIX_CLIENT,
+                                                                                      ProcInvoiceOutgoing.class)
+                                                                   .setParameter ("number", sInvoiceNumber)
+                                                                   .setParameter ("client", Integer.valueOf (nClient))
                                                                    .getResultList ();
         if (aTmp.isEmpty ())
           return null;
@@ -130,15 +237,101 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcInvoiceOutgoing> getAllInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcInvoiceOutgoing>> ()
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
+    {
+      public final List <ProcInvoiceOutgoing> call ()
+      {
+        return _getQueryAll (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceOutgoing> getAllInvoicesWithProfile (@Nonnull final EProcFetchProfile eProfile)
+  {
+    return getAllInvoicesWithProfile (null, eProfile);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceOutgoing> getAllInvoicesWithProfile (@Nullable final EProcState eState,
+                                                                     @Nonnull final EProcFetchProfile eProfile)
+  {
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
     {
       public final List <ProcInvoiceOutgoing> call ()
       {
-        return _getQueryAll (false, eState).getResultList ();
+        return applyFetchProfile (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                  eProfile,
+                                  "p.invoice.invoiceLines",
+                                  "p.invoice.attachments").getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders ()
+  {
+    return getAllInvoiceHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders (@Nullable final EProcState eState)
+  {
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceOutgoing> getInvoicesPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getInvoicesPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceOutgoing> getInvoicesPage (@Nullable final EProcState eState,
+                                                                     final int nClient,
+                                                                     final int nAfterID,
+                                                                     @Nonnegative final int nPageSize)
+  {
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    return doSelectReadOnly (new Callable <ProcKeysetPage <ProcInvoiceOutgoing>> ()
+    {
+      public final ProcKeysetPage <ProcInvoiceOutgoing> call ()
+      {
+        return getKeysetPage (_getQueryPage (false, eState, nClient, nAfterID), nPageSize);
       }
     }).get ();
   }
 
+  @Nonnegative
+  public final int iterateAllInvoices (@Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceOutgoing> aCallback)
+  {
+    return iterateAllInvoices (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoices (@Nullable final EProcState eState,
+                                       @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceOutgoing> aCallback)
+  {
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
   @Nonnegative
   public final long getCountAllInvoices ()
   {
@@ -148,11 +341,11 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllInvoices (final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (false, eState));
+        return getSelectCountResultObj (_getCountAll (false, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
@@ -166,11 +359,11 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcInvoiceOutgoing> getAllDeletedInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcInvoiceOutgoing>> ()
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
     {
       public final List <ProcInvoiceOutgoing> call ()
       {
-        return _getQueryAll (true, eState).getResultList ();
+        return _getQueryAll (true, eState, CGlobal.ILLEGAL_UINT).getResultList ();
       }
     }).get ();
   }
@@ -184,41 +377,175 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedInvoices (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (true, eState, CGlobal.ILLEGAL_UINT));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceOutgoing> getAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
+    {
+      public final List <ProcInvoiceOutgoing> call ()
+      {
+        return _getQueryAll (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceOutgoing> getAllInvoicesOfClient (@Nonnegative final int nClient,
+                                                                  @Nullable final EProcState eState,
+                                                                  @Nonnull final EProcFetchProfile eProfile)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
+    {
+      public final List <ProcInvoiceOutgoing> call ()
+      {
+        return applyFetchProfile (_getQueryAll (false, eState, nClient),
+                                  eProfile,
+                                  "p.invoice.invoiceLines",
+                                  "p.invoice.attachments").getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeadersOfClient (@Nonnegative final int nClient,
+                                                                       @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoicesOfClient (@Nonnegative final int nClient,
+                                               @Nullable final EProcState eState,
+                                               @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceOutgoing> aCallback)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, nClient),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
+  @Nonnegative
+  public final long getCountAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceOutgoing> getAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcInvoiceOutgoing>> ()
+    {
+      public final List <ProcInvoiceOutgoing> call ()
+      {
+        return _getQueryAll (true, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (true, eState));
+        return getSelectCountResultObj (_getCountAll (true, eState, nClient));
       }
     }).get ().longValue ();
   }
 
   @Nonnull
-  private TypedQuery <ProcInvoiceOutgoing> _getQueryAll (final boolean bDeleted, final EProcState eState)
+  private TypedQuery <ProcInvoiceOutgoing> _getQueryAll (final boolean bDeleted, final EProcState eState,
+                                                         final int nClient)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT p FROM ProcInvoiceOutgoing p WHERE p.invoice.deleted = :deleted");
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceOutgoing.QUERY_ALL, eState != null, nClient >= 0);
+    final TypedQuery <ProcInvoiceOutgoing> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                          ProcInvoiceOutgoing.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final TypedQuery <ProcInvoiceOutgoing> aQuery = getEntityManager ().createQuery (aQueryString.toString (),
-                                                                                     ProcInvoiceOutgoing.class);
+  @Nonnull
+  private Query _getCountAll (final boolean bDeleted, final EProcState eState,
+                              final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceOutgoing.QUERY_COUNT, eState != null, nClient >= 0);
+    final Query aQuery = getEntityManager ().createNamedQuery (sQueryName);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
   @Nonnull
-  private Query _getCountAll (final boolean bDeleted, final EProcState eState)
+  private TypedQuery <ProcInvoiceOutgoing> _getQueryPage (final boolean bDeleted,
+                                                          @Nullable final EProcState eState,
+                                                          final int nClient,
+                                                          final int nAfterID)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT COUNT(p) FROM ProcInvoiceOutgoing p WHERE p.invoice.deleted = :deleted");
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceOutgoing.QUERY_PAGE, eState != null, nClient >= 0);
+    final TypedQuery <ProcInvoiceOutgoing> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                          ProcInvoiceOutgoing.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
+    aQuery.setParameter ("afterid", Integer.valueOf (nAfterID));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final Query aQuery = getEntityManager ().createQuery (aQueryString.toString ());
+  private TypedQuery <ProcDocumentHeader> _getQueryHeaders (final boolean bDeleted, @Nullable final EProcState eState,
+                                                            final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcInvoiceOutgoing.QUERY_HEADERS, eState != null, nClient >= 0);
+    final TypedQuery <ProcDocumentHeader> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                         ProcDocumentHeader.class);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
@@ -248,12 +575,120 @@ public class ProcInvoiceOutgoingManager extends AbstractProcManager
     if (nInvoiceID < 0)
       return null;
 
-    return doSelect (new Callable <ProcInvoiceOutgoing> ()
+    final ProcInvoiceOutgoing ret = doSelect (new Callable <ProcInvoiceOutgoing> ()
     {
       public final ProcInvoiceOutgoing call ()
       {
         return getEntityManager ().find (ProcInvoiceOutgoing.class, Integer.valueOf (nInvoiceID));
       }
     }).get ();
+    if (ret != null)
+      return ret;
+
+    // Not in the database - maybe it was archived
+    return _getArchivedInvoiceOfID (nInvoiceID);
+  }
+
+  @Nullable
+  private ProcInvoiceOutgoing _getArchivedInvoiceOfID (final int nInvoiceID)
+  {
+    final ProcDocumentArchive aArchive = getDocumentArchive ();
+    if (aArchive == null)
+      return null;
+    final IMicroElement eElement = aArchive.readDocument (EProcDocumentType.INVOICE_OUTGOING, nInvoiceID);
+    if (eElement == null)
+      return null;
+
+    // Parties are not archived
+    final int nCustomerID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcCustomer aCustomer = nCustomerID < 0 ? null : doSelect (new Callable <ProcCustomer> ()
+    {
+      public final ProcCustomer call ()
+      {
+        return getEntityManager ().find (ProcCustomer.class, Integer.valueOf (nCustomerID));
+      }
+    }).get ();
+    return ProcDocumentArchiveSerializer.readInvoiceOutgoing (eElement, aCustomer);
+  }
+
+  @Nonnull
+  public final EProcDocumentType getDocumentType ()
+  {
+    return EProcDocumentType.INVOICE_OUTGOING;
+  }
+
+  @Nonnull
+  public final List <Integer> getAllArchiveCandidateIDs (@Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates,
+                                                         @Nonnegative final int nMaxCount)
+  {
+    return getArchiveCandidateIDs (EProcDocumentType.INVOICE_OUTGOING, aIssuedBefore, aClosedStates, nMaxCount);
+  }
+
+  @Nonnull
+  public final SuccessWithValue <EChange> archiveDocument (final int nInvoiceID,
+                                                         @Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+
+    final ProcDocumentArchive aArchive = getDocumentArchiveOrThrow ();
+    final AtomicReference <File> aTempFile = new AtomicReference <File> ();
+    final JPAExecutionResult <ProcInvoiceOutgoing> ret = doInTransaction (new Callable <ProcInvoiceOutgoing> ()
+    {
+      public final ProcInvoiceOutgoing call ()
+      {
+        final ProcInvoiceOutgoing aInvoice = getEntityManager ().find (ProcInvoiceOutgoing.class, Integer.valueOf (nInvoiceID));
+        if (aInvoice == null)
+          return null;
+
+        // Re-check the criteria, as the document may have changed since the
+        // candidates were selected
+        if (!isArchiveCandidate (aInvoice.getInvoice ().getIssueDate (),
+                                 null,
+                                 aInvoice.getInvoice ().isDeleted (),
+                                 aInvoice.getState (),
+                                 aIssuedBefore,
+                                 aClosedStates))
+        {
+          s_aLogger.info ("Not archiving outgoing invoice " + aInvoice + ", as it no longer matches the criteria");
+          return null;
+        }
+
+        // Write the archive before removing, so that a failure leaves the
+        // database untouched. It is only moved into place after the commit.
+        aTempFile.set (aArchive.prepareDocument (EProcDocumentType.INVOICE_OUTGOING,
+                                                 nInvoiceID,
+                                                 ProcDocumentArchiveSerializer.writeInvoiceOutgoing (aInvoice)));
+        if (aTempFile.get () == null)
+          throw new IllegalStateException ("Failed to archive outgoing invoice " + nInvoiceID);
+        getEntityManager ().remove (aInvoice);
+        appendOutboxEvent (EProcChangeType.ARCHIVED, aInvoice);
+        s_aLogger.info ("Outgoing invoice archived: " + aInvoice);
+        return aInvoice;
+      }
+    });
+    if (ret.isFailure ())
+    {
+      aArchive.discardDocument (aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.UNCHANGED);
+    }
+    if (ret.get () == null)
+      return SuccessWithValue.createSuccess (EChange.UNCHANGED);
+    if (aArchive.commitDocument (EProcDocumentType.INVOICE_OUTGOING, nInvoiceID, aTempFile.get ()).isFailure ())
+    {
+      // The document is no longer in the database - keep the temporary file
+      s_aLogger.error ("Archived outgoing invoice " + nInvoiceID + " is only contained in " + aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.CHANGED);
+    }
+    fireDocumentStateChanged (EProcDocumentType.INVOICE_OUTGOING,
+                              ret.get ().getInvoice ().isDeleted (),
+                              ret.get ().getState (),
+                              false,
+                              null);
+    return SuccessWithValue.createSuccess (EChange.CHANGED);
   }
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * A single page of a keyset (seek) paginated query. The elements are always
+ * sorted by ascending ID, and the ID of the last element is the key to be used
+ * for retrieving the next page.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The contained domain object type
+ */
+@Immutable
+public final class ProcKeysetPage <DATATYPE extends IProcObject>
+{
+  /** The key to be used to retrieve the first page */
+  public static final int FIRST_PAGE_KEY = CGlobal.ILLEGAL_UINT;
+
+  private final List <DATATYPE> m_aItems;
+  private final boolean m_bHasMore;
+
+  public ProcKeysetPage (@Nonnull final List <? extends DATATYPE> aItems, final boolean bHasMore)
+  {
+    if (aItems == null)
+      throw new NullPointerException ("items");
+    m_aItems = ContainerHelper.newList (aItems);
+    m_bHasMore = bHasMore;
+  }
+
+  /**
+   * @return All elements of this page in ascending ID order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <DATATYPE> getAllItems ()
+  {
+    return ContainerHelper.newList (m_aItems);
+  }
+
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_aItems.size ();
+  }
+
+  public boolean isEmpty ()
+  {
+    return m_aItems.isEmpty ();
+  }
+
+  /**
+   * @return <code>true</code> if at least one more element is available after
+   *         this page.
+   */
+  public boolean hasMore ()
+  {
+    return m_bHasMore;
+  }
+
+  /**
+   * @return The key to be passed to retrieve the following page. This is the ID
+   *         of the last element of this page or {@link #FIRST_PAGE_KEY} if this
+   *         page is empty.
+   */
+  public int getNextPageKey ()
+  {
+    return m_aItems.isEmpty () ? FIRST_PAGE_KEY : ContainerHelper.getLastElement (m_aItems).getID ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("items", m_aItems).append ("hasMore", m_bHasMore).toString ();
+  }
+
+  /**
+   * Create a page from a query result that was queried with one element more
+   * than the page size. The superfluous element is only used to determine
+   * whether more elements are present.
+   *
+   * @param aResultList
+   *        The query result list. May not be <code>null</code>.
+   * @param nPageSize
+   *        The requested page size. Must be &gt; 0.
+   * @return The new page and never <code>null</code>.
+   */
+  @Nonnull
+  public static <DATATYPE extends IProcObject> ProcKeysetPage <DATATYPE> createFromOverfetch (@Nonnull final List <? extends DATATYPE> aResultList,
+                                                                                              @Nonnegative final int nPageSize)
+  {
+    if (aResultList == null)
+      throw new NullPointerException ("resultList");
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    if (aResultList.size () <= nPageSize)
+      return new ProcKeysetPage <DATATYPE> (aResultList, false);
+    return new ProcKeysetPage <DATATYPE> (aResultList.subList (0, nPageSize), true);
+  }
+}
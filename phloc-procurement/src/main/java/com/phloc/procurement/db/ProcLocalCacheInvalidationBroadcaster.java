@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * An {@link IProcCacheInvalidationBroadcaster} that distributes invalidations
+ * to all caches registered in the same JVM. This is a stand-in for a real
+ * cluster transport, e.g. for several entity manager factories on the same
+ * database within one application or for testing.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcLocalCacheInvalidationBroadcaster implements IProcCacheInvalidationBroadcaster
+{
+  private final List <ProcSharedEntityCache> m_aNodes = new CopyOnWriteArrayList <ProcSharedEntityCache> ();
+
+  public ProcLocalCacheInvalidationBroadcaster ()
+  {}
+
+  /**
+   * Register a cache and use this broadcaster for it.
+   *
+   * @param aCache
+   *        The cache to register. May not be <code>null</code>.
+   */
+  public void registerNode (@Nonnull final ProcSharedEntityCache aCache)
+  {
+    if (aCache == null)
+      throw new NullPointerException ("cache");
+    if (!m_aNodes.contains (aCache))
+      m_aNodes.add (aCache);
+    aCache.setInvalidationBroadcaster (this);
+  }
+
+  public void unregisterNode (@Nullable final ProcSharedEntityCache aCache)
+  {
+    if (m_aNodes.remove (aCache) && aCache.getInvalidationBroadcaster () == this)
+      aCache.setInvalidationBroadcaster (null);
+  }
+
+  public void broadcastInvalidation (@Nonnull final ProcSharedEntityCache aSource,
+                                     @Nonnull final Class <? extends IProcObject> aEntityClass,
+                                     final int nID)
+  {
+    for (final ProcSharedEntityCache aNode : m_aNodes)
+      if (aNode != aSource)
+        aNode.onRemoteInvalidation (aEntityClass, nID);
+  }
+}
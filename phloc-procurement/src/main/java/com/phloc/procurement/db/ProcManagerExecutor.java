@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.concurrent.ExtendedDefaultThreadFactory;
+import com.phloc.commons.concurrent.ManagedExecutorService;
+import com.phloc.commons.state.EInterrupt;
+import com.phloc.commons.string.StringHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.scopes.util.AbstractScopeAwareCallable;
+
+/**
+ * A bounded executor for running manager calls outside of the calling thread.
+ * The number of threads should match the size of the database connection pool
+ * so that no worker waits for a connection. If the queue is full, submitting
+ * fails fast with a {@link RejectedExecutionException} instead of blocking the
+ * caller.<br>
+ * Each task is executed within its own request scope, so that per request
+ * entity managers are created and closed in the worker thread.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcManagerExecutor
+{
+  /** The default maximum number of waiting tasks */
+  public static final int DEFAULT_MAX_QUEUE_SIZE = 1000;
+
+  private final String m_sApplicationID;
+  private final ThreadPoolExecutor m_aExecutor;
+
+  public ProcManagerExecutor (@Nonnull final String sApplicationID, @Nonnegative final int nThreads)
+  {
+    this (sApplicationID, nThreads, DEFAULT_MAX_QUEUE_SIZE);
+  }
+
+  public ProcManagerExecutor (@Nonnull final String sApplicationID,
+                              @Nonnegative final int nThreads,
+                              @Nonnegative final int nMaxQueueSize)
+  {
+    if (StringHelper.hasNoText (sApplicationID))
+      throw new IllegalArgumentException ("applicationID");
+    if (nThreads <= 0)
+      throw new IllegalArgumentException ("Illegal thread count " + nThreads);
+    if (nMaxQueueSize <= 0)
+      throw new IllegalArgumentException ("Illegal queue size " + nMaxQueueSize);
+
+    m_sApplicationID = sApplicationID;
+    m_aExecutor = new ThreadPoolExecutor (nThreads,
+                                          nThreads,
+                                          60,
+                                          TimeUnit.SECONDS,
+                                          new ArrayBlockingQueue <Runnable> (nMaxQueueSize),
+                                          new ExtendedDefaultThreadFactory ("proc-manager"),
+                                          new ThreadPoolExecutor.AbortPolicy ());
+    m_aExecutor.allowCoreThreadTimeOut (true);
+  }
+
+  @Nonnull
+  public String getApplicationID ()
+  {
+    return m_sApplicationID;
+  }
+
+  @Nonnegative
+  public int getThreadCount ()
+  {
+    return m_aExecutor.getMaximumPoolSize ();
+  }
+
+  /**
+   * @return The number of tasks currently waiting for a free thread.
+   */
+  @Nonnegative
+  public int getQueueSize ()
+  {
+    return m_aExecutor.getQueue ().size ();
+  }
+
+  @Nonnull
+  private <T> INonThrowingCallable <T> _getScopeAware (@Nonnull final INonThrowingCallable <T> aCallable)
+  {
+    if (aCallable == null)
+      throw new NullPointerException ("callable");
+
+    return new AbstractScopeAwareCallable <T> (m_sApplicationID)
+    {
+      @Override
+      protected T scopedRun ()
+      {
+        return aCallable.call ();
+      }
+    };
+  }
+
+  /**
+   * Run the passed callable asynchronously. Cancelling the returned future
+   * removes a task that is still queued and interrupts a task that is already
+   * running.
+   *
+   * @param aCallable
+   *        The callable to be executed. May not be <code>null</code>.
+   * @return The future of the execution and never <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the queue is full or the executor was shut down.
+   */
+  @Nonnull
+  public <T> Future <T> submit (@Nonnull final INonThrowingCallable <T> aCallable)
+  {
+    return m_aExecutor.submit (_getScopeAware (aCallable));
+  }
+
+  /**
+   * Run the passed callable asynchronously and return a future that can be
+   * composed with further steps. Cancelling the returned future does not
+   * interrupt a task that is already running.
+   *
+   * @param aCallable
+   *        The callable to be executed. May not be <code>null</code>.
+   * @return The future of the execution and never <code>null</code>.
+   * @throws RejectedExecutionException
+   *         If the queue is full or the executor was shut down.
+   */
+  @Nonnull
+  public <T> CompletableFuture <T> supplyAsync (@Nonnull final INonThrowingCallable <T> aCallable)
+  {
+    final INonThrowingCallable <T> aScopeAware = _getScopeAware (aCallable);
+    return CompletableFuture.supplyAsync (new Supplier <T> ()
+    {
+      public T get ()
+      {
+        return aScopeAware.call ();
+      }
+    }, m_aExecutor);
+  }
+
+  /**
+   * Shutdown the executor and wait until all queued tasks are finished.
+   *
+   * @return {@link EInterrupt#INTERRUPTED} if waiting was interrupted.
+   */
+  @Nonnull
+  public EInterrupt shutdown ()
+  {
+    return ManagedExecutorService.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  /**
+   * Wait for the result of the passed future. If the result is not available
+   * in time or if waiting is interrupted, the future is cancelled.
+   *
+   * @param aFuture
+   *        The future to wait for. May not be <code>null</code>.
+   * @param nTimeout
+   *        The maximum time to wait.
+   * @param eUnit
+   *        The unit of the timeout. May not be <code>null</code>.
+   * @return The result of the future. May be <code>null</code>.
+   * @throws TimeoutException
+   *         If the result was not available in time
+   * @throws ExecutionException
+   *         If the execution failed
+   * @throws InterruptedException
+   *         If waiting was interrupted
+   */
+  @Nullable
+  public static <T> T get (@Nonnull final Future <T> aFuture,
+                           @Nonnegative final long nTimeout,
+                           @Nonnull final TimeUnit eUnit) throws TimeoutException,
+                                                          ExecutionException,
+                                                          InterruptedException
+  {
+    if (aFuture == null)
+      throw new NullPointerException ("future");
+    if (eUnit == null)
+      throw new NullPointerException ("unit");
+
+    try
+    {
+      return aFuture.get (nTimeout, eUnit);
+    }
+    catch (final TimeoutException ex)
+    {
+      aFuture.cancel (true);
+      throw ex;
+    }
+    catch (final InterruptedException ex)
+    {
+      aFuture.cancel (true);
+      throw ex;
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("applicationID", m_sApplicationID)
+                                       .append ("executor", m_aExecutor)
+                                       .toString ();
+  }
+}
@@ -19,41 +19,106 @@ package com.phloc.procurement.db;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.phloc.commons.state.ISuccessIndicator;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.outbox.EProcChangeType;
 import com.phloc.procurement.party.ProcMasterData;
 
 public class ProcMasterDataManager extends AbstractProcManager
 {
+  /** Default time to live of the cached master data: unlimited */
+  public static final long DEFAULT_CACHE_TTL_MILLIS = 0;
+
+  /**
+   * Only the ID of the current master data is cached, so that every caller
+   * gets its own instance from the persistence context (which is served from
+   * the shared cache, as the master data is cacheable) and no managed entity
+   * is shared between callers.
+   */
+  @Immutable
+  private static final class CachedMasterData
+  {
+    private final Integer m_aMasterDataID;
+    private final long m_nLoadTime;
+
+    CachedMasterData (@Nullable final ProcMasterData aMasterData)
+    {
+      m_aMasterDataID = aMasterData == null ? null : Integer.valueOf (aMasterData.getID ());
+      m_nLoadTime = System.currentTimeMillis ();
+    }
+  }
+
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcMasterDataManager.class);
 
+  private final AtomicReference <CachedMasterData> m_aCache = new AtomicReference <CachedMasterData> ();
+  /** Incremented on every invalidation to avoid caching outdated loads */
+  private final AtomicInteger m_aGeneration = new AtomicInteger (0);
+  private volatile long m_nCacheTTLMillis = DEFAULT_CACHE_TTL_MILLIS;
+
   public ProcMasterDataManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
   {
     super (aEntityMgrProvider);
   }
 
+  @Nonnegative
+  public final long getCacheTTLMillis ()
+  {
+    return m_nCacheTTLMillis;
+  }
+
+  /**
+   * @param nCacheTTLMillis
+   *        The number of milliseconds after which the cached master data is
+   *        re-read from the database. Use this if the master data may be
+   *        modified by other cluster nodes. 0 means unlimited.
+   */
+  public final void setCacheTTLMillis (@Nonnegative final long nCacheTTLMillis)
+  {
+    if (nCacheTTLMillis < 0)
+      throw new IllegalArgumentException ("Illegal TTL " + nCacheTTLMillis);
+    m_nCacheTTLMillis = nCacheTTLMillis;
+  }
+
+  public final void invalidateCache ()
+  {
+    m_aGeneration.incrementAndGet ();
+    m_aCache.set (null);
+  }
+
   @Nonnull
   public final ISuccessIndicator saveMasterData (@Nonnull final ProcMasterData aMasterData)
   {
-    return doInTransaction (new Runnable ()
+    final JPAExecutionResult <ProcMasterData> ret = doInTransaction (new Callable <ProcMasterData> ()
     {
-      public final void run ()
+      public final ProcMasterData call ()
       {
-        getEntityManager ().merge (aMasterData);
+        final ProcMasterData aMerged = getEntityManager ().merge (aMasterData);
+        appendOutboxEvent (EProcChangeType.SAVED, aMerged);
         s_aLogger.info ("Masterdata saved: " + aMasterData);
+        return aMerged;
       }
     });
+    // Saving any master data row (even another one) may change the current
+    // master data
+    invalidateCache ();
+    invalidateSharedEntityCache (ret.isSuccess () ? ret.get () : aMasterData);
+    return ret;
   }
 
-  @Nullable
-  public final ProcMasterData getMasterData ()
+  @Nonnull
+  private JPAExecutionResult <ProcMasterData> _readMasterData ()
   {
     return doSelect (new Callable <ProcMasterData> ()
     {
@@ -64,6 +129,44 @@ public class ProcMasterDataManager extends AbstractProcManager
                                                                              ProcMasterData.class).getResultList ();
         return aList == null || aList.size () != 1 ? null : aList.get (0);
       }
-    }).get ();
+    });
+  }
+
+  @Nullable
+  public final ProcMasterData getMasterData ()
+  {
+    final CachedMasterData aCached = m_aCache.get ();
+    if (aCached != null)
+    {
+      final long nTTL = m_nCacheTTLMillis;
+      if (nTTL == 0 || System.currentTimeMillis () - aCached.m_nLoadTime < nTTL)
+      {
+        if (aCached.m_aMasterDataID == null)
+          return null;
+
+        final ProcMasterData aMasterData = doSelect (new Callable <ProcMasterData> ()
+        {
+          public final ProcMasterData call ()
+          {
+            return findEntity (ProcMasterData.class, aCached.m_aMasterDataID.intValue ());
+          }
+        }).get ();
+        if (aMasterData != null && !aMasterData.isDeleted ())
+          return aMasterData;
+      }
+    }
+
+    final int nGeneration = m_aGeneration.get ();
+    final JPAExecutionResult <ProcMasterData> aResult = _readMasterData ();
+    // Don't cache errors and don't cache a result that was read before a
+    // concurrent invalidation
+    if (aResult.isSuccess () && nGeneration == m_aGeneration.get ())
+    {
+      final CachedMasterData aNew = new CachedMasterData (aResult.get ());
+      m_aCache.set (aNew);
+      if (nGeneration != m_aGeneration.get ())
+        m_aCache.compareAndSet (aNew, null);
+    }
+    return aResult.get ();
   }
 }
@@ -17,8 +17,12 @@
  */
 package com.phloc.procurement.db;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -26,15 +30,26 @@ import javax.annotation.Nullable;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.joda.time.LocalDate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.state.impl.SuccessWithValue;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.CProcQuery;
+import com.phloc.procurement.domain.EProcDocumentType;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.party.ProcCustomer;
 
-public class ProcOrderIncomingManager extends AbstractProcManager
+public class ProcOrderIncomingManager extends AbstractProcManager implements IProcDocumentArchiver, IProcOrderIncomingManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcOrderIncomingManager.class);
 
@@ -46,81 +61,198 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnull
   public final ISuccessIndicator saveOrder (@Nonnull final ProcOrderIncoming aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
-        getEntityManager ().merge (aOrder);
+        appendOutboxEvent (EProcChangeType.SAVED, getEntityManager ().merge (aOrder));
         s_aLogger.info ("Incoming order saved: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentsSaved (EProcDocumentType.ORDER_INCOMING);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcSaveResult <ProcOrderIncoming> saveOrder (@Nonnull final ProcOrderIncoming aOrder,
+                                                             @Nullable final IProcConflictResolver <ProcOrderIncoming> aResolver)
+  {
+    final ProcSaveResult <ProcOrderIncoming> ret = mergeWithConflictCheck (ProcOrderIncoming.class,
+                                                                           aOrder,
+                                                                           aResolver,
+                                                                           DEFAULT_MAX_CONFLICT_RETRIES);
+    if (ret.isSuccess ())
+    {
+      s_aLogger.info ("Incoming order saved: " + ret.getSavedObject ());
+      fireDocumentsSaved (EProcDocumentType.ORDER_INCOMING);
+    }
+    else
+      if (ret.isConflict ())
+        s_aLogger.warn ("Incoming order was modified concurrently: " + aOrder);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcBulkSaveResult <ProcOrderIncoming> saveAllOrders (@Nonnull final Collection <? extends ProcOrderIncoming> aOrders)
+  {
+    return saveAllOrders (aOrders, DEFAULT_BULK_CHUNK_SIZE);
+  }
+
+  @Nonnull
+  public final ProcBulkSaveResult <ProcOrderIncoming> saveAllOrders (@Nonnull final Collection <? extends ProcOrderIncoming> aOrders,
+                                                                     @Nonnegative final int nChunkSize)
+  {
+    final ProcBulkSaveResult <ProcOrderIncoming> ret = mergeAllInChunks (aOrders, nChunkSize);
+    s_aLogger.info ("Incoming orders saved: " + ret.getSucceededCount () + " succeeded, " + ret.getFailedCount () + " failed");
+    if (ret.getSucceededCount () > 0)
+      fireDocumentsSaved (EProcDocumentType.ORDER_INCOMING);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteOrder (@Nonnull final ProcOrderIncoming aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.getOrder ().setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aOrder);
         s_aLogger.info ("Incoming order deleted: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator acceptOrder (@Nonnull final ProcOrderIncoming aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         // Change state in DB
         aOrder.setState (EProcState.ACCEPTED);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aOrder, aOrder.getState ());
         s_aLogger.info ("Incoming order accepted: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator rejectOrder (@Nonnull final ProcOrderIncoming aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         // Change state in DB
         aOrder.setState (EProcState.REJECTED);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aOrder, aOrder.getState ());
         s_aLogger.info ("Incoming order reject: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteOrder (@Nonnull final ProcOrderIncoming aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.getOrder ().setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aOrder);
         s_aLogger.info ("Incoming order undeleted: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator changeOrderState (final ProcOrderIncoming aOrder, final EProcState eNewState)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.setState (eNewState);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aOrder, aOrder.getState ());
         s_aLogger.info ("Incoming order state changed to " + eNewState + ": " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
+  }
+
+  @Nonnull
+  public final List <Integer> acceptOrders (@Nonnull final Collection <Integer> aOrderIDs)
+  {
+    return changeOrdersState (aOrderIDs, EnumSet.of (EProcState.RECEIVED), EProcState.ACCEPTED);
+  }
+
+  @Nonnull
+  public final List <Integer> rejectOrders (@Nonnull final Collection <Integer> aOrderIDs)
+  {
+    return changeOrdersState (aOrderIDs, EnumSet.of (EProcState.RECEIVED), EProcState.REJECTED);
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeOrdersState (aOrderIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs,
+                                                 @Nonnull final Collection <EProcState> aExpectedStates,
+                                                 @Nonnull final EProcState eNewState)
+  {
+    final List <Integer> ret = changeStateInBulk (EProcDocumentType.ORDER_INCOMING, aOrderIDs, aExpectedStates, eNewState);
+    s_aLogger.info ("Incoming orders state changed to " + eNewState + ": " + ret.size () + " of " + aOrderIDs.size ());
+    return ret;
   }
 
   @Nonnull
@@ -132,15 +264,101 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcOrderIncoming> getAllOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcOrderIncoming>> ()
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
+    {
+      public final List <ProcOrderIncoming> call ()
+      {
+        return _getQueryAll (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcOrderIncoming> getAllOrdersWithProfile (@Nonnull final EProcFetchProfile eProfile)
+  {
+    return getAllOrdersWithProfile (null, eProfile);
+  }
+
+  @Nonnull
+  public final List <ProcOrderIncoming> getAllOrdersWithProfile (@Nullable final EProcState eState,
+                                                                 @Nonnull final EProcFetchProfile eProfile)
+  {
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
     {
       public final List <ProcOrderIncoming> call ()
       {
-        return _getQueryAll (false, eState).getResultList ();
+        return applyFetchProfile (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                  eProfile,
+                                  "p.order.orderItems",
+                                  "p.order.attachments").getResultList ();
       }
     }).get ();
   }
 
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders ()
+  {
+    return getAllOrderHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders (@Nullable final EProcState eState)
+  {
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderIncoming> getOrdersPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getOrdersPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderIncoming> getOrdersPage (@Nullable final EProcState eState,
+                                                                 final int nClient,
+                                                                 final int nAfterID,
+                                                                 @Nonnegative final int nPageSize)
+  {
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    return doSelectReadOnly (new Callable <ProcKeysetPage <ProcOrderIncoming>> ()
+    {
+      public final ProcKeysetPage <ProcOrderIncoming> call ()
+      {
+        return getKeysetPage (_getQueryPage (false, eState, nClient, nAfterID), nPageSize);
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback)
+  {
+    return iterateAllOrders (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nullable final EProcState eState,
+                                     @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback)
+  {
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
   @Nonnegative
   public final long getCountAllOrders ()
   {
@@ -150,11 +368,11 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (false, eState));
+        return getSelectCountResultObj (_getCountAll (false, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
@@ -168,11 +386,11 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcOrderIncoming> getAllDeletedOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcOrderIncoming>> ()
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
     {
       public final List <ProcOrderIncoming> call ()
       {
-        return _getQueryAll (true, eState).getResultList ();
+        return _getQueryAll (true, eState, CGlobal.ILLEGAL_UINT).getResultList ();
       }
     }).get ();
   }
@@ -186,11 +404,11 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (true, eState));
+        return getSelectCountResultObj (_getCountAll (true, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
@@ -198,43 +416,188 @@ public class ProcOrderIncomingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountOfNewOrders ()
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, EProcState.RECEIVED, CGlobal.ILLEGAL_UINT));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcOrderIncoming> getAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
+    {
+      public final List <ProcOrderIncoming> call ()
+      {
+        return _getQueryAll (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcOrderIncoming> getAllOrdersOfClient (@Nonnegative final int nClient,
+                                                              @Nullable final EProcState eState,
+                                                              @Nonnull final EProcFetchProfile eProfile)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
+    {
+      public final List <ProcOrderIncoming> call ()
+      {
+        return applyFetchProfile (_getQueryAll (false, eState, nClient),
+                                  eProfile,
+                                  "p.order.orderItems",
+                                  "p.order.attachments").getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeadersOfClient (@Nonnegative final int nClient,
+                                                                     @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllOrdersOfClient (@Nonnegative final int nClient,
+                                             @Nullable final EProcState eState,
+                                             @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderIncoming> aCallback)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, nClient),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
+  @Nonnegative
+  public final long getCountAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcOrderIncoming p"
-                                                                         + " WHERE p.order.deleted = false AND p.state = :state")
-                                                           .setParameter ("state", EProcState.RECEIVED));
+        return getSelectCountResultObj (_getCountAll (false, eState, nClient));
       }
     }).get ().longValue ();
   }
 
   @Nonnull
-  private TypedQuery <ProcOrderIncoming> _getQueryAll (final boolean bDeleted, final EProcState eState)
+  public final List <ProcOrderIncoming> getAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT p FROM ProcOrderIncoming p WHERE p.order.deleted = :deleted");
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderIncoming>> ()
+    {
+      public final List <ProcOrderIncoming> call ()
+      {
+        return _getQueryAll (true, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (true, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnegative
+  public final long getCountOfNewOrdersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, EProcState.RECEIVED, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  private TypedQuery <ProcOrderIncoming> _getQueryAll (final boolean bDeleted, final EProcState eState,
+                                                       final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderIncoming.QUERY_ALL, eState != null, nClient >= 0);
+    final TypedQuery <ProcOrderIncoming> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                        ProcOrderIncoming.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final TypedQuery <ProcOrderIncoming> aQuery = getEntityManager ().createQuery (aQueryString.toString (),
-                                                                                   ProcOrderIncoming.class);
+  @Nonnull
+  private Query _getCountAll (final boolean bDeleted, final EProcState eState,
+                              final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderIncoming.QUERY_COUNT, eState != null, nClient >= 0);
+    final Query aQuery = getEntityManager ().createNamedQuery (sQueryName);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
   @Nonnull
-  private Query _getCountAll (final boolean bDeleted, final EProcState eState)
+  private TypedQuery <ProcOrderIncoming> _getQueryPage (final boolean bDeleted,
+                                                        @Nullable final EProcState eState,
+                                                        final int nClient,
+                                                        final int nAfterID)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT COUNT(p) FROM ProcOrderIncoming p WHERE p.order.deleted = :deleted");
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderIncoming.QUERY_PAGE, eState != null, nClient >= 0);
+    final TypedQuery <ProcOrderIncoming> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                        ProcOrderIncoming.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
+    aQuery.setParameter ("afterid", Integer.valueOf (nAfterID));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final Query aQuery = getEntityManager ().createQuery (aQueryString.toString ());
+  private TypedQuery <ProcDocumentHeader> _getQueryHeaders (final boolean bDeleted, @Nullable final EProcState eState,
+                                                            final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderIncoming.QUERY_HEADERS, eState != null, nClient >= 0);
+    final TypedQuery <ProcDocumentHeader> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                         ProcDocumentHeader.class);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
@@ -262,12 +625,120 @@ public class ProcOrderIncomingManager extends AbstractProcManager
     if (nOrderID < 0)
       return null;
 
-    return doSelect (new Callable <ProcOrderIncoming> ()
+    final ProcOrderIncoming ret = doSelect (new Callable <ProcOrderIncoming> ()
     {
       public final ProcOrderIncoming call ()
       {
         return getEntityManager ().find (ProcOrderIncoming.class, Integer.valueOf (nOrderID));
       }
     }).get ();
+    if (ret != null)
+      return ret;
+
+    // Not in the database - maybe it was archived
+    return _getArchivedOrderOfID (nOrderID);
+  }
+
+  @Nullable
+  private ProcOrderIncoming _getArchivedOrderOfID (final int nOrderID)
+  {
+    final ProcDocumentArchive aArchive = getDocumentArchive ();
+    if (aArchive == null)
+      return null;
+    final IMicroElement eElement = aArchive.readDocument (EProcDocumentType.ORDER_INCOMING, nOrderID);
+    if (eElement == null)
+      return null;
+
+    // Parties are not archived
+    final int nCustomerID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcCustomer aCustomer = nCustomerID < 0 ? null : doSelect (new Callable <ProcCustomer> ()
+    {
+      public final ProcCustomer call ()
+      {
+        return getEntityManager ().find (ProcCustomer.class, Integer.valueOf (nCustomerID));
+      }
+    }).get ();
+    return ProcDocumentArchiveSerializer.readOrderIncoming (eElement, aCustomer);
+  }
+
+  @Nonnull
+  public final EProcDocumentType getDocumentType ()
+  {
+    return EProcDocumentType.ORDER_INCOMING;
+  }
+
+  @Nonnull
+  public final List <Integer> getAllArchiveCandidateIDs (@Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates,
+                                                         @Nonnegative final int nMaxCount)
+  {
+    return getArchiveCandidateIDs (EProcDocumentType.ORDER_INCOMING, aIssuedBefore, aClosedStates, nMaxCount);
+  }
+
+  @Nonnull
+  public final SuccessWithValue <EChange> archiveDocument (final int nOrderID,
+                                                         @Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+
+    final ProcDocumentArchive aArchive = getDocumentArchiveOrThrow ();
+    final AtomicReference <File> aTempFile = new AtomicReference <File> ();
+    final JPAExecutionResult <ProcOrderIncoming> ret = doInTransaction (new Callable <ProcOrderIncoming> ()
+    {
+      public final ProcOrderIncoming call ()
+      {
+        final ProcOrderIncoming aOrder = getEntityManager ().find (ProcOrderIncoming.class, Integer.valueOf (nOrderID));
+        if (aOrder == null)
+          return null;
+
+        // Re-check the criteria, as the document may have changed since the
+        // candidates were selected
+        if (!isArchiveCandidate (aOrder.getOrder ().getIssueDate (),
+                                 aOrder.getReceiveDateTime (),
+                                 aOrder.getOrder ().isDeleted (),
+                                 aOrder.getState (),
+                                 aIssuedBefore,
+                                 aClosedStates))
+        {
+          s_aLogger.info ("Not archiving incoming order " + aOrder + ", as it no longer matches the criteria");
+          return null;
+        }
+
+        // Write the archive before removing, so that a failure leaves the
+        // database untouched. It is only moved into place after the commit.
+        aTempFile.set (aArchive.prepareDocument (EProcDocumentType.ORDER_INCOMING,
+                                                 nOrderID,
+                                                 ProcDocumentArchiveSerializer.writeOrderIncoming (aOrder)));
+        if (aTempFile.get () == null)
+          throw new IllegalStateException ("Failed to archive incoming order " + nOrderID);
+        getEntityManager ().remove (aOrder);
+        appendOutboxEvent (EProcChangeType.ARCHIVED, aOrder);
+        s_aLogger.info ("Incoming order archived: " + aOrder);
+        return aOrder;
+      }
+    });
+    if (ret.isFailure ())
+    {
+      aArchive.discardDocument (aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.UNCHANGED);
+    }
+    if (ret.get () == null)
+      return SuccessWithValue.createSuccess (EChange.UNCHANGED);
+    if (aArchive.commitDocument (EProcDocumentType.ORDER_INCOMING, nOrderID, aTempFile.get ()).isFailure ())
+    {
+      // The document is no longer in the database - keep the temporary file
+      s_aLogger.error ("Archived incoming order " + nOrderID + " is only contained in " + aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.CHANGED);
+    }
+    fireDocumentStateChanged (EProcDocumentType.ORDER_INCOMING,
+                              ret.get ().getOrder ().isDeleted (),
+                              ret.get ().getState (),
+                              false,
+                              null);
+    return SuccessWithValue.createSuccess (EChange.CHANGED);
   }
 }
@@ -17,8 +17,11 @@
  */
 package com.phloc.procurement.db;
 
+import java.io.File;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
@@ -26,16 +29,27 @@ import javax.annotation.Nullable;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
+import org.joda.time.LocalDate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.EChange;
 import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.state.impl.SuccessWithValue;
 import com.phloc.commons.string.StringHelper;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
+import com.phloc.procurement.domain.CProcQuery;
+import com.phloc.procurement.domain.EProcDocumentType;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.order.ProcOrderOutgoing;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.party.ProcSupplier;
 
-public class ProcOrderOutgoingManager extends AbstractProcManager
+public class ProcOrderOutgoingManager extends AbstractProcManager implements IProcDocumentArchiver, IProcOrderOutgoingManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcOrderOutgoingManager.class);
 
@@ -47,53 +61,121 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
   @Nonnull
   public final ISuccessIndicator saveOrder (@Nonnull final ProcOrderOutgoing aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
-        getEntityManager ().merge (aOrder);
+        appendOutboxEvent (EProcChangeType.SAVED, getEntityManager ().merge (aOrder));
         s_aLogger.info ("Outgoing order saved: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentsSaved (EProcDocumentType.ORDER_OUTGOING);
+    return ret;
+  }
+
+  @Nonnull
+  public final ProcSaveResult <ProcOrderOutgoing> saveOrder (@Nonnull final ProcOrderOutgoing aOrder,
+                                                             @Nullable final IProcConflictResolver <ProcOrderOutgoing> aResolver)
+  {
+    final ProcSaveResult <ProcOrderOutgoing> ret = mergeWithConflictCheck (ProcOrderOutgoing.class,
+                                                                           aOrder,
+                                                                           aResolver,
+                                                                           DEFAULT_MAX_CONFLICT_RETRIES);
+    if (ret.isSuccess ())
+    {
+      s_aLogger.info ("Outgoing order saved: " + ret.getSavedObject ());
+      fireDocumentsSaved (EProcDocumentType.ORDER_OUTGOING);
+    }
+    else
+      if (ret.isConflict ())
+        s_aLogger.warn ("Outgoing order was modified concurrently: " + aOrder);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteOrder (@Nonnull final ProcOrderOutgoing aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.getOrder ().setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aOrder);
         s_aLogger.info ("Outgoing order deleted: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteOrder (@Nonnull final ProcOrderOutgoing aOrder)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.getOrder ().setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aOrder);
         s_aLogger.info ("Outgoing order undeleted: " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator changeOrderState (final ProcOrderOutgoing aOrder, final EProcState eNewState)
   {
-    return doInTransaction (new Runnable ()
+    final boolean bOldDeleted = aOrder.getOrder ().isDeleted ();
+    final EProcState eOldState = aOrder.getState ();
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aOrder.setState (eNewState);
+        appendOutboxEvent (EProcChangeType.STATE_CHANGED, aOrder, aOrder.getState ());
         s_aLogger.info ("Outgoing order state changed to " + eNewState + ": " + aOrder);
       }
     });
+    if (ret.isSuccess ())
+      fireDocumentStateChanged (EProcDocumentType.ORDER_OUTGOING,
+                                bOldDeleted,
+                                eOldState,
+                                aOrder.getOrder ().isDeleted (),
+                                aOrder.getState ());
+    return ret;
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeOrdersState (aOrderIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs,
+                                                 @Nonnull final Collection <EProcState> aExpectedStates,
+                                                 @Nonnull final EProcState eNewState)
+  {
+    final List <Integer> ret = changeStateInBulk (EProcDocumentType.ORDER_OUTGOING, aOrderIDs, aExpectedStates, eNewState);
+    s_aLogger.info ("Outgoing orders state changed to " + eNewState + ": " + ret.size () + " of " + aOrderIDs.size ());
+    return ret;
   }
 
   @Nullable
@@ -107,10 +189,35 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
       @Nullable
       public ProcOrderOutgoing call () throws Exception
       {
-        final List <ProcOrderOutgoing> aTmp = getEntityManager ().createQuery ("SELECT p FROM ProcOrderOutgoing p"
-                                                                                   + " WHERE p.order.deleted = false AND p.order.orderNumber = :orderNumber",
-                                                                               ProcOrderOutgoing.class)
-                                                                 .setParameter ("orderNumber", sOrderNumber)
+        final List <ProcOrderOutgoing> aTmp = getEntityManager ().createNamedQuery (ProcOrderOutgoing.QUERY_BY_NUMBER,
+                                                                                    ProcOrderOutgoing.class)
+                                                                 .setParameter ("number", sOrderNumber)
+                                                                 .getResultList ();
+        if (aTmp.isEmpty ())
+          return null;
+        if (aTmp.size () > 1)
+          s_aLogger.warn ("Too many results (" + aTmp.size () + ") for " + sOrderNumber);
+        return aTmp.get (0);
+      }
+    }).get ();
+  }
+
+  @Nullable
+  public final ProcOrderOutgoing getActiveOrderOfOrderNumber (@Nonnegative final int nClient, @Nullable final String sOrderNumber)
+  {
+    checkClient (nClient);
+    if (StringHelper.hasNoText (sOrderNumber))
+      return null;
+
+    return doSelect (new Callable <ProcOrderOutgoing> ()
+    {
+      @Nullable
+      public ProcOrderOutgoing call () throws Exception
+      {
+        final List <ProcOrderOutgoing> aTmp = getEntityManager ().createNamedQuery (ProcOrderOutgoing.QUERY_BY_NUMBER + CProcQuery.SUFFIX_CLIENT,
+                                                                                    ProcOrderOutgoing.class)
+                                                                 .setParameter ("number", sOrderNumber)
+                                                                 .setParameter ("client", Integer.valueOf (nClient))
                                                                  .getResultList ();
         if (aTmp.isEmpty ())
           return null;
@@ -130,15 +237,101 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcOrderOutgoing> getAllOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcOrderOutgoing>> ()
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
+    {
+      public final List <ProcOrderOutgoing> call ()
+      {
+        return _getQueryAll (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrdersWithProfile (@Nonnull final EProcFetchProfile eProfile)
+  {
+    return getAllOrdersWithProfile (null, eProfile);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrdersWithProfile (@Nullable final EProcState eState,
+                                                                 @Nonnull final EProcFetchProfile eProfile)
+  {
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
     {
       public final List <ProcOrderOutgoing> call ()
       {
-        return _getQueryAll (false, eState).getResultList ();
+        return applyFetchProfile (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                  eProfile,
+                                  "p.order.orderItems",
+                                  "p.order.attachments").getResultList ();
       }
     }).get ();
   }
 
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders ()
+  {
+    return getAllOrderHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders (@Nullable final EProcState eState)
+  {
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, CGlobal.ILLEGAL_UINT).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderOutgoing> getOrdersPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getOrdersPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderOutgoing> getOrdersPage (@Nullable final EProcState eState,
+                                                                 final int nClient,
+                                                                 final int nAfterID,
+                                                                 @Nonnegative final int nPageSize)
+  {
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    return doSelectReadOnly (new Callable <ProcKeysetPage <ProcOrderOutgoing>> ()
+    {
+      public final ProcKeysetPage <ProcOrderOutgoing> call ()
+      {
+        return getKeysetPage (_getQueryPage (false, eState, nClient, nAfterID), nPageSize);
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    return iterateAllOrders (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nullable final EProcState eState,
+                                     @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, CGlobal.ILLEGAL_UINT),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
   @Nonnegative
   public final long getCountAllOrders ()
   {
@@ -148,11 +341,11 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (false, eState));
+        return getSelectCountResultObj (_getCountAll (false, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
@@ -166,11 +359,11 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
   @Nonnull
   public final List <ProcOrderOutgoing> getAllDeletedOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <List <ProcOrderOutgoing>> ()
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
     {
       public final List <ProcOrderOutgoing> call ()
       {
-        return _getQueryAll (true, eState).getResultList ();
+        return _getQueryAll (true, eState, CGlobal.ILLEGAL_UINT).getResultList ();
       }
     }).get ();
   }
@@ -184,43 +377,177 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedOrders (@Nullable final EProcState eState)
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
-        return getSelectCountResultObj (_getCountAll (true, eState));
+        return getSelectCountResultObj (_getCountAll (true, eState, CGlobal.ILLEGAL_UINT));
       }
     }).get ().longValue ();
   }
 
   @Nonnull
-  private TypedQuery <ProcOrderOutgoing> _getQueryAll (final boolean bDeleted, @Nullable final EProcState eState)
+  public final List <ProcOrderOutgoing> getAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT p FROM ProcOrderOutgoing p WHERE p.order.deleted = :deleted");
-    if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
+    {
+      public final List <ProcOrderOutgoing> call ()
+      {
+        return _getQueryAll (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
 
-    final TypedQuery <ProcOrderOutgoing> aQuery = getEntityManager ().createQuery (aQueryString.toString (),
-                                                                                   ProcOrderOutgoing.class);
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrdersOfClient (@Nonnegative final int nClient,
+                                                              @Nullable final EProcState eState,
+                                                              @Nonnull final EProcFetchProfile eProfile)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
+    {
+      public final List <ProcOrderOutgoing> call ()
+      {
+        return applyFetchProfile (_getQueryAll (false, eState, nClient),
+                                  eProfile,
+                                  "p.order.orderItems",
+                                  "p.order.attachments").getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeadersOfClient (@Nonnegative final int nClient,
+                                                                     @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcDocumentHeader>> ()
+    {
+      public final List <ProcDocumentHeader> call ()
+      {
+        return _getQueryHeaders (false, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final int iterateAllOrdersOfClient (@Nonnegative final int nClient,
+                                             @Nullable final EProcState eState,
+                                             @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Integer> ()
+    {
+      public final Integer call ()
+      {
+        return Integer.valueOf (iterateQuery (_getQueryAll (false, eState, nClient),
+                                              DEFAULT_ITERATE_FETCH_SIZE,
+                                              DEFAULT_ITERATE_CLEAR_INTERVAL,
+                                              aCallback));
+      }
+    }).get ().intValue ();
+  }
+
+  @Nonnegative
+  public final long getCountAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (false, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcOrderOutgoing>> ()
+    {
+      public final List <ProcOrderOutgoing> call ()
+      {
+        return _getQueryAll (true, eState, nClient).getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (_getCountAll (true, eState, nClient));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  private TypedQuery <ProcOrderOutgoing> _getQueryAll (final boolean bDeleted, @Nullable final EProcState eState,
+                                                       final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderOutgoing.QUERY_ALL, eState != null, nClient >= 0);
+    final TypedQuery <ProcOrderOutgoing> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                        ProcOrderOutgoing.class);
 
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
   @Nonnull
-  private Query _getCountAll (final boolean bDeleted, @Nullable final EProcState eState)
+  private Query _getCountAll (final boolean bDeleted, @Nullable final EProcState eState,
+                              final int nClient)
   {
-    final StringBuilder aQueryString = new StringBuilder ("SELECT COUNT(p) FROM ProcOrderOutgoing p WHERE p.order.deleted = :deleted");
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderOutgoing.QUERY_COUNT, eState != null, nClient >= 0);
+    final Query aQuery = getEntityManager ().createNamedQuery (sQueryName);
+
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
-      aQueryString.append (" AND p.state = :state");
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
-    final Query aQuery = getEntityManager ().createQuery (aQueryString.toString ());
+  @Nonnull
+  private TypedQuery <ProcOrderOutgoing> _getQueryPage (final boolean bDeleted,
+                                                        @Nullable final EProcState eState,
+                                                        final int nClient,
+                                                        final int nAfterID)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderOutgoing.QUERY_PAGE, eState != null, nClient >= 0);
+    final TypedQuery <ProcOrderOutgoing> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                        ProcOrderOutgoing.class);
+    aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
+    aQuery.setParameter ("afterid", Integer.valueOf (nAfterID));
+    if (eState != null)
+      aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
+    return aQuery;
+  }
 
+  private TypedQuery <ProcDocumentHeader> _getQueryHeaders (final boolean bDeleted, @Nullable final EProcState eState,
+                                                            final int nClient)
+  {
+    final String sQueryName = CProcQuery.getQueryName (ProcOrderOutgoing.QUERY_HEADERS, eState != null, nClient >= 0);
+    final TypedQuery <ProcDocumentHeader> aQuery = getEntityManager ().createNamedQuery (sQueryName,
+                                                                                         ProcDocumentHeader.class);
     aQuery.setParameter ("deleted", Boolean.valueOf (bDeleted));
     if (eState != null)
       aQuery.setParameter ("state", eState);
+    if (nClient >= 0)
+      aQuery.setParameter ("client", Integer.valueOf (nClient));
     return aQuery;
   }
 
@@ -248,12 +575,120 @@ public class ProcOrderOutgoingManager extends AbstractProcManager
     if (nOrderID < 0)
       return null;
 
-    return doSelect (new Callable <ProcOrderOutgoing> ()
+    final ProcOrderOutgoing ret = doSelect (new Callable <ProcOrderOutgoing> ()
     {
       public final ProcOrderOutgoing call ()
       {
         return getEntityManager ().find (ProcOrderOutgoing.class, Integer.valueOf (nOrderID));
       }
     }).get ();
+    if (ret != null)
+      return ret;
+
+    // Not in the database - maybe it was archived
+    return _getArchivedOrderOfID (nOrderID);
+  }
+
+  @Nullable
+  private ProcOrderOutgoing _getArchivedOrderOfID (final int nOrderID)
+  {
+    final ProcDocumentArchive aArchive = getDocumentArchive ();
+    if (aArchive == null)
+      return null;
+    final IMicroElement eElement = aArchive.readDocument (EProcDocumentType.ORDER_OUTGOING, nOrderID);
+    if (eElement == null)
+      return null;
+
+    // Parties are not archived
+    final int nSupplierID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcSupplier aSupplier = nSupplierID < 0 ? null : doSelect (new Callable <ProcSupplier> ()
+    {
+      public final ProcSupplier call ()
+      {
+        return getEntityManager ().find (ProcSupplier.class, Integer.valueOf (nSupplierID));
+      }
+    }).get ();
+    return ProcDocumentArchiveSerializer.readOrderOutgoing (eElement, aSupplier);
+  }
+
+  @Nonnull
+  public final EProcDocumentType getDocumentType ()
+  {
+    return EProcDocumentType.ORDER_OUTGOING;
+  }
+
+  @Nonnull
+  public final List <Integer> getAllArchiveCandidateIDs (@Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates,
+                                                         @Nonnegative final int nMaxCount)
+  {
+    return getArchiveCandidateIDs (EProcDocumentType.ORDER_OUTGOING, aIssuedBefore, aClosedStates, nMaxCount);
+  }
+
+  @Nonnull
+  public final SuccessWithValue <EChange> archiveDocument (final int nOrderID,
+                                                         @Nonnull final LocalDate aIssuedBefore,
+                                                         @Nonnull final Collection <EProcState> aClosedStates)
+  {
+    if (aIssuedBefore == null)
+      throw new NullPointerException ("issuedBefore");
+    if (aClosedStates == null)
+      throw new NullPointerException ("closedStates");
+
+    final ProcDocumentArchive aArchive = getDocumentArchiveOrThrow ();
+    final AtomicReference <File> aTempFile = new AtomicReference <File> ();
+    final JPAExecutionResult <ProcOrderOutgoing> ret = doInTransaction (new Callable <ProcOrderOutgoing> ()
+    {
+      public final ProcOrderOutgoing call ()
+      {
+        final ProcOrderOutgoing aOrder = getEntityManager ().find (ProcOrderOutgoing.class, Integer.valueOf (nOrderID));
+        if (aOrder == null)
+          return null;
+
+        // Re-check the criteria, as the document may have changed since the
+        // candidates were selected
+        if (!isArchiveCandidate (aOrder.getOrder ().getIssueDate (),
+                                 null,
+                                 aOrder.getOrder ().isDeleted (),
+                                 aOrder.getState (),
+                                 aIssuedBefore,
+                                 aClosedStates))
+        {
+          s_aLogger.info ("Not archiving outgoing order " + aOrder + ", as it no longer matches the criteria");
+          return null;
+        }
+
+        // Write the archive before removing, so that a failure leaves the
+        // database untouched. It is only moved into place after the commit.
+        aTempFile.set (aArchive.prepareDocument (EProcDocumentType.ORDER_OUTGOING,
+                                                 nOrderID,
+                                                 ProcDocumentArchiveSerializer.writeOrderOutgoing (aOrder)));
+        if (aTempFile.get () == null)
+          throw new IllegalStateException ("Failed to archive outgoing order " + nOrderID);
+        getEntityManager ().remove (aOrder);
+        appendOutboxEvent (EProcChangeType.ARCHIVED, aOrder);
+        s_aLogger.info ("Outgoing order archived: " + aOrder);
+        return aOrder;
+      }
+    });
+    if (ret.isFailure ())
+    {
+      aArchive.discardDocument (aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.UNCHANGED);
+    }
+    if (ret.get () == null)
+      return SuccessWithValue.createSuccess (EChange.UNCHANGED);
+    if (aArchive.commitDocument (EProcDocumentType.ORDER_OUTGOING, nOrderID, aTempFile.get ()).isFailure ())
+    {
+      // The document is no longer in the database - keep the temporary file
+      s_aLogger.error ("Archived outgoing order " + nOrderID + " is only contained in " + aTempFile.get ());
+      return SuccessWithValue.createFailure (EChange.CHANGED);
+    }
+    fireDocumentStateChanged (EProcDocumentType.ORDER_OUTGOING,
+                              ret.get ().getOrder ().isDeleted (),
+                              ret.get ().getState (),
+                              false,
+                              null);
+    return SuccessWithValue.createSuccess (EChange.CHANGED);
   }
 }
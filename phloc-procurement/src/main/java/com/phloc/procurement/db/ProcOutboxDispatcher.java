@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.state.ESuccess;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
+
+/**
+ * Delivers the events of the outbox to all registered listeners in the order
+ * they were created. An event is only removed from the outbox after all
+ * listeners received it successfully. If a listener fails, delivery stops and
+ * is retried with the same event in the next run, so every listener receives
+ * each event at least once. Use
+ * {@link #schedule(ScheduledExecutorService, long, TimeUnit)} to run it
+ * regularly. Only one dispatcher should be running per database.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcOutboxDispatcher implements Runnable
+{
+  /** The default maximum number of events read at once */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcOutboxDispatcher.class);
+
+  private final IProcOutboxManager m_aOutboxMgr;
+  private final List <IProcOutboxEventListener> m_aListeners = new CopyOnWriteArrayList <IProcOutboxEventListener> ();
+  private volatile int m_nBatchSize = DEFAULT_BATCH_SIZE;
+  private final AtomicLong m_aDeliveredCount = new AtomicLong ();
+  private final AtomicLong m_aFailedCount = new AtomicLong ();
+
+  public ProcOutboxDispatcher (@Nonnull final IProcOutboxManager aOutboxMgr)
+  {
+    if (aOutboxMgr == null)
+      throw new NullPointerException ("outboxMgr");
+    m_aOutboxMgr = aOutboxMgr;
+  }
+
+  public void addListener (@Nonnull final IProcOutboxEventListener aListener)
+  {
+    if (aListener == null)
+      throw new NullPointerException ("listener");
+    m_aListeners.add (aListener);
+  }
+
+  public void removeListener (@Nullable final IProcOutboxEventListener aListener)
+  {
+    m_aListeners.remove (aListener);
+  }
+
+  @Nonnegative
+  public int getBatchSize ()
+  {
+    return m_nBatchSize;
+  }
+
+  public void setBatchSize (@Nonnegative final int nBatchSize)
+  {
+    if (nBatchSize <= 0)
+      throw new IllegalArgumentException ("Illegal batch size " + nBatchSize);
+    m_nBatchSize = nBatchSize;
+  }
+
+  /**
+   * @return The number of events delivered to all listeners so far.
+   */
+  @Nonnegative
+  public long getDeliveredCount ()
+  {
+    return m_aDeliveredCount.get ();
+  }
+
+  /**
+   * @return The number of failed delivery attempts so far.
+   */
+  @Nonnegative
+  public long getFailedCount ()
+  {
+    return m_aFailedCount.get ();
+  }
+
+  @Nonnull
+  private ESuccess _deliver (@Nonnull final ProcOutboxEvent aEvent)
+  {
+    for (final IProcOutboxEventListener aListener : m_aListeners)
+    {
+      try
+      {
+        if (aListener.onOutboxEvent (aEvent).isFailure ())
+        {
+          s_aLogger.warn ("Listener " + aListener + " failed to handle " + aEvent);
+          return ESuccess.FAILURE;
+        }
+      }
+      catch (final RuntimeException ex)
+      {
+        s_aLogger.warn ("Listener " + aListener + " failed to handle " + aEvent, ex);
+        return ESuccess.FAILURE;
+      }
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Deliver all pending events.
+   */
+  public void run ()
+  {
+    if (m_aListeners.isEmpty ())
+      return;
+
+    while (!Thread.currentThread ().isInterrupted ())
+    {
+      final int nBatchSize = m_nBatchSize;
+      final List <ProcOutboxEvent> aEvents = m_aOutboxMgr.getPendingEvents (nBatchSize);
+      if (aEvents == null || aEvents.isEmpty ())
+      {
+        // Nothing to do or failed to read
+        return;
+      }
+
+      final List <Integer> aDeliveredIDs = new ArrayList <Integer> (aEvents.size ());
+      boolean bFailed = false;
+      for (final ProcOutboxEvent aEvent : aEvents)
+      {
+        if (_deliver (aEvent).isFailure ())
+        {
+          m_aFailedCount.incrementAndGet ();
+          bFailed = true;
+          break;
+        }
+        aDeliveredIDs.add (Integer.valueOf (aEvent.getID ()));
+      }
+
+      if (!aDeliveredIDs.isEmpty ())
+      {
+        if (m_aOutboxMgr.removeEvents (aDeliveredIDs).isFailure ())
+        {
+          // Will be delivered again
+          return;
+        }
+        m_aDeliveredCount.addAndGet (aDeliveredIDs.size ());
+        s_aLogger.info ("Delivered " + aDeliveredIDs.size () + " outbox events");
+      }
+
+      // Retry failed events in the next run
+      if (bFailed || aEvents.size () < nBatchSize)
+        return;
+    }
+  }
+
+  /**
+   * Run this dispatcher regularly.
+   *
+   * @param aExecutor
+   *        The executor to use. May not be <code>null</code>.
+   * @param nDelay
+   *        The delay between the end of one run and the start of the next run.
+   * @param eUnit
+   *        The time unit of the delay. May not be <code>null</code>.
+   * @return The future that can be used to cancel the scheduled runs.
+   */
+  @Nonnull
+  public ScheduledFuture <?> schedule (@Nonnull final ScheduledExecutorService aExecutor,
+                                       @Nonnegative final long nDelay,
+                                       @Nonnull final TimeUnit eUnit)
+  {
+    if (aExecutor == null)
+      throw new NullPointerException ("executor");
+    return aExecutor.scheduleWithFixedDelay (this, nDelay, nDelay, eUnit);
+  }
+}
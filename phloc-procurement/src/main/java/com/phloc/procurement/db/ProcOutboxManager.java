@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
+
+public class ProcOutboxManager extends AbstractProcManager implements IProcOutboxManager
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcOutboxManager.class);
+
+  public ProcOutboxManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
+  {
+    super (aEntityMgrProvider);
+  }
+
+  public final List <ProcOutboxEvent> getPendingEvents (@Nonnegative final int nMaxCount)
+  {
+    if (nMaxCount <= 0)
+      throw new IllegalArgumentException ("Illegal max count " + nMaxCount);
+
+    return doSelect (new Callable <List <ProcOutboxEvent>> ()
+    {
+      public final List <ProcOutboxEvent> call ()
+      {
+        return getEntityManager ().createQuery ("SELECT p FROM ProcOutboxEvent p ORDER BY p.ID", ProcOutboxEvent.class)
+                                  .setMaxResults (nMaxCount)
+                                  .getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountPendingEvents ()
+  {
+    return doSelect (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcOutboxEvent p"));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final ISuccessIndicator removeEvents (@Nonnull final Collection <Integer> aEventIDs)
+  {
+    if (aEventIDs == null)
+      throw new NullPointerException ("eventIDs");
+
+    final List <Integer> aAllIDs = new ArrayList <Integer> (aEventIDs);
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
+    {
+      public final void run ()
+      {
+        for (int nIndex = 0; nIndex < aAllIDs.size (); nIndex += MAX_IN_LIST_SIZE)
+        {
+          final List <Integer> aChunkIDs = aAllIDs.subList (nIndex, Math.min (nIndex + MAX_IN_LIST_SIZE, aAllIDs.size ()));
+          getEntityManager ().createQuery ("DELETE FROM ProcOutboxEvent p WHERE p.ID IN :ids")
+                             .setParameter ("ids", aChunkIDs)
+                             .executeUpdate ();
+        }
+      }
+    });
+    if (ret.isFailure ())
+      s_aLogger.warn ("Failed to remove " + aAllIDs.size () + " outbox events");
+    return ret;
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.party.IProcParty;
+import com.phloc.procurement.party.ProcMasterData;
+
+/**
+ * Contains all objects required to build an outgoing document: the own master
+ * data, the receiving party and optionally an existing document.
+ *
+ * @author Philip Helger
+ * @param <PARTYTYPE>
+ *        The party type
+ * @param <DOCTYPE>
+ *        The document type
+ */
+@Immutable
+public final class ProcOutgoingDocumentContext <PARTYTYPE extends IProcParty, DOCTYPE>
+{
+  private final ProcMasterData m_aMasterData;
+  private final PARTYTYPE m_aParty;
+  private final DOCTYPE m_aDocument;
+
+  public ProcOutgoingDocumentContext (@Nullable final ProcMasterData aMasterData,
+                                      @Nullable final PARTYTYPE aParty,
+                                      @Nullable final DOCTYPE aDocument)
+  {
+    m_aMasterData = aMasterData;
+    m_aParty = aParty;
+    m_aDocument = aDocument;
+  }
+
+  @Nullable
+  public ProcMasterData getMasterData ()
+  {
+    return m_aMasterData;
+  }
+
+  @Nullable
+  public PARTYTYPE getParty ()
+  {
+    return m_aParty;
+  }
+
+  @Nullable
+  public DOCTYPE getDocument ()
+  {
+    return m_aDocument;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("masterData", m_aMasterData)
+                                       .append ("party", m_aParty)
+                                       .append ("document", m_aDocument)
+                                       .toString ();
+  }
+}
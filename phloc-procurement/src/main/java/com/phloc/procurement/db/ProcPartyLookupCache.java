@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.commons.collections.pair.IReadonlyPair;
+import com.phloc.commons.collections.pair.ReadonlyPair;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.idscheme.IEntityIDScheme;
+import com.phloc.procurement.party.IProcParty;
+
+/**
+ * A bounded read-through cache for resolving parties by entity ID scheme and
+ * entity ID. Only the IDs of found parties are cached - on a hit the party is
+ * resolved by ID by the caller, so that no entity instance is shared between
+ * callers. A resolved party that is deleted or no longer matches the key (e.g.
+ * because it was modified via another manager instance) is dropped from the
+ * cache and looked up again. When the maximum size is reached, the oldest
+ * entries are evicted first. See {@link ProcSharedEntityCache} for caching the
+ * party objects themselves.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The cached party type
+ */
+@ThreadSafe
+public final class ProcPartyLookupCache <DATATYPE extends IProcParty>
+{
+  /** The default maximum number of cached entries */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final int m_nMaxSize;
+  private final ConcurrentMap <IReadonlyPair <String, String>, Integer> m_aMap = new ConcurrentHashMap <IReadonlyPair <String, String>, Integer> ();
+  private final Queue <IReadonlyPair <String, String>> m_aInsertionOrder = new ConcurrentLinkedQueue <IReadonlyPair <String, String>> ();
+  /** Incremented on every invalidation to avoid caching outdated loads */
+  private final AtomicInteger m_aGeneration = new AtomicInteger (0);
+  private final AtomicInteger m_aHits = new AtomicInteger (0);
+  private final AtomicInteger m_aMisses = new AtomicInteger (0);
+
+  public ProcPartyLookupCache (@Nonnegative final int nMaxSize)
+  {
+    if (nMaxSize <= 0)
+      throw new IllegalArgumentException ("Illegal max size " + nMaxSize);
+    m_nMaxSize = nMaxSize;
+  }
+
+  @Nonnull
+  private static IReadonlyPair <String, String> _createKey (@Nullable final IEntityIDScheme aEntityIDScheme,
+                                                           @Nullable final String sEntityID)
+  {
+    return ReadonlyPair.create (aEntityIDScheme == null ? null : aEntityIDScheme.getID (), sEntityID);
+  }
+
+  @Nonnegative
+  public int getMaxSize ()
+  {
+    return m_nMaxSize;
+  }
+
+  /**
+   * Get the party for the passed key. If the ID of the party is cached, the
+   * party is resolved with the passed resolver, otherwise it is loaded with the
+   * passed loader and its ID is cached.
+   *
+   * @param aEntityIDScheme
+   *        The entity ID scheme. May be <code>null</code>.
+   * @param sEntityID
+   *        The entity ID. May be <code>null</code>.
+   * @param aLoader
+   *        The loader to be invoked on a cache miss. May not be
+   *        <code>null</code>.
+   * @param aResolver
+   *        The resolver to get a party by its ID on a cache hit. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if no such party exists.
+   */
+  @Nullable
+  public DATATYPE get (@Nullable final IEntityIDScheme aEntityIDScheme,
+                       @Nullable final String sEntityID,
+                       @Nonnull final INonThrowingCallable <DATATYPE> aLoader,
+                       @Nonnull final INonThrowingCallableWithParameter <DATATYPE, Integer> aResolver)
+  {
+    final IReadonlyPair <String, String> aKey = _createKey (aEntityIDScheme, sEntityID);
+    final Integer aCachedID = m_aMap.get (aKey);
+    if (aCachedID != null)
+    {
+      final DATATYPE aResolved = aResolver.call (aCachedID);
+      if (aResolved != null &&
+          !aResolved.isDeleted () &&
+          aKey.equals (_createKey (aResolved.getEntityIDScheme (), aResolved.getEntityID ())))
+      {
+        m_aHits.incrementAndGet ();
+        return aResolved;
+      }
+
+      // Outdated entry
+      if (m_aMap.remove (aKey, aCachedID))
+        m_aInsertionOrder.remove (aKey);
+    }
+
+    m_aMisses.incrementAndGet ();
+    final int nGeneration = m_aGeneration.get ();
+    final DATATYPE aLoaded = aLoader.call ();
+    if (aLoaded != null && nGeneration == m_aGeneration.get ())
+    {
+      final Integer aID = Integer.valueOf (aLoaded.getID ());
+      if (m_aMap.putIfAbsent (aKey, aID) == null)
+      {
+        if (nGeneration != m_aGeneration.get ())
+        {
+          // Invalidated between the check and the put - the loaded value may be
+          // outdated
+          m_aMap.remove (aKey, aID);
+        }
+        else
+        {
+          m_aInsertionOrder.add (aKey);
+          // Evict the oldest entries
+          while (m_aMap.size () > m_nMaxSize)
+          {
+            final IReadonlyPair <String, String> aEldest = m_aInsertionOrder.poll ();
+            if (aEldest == null)
+              break;
+            m_aMap.remove (aEldest);
+          }
+        }
+      }
+    }
+    return aLoaded;
+  }
+
+  /**
+   * Remove all entries referencing the passed party, as well as the entry for
+   * the current entity ID of the party.
+   *
+   * @param aParty
+   *        The party that was modified. May not be <code>null</code>.
+   */
+  public void invalidate (@Nonnull final IProcParty aParty)
+  {
+    if (aParty == null)
+      throw new NullPointerException ("party");
+
+    m_aGeneration.incrementAndGet ();
+    final IReadonlyPair <String, String> aPartyKey = _createKey (aParty.getEntityIDScheme (), aParty.getEntityID ());
+    if (m_aMap.remove (aPartyKey) != null)
+      m_aInsertionOrder.remove (aPartyKey);
+    final Iterator <Map.Entry <IReadonlyPair <String, String>, Integer>> it = m_aMap.entrySet ().iterator ();
+    while (it.hasNext ())
+    {
+      final Map.Entry <IReadonlyPair <String, String>, Integer> aEntry = it.next ();
+      if (aEntry.getValue ().intValue () == aParty.getID ())
+      {
+        it.remove ();
+        m_aInsertionOrder.remove (aEntry.getKey ());
+      }
+    }
+  }
+
+  public void clear ()
+  {
+    m_aGeneration.incrementAndGet ();
+    m_aMap.clear ();
+    m_aInsertionOrder.clear ();
+  }
+
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Nonnegative
+  public int getHits ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public int getMisses ()
+  {
+    return m_aMisses.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("maxSize", m_nMaxSize)
+                                       .append ("size", m_aMap.size ())
+                                       .append ("hits", m_aHits)
+                                       .append ("misses", m_aMisses)
+                                       .toString ();
+  }
+}
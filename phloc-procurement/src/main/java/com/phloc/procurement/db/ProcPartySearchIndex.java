@@ -0,0 +1,555 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.compare.CompareUtils;
+import com.phloc.commons.string.StringHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.party.IProcParty;
+
+/**
+ * An in-memory search index for customers and suppliers. The name, the entity
+ * ID, the VATIN, the city and the zip code of each party are split into
+ * lower-case tokens, which are kept in a sorted map for exact and prefix
+ * lookups and in a trigram map for fuzzy lookups. Results are ranked by the
+ * kind of match and by the matched field.<br>
+ * Only the IDs, the names and the tokens of the parties are kept, so the
+ * index never holds on to entities - the search returns IDs that must be
+ * resolved by the caller. The index must be filled via
+ * {@link #rebuild(INonThrowingCallable)} and is kept up to date by the managers
+ * on save, delete and undelete. Updates that happen while a rebuild is loading
+ * the parties are replayed onto the rebuilt content. The party state itself is
+ * only cached by the {@link ProcSharedEntityCache}.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The indexed party type
+ */
+@ThreadSafe
+public final class ProcPartySearchIndex <DATATYPE extends IProcParty>
+{
+  /** The minimum Jaccard similarity of two trigram sets for a fuzzy match */
+  public static final double FUZZY_THRESHOLD = 0.3;
+
+  // Field weights
+  private static final int WEIGHT_IDENTIFIER = 4;
+  private static final int WEIGHT_NAME = 3;
+  private static final int WEIGHT_LOCATION = 1;
+
+  // Match type factors
+  private static final double FACTOR_EXACT = 3;
+  private static final double FACTOR_PREFIX = 2;
+  private static final double FACTOR_FUZZY = 1;
+
+  /**
+   * The indexed values of a single party
+   */
+  private static final class PartyEntry
+  {
+    private final Integer m_aID;
+    private final String m_sName;
+    private final boolean m_bDeleted;
+    private final Map <String, Integer> m_aTokens = new HashMap <String, Integer> ();
+
+    PartyEntry (@Nonnull final IProcParty aParty)
+    {
+      m_aID = Integer.valueOf (aParty.getID ());
+      m_sName = aParty.getName ();
+      m_bDeleted = aParty.isDeleted ();
+      _addTokens (m_aTokens, aParty.getEntityID (), WEIGHT_IDENTIFIER, true);
+      _addTokens (m_aTokens, aParty.getVATIN (), WEIGHT_IDENTIFIER, true);
+      _addTokens (m_aTokens, m_sName, WEIGHT_NAME, false);
+      _addTokens (m_aTokens, aParty.getCity (), WEIGHT_LOCATION, false);
+      _addTokens (m_aTokens, aParty.getZipCode (), WEIGHT_LOCATION, false);
+    }
+  }
+
+  private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock ();
+  /** Only one rebuild may run at a time */
+  private final Lock m_aRebuildLock = new ReentrantLock ();
+  private boolean m_bInitialized = false;
+  /** The updates made during a running rebuild, <code>null</code> otherwise */
+  private Map <Integer, PartyEntry> m_aPendingUpdates;
+  /** Party ID to party name */
+  private final Map <Integer, String> m_aPartyNames = new HashMap <Integer, String> ();
+  /** Party ID to token to field weight */
+  private final Map <Integer, Map <String, Integer>> m_aPartyTokens = new HashMap <Integer, Map <String, Integer>> ();
+  /** Token to party IDs */
+  private final NavigableMap <String, Set <Integer>> m_aTokens = new TreeMap <String, Set <Integer>> ();
+  /** Trigram to tokens */
+  private final Map <String, Set <String>> m_aTrigrams = new HashMap <String, Set <String>> ();
+
+  public ProcPartySearchIndex ()
+  {}
+
+  @Nonnull
+  static List <String> getTokens (@Nullable final String sText)
+  {
+    final List <String> ret = new ArrayList <String> ();
+    if (StringHelper.hasText (sText))
+    {
+      final StringBuilder aToken = new StringBuilder ();
+      for (final char c : sText.toLowerCase (Locale.US).toCharArray ())
+        if (Character.isLetterOrDigit (c))
+          aToken.append (c);
+        else
+          if (aToken.length () > 0)
+          {
+            ret.add (aToken.toString ());
+            aToken.setLength (0);
+          }
+      if (aToken.length () > 0)
+        ret.add (aToken.toString ());
+    }
+    return ret;
+  }
+
+  @Nonnull
+  static Set <String> getTrigrams (@Nonnull final String sToken)
+  {
+    final Set <String> ret = new HashSet <String> ();
+    for (int i = 0; i + 3 <= sToken.length (); ++i)
+      ret.add (sToken.substring (i, i + 3));
+    return ret;
+  }
+
+  private static void _addTokens (@Nonnull final Map <String, Integer> aTarget,
+                                  @Nullable final String sText,
+                                  final int nWeight,
+                                  final boolean bIdentifier)
+  {
+    final List <String> aTokens = getTokens (sText);
+    // Identifiers are additionally indexed without any separators
+    if (bIdentifier && aTokens.size () > 1)
+      aTokens.add (StringHelper.getImploded (aTokens));
+    for (final String sToken : aTokens)
+    {
+      final Integer aOld = aTarget.get (sToken);
+      if (aOld == null || aOld.intValue () < nWeight)
+        aTarget.put (sToken, Integer.valueOf (nWeight));
+    }
+  }
+
+  private void _remove (@Nonnull final Integer aID)
+  {
+    m_aPartyNames.remove (aID);
+    final Map <String, Integer> aOldTokens = m_aPartyTokens.remove (aID);
+    if (aOldTokens != null)
+      for (final String sToken : aOldTokens.keySet ())
+      {
+        final Set <Integer> aIDs = m_aTokens.get (sToken);
+        aIDs.remove (aID);
+        if (aIDs.isEmpty ())
+        {
+          // Token is no longer used
+          m_aTokens.remove (sToken);
+          for (final String sTrigram : getTrigrams (sToken))
+          {
+            final Set <String> aTrigramTokens = m_aTrigrams.get (sTrigram);
+            aTrigramTokens.remove (sToken);
+            if (aTrigramTokens.isEmpty ())
+              m_aTrigrams.remove (sTrigram);
+          }
+        }
+      }
+  }
+
+  private void _update (@Nonnull final PartyEntry aEntry)
+  {
+    _remove (aEntry.m_aID);
+    if (!aEntry.m_bDeleted)
+      _add (aEntry);
+  }
+
+  private void _add (@Nonnull final PartyEntry aEntry)
+  {
+    final Integer aID = aEntry.m_aID;
+    m_aPartyNames.put (aID, aEntry.m_sName);
+    m_aPartyTokens.put (aID, aEntry.m_aTokens);
+    for (final String sToken : aEntry.m_aTokens.keySet ())
+    {
+      Set <Integer> aIDs = m_aTokens.get (sToken);
+      if (aIDs == null)
+      {
+        // New token
+        aIDs = new HashSet <Integer> ();
+        m_aTokens.put (sToken, aIDs);
+        for (final String sTrigram : getTrigrams (sToken))
+        {
+          Set <String> aTrigramTokens = m_aTrigrams.get (sTrigram);
+          if (aTrigramTokens == null)
+          {
+            aTrigramTokens = new HashSet <String> ();
+            m_aTrigrams.put (sTrigram, aTrigramTokens);
+          }
+          aTrigramTokens.add (sToken);
+        }
+      }
+      aIDs.add (aID);
+    }
+  }
+
+  public boolean isInitialized ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_bInitialized;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  /**
+   * Replace the whole index content with the passed parties. Deleted parties
+   * are ignored.
+   *
+   * @param aParties
+   *        The parties to be indexed. May not be <code>null</code>.
+   */
+  public void initialize (@Nonnull final Collection <? extends DATATYPE> aParties)
+  {
+    if (aParties == null)
+      throw new NullPointerException ("parties");
+
+    rebuild (new INonThrowingCallable <Collection <? extends DATATYPE>> ()
+    {
+      public Collection <? extends DATATYPE> call ()
+      {
+        return aParties;
+      }
+    });
+  }
+
+  /**
+   * Replace the whole index content with the parties delivered by the passed
+   * provider. Deleted parties are ignored. All calls to
+   * {@link #update(IProcParty)} made while the provider is running are
+   * replayed afterwards, so that changes that were committed after the
+   * provider read its data are not lost. The index stays searchable with the
+   * old content until the new content is in place.
+   *
+   * @param aPartyProvider
+   *        The provider for all parties to be indexed. May not be
+   *        <code>null</code>.
+   */
+  public void rebuild (@Nonnull final INonThrowingCallable <? extends Collection <? extends DATATYPE>> aPartyProvider)
+  {
+    if (aPartyProvider == null)
+      throw new NullPointerException ("partyProvider");
+
+    m_aRebuildLock.lock ();
+    try
+    {
+      m_aRWLock.writeLock ().lock ();
+      try
+      {
+        m_aPendingUpdates = new LinkedHashMap <Integer, PartyEntry> ();
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().unlock ();
+      }
+
+      try
+      {
+        // Load and tokenize outside of the index lock
+        final List <PartyEntry> aEntries = new ArrayList <PartyEntry> ();
+        for (final DATATYPE aParty : aPartyProvider.call ())
+          if (!aParty.isDeleted ())
+            aEntries.add (new PartyEntry (aParty));
+
+        m_aRWLock.writeLock ().lock ();
+        try
+        {
+          m_aPartyNames.clear ();
+          m_aPartyTokens.clear ();
+          m_aTokens.clear ();
+          m_aTrigrams.clear ();
+          for (final PartyEntry aEntry : aEntries)
+            _add (aEntry);
+          for (final PartyEntry aEntry : m_aPendingUpdates.values ())
+            _update (aEntry);
+          m_bInitialized = true;
+        }
+        finally
+        {
+          m_aRWLock.writeLock ().unlock ();
+        }
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().lock ();
+        try
+        {
+          m_aPendingUpdates = null;
+        }
+        finally
+        {
+          m_aRWLock.writeLock ().unlock ();
+        }
+      }
+    }
+    finally
+    {
+      m_aRebuildLock.unlock ();
+    }
+  }
+
+  /**
+   * Call {@link #rebuild(INonThrowingCallable)} if the index is not yet
+   * initialized. Concurrent callers wait for the first rebuild instead of
+   * rebuilding again.
+   *
+   * @param aPartyProvider
+   *        The provider for all parties to be indexed. May not be
+   *        <code>null</code>.
+   * @return <code>true</code> if the index was rebuilt by this call.
+   */
+  public boolean ensureInitialized (@Nonnull final INonThrowingCallable <? extends Collection <? extends DATATYPE>> aPartyProvider)
+  {
+    if (isInitialized ())
+      return false;
+
+    m_aRebuildLock.lock ();
+    try
+    {
+      if (isInitialized ())
+        return false;
+      rebuild (aPartyProvider);
+      return true;
+    }
+    finally
+    {
+      m_aRebuildLock.unlock ();
+    }
+  }
+
+  /**
+   * Add, update or remove the passed party, depending on its deletion state.
+   * Does nothing if the index is not yet initialized and no rebuild is
+   * running.
+   *
+   * @param aParty
+   *        The party that was changed. May not be <code>null</code>.
+   */
+  public void update (@Nonnull final DATATYPE aParty)
+  {
+    if (aParty == null)
+      throw new NullPointerException ("party");
+
+    final PartyEntry aEntry = new PartyEntry (aParty);
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (m_aPendingUpdates != null)
+      {
+        // Keep only the latest state per party
+        m_aPendingUpdates.remove (aEntry.m_aID);
+        m_aPendingUpdates.put (aEntry.m_aID, aEntry);
+      }
+      if (m_bInitialized)
+        _update (aEntry);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  @Nonnegative
+  public int getIndexedPartyCount ()
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_aPartyNames.size ();
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  private static void _putMax (@Nonnull final Map <Integer, Double> aScores,
+                               @Nonnull final Integer aID,
+                               final double dScore)
+  {
+    final Double aOld = aScores.get (aID);
+    if (aOld == null || aOld.doubleValue () < dScore)
+      aScores.put (aID, Double.valueOf (dScore));
+  }
+
+  private void _scoreToken (@Nonnull final Map <Integer, Double> aScores,
+                            @Nonnull final String sIndexToken,
+                            final double dFactor)
+  {
+    for (final Integer aID : m_aTokens.get (sIndexToken))
+      _putMax (aScores, aID, m_aPartyTokens.get (aID).get (sIndexToken).intValue () * dFactor);
+  }
+
+  @Nonnull
+  private Map <Integer, Double> _getScores (@Nonnull final String sQueryToken)
+  {
+    final Map <Integer, Double> ret = new HashMap <Integer, Double> ();
+
+    // Exact and prefix matches
+    for (final String sIndexToken : m_aTokens.subMap (sQueryToken, true, sQueryToken + Character.MAX_VALUE, false)
+                                             .keySet ())
+      _scoreToken (ret, sIndexToken, sIndexToken.equals (sQueryToken) ? FACTOR_EXACT : FACTOR_PREFIX);
+
+    // Fuzzy matches
+    final Set <String> aQueryTrigrams = getTrigrams (sQueryToken);
+    if (!aQueryTrigrams.isEmpty ())
+    {
+      final Map <String, Integer> aSharedCounts = new HashMap <String, Integer> ();
+      for (final String sTrigram : aQueryTrigrams)
+      {
+        final Set <String> aTrigramTokens = m_aTrigrams.get (sTrigram);
+        if (aTrigramTokens != null)
+          for (final String sIndexToken : aTrigramTokens)
+          {
+            final Integer aOld = aSharedCounts.get (sIndexToken);
+            aSharedCounts.put (sIndexToken, Integer.valueOf (aOld == null ? 1 : aOld.intValue () + 1));
+          }
+      }
+      for (final Map.Entry <String, Integer> aEntry : aSharedCounts.entrySet ())
+      {
+        final int nShared = aEntry.getValue ().intValue ();
+        final int nIndexTrigrams = aEntry.getKey ().length () - 2;
+        final double dSimilarity = (double) nShared / (aQueryTrigrams.size () + nIndexTrigrams - nShared);
+        if (dSimilarity >= FUZZY_THRESHOLD)
+          _scoreToken (ret, aEntry.getKey (), FACTOR_FUZZY * dSimilarity);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Search the index. Every token of the query must match at least one token
+   * of a party, either exactly, as a prefix or fuzzy. The results are sorted
+   * descending by relevance.
+   *
+   * @param sQuery
+   *        The search query. May be <code>null</code>.
+   * @param nMaxResults
+   *        The maximum number of results. Must be &gt; 0.
+   * @return The IDs of the matching parties in ranked order. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public List <Integer> search (@Nullable final String sQuery, @Nonnegative final int nMaxResults)
+  {
+    if (nMaxResults <= 0)
+      throw new IllegalArgumentException ("Illegal max results " + nMaxResults);
+
+    final List <String> aQueryTokens = getTokens (sQuery);
+    if (aQueryTokens.isEmpty ())
+      return new ArrayList <Integer> ();
+
+    final List <Integer> ret = new ArrayList <Integer> ();
+    final Map <Integer, String> aNames = new HashMap <Integer, String> ();
+    final Map <Integer, Double> aTotalScores = new HashMap <Integer, Double> ();
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      boolean bFirst = true;
+      for (final String sQueryToken : aQueryTokens)
+      {
+        final Map <Integer, Double> aTokenScores = _getScores (sQueryToken);
+        if (bFirst)
+        {
+          aTotalScores.putAll (aTokenScores);
+          bFirst = false;
+        }
+        else
+        {
+          // All query tokens must match
+          aTotalScores.keySet ().retainAll (aTokenScores.keySet ());
+          for (final Map.Entry <Integer, Double> aEntry : aTotalScores.entrySet ())
+            aEntry.setValue (Double.valueOf (aEntry.getValue ().doubleValue () +
+                                             aTokenScores.get (aEntry.getKey ()).doubleValue ()));
+        }
+        if (aTotalScores.isEmpty ())
+          break;
+      }
+      for (final Integer aID : aTotalScores.keySet ())
+      {
+        ret.add (aID);
+        aNames.put (aID, m_aPartyNames.get (aID));
+      }
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+
+    Collections.sort (ret, new Comparator <Integer> ()
+    {
+      public int compare (final Integer aID1, final Integer aID2)
+      {
+        final double dScore1 = aTotalScores.get (aID1).doubleValue ();
+        final double dScore2 = aTotalScores.get (aID2).doubleValue ();
+        int nRet = Double.compare (dScore2, dScore1);
+        if (nRet == 0)
+          nRet = CompareUtils.nullSafeCompare (aNames.get (aID1), aNames.get (aID2));
+        if (nRet == 0)
+          nRet = aID1.compareTo (aID2);
+        return nRet;
+      }
+    });
+    return ret.size () <= nMaxResults ? ret : new ArrayList <Integer> (ret.subList (0, nMaxResults));
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("initialized", m_bInitialized)
+                                       .append ("parties", m_aPartyNames.size ())
+                                       .append ("tokens", m_aTokens.size ())
+                                       .toString ();
+  }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.db.jpa.IEntityManagerProvider;
+
+/**
+ * An entity manager provider that delegates either to the primary or to a
+ * read-only replica provider. The replica is only used by the current thread
+ * while {@link #isUseReplica()} is <code>true</code>.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+final class ProcRoutingEntityManagerProvider implements IEntityManagerProvider
+{
+  private final IEntityManagerProvider m_aPrimary;
+  private volatile IEntityManagerProvider m_aReplica;
+  private final ThreadLocal <Boolean> m_aUseReplica = new ThreadLocal <Boolean> ();
+
+  ProcRoutingEntityManagerProvider (@Nonnull final IEntityManagerProvider aPrimary)
+  {
+    if (aPrimary == null)
+      throw new NullPointerException ("primary");
+    m_aPrimary = aPrimary;
+  }
+
+  @Nonnull
+  IEntityManagerProvider getPrimary ()
+  {
+    return m_aPrimary;
+  }
+
+  @Nullable
+  IEntityManagerProvider getReplica ()
+  {
+    return m_aReplica;
+  }
+
+  void setReplica (@Nullable final IEntityManagerProvider aReplica)
+  {
+    m_aReplica = aReplica;
+  }
+
+  boolean isUseReplica ()
+  {
+    return Boolean.TRUE.equals (m_aUseReplica.get ());
+  }
+
+  void setUseReplica (final boolean bUseReplica)
+  {
+    if (bUseReplica)
+      m_aUseReplica.set (Boolean.TRUE);
+    else
+      m_aUseReplica.remove ();
+  }
+
+  /**
+   * @return The shared caches of the primary and, if present, of the replica
+   *         entity manager factory. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  List <Cache> getAllSharedCaches ()
+  {
+    return getAllSharedCaches (m_aPrimary, m_aReplica);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  static List <Cache> getAllSharedCaches (@Nonnull final IEntityManagerProvider aPrimary,
+                                          @Nullable final IEntityManagerProvider aReplica)
+  {
+    final List <Cache> ret = new ArrayList <Cache> (2);
+    ret.add (aPrimary.getEntityManager ().getEntityManagerFactory ().getCache ());
+    if (aReplica != null)
+      ret.add (aReplica.getEntityManager ().getEntityManagerFactory ().getCache ());
+    return ret;
+  }
+
+  @Nonnull
+  public EntityManager getEntityManager ()
+  {
+    final IEntityManagerProvider aReplica = m_aReplica;
+    if (aReplica != null && isUseReplica ())
+      return aReplica.getEntityManager ();
+    return m_aPrimary.getEntityManager ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("primary", m_aPrimary)
+                                       .appendIfNotNull ("replica", m_aReplica)
+                                       .toString ();
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * The result of a save operation with optimistic locking. Distinguishes between
+ * a successful save, a conflict with a concurrent modification and other
+ * errors.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The saved domain object type
+ */
+@Immutable
+public final class ProcSaveResult <DATATYPE extends IProcObject> implements ISuccessIndicator
+{
+  private final DATATYPE m_aSaved;
+  private final DATATYPE m_aCurrent;
+  private final Throwable m_aThrowable;
+  private final int m_nAttempts;
+
+  private ProcSaveResult (@Nullable final DATATYPE aSaved,
+                          @Nullable final DATATYPE aCurrent,
+                          @Nullable final Throwable aThrowable,
+                          @Nonnegative final int nAttempts)
+  {
+    m_aSaved = aSaved;
+    m_aCurrent = aCurrent;
+    m_aThrowable = aThrowable;
+    m_nAttempts = nAttempts;
+  }
+
+  public boolean isSuccess ()
+  {
+    return m_aSaved != null;
+  }
+
+  public boolean isFailure ()
+  {
+    return m_aSaved == null;
+  }
+
+  /**
+   * @return <code>true</code> if saving failed because the object was modified
+   *         concurrently.
+   */
+  public boolean isConflict ()
+  {
+    return m_aCurrent != null;
+  }
+
+  /**
+   * @return The saved object carrying the new version. Only present in case of
+   *         success.
+   */
+  @Nullable
+  public DATATYPE getSavedObject ()
+  {
+    return m_aSaved;
+  }
+
+  /**
+   * @return The current object as stored in the database. Only present in case
+   *         of a conflict.
+   */
+  @Nullable
+  public DATATYPE getCurrentObject ()
+  {
+    return m_aCurrent;
+  }
+
+  /**
+   * @return The exception that caused the failure. May be <code>null</code>.
+   */
+  @Nullable
+  public Throwable getThrowable ()
+  {
+    return m_aThrowable;
+  }
+
+  /**
+   * @return The number of save attempts made. Always &ge; 1.
+   */
+  @Nonnegative
+  public int getAttempts ()
+  {
+    return m_nAttempts;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("saved", m_aSaved)
+                                       .append ("current", m_aCurrent)
+                                       .append ("throwable", m_aThrowable)
+                                       .append ("attempts", m_nAttempts)
+                                       .toString ();
+  }
+
+  @Nonnull
+  public static <DATATYPE extends IProcObject> ProcSaveResult <DATATYPE> createSuccess (@Nonnull final DATATYPE aSaved,
+                                                                                        @Nonnegative final int nAttempts)
+  {
+    if (aSaved == null)
+      throw new NullPointerException ("saved");
+    return new ProcSaveResult <DATATYPE> (aSaved, null, null, nAttempts);
+  }
+
+  @Nonnull
+  public static <DATATYPE extends IProcObject> ProcSaveResult <DATATYPE> createConflict (@Nonnull final DATATYPE aCurrent,
+                                                                                         @Nullable final Throwable aThrowable,
+                                                                                         @Nonnegative final int nAttempts)
+  {
+    if (aCurrent == null)
+      throw new NullPointerException ("current");
+    return new ProcSaveResult <DATATYPE> (null, aCurrent, aThrowable, nAttempts);
+  }
+
+  @Nonnull
+  public static <DATATYPE extends IProcObject> ProcSaveResult <DATATYPE> createFailure (@Nullable final Throwable aThrowable,
+                                                                                        @Nonnegative final int nAttempts)
+  {
+    return new ProcSaveResult <DATATYPE> (null, null, aThrowable, nAttempts);
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.string.ToStringGenerator;
+
+/**
+ * Statistics of a single entity class in the {@link ProcSharedEntityCache}.
+ * Hits and misses are only recorded for the ID based lookups of the managers,
+ * not for relationship navigation.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcSharedCacheStatistics
+{
+  private final AtomicLong m_aHits = new AtomicLong (0);
+  private final AtomicLong m_aMisses = new AtomicLong (0);
+  private final AtomicLong m_aLocalInvalidations = new AtomicLong (0);
+  private final AtomicLong m_aRemoteInvalidations = new AtomicLong (0);
+
+  public ProcSharedCacheStatistics ()
+  {}
+
+  void onLookup (final boolean bHit)
+  {
+    if (bHit)
+      m_aHits.incrementAndGet ();
+    else
+      m_aMisses.incrementAndGet ();
+  }
+
+  void onInvalidation (final boolean bRemote)
+  {
+    if (bRemote)
+      m_aRemoteInvalidations.incrementAndGet ();
+    else
+      m_aLocalInvalidations.incrementAndGet ();
+  }
+
+  @Nonnegative
+  public long getHits ()
+  {
+    return m_aHits.get ();
+  }
+
+  @Nonnegative
+  public long getMisses ()
+  {
+    return m_aMisses.get ();
+  }
+
+  /**
+   * @return The ratio of hits to all lookups between 0 and 1. 0 if no lookup
+   *         was performed yet.
+   */
+  public double getHitRatio ()
+  {
+    final long nHits = m_aHits.get ();
+    final long nTotal = nHits + m_aMisses.get ();
+    return nTotal == 0 ? 0 : (double) nHits / nTotal;
+  }
+
+  /**
+   * @return The number of invalidations caused by modifications on this node.
+   */
+  @Nonnegative
+  public long getLocalInvalidations ()
+  {
+    return m_aLocalInvalidations.get ();
+  }
+
+  /**
+   * @return The number of invalidations received from other cluster nodes.
+   */
+  @Nonnegative
+  public long getRemoteInvalidations ()
+  {
+    return m_aRemoteInvalidations.get ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("hits", m_aHits)
+                                       .append ("misses", m_aMisses)
+                                       .append ("localInvalidations", m_aLocalInvalidations)
+                                       .append ("remoteInvalidations", m_aRemoteInvalidations)
+                                       .toString ();
+  }
+}
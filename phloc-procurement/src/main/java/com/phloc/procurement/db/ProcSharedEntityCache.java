@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.persistence.Cache;
+import javax.persistence.SharedCacheMode;
+
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.annotations.ReturnsMutableCopy;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.procurement.domain.IProcObject;
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcCustomerPaymentTerm;
+import com.phloc.procurement.party.ProcMasterData;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Opt-in shared (second level) cache for the reference entities, which are read
+ * much more often than they are written. The cache itself is the shared cache
+ * of the entity manager factory: the entities are marked as cacheable with a
+ * fixed size LRU cache type and
+ * {@link #getEntityManagerFactoryProperties(int)} provides the persistence unit
+ * properties to enable it for exactly these entities with the desired size.
+ * This class keeps the statistics of the manager lookups and coordinates the
+ * invalidations, optionally across cluster nodes. Invalidations are applied to
+ * the shared cache of the read replica as well, if one is passed. It is
+ * activated for a manager via
+ * {@link AbstractProcManager#setSharedEntityCache(ProcSharedEntityCache)}.<br>
+ * This is the only in-memory structure holding the state of parties - the
+ * database remains authoritative for it. The {@link ProcPartySearchIndex}
+ * only maps search tokens to party IDs and the {@link ProcPartyLookupCache}
+ * only maps entity ID scheme and value to a party ID. Both hand out IDs that
+ * are resolved via the managers and thereby via this cache.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public final class ProcSharedEntityCache
+{
+  /** The default maximum number of cached objects per entity class */
+  public static final int DEFAULT_MAX_SIZE = 1000;
+  /** The standard JPA property for the shared cache mode */
+  public static final String PROPERTY_SHARED_CACHE_MODE = "javax.persistence.sharedCache.mode";
+
+  private static final Logger s_aLogger = LoggerFactory.getLogger (ProcSharedEntityCache.class);
+  private static final List <Class <? extends IProcObject>> s_aCachedClasses = new ArrayList <Class <? extends IProcObject>> ();
+
+  static
+  {
+    s_aCachedClasses.add (ProcSupplier.class);
+    s_aCachedClasses.add (ProcCustomer.class);
+    s_aCachedClasses.add (ProcCustomerPaymentTerm.class);
+    s_aCachedClasses.add (ProcMasterData.class);
+  }
+
+  private final IEntityManagerProvider m_aEntityMgrProvider;
+  private final IEntityManagerProvider m_aReplicaEntityMgrProvider;
+  private final Map <Class <?>, ProcSharedCacheStatistics> m_aStatistics = new HashMap <Class <?>, ProcSharedCacheStatistics> ();
+  private volatile IProcCacheInvalidationBroadcaster m_aBroadcaster;
+
+  /**
+   * Constructor
+   *
+   * @param aEntityMgrProvider
+   *        The provider of the entity manager factory whose shared cache is
+   *        used. This should be the same provider as the one of the managers.
+   *        May not be <code>null</code>.
+   */
+  public ProcSharedEntityCache (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
+  {
+    this (aEntityMgrProvider, null);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param aEntityMgrProvider
+   *        The provider of the entity manager factory whose shared cache is
+   *        used. This should be the same provider as the one of the managers.
+   *        May not be <code>null</code>.
+   * @param aReplicaEntityMgrProvider
+   *        The provider of the read replica of the managers, if any. Its shared
+   *        cache is invalidated together with the primary one. May be
+   *        <code>null</code>.
+   * @see AbstractProcManager#setReadReplicaEntityManagerProvider(IEntityManagerProvider)
+   */
+  public ProcSharedEntityCache (@Nonnull final IEntityManagerProvider aEntityMgrProvider,
+                                @Nullable final IEntityManagerProvider aReplicaEntityMgrProvider)
+  {
+    if (aEntityMgrProvider == null)
+      throw new NullPointerException ("entityMgrProvider");
+    m_aEntityMgrProvider = aEntityMgrProvider;
+    m_aReplicaEntityMgrProvider = aReplicaEntityMgrProvider;
+    // The map is never modified afterwards
+    for (final Class <?> aClass : s_aCachedClasses)
+      m_aStatistics.put (aClass, new ProcSharedCacheStatistics ());
+  }
+
+  /**
+   * @return All entity classes that are held in the shared cache. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static List <Class <? extends IProcObject>> getAllCachedEntityClasses ()
+  {
+    return ContainerHelper.newList (s_aCachedClasses);
+  }
+
+  public static boolean isCachedEntityClass (@Nullable final Class <?> aClass)
+  {
+    return s_aCachedClasses.contains (aClass);
+  }
+
+  /**
+   * Get the properties to be passed when creating the entity manager factory,
+   * to enable the shared cache for the reference entities only. Without these
+   * properties the shared cache mode of the persistence unit is used.
+   *
+   * @param nMaxSize
+   *        The maximum number of objects per entity class held by the cache.
+   *        If it is reached, the least recently used object is removed. Must
+   *        be &gt; 0.
+   * @return The properties to be used. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static Map <String, String> getEntityManagerFactoryProperties (@Nonnegative final int nMaxSize)
+  {
+    if (nMaxSize <= 0)
+      throw new IllegalArgumentException ("Illegal max size " + nMaxSize);
+
+    final Map <String, String> ret = new HashMap <String, String> ();
+    ret.put (PROPERTY_SHARED_CACHE_MODE, SharedCacheMode.ENABLE_SELECTIVE.name ());
+    for (final Class <?> aClass : s_aCachedClasses)
+    {
+      // The cache type is defined by the @Cache annotation of the entities
+      ret.put (PersistenceUnitProperties.CACHE_SIZE_ + aClass.getSimpleName (), Integer.toString (nMaxSize));
+    }
+    return ret;
+  }
+
+  /**
+   * Get the properties to be passed when creating the entity manager factory
+   * of a read replica. They disable the shared cache of the replica, because
+   * an entity read from a lagging replica directly after an invalidation would
+   * otherwise stay stale in its cache until the next invalidation.
+   *
+   * @return The properties to be used. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static Map <String, String> getReplicaEntityManagerFactoryProperties ()
+  {
+    final Map <String, String> ret = new HashMap <String, String> ();
+    ret.put (PROPERTY_SHARED_CACHE_MODE, SharedCacheMode.NONE.name ());
+    ret.put (PersistenceUnitProperties.CACHE_SHARED_DEFAULT, Boolean.FALSE.toString ());
+    return ret;
+  }
+
+  @Nonnull
+  private List <Cache> _getAllCaches ()
+  {
+    return ProcRoutingEntityManagerProvider.getAllSharedCaches (m_aEntityMgrProvider, m_aReplicaEntityMgrProvider);
+  }
+
+  /**
+   * Get the statistics of the passed entity class.
+   *
+   * @param aEntityClass
+   *        The entity class to query.
+   * @return <code>null</code> if the passed class is not cached.
+   */
+  @Nullable
+  public ProcSharedCacheStatistics getStatistics (@Nullable final Class <?> aEntityClass)
+  {
+    return m_aStatistics.get (aEntityClass);
+  }
+
+  @Nullable
+  public IProcCacheInvalidationBroadcaster getInvalidationBroadcaster ()
+  {
+    return m_aBroadcaster;
+  }
+
+  /**
+   * @param aBroadcaster
+   *        The broadcaster to distribute local invalidations to other cluster
+   *        nodes. May be <code>null</code> for a single node.
+   */
+  public void setInvalidationBroadcaster (@Nullable final IProcCacheInvalidationBroadcaster aBroadcaster)
+  {
+    m_aBroadcaster = aBroadcaster;
+  }
+
+  /**
+   * Check whether the passed entity is currently in the shared cache and record
+   * the lookup in the statistics.
+   *
+   * @param aCache
+   *        The shared cache of the entity manager factory that serves the
+   *        lookup, which is the one of the replica for reads routed there. May
+   *        not be <code>null</code>.
+   * @param aEntityClass
+   *        The entity class. May not be <code>null</code>.
+   * @param nID
+   *        The ID of the entity to look up.
+   */
+  void recordLookup (@Nonnull final Cache aCache, @Nonnull final Class <?> aEntityClass, final int nID)
+  {
+    final ProcSharedCacheStatistics aStats = m_aStatistics.get (aEntityClass);
+    if (aStats != null)
+      aStats.onLookup (aCache.contains (aEntityClass, Integer.valueOf (nID)));
+  }
+
+  private void _evict (@Nonnull final Class <? extends IProcObject> aEntityClass, final int nID, final boolean bRemote)
+  {
+    final ProcSharedCacheStatistics aStats = m_aStatistics.get (aEntityClass);
+    if (aStats != null)
+    {
+      for (final Cache aCache : _getAllCaches ())
+        aCache.evict (aEntityClass, Integer.valueOf (nID));
+      aStats.onInvalidation (bRemote);
+    }
+  }
+
+  /**
+   * Invalidate an entity after it was modified on this node. The entity is
+   * evicted locally and the invalidation is passed to the broadcaster, if
+   * present.
+   *
+   * @param aEntityClass
+   *        The entity class. May not be <code>null</code>.
+   * @param nID
+   *        The ID of the modified entity.
+   */
+  public void invalidate (@Nonnull final Class <? extends IProcObject> aEntityClass, final int nID)
+  {
+    if (aEntityClass == null)
+      throw new NullPointerException ("entityClass");
+    if (!isCachedEntityClass (aEntityClass))
+      return;
+
+    _evict (aEntityClass, nID, false);
+    final IProcCacheInvalidationBroadcaster aBroadcaster = m_aBroadcaster;
+    if (aBroadcaster != null)
+    {
+      try
+      {
+        aBroadcaster.broadcastInvalidation (this, aEntityClass, nID);
+      }
+      catch (final RuntimeException ex)
+      {
+        // The local modification succeeded anyway
+        s_aLogger.error ("Failed to broadcast invalidation of " + aEntityClass.getSimpleName () + " " + nID, ex);
+      }
+    }
+  }
+
+  /**
+   * Invalidate an entity that was modified on another cluster node. This
+   * method must be called by the receiving side of the cluster transport.
+   *
+   * @param aEntityClass
+   *        The entity class. May not be <code>null</code>.
+   * @param nID
+   *        The ID of the modified entity.
+   */
+  public void onRemoteInvalidation (@Nonnull final Class <? extends IProcObject> aEntityClass, final int nID)
+  {
+    if (aEntityClass == null)
+      throw new NullPointerException ("entityClass");
+    _evict (aEntityClass, nID, true);
+  }
+
+  /**
+   * Remove all reference entities from the local shared caches, e.g. after
+   * modifications that bypassed the managers.
+   */
+  public void evictAllLocally ()
+  {
+    for (final Cache aCache : _getAllCaches ())
+      for (final Class <?> aClass : s_aCachedClasses)
+        aCache.evict (aClass);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("statistics", m_aStatistics)
+                                       .append ("broadcaster", m_aBroadcaster)
+                                       .toString ();
+  }
+}
@@ -17,6 +17,7 @@
  */
 package com.phloc.procurement.db;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 
@@ -27,15 +28,22 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
 import com.phloc.commons.state.ISuccessIndicator;
 import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.db.jpa.JPAExecutionResult;
 import com.phloc.procurement.idscheme.IEntityIDScheme;
+import com.phloc.procurement.outbox.EProcChangeType;
 import com.phloc.procurement.party.ProcSupplier;
 
 public class ProcSupplierManager extends AbstractProcManager
 {
   private static final Logger s_aLogger = LoggerFactory.getLogger (ProcSupplierManager.class);
 
+  private volatile ProcPartySearchIndex <ProcSupplier> m_aSearchIndex = new ProcPartySearchIndex <ProcSupplier> ();
+  private final ProcPartyLookupCache <ProcSupplier> m_aLookupCache = new ProcPartyLookupCache <ProcSupplier> (ProcPartyLookupCache.DEFAULT_MAX_SIZE);
+
   public ProcSupplierManager (@Nonnull final IEntityManagerProvider aEntityMgrProvider)
   {
     super (aEntityMgrProvider);
@@ -44,44 +52,64 @@ public class ProcSupplierManager extends AbstractProcManager
   @Nonnull
   public final ISuccessIndicator saveSupplier (@Nonnull final ProcSupplier aSupplier)
   {
-    return doInTransaction (new Runnable ()
+    final JPAExecutionResult <ProcSupplier> ret = doInTransaction (new Callable <ProcSupplier> ()
     {
-      public final void run ()
+      public final ProcSupplier call ()
       {
-        getEntityManager ().merge (aSupplier);
+        final ProcSupplier aMerged = getEntityManager ().merge (aSupplier);
+        appendOutboxEvent (EProcChangeType.SAVED, aMerged);
         s_aLogger.info ("Supplier saved: " + aSupplier);
+        return aMerged;
       }
     });
+    m_aLookupCache.invalidate (aSupplier);
+    invalidateSharedEntityCache (aSupplier);
+    if (ret.isSuccess ())
+      _updateSearchIndex (ret.get ());
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator deleteSupplier (@Nonnull final ProcSupplier aSupplier)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aSupplier.setDeleted (true);
+        appendOutboxEvent (EProcChangeType.DELETED, aSupplier);
         s_aLogger.info ("Supplier deleted: " + aSupplier);
       }
     });
+    m_aLookupCache.invalidate (aSupplier);
+    invalidateSharedEntityCache (aSupplier);
+    if (ret.isSuccess ())
+      _updateSearchIndex (aSupplier);
+    return ret;
   }
 
   @Nonnull
   public final ISuccessIndicator undeleteSupplier (@Nonnull final ProcSupplier aSupplier)
   {
-    return doInTransaction (new Runnable ()
+    final ISuccessIndicator ret = doInTransaction (new Runnable ()
     {
       public final void run ()
       {
         aSupplier.setDeleted (false);
+        appendOutboxEvent (EProcChangeType.UNDELETED, aSupplier);
         s_aLogger.info ("Supplier undeleted: " + aSupplier);
       }
     });
+    m_aLookupCache.invalidate (aSupplier);
+    invalidateSharedEntityCache (aSupplier);
+    if (ret.isSuccess ())
+      _updateSearchIndex (aSupplier);
+    return ret;
   }
 
   @Nullable
-  public final ProcSupplier getSupplierFromEntityID (final IEntityIDScheme aEntityIDScheme, final String sEntityID)
+  private ProcSupplier _getSupplierFromEntityIDNoCache (@Nullable final IEntityIDScheme aEntityIDScheme,
+                                                        @Nullable final String sEntityID)
   {
     return doSelect (new Callable <ProcSupplier> ()
     {
@@ -103,10 +131,36 @@ public class ProcSupplierManager extends AbstractProcManager
     }).get ();
   }
 
+  @Nullable
+  public final ProcSupplier getSupplierFromEntityID (final IEntityIDScheme aEntityIDScheme, final String sEntityID)
+  {
+    return m_aLookupCache.get (aEntityIDScheme, sEntityID, new INonThrowingCallable <ProcSupplier> ()
+    {
+      @Nullable
+      public final ProcSupplier call ()
+      {
+        return _getSupplierFromEntityIDNoCache (aEntityIDScheme, sEntityID);
+      }
+    }, new INonThrowingCallableWithParameter <ProcSupplier, Integer> ()
+    {
+      @Nullable
+      public final ProcSupplier call (@Nonnull final Integer aID)
+      {
+        return getAnySupplierOfID (aID.intValue ());
+      }
+    });
+  }
+
+  @Nonnull
+  public final ProcPartyLookupCache <ProcSupplier> getLookupCache ()
+  {
+    return m_aLookupCache;
+  }
+
   @Nonnull
   public final List <ProcSupplier> getAllSuppliers ()
   {
-    return doSelect (new Callable <List <ProcSupplier>> ()
+    return doSelectReadOnly (new Callable <List <ProcSupplier>> ()
     {
       public final List <ProcSupplier> call ()
       {
@@ -132,7 +186,7 @@ public class ProcSupplierManager extends AbstractProcManager
   @Nonnull
   public final List <ProcSupplier> getAllDeletedSuppliers ()
   {
-    return doSelect (new Callable <List <ProcSupplier>> ()
+    return doSelectReadOnly (new Callable <List <ProcSupplier>> ()
     {
       public final List <ProcSupplier> call ()
       {
@@ -145,7 +199,7 @@ public class ProcSupplierManager extends AbstractProcManager
   @Nonnegative
   public final long getCountAllDeletedSuppliers ()
   {
-    return doSelect (new Callable <Number> ()
+    return doSelectReadOnly (new Callable <Number> ()
     {
       public final Number call ()
       {
@@ -155,6 +209,96 @@ public class ProcSupplierManager extends AbstractProcManager
     }).get ().longValue ();
   }
 
+  @Nonnull
+  public final List <ProcSupplier> getAllSuppliersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcSupplier>> ()
+    {
+      public final List <ProcSupplier> call ()
+      {
+        return getEntityManager ().createQuery ("SELECT p FROM ProcSupplier p" + " WHERE p.deleted = false AND p.client = :client",
+                                                ProcSupplier.class)
+                                  .setParameter ("client", Integer.valueOf (nClient))
+                                  .getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllSuppliersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcSupplier p"
+                                                                         + " WHERE p.deleted = false AND p.client = :client")
+                                                           .setParameter ("client", Integer.valueOf (nClient)));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nonnull
+  public final List <ProcSupplier> getAllDeletedSuppliersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <List <ProcSupplier>> ()
+    {
+      public final List <ProcSupplier> call ()
+      {
+        return getEntityManager ().createQuery ("SELECT p FROM ProcSupplier p" + " WHERE p.deleted = true AND p.client = :client",
+                                                ProcSupplier.class)
+                                  .setParameter ("client", Integer.valueOf (nClient))
+                                  .getResultList ();
+      }
+    }).get ();
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedSuppliersOfClient (@Nonnegative final int nClient)
+  {
+    checkClient (nClient);
+    return doSelectReadOnly (new Callable <Number> ()
+    {
+      public final Number call ()
+      {
+        return getSelectCountResultObj (getEntityManager ().createQuery ("SELECT COUNT(p) FROM ProcSupplier p"
+                                                                         + " WHERE p.deleted = true AND p.client = :client")
+                                                           .setParameter ("client", Integer.valueOf (nClient)));
+      }
+    }).get ().longValue ();
+  }
+
+  @Nullable
+  public final ProcSupplier getSupplierFromEntityID (@Nonnegative final int nClient,
+                                                     @Nullable final IEntityIDScheme aEntityIDScheme,
+                                                     @Nullable final String sEntityID)
+  {
+    checkClient (nClient);
+    // Not cached, as the lookup cache is not client aware
+    return doSelect (new Callable <ProcSupplier> ()
+    {
+      @Nullable
+      public final ProcSupplier call ()
+      {
+        final List <ProcSupplier> aTmp = getEntityManager ().createQuery ("SELECT p FROM ProcSupplier p"
+                                                                          + " WHERE p.deleted = false AND p.client = :client AND p.entityIDScheme = :scheme AND p.entityID = :value",
+                                                                          ProcSupplier.class)
+                                         .setParameter ("client", Integer.valueOf (nClient))
+                                         .setParameter ("scheme", aEntityIDScheme)
+                                         .setParameter ("value", sEntityID)
+                                         .getResultList ();
+        if (aTmp.isEmpty ())
+          return null;
+        if (aTmp.size () > 1)
+          s_aLogger.warn ("Too many results (" + aTmp.size () + ") for client " + nClient + " and " + aEntityIDScheme + "/" + sEntityID);
+        return aTmp.get (0);
+      }
+    }).get ();
+  }
+
   @Nullable
   public final ProcSupplier getActiveSupplierOfID (final int nSupplierID)
   {
@@ -166,7 +310,7 @@ public class ProcSupplierManager extends AbstractProcManager
     {
       public final ProcSupplier call ()
       {
-        final ProcSupplier aSupplier = getEntityManager ().find (ProcSupplier.class, Integer.valueOf (nSupplierID));
+        final ProcSupplier aSupplier = findEntity (ProcSupplier.class, nSupplierID);
         return aSupplier == null || aSupplier.isDeleted () ? null : aSupplier;
       }
     }).get ();
@@ -183,7 +327,97 @@ public class ProcSupplierManager extends AbstractProcManager
     {
       public final ProcSupplier call ()
       {
-        return getEntityManager ().find (ProcSupplier.class, Integer.valueOf (nSupplierID));
+        return findEntity (ProcSupplier.class, nSupplierID);
+      }
+    }).get ();
+  }
+
+  @Nonnull
+  public final ProcPartySearchIndex <ProcSupplier> getSearchIndex ()
+  {
+    return m_aSearchIndex;
+  }
+
+  /**
+   * Set the search index to be used. All manager instances working on the
+   * same database should share one index, so that the changes made via one
+   * instance are visible to the searches of all others and the index is built
+   * only once.
+   *
+   * @param aSearchIndex
+   *        The search index to use. May not be <code>null</code>.
+   */
+  public final void setSearchIndex (@Nonnull final ProcPartySearchIndex <ProcSupplier> aSearchIndex)
+  {
+    if (aSearchIndex == null)
+      throw new NullPointerException ("searchIndex");
+    m_aSearchIndex = aSearchIndex;
+  }
+
+  private void _updateSearchIndex (@Nonnull final ProcSupplier aSupplier)
+  {
+    // Read the field once, as it may be replaced concurrently
+    final ProcPartySearchIndex <ProcSupplier> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.update (aSupplier);
+  }
+
+  @Nonnull
+  private INonThrowingCallable <List <ProcSupplier>> _getSearchIndexProvider ()
+  {
+    return new INonThrowingCallable <List <ProcSupplier>> ()
+    {
+      public List <ProcSupplier> call ()
+      {
+        // A lagging replica would miss the latest changes
+        final List <ProcSupplier> aSuppliers = runOnPrimary (new INonThrowingCallable <List <ProcSupplier>> ()
+        {
+          public List <ProcSupplier> call ()
+          {
+            return getAllSuppliers ();
+          }
+        });
+        s_aLogger.info ("Supplier search index built with " + aSuppliers.size () + " entries");
+        return aSuppliers;
+      }
+    };
+  }
+
+  public final void rebuildSearchIndex ()
+  {
+    final ProcPartySearchIndex <ProcSupplier> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.rebuild (_getSearchIndexProvider ());
+  }
+
+  /**
+   * Search the suppliers with the search index. Contrary to a LIKE query, the
+   * name, the entity ID, the VATIN, the city and the zip code are searched
+   * token-wise (exact, prefix and fuzzy) and the results are ranked by
+   * relevance.
+   *
+   * @param sQuery
+   *        The search query. May be <code>null</code>.
+   * @param nMaxResults
+   *        The maximum number of results. Must be &gt; 0.
+   * @return The matching suppliers in ranked order. Never <code>null</code>.
+   */
+  @Nonnull
+  public final List <ProcSupplier> searchSuppliers (@Nullable final String sQuery, @Nonnegative final int nMaxResults)
+  {
+    final ProcPartySearchIndex <ProcSupplier> aSearchIndex = m_aSearchIndex;
+    aSearchIndex.ensureInitialized (_getSearchIndexProvider ());
+    final List <Integer> aIDs = aSearchIndex.search (sQuery, nMaxResults);
+    if (aIDs.isEmpty ())
+      return new ArrayList <ProcSupplier> ();
+
+    return doSelectReadOnly (new Callable <List <ProcSupplier>> ()
+    {
+      public final List <ProcSupplier> call ()
+      {
+        final List <ProcSupplier> ret = new ArrayList <ProcSupplier> ();
+        for (final ProcSupplier aSupplier : getEntitiesOfIDs (ProcSupplier.class, aIDs))
+          if (!aSupplier.isDeleted ())
+            ret.add (aSupplier);
+        return ret;
       }
     }).get ();
   }
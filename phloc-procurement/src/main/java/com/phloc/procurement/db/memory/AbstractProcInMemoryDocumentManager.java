@@ -0,0 +1,671 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db.memory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.filter.IFilter;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.FileUtils;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.microdom.IMicroDocument;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.microdom.impl.MicroDocument;
+import com.phloc.commons.microdom.serialize.MicroReader;
+import com.phloc.commons.microdom.serialize.MicroWriter;
+import com.phloc.commons.state.ESuccess;
+import com.phloc.commons.string.StringParser;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.procurement.db.ProcDocumentHeader;
+import com.phloc.procurement.db.ProcKeysetPage;
+import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.domain.IProcObjectWithClient;
+import com.phloc.procurement.domain.IProcObjectWithState;
+
+/**
+ * Base class for the in-memory document managers. All documents are held in a
+ * primary key map, with indexes per deletion flag and state, so that the
+ * filtered lists, counts and pages do not need to scan all documents. The
+ * stored objects are shared with the callers like managed entities are: modify
+ * them only via the manager methods, which update the indexes. Optionally the
+ * content can be written to and read from a GZip compressed snapshot file.
+ *
+ * @author Philip Helger
+ * @param <DATATYPE>
+ *        The document type
+ */
+@ThreadSafe
+public abstract class AbstractProcInMemoryDocumentManager <DATATYPE extends AbstractProcObject & IProcObjectWithState & IProcObjectWithClient>
+{
+  private static final Logger s_aLogger = LoggerFactory.getLogger (AbstractProcInMemoryDocumentManager.class);
+  private static final String ELEMENT_SNAPSHOT = "snapshot";
+  private static final String ATTR_LASTID = "lastid";
+  private static final String TEMP_EXTENSION = ".tmp";
+
+  /** The index position of a single document */
+  private static final class IndexKey
+  {
+    private final boolean m_bDeleted;
+    private final EProcState m_eState;
+
+    IndexKey (final boolean bDeleted, @Nullable final EProcState eState)
+    {
+      m_bDeleted = bDeleted;
+      m_eState = eState;
+    }
+  }
+
+  private final EProcDocumentType m_eDocumentType;
+  private final ReadWriteLock m_aRWLock = new ReentrantReadWriteLock ();
+  private final Map <Integer, DATATYPE> m_aMap = new HashMap <Integer, DATATYPE> ();
+  private final Map <Integer, IndexKey> m_aIndexKeys = new HashMap <Integer, IndexKey> ();
+  // Index 0 contains the active documents, index 1 the deleted ones
+  private final List <NavigableSet <Integer>> m_aIDs = new ArrayList <NavigableSet <Integer>> (2);
+  private final List <Map <EProcState, NavigableSet <Integer>>> m_aIDsByState = new ArrayList <Map <EProcState, NavigableSet <Integer>>> (2);
+  private int m_nLastID = 0;
+
+  protected AbstractProcInMemoryDocumentManager (@Nonnull final EProcDocumentType eDocumentType)
+  {
+    if (eDocumentType == null)
+      throw new NullPointerException ("documentType");
+    m_eDocumentType = eDocumentType;
+    for (int i = 0; i < 2; ++i)
+    {
+      m_aIDs.add (new TreeSet <Integer> ());
+      final Map <EProcState, NavigableSet <Integer>> aByState = new EnumMap <EProcState, NavigableSet <Integer>> (EProcState.class);
+      for (final EProcState eState : EProcState.values ())
+        aByState.put (eState, new TreeSet <Integer> ());
+      m_aIDsByState.add (aByState);
+    }
+  }
+
+  @Nonnull
+  public final EProcDocumentType getDocumentType ()
+  {
+    return m_eDocumentType;
+  }
+
+  /**
+   * @param aDocument
+   *        The document to check. Never <code>null</code>.
+   * @return <code>true</code> if the contained order or invoice is deleted.
+   */
+  protected abstract boolean isDeleted (@Nonnull DATATYPE aDocument);
+
+  protected abstract void setDeleted (@Nonnull DATATYPE aDocument, boolean bDeleted);
+
+  protected abstract void setState (@Nonnull DATATYPE aDocument, @Nonnull EProcState eState);
+
+  @Nonnull
+  protected abstract ProcDocumentHeader createHeader (@Nonnull DATATYPE aDocument);
+
+  @Nonnull
+  protected abstract IMicroElement writeSnapshotElement (@Nonnull DATATYPE aDocument);
+
+  @Nonnull
+  protected abstract DATATYPE readSnapshotElement (@Nonnull IMicroElement eElement,
+                                                   @Nullable IProcPartyResolver aPartyResolver);
+
+  /**
+   * @param nClient
+   *        The client ID to check.
+   * @throws IllegalArgumentException
+   *         if the client ID is negative
+   */
+  protected static void checkClient (final int nClient)
+  {
+    if (nClient < 0)
+      throw new IllegalArgumentException ("Illegal client " + nClient);
+  }
+
+  @Nonnull
+  private NavigableSet <Integer> _getIDs (final boolean bDeleted, @Nullable final EProcState eState)
+  {
+    final int nIndex = bDeleted ? 1 : 0;
+    return eState == null ? m_aIDs.get (nIndex) : m_aIDsByState.get (nIndex).get (eState);
+  }
+
+  private void _unindex (@Nonnull final Integer aID)
+  {
+    final IndexKey aOldKey = m_aIndexKeys.remove (aID);
+    if (aOldKey != null)
+    {
+      _getIDs (aOldKey.m_bDeleted, null).remove (aID);
+      if (aOldKey.m_eState != null)
+        _getIDs (aOldKey.m_bDeleted, aOldKey.m_eState).remove (aID);
+    }
+  }
+
+  private void _index (@Nonnull final DATATYPE aDocument)
+  {
+    final Integer aID = Integer.valueOf (aDocument.getID ());
+    _unindex (aID);
+    final IndexKey aKey = new IndexKey (isDeleted (aDocument), aDocument.getState ());
+    m_aIndexKeys.put (aID, aKey);
+    _getIDs (aKey.m_bDeleted, null).add (aID);
+    // Documents without a state are only contained in the unfiltered views
+    if (aKey.m_eState != null)
+      _getIDs (aKey.m_bDeleted, aKey.m_eState).add (aID);
+  }
+
+  private void _store (@Nonnull final DATATYPE aDocument)
+  {
+    if (aDocument.getID () <= 0)
+      aDocument.setID (++m_nLastID);
+    else
+      m_nLastID = Math.max (m_nLastID, aDocument.getID ());
+    m_aMap.put (Integer.valueOf (aDocument.getID ()), aDocument);
+    _index (aDocument);
+  }
+
+  private static boolean _matchesClient (@Nonnull final IProcObjectWithClient aDocument, final int nClient)
+  {
+    return nClient < 0 || aDocument.getClient () == nClient;
+  }
+
+  /**
+   * Save a new or modified document. New documents get the next free ID
+   * assigned. The version is incremented like with the JPA managers.
+   *
+   * @param aDocument
+   *        The document to save. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  protected final ESuccess saveDocument (@Nonnull final DATATYPE aDocument)
+  {
+    if (aDocument == null)
+      throw new NullPointerException ("document");
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      aDocument.setVersion (aDocument.getVersion () + 1);
+      _store (aDocument);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  @Nullable
+  private DATATYPE _getStored (@Nonnull final DATATYPE aDocument)
+  {
+    return m_aMap.get (Integer.valueOf (aDocument.getID ()));
+  }
+
+  @Nonnull
+  protected final ESuccess setDocumentDeleted (@Nonnull final DATATYPE aDocument, final boolean bDeleted)
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (_getStored (aDocument) == null)
+        return ESuccess.FAILURE;
+      setDeleted (aDocument, bDeleted);
+      _store (aDocument);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  @Nonnull
+  protected final ESuccess changeDocumentState (@Nonnull final DATATYPE aDocument, @Nonnull final EProcState eNewState)
+  {
+    if (eNewState == null)
+      throw new NullPointerException ("newState");
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (_getStored (aDocument) == null)
+        return ESuccess.FAILURE;
+      setState (aDocument, eNewState);
+      _store (aDocument);
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Change the state of all passed documents that are not deleted and are
+   * currently in one of the expected states.
+   *
+   * @param aIDs
+   *        The document IDs. May not be <code>null</code>.
+   * @param aExpectedStates
+   *        The states a document must currently be in. May not be
+   *        <code>null</code>.
+   * @param eNewState
+   *        The new state. May not be <code>null</code>.
+   * @return The IDs of the changed documents. Never <code>null</code>.
+   */
+  @Nonnull
+  protected final List <Integer> changeDocumentsState (@Nonnull final Collection <Integer> aIDs,
+                                                       @Nonnull final Collection <EProcState> aExpectedStates,
+                                                       @Nonnull final EProcState eNewState)
+  {
+    if (aIDs == null)
+      throw new NullPointerException ("IDs");
+    if (aExpectedStates == null)
+      throw new NullPointerException ("expectedStates");
+    if (eNewState == null)
+      throw new NullPointerException ("newState");
+
+    final List <Integer> ret = new ArrayList <Integer> ();
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      for (final Integer aID : new TreeSet <Integer> (aIDs))
+      {
+        final DATATYPE aDocument = m_aMap.get (aID);
+        if (aDocument != null && !isDeleted (aDocument) && aExpectedStates.contains (aDocument.getState ()))
+        {
+          setState (aDocument, eNewState);
+          aDocument.setVersion (aDocument.getVersion () + 1);
+          _index (aDocument);
+          ret.add (aID);
+        }
+      }
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    return ret;
+  }
+
+  @Nonnull
+  private List <DATATYPE> _getAll (final boolean bDeleted, @Nullable final EProcState eState, final int nClient)
+  {
+    final List <DATATYPE> ret = new ArrayList <DATATYPE> ();
+    for (final Integer aID : _getIDs (bDeleted, eState))
+    {
+      final DATATYPE aDocument = m_aMap.get (aID);
+      if (_matchesClient (aDocument, nClient))
+        ret.add (aDocument);
+    }
+    return ret;
+  }
+
+  /**
+   * Get all documents in ascending ID order.
+   *
+   * @param bDeleted
+   *        <code>true</code> for the deleted documents, <code>false</code> for
+   *        the active ones.
+   * @param eState
+   *        The state to filter. May be <code>null</code>.
+   * @param nClient
+   *        The client to filter. Pass a negative value for all clients.
+   * @return The matching documents. Never <code>null</code>.
+   */
+  @Nonnull
+  protected final List <DATATYPE> getAllDocuments (final boolean bDeleted,
+                                                   @Nullable final EProcState eState,
+                                                   final int nClient)
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return _getAll (bDeleted, eState, nClient);
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  protected final List <ProcDocumentHeader> getAllDocumentHeaders (@Nullable final EProcState eState, final int nClient)
+  {
+    final List <ProcDocumentHeader> ret = new ArrayList <ProcDocumentHeader> ();
+    for (final DATATYPE aDocument : getAllDocuments (false, eState, nClient))
+      ret.add (createHeader (aDocument));
+    return ret;
+  }
+
+  @Nonnegative
+  protected final long getDocumentCount (final boolean bDeleted, @Nullable final EProcState eState, final int nClient)
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      if (nClient < 0)
+        return _getIDs (bDeleted, eState).size ();
+      return _getAll (bDeleted, eState, nClient).size ();
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  @Nonnull
+  protected final ProcKeysetPage <DATATYPE> getDocumentsPage (@Nullable final EProcState eState,
+                                                              final int nClient,
+                                                              final int nAfterID,
+                                                              @Nonnegative final int nPageSize)
+  {
+    if (nPageSize <= 0)
+      throw new IllegalArgumentException ("Illegal page size " + nPageSize);
+
+    final List <DATATYPE> aResult = new ArrayList <DATATYPE> (nPageSize + 1);
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      // Fetch one more to determine whether there is a next page
+      for (final Integer aID : _getIDs (false, eState).tailSet (Integer.valueOf (nAfterID), false))
+      {
+        final DATATYPE aDocument = m_aMap.get (aID);
+        if (_matchesClient (aDocument, nClient))
+        {
+          aResult.add (aDocument);
+          if (aResult.size () > nPageSize)
+            break;
+        }
+      }
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+    return ProcKeysetPage.createFromOverfetch (aResult, nPageSize);
+  }
+
+  @Nonnegative
+  protected final int iterateDocuments (@Nullable final EProcState eState,
+                                        final int nClient,
+                                        @Nonnull final INonThrowingRunnableWithParameter <? super DATATYPE> aCallback)
+  {
+    if (aCallback == null)
+      throw new NullPointerException ("callback");
+
+    // Invoke the callback outside of the lock
+    final List <DATATYPE> aDocuments = getAllDocuments (false, eState, nClient);
+    for (final DATATYPE aDocument : aDocuments)
+      aCallback.run (aDocument);
+    return aDocuments.size ();
+  }
+
+  @Nullable
+  protected final DATATYPE getAnyDocumentOfID (final int nID)
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      return m_aMap.get (Integer.valueOf (nID));
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  @Nullable
+  protected final DATATYPE getActiveDocumentOfID (final int nID)
+  {
+    final DATATYPE aDocument = getAnyDocumentOfID (nID);
+    return aDocument == null || isDeleted (aDocument) ? null : aDocument;
+  }
+
+  /**
+   * Find the active document with the lowest ID matching the passed filter.
+   *
+   * @param nClient
+   *        The client to filter. Pass a negative value for all clients.
+   * @param aFilter
+   *        The filter to apply. May not be <code>null</code>.
+   * @return <code>null</code> if no document matches.
+   */
+  @Nullable
+  protected final DATATYPE findFirstActiveDocument (final int nClient, @Nonnull final IFilter <? super DATATYPE> aFilter)
+  {
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      for (final DATATYPE aDocument : _getAll (false, null, nClient))
+        if (aFilter.matchesFilter (aDocument))
+          return aDocument;
+      return null;
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+  }
+
+  private void _clear ()
+  {
+    m_aMap.clear ();
+    m_aIndexKeys.clear ();
+    for (int i = 0; i < 2; ++i)
+    {
+      m_aIDs.get (i).clear ();
+      for (final NavigableSet <Integer> aIDs : m_aIDsByState.get (i).values ())
+        aIDs.clear ();
+    }
+    m_nLastID = 0;
+  }
+
+  /**
+   * Remove all documents.
+   */
+  public final void clear ()
+  {
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _clear ();
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Write all documents to the passed file. The content is first written to a
+   * uniquely named temporary file which is then atomically moved over the
+   * passed file, so that a previous snapshot is only replaced by a complete
+   * one.
+   *
+   * @param aFile
+   *        The snapshot file. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  public final ESuccess writeSnapshot (@Nonnull final File aFile)
+  {
+    if (aFile == null)
+      throw new NullPointerException ("file");
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (ELEMENT_SNAPSHOT);
+    m_aRWLock.readLock ().lock ();
+    try
+    {
+      eRoot.setAttribute (ATTR_LASTID, m_nLastID);
+      for (final NavigableSet <Integer> aIDs : m_aIDs)
+        for (final Integer aID : aIDs)
+          eRoot.appendChild (writeSnapshotElement (m_aMap.get (aID)));
+    }
+    finally
+    {
+      m_aRWLock.readLock ().unlock ();
+    }
+
+    FileUtils.ensureParentDirectoryIsPresent (aFile);
+    final File aDir = aFile.getAbsoluteFile ().getParentFile ();
+    final File aTempFile;
+    try
+    {
+      // Unique name in the same directory, so that concurrent writers don't
+      // interfere and the move is atomic
+      aTempFile = File.createTempFile (aFile.getName () + '.', TEMP_EXTENSION, aDir);
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to create temporary snapshot file for " + aFile, ex);
+      return ESuccess.FAILURE;
+    }
+
+    boolean bWritten = false;
+    final OutputStream aOS = FileUtils.getOutputStream (aTempFile);
+    try
+    {
+      // Closes the stream and finishes the GZip trailer
+      if (aOS != null && MicroWriter.writeToStream (aDoc, new GZIPOutputStream (aOS)).isSuccess ())
+        bWritten = true;
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to write snapshot " + aTempFile, ex);
+    }
+    finally
+    {
+      if (!bWritten)
+      {
+        StreamUtils.close (aOS);
+        FileOperations.deleteFileIfExisting (aTempFile);
+      }
+    }
+    if (!bWritten)
+      return ESuccess.FAILURE;
+
+    try
+    {
+      // Atomically replaces a previous snapshot
+      Files.move (aTempFile.toPath (),
+                  aFile.toPath (),
+                  StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (final IOException ex)
+    {
+      s_aLogger.error ("Failed to move " + aTempFile + " to " + aFile, ex);
+      FileOperations.deleteFileIfExisting (aTempFile);
+      return ESuccess.FAILURE;
+    }
+    return ESuccess.SUCCESS;
+  }
+
+  /**
+   * Replace all documents with the content of the passed snapshot file.
+   *
+   * @param aFile
+   *        The snapshot file. May not be <code>null</code>.
+   * @param aPartyResolver
+   *        The resolver for the referenced customers and suppliers. May be
+   *        <code>null</code> in which case the documents have no party.
+   * @return {@link ESuccess#FAILURE} if the file could not be read. In this
+   *         case the previous content is retained.
+   */
+  @Nonnull
+  public final ESuccess readSnapshot (@Nonnull final File aFile, @Nullable final IProcPartyResolver aPartyResolver)
+  {
+    if (aFile == null)
+      throw new NullPointerException ("file");
+
+    final InputStream aIS = FileUtils.getInputStream (aFile);
+    if (aIS == null)
+      return ESuccess.FAILURE;
+    final IMicroDocument aDoc;
+    try
+    {
+      aDoc = MicroReader.readMicroXML (new GZIPInputStream (aIS));
+    }
+    catch (final IOException ex)
+    {
+      StreamUtils.close (aIS);
+      s_aLogger.error ("Failed to read snapshot " + aFile, ex);
+      return ESuccess.FAILURE;
+    }
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+    {
+      s_aLogger.error ("Failed to parse snapshot " + aFile);
+      return ESuccess.FAILURE;
+    }
+
+    final IMicroElement eRoot = aDoc.getDocumentElement ();
+    final List <DATATYPE> aDocuments = new ArrayList <DATATYPE> ();
+    if (eRoot.hasChildren ())
+      for (final IMicroElement eElement : eRoot.getAllChildElements ())
+        aDocuments.add (readSnapshotElement (eElement, aPartyResolver));
+
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      _clear ();
+      for (final DATATYPE aDocument : aDocuments)
+        _store (aDocument);
+      // Continue the ID sequence of the snapshot
+      m_nLastID = Math.max (m_nLastID, StringParser.parseInt (eRoot.getAttribute (ATTR_LASTID), 0));
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+    s_aLogger.info ("Read " + aDocuments.size () + " " + m_eDocumentType + " documents from snapshot " + aFile);
+    return ESuccess.SUCCESS;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("documentType", m_eDocumentType)
+                                       .append ("count", m_aMap.size ())
+                                       .toString ();
+  }
+}
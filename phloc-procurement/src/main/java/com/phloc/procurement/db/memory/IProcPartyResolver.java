@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db.memory;
+
+import javax.annotation.Nullable;
+
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Resolves the parties referenced by ID when reading a snapshot of an in-memory
+ * manager.
+ *
+ * @author Philip Helger
+ */
+public interface IProcPartyResolver
+{
+  /**
+   * @param nCustomerID
+   *        The ID of the customer to resolve.
+   * @return <code>null</code> if no such customer exists.
+   */
+  @Nullable
+  ProcCustomer getCustomerOfID (int nCustomerID);
+
+  /**
+   * @param nSupplierID
+   *        The ID of the supplier to resolve.
+   * @return <code>null</code> if no such supplier exists.
+   */
+  @Nullable
+  ProcSupplier getSupplierOfID (int nSupplierID);
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db.memory;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.procurement.db.IProcInvoiceIncomingManager;
+import com.phloc.procurement.db.ProcDocumentArchiveSerializer;
+import com.phloc.procurement.db.ProcDocumentHeader;
+import com.phloc.procurement.db.ProcKeysetPage;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.invoice.ProcInvoice;
+import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+import com.phloc.procurement.party.IProcParty;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * In-memory implementation of {@link IProcInvoiceIncomingManager} for tests and embedded
+ * deployments without a database.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ProcInvoiceIncomingInMemoryManager extends AbstractProcInMemoryDocumentManager <ProcInvoiceIncoming> implements IProcInvoiceIncomingManager
+{
+  public ProcInvoiceIncomingInMemoryManager ()
+  {
+    super (EProcDocumentType.INVOICE_INCOMING);
+  }
+
+  @Override
+  protected boolean isDeleted (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return aInvoice.getInvoice () != null && aInvoice.getInvoice ().isDeleted ();
+  }
+
+  @Override
+  protected void setDeleted (@Nonnull final ProcInvoiceIncoming aInvoice, final boolean bDeleted)
+  {
+    aInvoice.getInvoice ().setDeleted (bDeleted);
+  }
+
+  @Override
+  protected void setState (@Nonnull final ProcInvoiceIncoming aInvoice, @Nonnull final EProcState eState)
+  {
+    aInvoice.setState (eState);
+  }
+
+  @Override
+  @Nonnull
+  protected ProcDocumentHeader createHeader (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    final ProcInvoice aInvoiceData = aInvoice.getInvoice ();
+    final IProcParty aParty = aInvoice.getSupplier ();
+    return new ProcDocumentHeader (aInvoice.getID (),
+                                   aInvoiceData == null ? null : aInvoiceData.getInvoiceNumber (),
+                                   aInvoiceData == null ? null : aInvoiceData.getIssueDate (),
+                                   aParty == null ? null : aParty.getName (),
+                                   aInvoice.getState (),
+                                   aInvoiceData == null ? null : aInvoiceData.getTotalCurrencyID (),
+                                   aInvoiceData == null ? null : aInvoiceData.getTotalGrossValue ());
+  }
+
+  @Override
+  @Nonnull
+  protected IMicroElement writeSnapshotElement (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return ProcDocumentArchiveSerializer.writeInvoiceIncoming (aInvoice);
+  }
+
+  @Override
+  @Nonnull
+  protected ProcInvoiceIncoming readSnapshotElement (@Nonnull final IMicroElement eElement,
+                                                     @Nullable final IProcPartyResolver aPartyResolver)
+  {
+    final int nPartyID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcSupplier aSupplier = aPartyResolver == null || nPartyID < 0 ? null : aPartyResolver.getSupplierOfID (nPartyID);
+    return ProcDocumentArchiveSerializer.readInvoiceIncoming (eElement, aSupplier);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator saveInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return saveDocument (aInvoice);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator deleteInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return setDocumentDeleted (aInvoice, true);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator undeleteInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return setDocumentDeleted (aInvoice, false);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator acceptInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return changeDocumentState (aInvoice, EProcState.ACCEPTED);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator rejectInvoice (@Nonnull final ProcInvoiceIncoming aInvoice)
+  {
+    return changeDocumentState (aInvoice, EProcState.REJECTED);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator changeInvoiceState (@Nonnull final ProcInvoiceIncoming aInvoice, @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentState (aInvoice, eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> acceptInvoices (@Nonnull final Collection <Integer> aInvoiceIDs)
+  {
+    return changeDocumentsState (aInvoiceIDs, EnumSet.of (EProcState.RECEIVED), EProcState.ACCEPTED);
+  }
+
+  @Nonnull
+  public final List <Integer> rejectInvoices (@Nonnull final Collection <Integer> aInvoiceIDs)
+  {
+    return changeDocumentsState (aInvoiceIDs, EnumSet.of (EProcState.RECEIVED), EProcState.REJECTED);
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentsState (aInvoiceIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeInvoicesState (@Nonnull final Collection <Integer> aInvoiceIDs,
+                                                   @Nonnull final Collection <EProcState> aExpectedStates,
+                                                   @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentsState (aInvoiceIDs, aExpectedStates, eNewState);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoices ()
+  {
+    return getAllInvoices (null);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoices (@Nullable final EProcState eState)
+  {
+    return getAllDocuments (false, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders ()
+  {
+    return getAllInvoiceHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeaders (@Nullable final EProcState eState)
+  {
+    return getAllDocumentHeaders (eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getInvoicesPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcInvoiceIncoming> getInvoicesPage (@Nullable final EProcState eState,
+                                                                     final int nClient,
+                                                                     final int nAfterID,
+                                                                     @Nonnegative final int nPageSize)
+  {
+    return getDocumentsPage (eState, nClient, nAfterID, nPageSize);
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoices (@Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    return iterateAllInvoices (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoices (@Nullable final EProcState eState,
+                                       @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    return iterateDocuments (eState, CGlobal.ILLEGAL_UINT, aCallback);
+  }
+
+  @Nonnegative
+  public final long getCountAllInvoices ()
+  {
+    return getCountAllInvoices (null);
+  }
+
+  @Nonnegative
+  public final long getCountAllInvoices (@Nullable final EProcState eState)
+  {
+    return getDocumentCount (false, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllDeletedInvoices ()
+  {
+    return getAllDeletedInvoices (null);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllDeletedInvoices (@Nullable final EProcState eState)
+  {
+    return getAllDocuments (true, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedInvoices ()
+  {
+    return getCountAllDeletedInvoices (null);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedInvoices (@Nullable final EProcState eState)
+  {
+    return getDocumentCount (true, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnegative
+  public final long getCountOfNewInvoices ()
+  {
+    return getCountAllInvoices (EProcState.RECEIVED);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocuments (false, eState, nClient);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllInvoiceHeadersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocumentHeaders (eState, nClient);
+  }
+
+  @Nonnegative
+  public final int iterateAllInvoicesOfClient (@Nonnegative final int nClient,
+                                               @Nullable final EProcState eState,
+                                               @Nonnull final INonThrowingRunnableWithParameter <? super ProcInvoiceIncoming> aCallback)
+  {
+    checkClient (nClient);
+    return iterateDocuments (eState, nClient, aCallback);
+  }
+
+  @Nonnegative
+  public final long getCountAllInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getDocumentCount (false, eState, nClient);
+  }
+
+  @Nonnull
+  public final List <ProcInvoiceIncoming> getAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocuments (true, eState, nClient);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedInvoicesOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getDocumentCount (true, eState, nClient);
+  }
+
+  @Nonnegative
+  public final long getCountOfNewInvoicesOfClient (@Nonnegative final int nClient)
+  {
+    return getCountAllInvoicesOfClient (nClient, EProcState.RECEIVED);
+  }
+
+  @Nullable
+  public final ProcInvoiceIncoming getActiveInvoiceOfID (final int nInvoiceID)
+  {
+    return getActiveDocumentOfID (nInvoiceID);
+  }
+
+  @Nullable
+  public final ProcInvoiceIncoming getAnyInvoiceOfID (final int nInvoiceID)
+  {
+    return getAnyDocumentOfID (nInvoiceID);
+  }
+}
@@ -0,0 +1,318 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db.memory;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.phloc.commons.CGlobal;
+import com.phloc.commons.callback.INonThrowingRunnableWithParameter;
+import com.phloc.commons.filter.IFilter;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.commons.string.StringHelper;
+import com.phloc.procurement.db.IProcOrderOutgoingManager;
+import com.phloc.procurement.db.ProcDocumentArchiveSerializer;
+import com.phloc.procurement.db.ProcDocumentHeader;
+import com.phloc.procurement.db.ProcKeysetPage;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.order.ProcOrder;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+import com.phloc.procurement.party.IProcParty;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * In-memory implementation of {@link IProcOrderOutgoingManager} for tests and embedded
+ * deployments without a database.
+ *
+ * @author Philip Helger
+ */
+@ThreadSafe
+public class ProcOrderOutgoingInMemoryManager extends AbstractProcInMemoryDocumentManager <ProcOrderOutgoing> implements IProcOrderOutgoingManager
+{
+  public ProcOrderOutgoingInMemoryManager ()
+  {
+    super (EProcDocumentType.ORDER_OUTGOING);
+  }
+
+  @Override
+  protected boolean isDeleted (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    return aOrder.getOrder () != null && aOrder.getOrder ().isDeleted ();
+  }
+
+  @Override
+  protected void setDeleted (@Nonnull final ProcOrderOutgoing aOrder, final boolean bDeleted)
+  {
+    aOrder.getOrder ().setDeleted (bDeleted);
+  }
+
+  @Override
+  protected void setState (@Nonnull final ProcOrderOutgoing aOrder, @Nonnull final EProcState eState)
+  {
+    aOrder.setState (eState);
+  }
+
+  @Override
+  @Nonnull
+  protected ProcDocumentHeader createHeader (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    final ProcOrder aOrderData = aOrder.getOrder ();
+    final IProcParty aParty = aOrder.getSupplier ();
+    return new ProcDocumentHeader (aOrder.getID (),
+                                   aOrderData == null ? null : aOrderData.getOrderNumber (),
+                                   aOrderData == null ? null : aOrderData.getIssueDate (),
+                                   aParty == null ? null : aParty.getName (),
+                                   aOrder.getState (),
+                                   aOrderData == null ? null : aOrderData.getTotalCurrencyID (),
+                                   aOrderData == null ? null : aOrderData.getTotalGrossValue ());
+  }
+
+  @Override
+  @Nonnull
+  protected IMicroElement writeSnapshotElement (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    return ProcDocumentArchiveSerializer.writeOrderOutgoing (aOrder);
+  }
+
+  @Override
+  @Nonnull
+  protected ProcOrderOutgoing readSnapshotElement (@Nonnull final IMicroElement eElement,
+                                                   @Nullable final IProcPartyResolver aPartyResolver)
+  {
+    final int nPartyID = ProcDocumentArchiveSerializer.getPartyID (eElement);
+    final ProcSupplier aSupplier = aPartyResolver == null || nPartyID < 0 ? null : aPartyResolver.getSupplierOfID (nPartyID);
+    return ProcDocumentArchiveSerializer.readOrderOutgoing (eElement, aSupplier);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator saveOrder (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    return saveDocument (aOrder);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator deleteOrder (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    return setDocumentDeleted (aOrder, true);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator undeleteOrder (@Nonnull final ProcOrderOutgoing aOrder)
+  {
+    return setDocumentDeleted (aOrder, false);
+  }
+
+  @Nonnull
+  public final ISuccessIndicator changeOrderState (@Nonnull final ProcOrderOutgoing aOrder, @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentState (aOrder, eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs, @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentsState (aOrderIDs, EProcState.getAllEditAllowedStates (), eNewState);
+  }
+
+  @Nonnull
+  public final List <Integer> changeOrdersState (@Nonnull final Collection <Integer> aOrderIDs,
+                                                 @Nonnull final Collection <EProcState> aExpectedStates,
+                                                 @Nonnull final EProcState eNewState)
+  {
+    return changeDocumentsState (aOrderIDs, aExpectedStates, eNewState);
+  }
+
+  @Nullable
+  private ProcOrderOutgoing _getActiveOrderOfOrderNumber (final int nClient, @Nullable final String sOrderNumber)
+  {
+    if (StringHelper.hasNoText (sOrderNumber))
+      return null;
+
+    return findFirstActiveDocument (nClient, new IFilter <ProcOrderOutgoing> ()
+    {
+      public boolean matchesFilter (final ProcOrderOutgoing aOrder)
+      {
+        return aOrder.getOrder () != null && sOrderNumber.equals (aOrder.getOrder ().getOrderNumber ());
+      }
+    });
+  }
+
+  @Nullable
+  public final ProcOrderOutgoing getActiveOrderOfOrderNumber (@Nullable final String sOrderNumber)
+  {
+    return _getActiveOrderOfOrderNumber (CGlobal.ILLEGAL_UINT, sOrderNumber);
+  }
+
+  @Nullable
+  public final ProcOrderOutgoing getActiveOrderOfOrderNumber (@Nonnegative final int nClient, @Nullable final String sOrderNumber)
+  {
+    checkClient (nClient);
+    return _getActiveOrderOfOrderNumber (nClient, sOrderNumber);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrders ()
+  {
+    return getAllOrders (null);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrders (@Nullable final EProcState eState)
+  {
+    return getAllDocuments (false, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders ()
+  {
+    return getAllOrderHeaders (null);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeaders (@Nullable final EProcState eState)
+  {
+    return getAllDocumentHeaders (eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderOutgoing> getOrdersPage (final int nAfterID, @Nonnegative final int nPageSize)
+  {
+    return getOrdersPage (null, CGlobal.ILLEGAL_UINT, nAfterID, nPageSize);
+  }
+
+  @Nonnull
+  public final ProcKeysetPage <ProcOrderOutgoing> getOrdersPage (@Nullable final EProcState eState,
+                                                                 final int nClient,
+                                                                 final int nAfterID,
+                                                                 @Nonnegative final int nPageSize)
+  {
+    return getDocumentsPage (eState, nClient, nAfterID, nPageSize);
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    return iterateAllOrders (null, aCallback);
+  }
+
+  @Nonnegative
+  public final int iterateAllOrders (@Nullable final EProcState eState,
+                                     @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    return iterateDocuments (eState, CGlobal.ILLEGAL_UINT, aCallback);
+  }
+
+  @Nonnegative
+  public final long getCountAllOrders ()
+  {
+    return getCountAllOrders (null);
+  }
+
+  @Nonnegative
+  public final long getCountAllOrders (@Nullable final EProcState eState)
+  {
+    return getDocumentCount (false, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllDeletedOrders ()
+  {
+    return getAllDeletedOrders (null);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllDeletedOrders (@Nullable final EProcState eState)
+  {
+    return getAllDocuments (true, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedOrders ()
+  {
+    return getCountAllDeletedOrders (null);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedOrders (@Nullable final EProcState eState)
+  {
+    return getDocumentCount (true, eState, CGlobal.ILLEGAL_UINT);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocuments (false, eState, nClient);
+  }
+
+  @Nonnull
+  public final List <ProcDocumentHeader> getAllOrderHeadersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocumentHeaders (eState, nClient);
+  }
+
+  @Nonnegative
+  public final int iterateAllOrdersOfClient (@Nonnegative final int nClient,
+                                             @Nullable final EProcState eState,
+                                             @Nonnull final INonThrowingRunnableWithParameter <? super ProcOrderOutgoing> aCallback)
+  {
+    checkClient (nClient);
+    return iterateDocuments (eState, nClient, aCallback);
+  }
+
+  @Nonnegative
+  public final long getCountAllOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getDocumentCount (false, eState, nClient);
+  }
+
+  @Nonnull
+  public final List <ProcOrderOutgoing> getAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getAllDocuments (true, eState, nClient);
+  }
+
+  @Nonnegative
+  public final long getCountAllDeletedOrdersOfClient (@Nonnegative final int nClient, @Nullable final EProcState eState)
+  {
+    checkClient (nClient);
+    return getDocumentCount (true, eState, nClient);
+  }
+
+  @Nullable
+  public final ProcOrderOutgoing getActiveOrderOfID (final int nOrderID)
+  {
+    return getActiveDocumentOfID (nOrderID);
+  }
+
+  @Nullable
+  public final ProcOrderOutgoing getAnyOrderOfID (final int nOrderID)
+  {
+    return getAnyDocumentOfID (nOrderID);
+  }
+}
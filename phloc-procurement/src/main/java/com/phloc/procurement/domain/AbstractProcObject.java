@@ -23,6 +23,7 @@ import javax.persistence.Column;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.Version;
 
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.string.ToStringGenerator;
@@ -37,8 +38,10 @@ import com.phloc.commons.string.ToStringGenerator;
 public abstract class AbstractProcObject implements IProcObject
 {
   public static final String FIELD_ID = "id";
+  public static final String FIELD_VERSION = "version";
 
   private int m_nID;
+  private int m_nVersion;
 
   /**
    * @return Get the ID of this object. This ID is the primary ID column in the
@@ -57,6 +60,22 @@ public abstract class AbstractProcObject implements IProcObject
     m_nID = nID;
   }
 
+  /**
+   * @return The version of this object used for optimistic locking. It is
+   *         incremented by the persistence provider with every update.
+   */
+  @Column (name = FIELD_VERSION)
+  @Version
+  public final int getVersion ()
+  {
+    return m_nVersion;
+  }
+
+  public final void setVersion (final int nVersion)
+  {
+    m_nVersion = nVersion;
+  }
+
   @Override
   public boolean equals (final Object o)
   {
@@ -77,6 +96,6 @@ public abstract class AbstractProcObject implements IProcObject
   @Override
   public String toString ()
   {
-    return new ToStringGenerator (this).append ("id", m_nID).toString ();
+    return new ToStringGenerator (this).append ("id", m_nID).append ("version", m_nVersion).toString ();
   }
 }
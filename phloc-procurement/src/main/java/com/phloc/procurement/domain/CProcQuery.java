@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.phloc.commons.annotations.Nonempty;
+
+/**
+ * Naming scheme of the named queries declared on the entities. Each optional
+ * restriction of a query is declared as a separate named query, whose name is
+ * the base name plus the suffixes of the contained restrictions in the order
+ * state, client.
+ *
+ * @author Philip Helger
+ */
+@Immutable
+public final class CProcQuery
+{
+  /** Suffix for queries restricted to a state (parameter "state") */
+  public static final String SUFFIX_STATE = ".state";
+  /** Suffix for queries restricted to a client (parameter "client") */
+  public static final String SUFFIX_CLIENT = ".client";
+
+  private CProcQuery ()
+  {
+    // never instantiate
+  }
+
+  @Nonnull
+  @Nonempty
+  public static String getQueryName (@Nonnull @Nonempty final String sBaseName,
+                                     final boolean bWithState,
+                                     final boolean bWithClient)
+  {
+    String ret = sBaseName;
+    if (bWithState)
+      ret += SUFFIX_STATE;
+    if (bWithClient)
+      ret += SUFFIX_CLIENT;
+    return ret;
+  }
+}
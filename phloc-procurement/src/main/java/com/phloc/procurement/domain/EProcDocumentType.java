@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.domain;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.id.IHasID;
+import com.phloc.commons.lang.EnumHelper;
+import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+import com.phloc.procurement.invoice.ProcInvoiceOutgoing;
+import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+
+/**
+ * Contains the different kinds of business documents, each with the name of
+ * the JPQL attribute referencing the deletable document and the optional name
+ * of a date attribute to be used if a document has no issue date.
+ *
+ * @author Philip Helger
+ */
+public enum EProcDocumentType implements IHasID <String>
+{
+  ORDER_INCOMING ("orderin", ProcOrderIncoming.class, "order", "receiveDateTime"),
+  ORDER_OUTGOING ("orderout", ProcOrderOutgoing.class, "order", null),
+  INVOICE_INCOMING ("invoicein", ProcInvoiceIncoming.class, "invoice", "receiveDateTime"),
+  INVOICE_OUTGOING ("invoiceout", ProcInvoiceOutgoing.class, "invoice", null);
+
+  private final String m_sID;
+  private final Class <? extends IProcObjectWithState> m_aImplClass;
+  private final String m_sDocumentAttribute;
+  private final String m_sFallbackDateAttribute;
+
+  private EProcDocumentType (@Nonnull @Nonempty final String sID,
+                             @Nonnull final Class <? extends IProcObjectWithState> aImplClass,
+                             @Nonnull @Nonempty final String sDocumentAttribute,
+                             @Nullable final String sFallbackDateAttribute)
+  {
+    m_sID = sID;
+    m_aImplClass = aImplClass;
+    m_sDocumentAttribute = sDocumentAttribute;
+    m_sFallbackDateAttribute = sFallbackDateAttribute;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nonnull
+  public Class <? extends IProcObjectWithState> getImplClass ()
+  {
+    return m_aImplClass;
+  }
+
+  /**
+   * @return The JPA entity name to be used in JPQL queries.
+   */
+  @Nonnull
+  @Nonempty
+  public String getEntityName ()
+  {
+    return m_aImplClass.getSimpleName ();
+  }
+
+  /**
+   * @return The name of the attribute referencing the deletable order or
+   *         invoice.
+   */
+  @Nonnull
+  @Nonempty
+  public String getDocumentAttribute ()
+  {
+    return m_sDocumentAttribute;
+  }
+
+  /**
+   * @return The name of the {@link org.joda.time.DateTime} attribute of the
+   *         entity to be used instead of the issue date, if the document has no
+   *         issue date. May be <code>null</code> if there is no such attribute.
+   */
+  @Nullable
+  public String getFallbackDateAttribute ()
+  {
+    return m_sFallbackDateAttribute;
+  }
+
+  @Nullable
+  public static EProcDocumentType getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EProcDocumentType.class, sID);
+  }
+}
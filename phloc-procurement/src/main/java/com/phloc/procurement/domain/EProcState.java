@@ -17,12 +17,15 @@
  */
 package com.phloc.procurement.domain;
 
+import java.util.EnumSet;
 import java.util.Locale;
+import java.util.Set;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.id.IHasID;
 import com.phloc.commons.lang.EnumHelper;
 import com.phloc.commons.name.IHasDisplayText;
@@ -84,6 +87,21 @@ public enum EProcState implements IHasID <String>, IHasDisplayText
     return m_bIsEditAllowed;
   }
 
+  /**
+   * @return All states in which the document may still be edited. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static Set <EProcState> getAllEditAllowedStates ()
+  {
+    final Set <EProcState> ret = EnumSet.noneOf (EProcState.class);
+    for (final EProcState eState : values ())
+      if (eState.isEditAllowed ())
+        ret.add (eState);
+    return ret;
+  }
+
   @Nullable
   public static EProcState getFromIDOrNull (@Nullable final String sID)
   {
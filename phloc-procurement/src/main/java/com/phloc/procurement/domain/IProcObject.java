@@ -31,4 +31,9 @@ public interface IProcObject extends IHasSimpleIntID
    *         database.
    */
   int getID ();
+
+  /**
+   * @return The version of this object used for optimistic locking.
+   */
+  int getVersion ();
 }
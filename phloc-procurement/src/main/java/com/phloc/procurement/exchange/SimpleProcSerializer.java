@@ -17,17 +17,18 @@
  */
 package com.phloc.procurement.exchange;
 
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 
 import org.joda.time.LocalDate;
 
 import com.phloc.commons.CGlobal;
-import com.phloc.commons.base64.Base64Helper;
 import com.phloc.commons.idfactory.GlobalIDFactory;
 import com.phloc.commons.microdom.IMicroElement;
 import com.phloc.commons.microdom.convert.MicroTypeConverter;
@@ -35,6 +36,7 @@ import com.phloc.commons.microdom.impl.MicroElement;
 import com.phloc.commons.microdom.utils.MicroUtils;
 import com.phloc.commons.mime.IMimeType;
 import com.phloc.commons.mime.MimeTypeParser;
+import com.phloc.commons.string.StringHelper;
 import com.phloc.commons.string.StringParser;
 import com.phloc.masterdata.price.ReadonlyPrice;
 import com.phloc.masterdata.tax.ETaxCategoryUN5305;
@@ -42,7 +44,7 @@ import com.phloc.masterdata.trade.EIncoterm;
 import com.phloc.procurement.attachment.IProcAttachment;
 import com.phloc.procurement.attachment.ProcAttachmentManager;
 import com.phloc.procurement.attachment.ProcAttachmentManagerFactory;
-import com.phloc.procurement.attachment.ProcInMemoryAttachment;
+import com.phloc.procurement.attachment.ProcBase64Attachment;
 import com.phloc.procurement.codelist.ECommodityScheme;
 import com.phloc.procurement.domain.AbstractProcDeletableObject;
 import com.phloc.procurement.domain.AbstractProcObject;
@@ -85,6 +87,7 @@ public final class SimpleProcSerializer
   public static final String ELEMENT_SUPPLIER = "supplier";
   public static final String ELEMENT_ORDER = "order";
   public static final String ELEMENT_INVOICE = "invoice";
+  public static final String ELEMENT_ATTACHMENT_LINK = "attachmentlink";
 
   private SimpleProcSerializer ()
   {}
@@ -178,6 +181,49 @@ public final class SimpleProcSerializer
     aParty.setIBAN (MicroUtils.getChildTextContent (eElement, "iban"));
   }
 
+  private static void _writeAttachmentLink (@Nonnull final IProcObject aLink,
+                                            @Nullable final String sAttachmentID,
+                                            @Nonnull final IMicroElement aElement)
+  {
+    final IMicroElement eLink = aElement.appendElement (ELEMENT_ATTACHMENT_LINK);
+    _writeObject (aLink, eLink);
+    eLink.setAttribute ("attachmentid", sAttachmentID);
+  }
+
+  /**
+   * A writer that appends each written chunk as a separate text node, so that
+   * the encoded attachment data is never copied into one big string.
+   */
+  private static final class MicroTextWriter extends Writer
+  {
+    private final IMicroElement m_aElement;
+
+    MicroTextWriter (@Nonnull final IMicroElement aElement)
+    {
+      m_aElement = aElement;
+    }
+
+    @Override
+    public void write (final char [] aBuf, final int nOfs, final int nLen)
+    {
+      m_aElement.appendText (aBuf, nOfs, nLen);
+    }
+
+    @Override
+    public void write (final String sStr)
+    {
+      m_aElement.appendText (sStr);
+    }
+
+    @Override
+    public void flush ()
+    {}
+
+    @Override
+    public void close ()
+    {}
+  }
+
   private static void _writeAttachment (@Nonnull final IProcAttachment aAttachment,
                                         @Nonnull final IMicroElement aElement)
   {
@@ -185,7 +231,9 @@ public final class SimpleProcSerializer
     eAttachment.setAttribute ("title", aAttachment.getTitle ());
     if (aAttachment.getMIMEType () != null)
       eAttachment.setAttribute ("mimetype", aAttachment.getMIMEType ().getAsString ());
-    eAttachment.appendText (aAttachment.getBase64Encoded ());
+    // Stream the data chunk by chunk instead of encoding it as a whole
+    if (aAttachment.writeBase64Encoded (new MicroTextWriter (eAttachment)).isFailure ())
+      throw new IllegalStateException ("Failed to read the data of " + aAttachment);
   }
 
   @Nonnull
@@ -193,8 +241,11 @@ public final class SimpleProcSerializer
   {
     final String sTitle = eAttachment.getAttribute ("title");
     final IMimeType aMIMEType = MimeTypeParser.parseMimeType (eAttachment.getAttribute ("mimetype"));
-    final byte [] aData = Base64Helper.safeDecode (eAttachment.getTextContent ());
-    return new ProcInMemoryAttachment (GlobalIDFactory.getNewPersistentStringID (), sTitle, aMIMEType, aData);
+    // The data is decoded while the attachment is stored
+    return new ProcBase64Attachment (GlobalIDFactory.getNewPersistentStringID (),
+                                     sTitle,
+                                     aMIMEType,
+                                     StringHelper.getNotNull (eAttachment.getTextContent ()));
   }
 
   @Nonnull
@@ -290,6 +341,23 @@ public final class SimpleProcSerializer
 
   @Nonnull
   public static IMicroElement writeOrder (@Nonnull final IProcOrder aOrder)
+  {
+    return writeOrder (aOrder, true);
+  }
+
+  /**
+   * Write the passed order.
+   *
+   * @param aOrder
+   *        The order to write. May not be <code>null</code>.
+   * @param bEmbedAttachments
+   *        <code>true</code> to embed the content of all attachments,
+   *        <code>false</code> to only write the links to the attachments that
+   *        remain in the attachment storage.
+   * @return The created element. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IMicroElement writeOrder (@Nonnull final IProcOrder aOrder, final boolean bEmbedAttachments)
   {
     final IMicroElement eElement = new MicroElement (ELEMENT_ORDER);
     _writeDeletableObject (aOrder, eElement);
@@ -324,14 +392,23 @@ public final class SimpleProcSerializer
     final List <? extends IProcOrderAttachment> aAttachments = aOrder.getAttachments ();
     if (aAttachments != null)
     {
-      // Get the attachment manager for resolving
-      final ProcAttachmentManager aAttachmentMgr = ProcAttachmentManagerFactory.getAttachmentManager ();
-      for (final IProcOrderAttachment aOrderAttachment : aAttachments)
+      if (bEmbedAttachments)
       {
-        final String sAttachmentID = aOrderAttachment.getAttachmentID ();
-        final IProcAttachment aAttachment = aAttachmentMgr.getAttachmentOfID (sAttachmentID);
-        if (aAttachment != null)
-          _writeAttachment (aAttachment, eElement);
+        // Get the attachment manager for resolving
+        final ProcAttachmentManager aAttachmentMgr = ProcAttachmentManagerFactory.getAttachmentManager ();
+        for (final IProcOrderAttachment aOrderAttachment : aAttachments)
+        {
+          final String sAttachmentID = aOrderAttachment.getAttachmentID ();
+          final IProcAttachment aAttachment = aAttachmentMgr.getAttachmentOfID (sAttachmentID);
+          if (aAttachment != null)
+            _writeAttachment (aAttachment, eElement);
+        }
+      }
+      else
+      {
+        // Only reference the attachments
+        for (final IProcOrderAttachment aOrderAttachment : aAttachments)
+          _writeAttachmentLink (aOrderAttachment, aOrderAttachment.getAttachmentID (), eElement);
       }
     }
     return eElement;
@@ -380,12 +457,36 @@ public final class SimpleProcSerializer
       final IProcAttachment aAttachment = aHandler.handleReadAttachment (_readAttachment (eAttachment));
       aAttachments.add (new ProcOrderAttachment (aOrder, aAttachment));
     }
+    for (final IMicroElement eLink : eElement.getAllChildElements (ELEMENT_ATTACHMENT_LINK))
+    {
+      final ProcOrderAttachment aOrderAttachment = new ProcOrderAttachment (aOrder);
+      _readObject (aOrderAttachment, eLink, bReadID);
+      aOrderAttachment.setAttachmentID (eLink.getAttribute ("attachmentid"));
+      aAttachments.add (aOrderAttachment);
+    }
     aOrder.setAttachments (aAttachments);
     return aOrder;
   }
 
   @Nonnull
   public static IMicroElement writeInvoice (@Nonnull final IProcInvoice aInvoice)
+  {
+    return writeInvoice (aInvoice, true);
+  }
+
+  /**
+   * Write the passed invoice.
+   *
+   * @param aInvoice
+   *        The invoice to write. May not be <code>null</code>.
+   * @param bEmbedAttachments
+   *        <code>true</code> to embed the content of all attachments,
+   *        <code>false</code> to only write the links to the attachments that
+   *        remain in the attachment storage.
+   * @return The created element. Never <code>null</code>.
+   */
+  @Nonnull
+  public static IMicroElement writeInvoice (@Nonnull final IProcInvoice aInvoice, final boolean bEmbedAttachments)
   {
     final IMicroElement eElement = new MicroElement (ELEMENT_INVOICE);
     _writeDeletableObject (aInvoice, eElement);
@@ -422,14 +523,23 @@ public final class SimpleProcSerializer
     final List <? extends IProcInvoiceAttachment> aAttachments = aInvoice.getAttachments ();
     if (aAttachments != null)
     {
-      // Get the attachment manager for resolving
-      final ProcAttachmentManager aAttachmentMgr = ProcAttachmentManagerFactory.getAttachmentManager ();
-      for (final IProcInvoiceAttachment aInvoiceAttachment : aAttachments)
+      if (bEmbedAttachments)
       {
-        final String sAttachmentID = aInvoiceAttachment.getAttachmentID ();
-        final IProcAttachment aAttachment = aAttachmentMgr.getAttachmentOfID (sAttachmentID);
-        if (aAttachment != null)
-          _writeAttachment (aAttachment, eElement);
+        // Get the attachment manager for resolving
+        final ProcAttachmentManager aAttachmentMgr = ProcAttachmentManagerFactory.getAttachmentManager ();
+        for (final IProcInvoiceAttachment aInvoiceAttachment : aAttachments)
+        {
+          final String sAttachmentID = aInvoiceAttachment.getAttachmentID ();
+          final IProcAttachment aAttachment = aAttachmentMgr.getAttachmentOfID (sAttachmentID);
+          if (aAttachment != null)
+            _writeAttachment (aAttachment, eElement);
+        }
+      }
+      else
+      {
+        // Only reference the attachments
+        for (final IProcInvoiceAttachment aInvoiceAttachment : aAttachments)
+          _writeAttachmentLink (aInvoiceAttachment, aInvoiceAttachment.getAttachmentID (), eElement);
       }
     }
     return eElement;
@@ -480,6 +590,14 @@ public final class SimpleProcSerializer
       // Link the attachment to the invoice
       aAttachments.add (new ProcInvoiceAttachment (aInvoice, aAttachment));
     }
+    for (final IMicroElement eLink : eElement.getAllChildElements (ELEMENT_ATTACHMENT_LINK))
+    {
+      // Link to an attachment that is already in the attachment storage
+      final ProcInvoiceAttachment aInvoiceAttachment = new ProcInvoiceAttachment (aInvoice);
+      _readObject (aInvoiceAttachment, eLink, bReadID);
+      aInvoiceAttachment.setAttachmentID (eLink.getAttribute ("attachmentid"));
+      aAttachments.add (aInvoiceAttachment);
+    }
     aInvoice.setAttachments (aAttachments);
     return aInvoice;
   }
@@ -17,6 +17,7 @@
  */
 package com.phloc.procurement.invoice;
 
+import java.math.BigDecimal;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -30,13 +31,18 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 
 import org.eclipse.persistence.annotations.Convert;
 import org.eclipse.persistence.annotations.Converter;
 import org.eclipse.persistence.annotations.Index;
+import org.eclipse.persistence.indirection.IndirectContainer;
 import org.joda.time.LocalDate;
 
+import com.phloc.commons.annotations.DevelopersNote;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.annotations.ReturnsMutableObject;
 import com.phloc.commons.collections.ContainerHelper;
@@ -47,6 +53,7 @@ import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.db.jpa.eclipselink.converter.JPAJodaLocalDateConverter;
 import com.phloc.masterdata.MasterdataUtils;
 import com.phloc.masterdata.currency.CurrencyValue;
+import com.phloc.masterdata.currency.ECurrency;
 import com.phloc.masterdata.currency.ICurrencyValue;
 import com.phloc.masterdata.currency.IReadonlyCurrencyValue;
 import com.phloc.masterdata.currency.ReadonlyCurrencyValue;
@@ -66,6 +73,10 @@ public final class ProcInvoice extends AbstractProcDeletableObject implements IP
   public static final int LENGTH_INVOICENOTE = CProcLengthConstraints.LENGTH_TEXT_LONG;
   public static final String FIELD_INVOICE_LINES = "invoicelines";
   public static final String FIELD_ATTACHMENTS = "attachments";
+  public static final String FIELD_TOTALCURRENCY = "totalcurrency";
+  public static final String FIELD_TOTALNET = "totalnet";
+  public static final String FIELD_TOTALGROSS = "totalgross";
+  public static final String FIELD_TOTALTAX = "totaltax";
 
   /** The issue date */
   private LocalDate m_aIssueDate;
@@ -82,6 +93,18 @@ public final class ProcInvoice extends AbstractProcDeletableObject implements IP
   /** The optional attachments */
   private List <ProcInvoiceAttachment> m_aAttachments;
 
+  /** The totals of all invoice lines, derived from the invoice lines */
+  private String m_sTotalCurrencyID;
+  private BigDecimal m_aTotalNetValue;
+  private BigDecimal m_aTotalGrossValue;
+  private BigDecimal m_aTotalTaxValue;
+
+  // Status vars
+  private IReadonlyCurrencyValue m_aTotalNetAmount;
+  private IReadonlyCurrencyValue m_aTotalGrossAmount;
+  private IReadonlyCurrencyValue m_aTotalTaxAmount;
+  private boolean m_bTotalAmountsAvailable = false;
+
   @Column (name = FIELD_ISSUEDATE)
   @Convert ("joda-localdate")
   @Nullable
@@ -150,6 +173,7 @@ public final class ProcInvoice extends AbstractProcDeletableObject implements IP
     if (EqualsUtils.equals (m_aInvoiceLines, aRealInvoiceLines))
       return EChange.UNCHANGED;
     m_aInvoiceLines = aRealInvoiceLines;
+    _resetTotalAmounts ();
     return EChange.CHANGED;
   }
 
@@ -214,34 +238,204 @@ public final class ProcInvoice extends AbstractProcDeletableObject implements IP
     return aBaseValue.getAdded (aAddValue.getValue ());
   }
 
+  private boolean _areLinesAvailable ()
+  {
+    // Don't trigger the lazy loading of the invoice lines
+    if (m_aInvoiceLines instanceof IndirectContainer)
+      return ((IndirectContainer) m_aInvoiceLines).isInstantiated ();
+    return true;
+  }
+
+  /**
+   * Calculate the transient total amounts from the current invoice lines.
+   */
+  private void _calculateTotalAmounts ()
+  {
+    ICurrencyValue aNet = null;
+    ICurrencyValue aGross = null;
+    ICurrencyValue aTax = null;
+    if (m_aInvoiceLines != null)
+      for (final IProcInvoiceLine aLine : m_aInvoiceLines)
+        if (aLine.getUnitPrice () != null && aLine.getQuantity () >= 0)
+        {
+          aNet = _addOrCreate (aNet, aLine.getTotalNetAmount ());
+          aGross = _addOrCreate (aGross, aLine.getTotalGrossAmount ());
+          aTax = _addOrCreate (aTax, aLine.getTotalTaxAmount ());
+        }
+    m_aTotalNetAmount = aNet == null ? null : new ReadonlyCurrencyValue (aNet);
+    m_aTotalGrossAmount = aGross == null ? null : new ReadonlyCurrencyValue (aGross);
+    m_aTotalTaxAmount = aTax == null ? null : new ReadonlyCurrencyValue (aTax);
+    m_bTotalAmountsAvailable = true;
+  }
+
+  private void _ensureTotalAmounts ()
+  {
+    if (m_bTotalAmountsAvailable)
+      return;
+    if (m_sTotalCurrencyID == null || _areLinesAvailable ())
+    {
+      // Either the invoice lines are present anyway or no totals were persisted
+      // (e.g. for rows stored before the totals columns existed)
+      _calculateTotalAmounts ();
+    }
+    else
+    {
+      m_aTotalNetAmount = _createTotalAmount (m_aTotalNetValue);
+      m_aTotalGrossAmount = _createTotalAmount (m_aTotalGrossValue);
+      m_aTotalTaxAmount = _createTotalAmount (m_aTotalTaxValue);
+      m_bTotalAmountsAvailable = true;
+    }
+  }
+
+  /**
+   * Recalculate the persisted totals from the current invoice lines. This happens
+   * automatically before the object is saved and when the quantity or the unit
+   * price of a loaded line changes. It only needs to be called explicitly after
+   * lines were added to or removed from the list returned by the getter, or if
+   * the persisted values are needed before saving.
+   *
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange recalculateTotals ()
+  {
+    _calculateTotalAmounts ();
+    final String sCurrencyID = m_aTotalNetAmount == null ? null : m_aTotalNetAmount.getCurrency ().getID ();
+    final BigDecimal aNetValue = m_aTotalNetAmount == null ? null : m_aTotalNetAmount.getValue ();
+    final BigDecimal aGrossValue = m_aTotalGrossAmount == null ? null : m_aTotalGrossAmount.getValue ();
+    final BigDecimal aTaxValue = m_aTotalTaxAmount == null ? null : m_aTotalTaxAmount.getValue ();
+    if (EqualsUtils.equals (sCurrencyID, m_sTotalCurrencyID) &&
+        EqualsUtils.equals (aNetValue, m_aTotalNetValue) &&
+        EqualsUtils.equals (aGrossValue, m_aTotalGrossValue) &&
+        EqualsUtils.equals (aTaxValue, m_aTotalTaxValue))
+      return EChange.UNCHANGED;
+    m_sTotalCurrencyID = sCurrencyID;
+    m_aTotalNetValue = aNetValue;
+    m_aTotalGrossValue = aGrossValue;
+    m_aTotalTaxValue = aTaxValue;
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Called by a contained line if its amount changed.
+   */
+  void onLineAmountChanged ()
+  {
+    _resetTotalAmounts ();
+    // The line setters are also called by EclipseLink while the lines are
+    // loaded - nothing to recalculate in this case
+    if (_areLinesAvailable ())
+      recalculateTotals ();
+  }
+
+  @PrePersist
+  @PreUpdate
+  protected void onBeforeSave ()
+  {
+    if (_areLinesAvailable ())
+      recalculateTotals ();
+  }
+
+  private void _resetTotalAmounts ()
+  {
+    m_aTotalNetAmount = null;
+    m_aTotalGrossAmount = null;
+    m_aTotalTaxAmount = null;
+    m_bTotalAmountsAvailable = false;
+  }
+
+  @Nullable
+  private IReadonlyCurrencyValue _createTotalAmount (@Nullable final BigDecimal aValue)
+  {
+    if (aValue == null)
+      return null;
+    final ECurrency eCurrency = ECurrency.getFromIDOrNull (m_sTotalCurrencyID);
+    return eCurrency == null ? null : new ReadonlyCurrencyValue (eCurrency, aValue);
+  }
+
+  @Column (name = FIELD_TOTALCURRENCY)
+  @Nullable
+  public String getTotalCurrencyID ()
+  {
+    return m_sTotalCurrencyID;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalCurrencyID (@Nullable final String sTotalCurrencyID)
+  {
+    m_sTotalCurrencyID = sTotalCurrencyID;
+    _resetTotalAmounts ();
+  }
+
+  @Column (name = FIELD_TOTALNET)
+  @Nullable
+  public BigDecimal getTotalNetValue ()
+  {
+    return m_aTotalNetValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalNetValue (@Nullable final BigDecimal aTotalNetValue)
+  {
+    m_aTotalNetValue = aTotalNetValue;
+    m_aTotalNetAmount = null;
+  }
+
+  @Column (name = FIELD_TOTALGROSS)
+  @Index
+  @Nullable
+  public BigDecimal getTotalGrossValue ()
+  {
+    return m_aTotalGrossValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalGrossValue (@Nullable final BigDecimal aTotalGrossValue)
+  {
+    m_aTotalGrossValue = aTotalGrossValue;
+    m_aTotalGrossAmount = null;
+  }
+
+  @Column (name = FIELD_TOTALTAX)
+  @Nullable
+  public BigDecimal getTotalTaxValue ()
+  {
+    return m_aTotalTaxValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalTaxValue (@Nullable final BigDecimal aTotalTaxValue)
+  {
+    m_aTotalTaxValue = aTotalTaxValue;
+    m_aTotalTaxAmount = null;
+  }
+
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalNetAmount ()
   {
-    ICurrencyValue aCV = null;
-    if (m_aInvoiceLines != null)
-      for (final IProcInvoiceLine aInvoiceLine : m_aInvoiceLines)
-        aCV = _addOrCreate (aCV, aInvoiceLine.getTotalNetAmount ());
-    return aCV == null ? null : new ReadonlyCurrencyValue (aCV);
+    _ensureTotalAmounts ();
+    return m_aTotalNetAmount;
   }
 
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalGrossAmount ()
   {
-    ICurrencyValue aCV = null;
-    if (m_aInvoiceLines != null)
-      for (final IProcInvoiceLine aInvoiceLine : m_aInvoiceLines)
-        aCV = _addOrCreate (aCV, aInvoiceLine.getTotalGrossAmount ());
-    return aCV == null ? null : new ReadonlyCurrencyValue (aCV);
+    _ensureTotalAmounts ();
+    return m_aTotalGrossAmount;
   }
 
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalTaxAmount ()
   {
-    ICurrencyValue aCV = null;
-    if (m_aInvoiceLines != null)
-      for (final IProcInvoiceLine aInvoiceLine : m_aInvoiceLines)
-        aCV = _addOrCreate (aCV, aInvoiceLine.getTotalTaxAmount ());
-    return aCV == null ? null : new ReadonlyCurrencyValue (aCV);
+    _ensureTotalAmounts ();
+    return m_aTotalTaxAmount;
   }
 
   @Override
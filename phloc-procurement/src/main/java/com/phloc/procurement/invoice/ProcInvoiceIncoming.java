@@ -27,11 +27,14 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
 import org.eclipse.persistence.annotations.Convert;
 import org.eclipse.persistence.annotations.Converter;
+import org.eclipse.persistence.annotations.Index;
 import org.joda.time.DateTime;
 
 import com.phloc.commons.equals.EqualsUtils;
@@ -40,6 +43,7 @@ import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.db.jpa.eclipselink.converter.JPAJodaDateTimeConverter;
 import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.CProcQuery;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.party.ProcSupplier;
 
@@ -51,6 +55,55 @@ import com.phloc.procurement.party.ProcSupplier;
 @Entity
 @Table (name = "invoices_in")
 @Access (value = AccessType.PROPERTY)
+@NamedQueries ({ @NamedQuery (name = ProcInvoiceIncoming.QUERY_ALL,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_ALL + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_ALL + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_ALL + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_COUNT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_COUNT + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_COUNT + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_COUNT + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_PAGE,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_PAGE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_PAGE + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.state = :state ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_PAGE + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceIncoming p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.state = :state AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_HEADERS,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceIncoming p LEFT JOIN p.supplier x WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceIncoming p LEFT JOIN p.supplier x WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceIncoming p LEFT JOIN p.supplier x WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceIncoming p LEFT JOIN p.supplier x WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client") })
+@Index (name = "invoices_in_client_state", columnNames = { ProcInvoiceIncoming.FIELD_CLIENT, ProcInvoiceIncoming.FIELD_STATE })
 @Converter (name = "joda-datetime", converterClass = JPAJodaDateTimeConverter.class)
 public final class ProcInvoiceIncoming extends AbstractProcObject implements IProcInvoiceIncoming
 {
@@ -60,6 +113,11 @@ public final class ProcInvoiceIncoming extends AbstractProcObject implements IPr
   public static final String FIELD_STATE = "state";
   public static final String FIELD_RECEIVEDT = "receivedt";
 
+  public static final String QUERY_ALL = "ProcInvoiceIncoming.all";
+  public static final String QUERY_COUNT = "ProcInvoiceIncoming.count";
+  public static final String QUERY_PAGE = "ProcInvoiceIncoming.page";
+  public static final String QUERY_HEADERS = "ProcInvoiceIncoming.headers";
+
   private int m_nClient;
   /** The supplier where the order is placed */
   private ProcSupplier m_aSupplier;
@@ -207,6 +207,7 @@ public final class ProcInvoiceLine extends AbstractProcObject implements IProcIn
     if (nQuantity == m_nQuantity)
       return EChange.UNCHANGED;
     m_nQuantity = nQuantity;
+    _onAmountChanged ();
     return EChange.CHANGED;
   }
 
@@ -235,6 +236,7 @@ public final class ProcInvoiceLine extends AbstractProcObject implements IProcIn
       throw new NullPointerException ("unitPrice");
 
     m_aUnitPrice = new Price (aUnitPrice);
+    _onAmountChanged ();
     return EChange.CHANGED;
   }
 
@@ -278,6 +280,12 @@ public final class ProcInvoiceLine extends AbstractProcObject implements IProcIn
     return EChange.CHANGED;
   }
 
+  private void _onAmountChanged ()
+  {
+    if (m_aOwner != null)
+      m_aOwner.onLineAmountChanged ();
+  }
+
   @Nullable
   public IReadonlyCurrencyValue getTotalNetAmount ()
   {
@@ -27,14 +27,19 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.eclipse.persistence.annotations.Index;
+
 import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.CProcQuery;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.party.ProcCustomer;
 
@@ -46,6 +51,61 @@ import com.phloc.procurement.party.ProcCustomer;
 @Entity
 @Table (name = "invoices_out")
 @Access (value = AccessType.PROPERTY)
+@NamedQueries ({ @NamedQuery (name = ProcInvoiceOutgoing.QUERY_ALL,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_ALL + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_ALL + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_ALL + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_COUNT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_PAGE,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.state = :state ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = :deleted AND p.ID > :afterid AND p.state = :state AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_HEADERS,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceOutgoing p LEFT JOIN p.customer x WHERE p.invoice.deleted = :deleted"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceOutgoing p LEFT JOIN p.customer x WHERE p.invoice.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceOutgoing p LEFT JOIN p.customer x WHERE p.invoice.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.invoice.invoiceNumber, p.invoice.issueDate, x.name, p.state, p.invoice.totalCurrencyID, p.invoice.totalGrossValue)" +
+                                      " FROM ProcInvoiceOutgoing p LEFT JOIN p.customer x WHERE p.invoice.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_BY_NUMBER,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = false AND p.invoice.invoiceNumber = :number"),
+                 @NamedQuery (name = ProcInvoiceOutgoing.QUERY_BY_NUMBER + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcInvoiceOutgoing p" +
+                                      " WHERE p.invoice.deleted = false AND p.invoice.invoiceNumber = :number AND p.client = :client") })
+@Index (name = "invoices_out_client_state", columnNames = { ProcInvoiceOutgoing.FIELD_CLIENT, ProcInvoiceOutgoing.FIELD_STATE })
 public final class ProcInvoiceOutgoing extends AbstractProcObject implements IProcInvoiceOutgoing
 {
   public static final String FIELD_CLIENT = "client";
@@ -53,6 +113,12 @@ public final class ProcInvoiceOutgoing extends AbstractProcObject implements IPr
   public static final String FIELD_INVOICE = "maininvoice";
   public static final String FIELD_STATE = "state";
 
+  public static final String QUERY_ALL = "ProcInvoiceOutgoing.all";
+  public static final String QUERY_COUNT = "ProcInvoiceOutgoing.count";
+  public static final String QUERY_PAGE = "ProcInvoiceOutgoing.page";
+  public static final String QUERY_HEADERS = "ProcInvoiceOutgoing.headers";
+  public static final String QUERY_BY_NUMBER = "ProcInvoiceOutgoing.byNumber";
+
   private int m_nClient;
   /** The customer where the invoice is placed */
   private ProcCustomer m_aCustomer;
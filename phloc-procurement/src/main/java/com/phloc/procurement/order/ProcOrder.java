@@ -17,6 +17,7 @@
  */
 package com.phloc.procurement.order;
 
+import java.math.BigDecimal;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -30,14 +31,18 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
 import org.eclipse.persistence.annotations.Convert;
 import org.eclipse.persistence.annotations.Converter;
 import org.eclipse.persistence.annotations.Index;
+import org.eclipse.persistence.indirection.IndirectContainer;
 import org.joda.time.LocalDate;
 
+import com.phloc.commons.annotations.DevelopersNote;
 import com.phloc.commons.annotations.ReturnsMutableCopy;
 import com.phloc.commons.annotations.ReturnsMutableObject;
 import com.phloc.commons.collections.ContainerHelper;
@@ -48,8 +53,10 @@ import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.db.jpa.eclipselink.converter.JPAJodaLocalDateConverter;
 import com.phloc.masterdata.MasterdataUtils;
 import com.phloc.masterdata.currency.CurrencyValue;
+import com.phloc.masterdata.currency.ECurrency;
 import com.phloc.masterdata.currency.ICurrencyValue;
 import com.phloc.masterdata.currency.IReadonlyCurrencyValue;
+import com.phloc.masterdata.currency.ReadonlyCurrencyValue;
 import com.phloc.masterdata.trade.EIncoterm;
 import com.phloc.procurement.domain.AbstractProcDeletableObject;
 import com.phloc.procurement.domain.CProcLengthConstraints;
@@ -73,6 +80,10 @@ public final class ProcOrder extends AbstractProcDeletableObject implements IPro
   public static final String FIELD_DELIVERY_END_DATE = "delenddate";
   public static final String FIELD_INCOTERM = "incoterm";
   public static final String FIELD_ATTACHMENTS = "attachments";
+  public static final String FIELD_TOTAL_CURRENCY = "totalcurrency";
+  public static final String FIELD_TOTAL_NET = "totalnet";
+  public static final String FIELD_TOTAL_GROSS = "totalgross";
+  public static final String FIELD_TOTAL_TAX = "totaltax";
 
   /** The order number */
   private String m_sOrderNumber;
@@ -95,6 +106,18 @@ public final class ProcOrder extends AbstractProcDeletableObject implements IPro
   /** The optional attachments */
   private List <ProcOrderAttachment> m_aAttachments;
 
+  /** The totals of all order items, derived from the order items */
+  private String m_sTotalCurrencyID;
+  private BigDecimal m_aTotalNetValue;
+  private BigDecimal m_aTotalGrossValue;
+  private BigDecimal m_aTotalTaxValue;
+
+  // Status vars
+  private IReadonlyCurrencyValue m_aTotalNetAmount;
+  private IReadonlyCurrencyValue m_aTotalGrossAmount;
+  private IReadonlyCurrencyValue m_aTotalTaxAmount;
+  private boolean m_bTotalAmountsAvailable = false;
+
   public ProcOrder ()
   {}
 
@@ -132,6 +155,7 @@ public final class ProcOrder extends AbstractProcDeletableObject implements IPro
     if (EqualsUtils.equals (m_aOrderItems, aRealOrderItems))
       return EChange.UNCHANGED;
     m_aOrderItems = aRealOrderItems;
+    _resetTotalAmounts ();
     return EChange.CHANGED;
   }
 
@@ -270,34 +294,204 @@ public final class ProcOrder extends AbstractProcDeletableObject implements IPro
     return aBaseValue.getAdded (aAddValue.getValue ());
   }
 
+  private boolean _areLinesAvailable ()
+  {
+    // Don't trigger the lazy loading of the order items
+    if (m_aOrderItems instanceof IndirectContainer)
+      return ((IndirectContainer) m_aOrderItems).isInstantiated ();
+    return true;
+  }
+
+  /**
+   * Calculate the transient total amounts from the current order items.
+   */
+  private void _calculateTotalAmounts ()
+  {
+    ICurrencyValue aNet = null;
+    ICurrencyValue aGross = null;
+    ICurrencyValue aTax = null;
+    if (m_aOrderItems != null)
+      for (final IProcOrderItem aLine : m_aOrderItems)
+        if (aLine.getUnitPrice () != null && aLine.getQuantity () >= 0)
+        {
+          aNet = _addOrCreate (aNet, aLine.getTotalNetAmount ());
+          aGross = _addOrCreate (aGross, aLine.getTotalGrossAmount ());
+          aTax = _addOrCreate (aTax, aLine.getTotalTaxAmount ());
+        }
+    m_aTotalNetAmount = aNet == null ? null : new ReadonlyCurrencyValue (aNet);
+    m_aTotalGrossAmount = aGross == null ? null : new ReadonlyCurrencyValue (aGross);
+    m_aTotalTaxAmount = aTax == null ? null : new ReadonlyCurrencyValue (aTax);
+    m_bTotalAmountsAvailable = true;
+  }
+
+  private void _ensureTotalAmounts ()
+  {
+    if (m_bTotalAmountsAvailable)
+      return;
+    if (m_sTotalCurrencyID == null || _areLinesAvailable ())
+    {
+      // Either the order items are present anyway or no totals were persisted
+      // (e.g. for rows stored before the totals columns existed)
+      _calculateTotalAmounts ();
+    }
+    else
+    {
+      m_aTotalNetAmount = _createTotalAmount (m_aTotalNetValue);
+      m_aTotalGrossAmount = _createTotalAmount (m_aTotalGrossValue);
+      m_aTotalTaxAmount = _createTotalAmount (m_aTotalTaxValue);
+      m_bTotalAmountsAvailable = true;
+    }
+  }
+
+  /**
+   * Recalculate the persisted totals from the current order items. This happens
+   * automatically before the object is saved and when the quantity or the unit
+   * price of a loaded line changes. It only needs to be called explicitly after
+   * lines were added to or removed from the list returned by the getter, or if
+   * the persisted values are needed before saving.
+   *
+   * @return {@link EChange}
+   */
+  @Nonnull
+  public EChange recalculateTotals ()
+  {
+    _calculateTotalAmounts ();
+    final String sCurrencyID = m_aTotalNetAmount == null ? null : m_aTotalNetAmount.getCurrency ().getID ();
+    final BigDecimal aNetValue = m_aTotalNetAmount == null ? null : m_aTotalNetAmount.getValue ();
+    final BigDecimal aGrossValue = m_aTotalGrossAmount == null ? null : m_aTotalGrossAmount.getValue ();
+    final BigDecimal aTaxValue = m_aTotalTaxAmount == null ? null : m_aTotalTaxAmount.getValue ();
+    if (EqualsUtils.equals (sCurrencyID, m_sTotalCurrencyID) &&
+        EqualsUtils.equals (aNetValue, m_aTotalNetValue) &&
+        EqualsUtils.equals (aGrossValue, m_aTotalGrossValue) &&
+        EqualsUtils.equals (aTaxValue, m_aTotalTaxValue))
+      return EChange.UNCHANGED;
+    m_sTotalCurrencyID = sCurrencyID;
+    m_aTotalNetValue = aNetValue;
+    m_aTotalGrossValue = aGrossValue;
+    m_aTotalTaxValue = aTaxValue;
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Called by a contained line if its amount changed.
+   */
+  void onLineAmountChanged ()
+  {
+    _resetTotalAmounts ();
+    // The line setters are also called by EclipseLink while the lines are
+    // loaded - nothing to recalculate in this case
+    if (_areLinesAvailable ())
+      recalculateTotals ();
+  }
+
+  @PrePersist
+  @PreUpdate
+  protected void onBeforeSave ()
+  {
+    if (_areLinesAvailable ())
+      recalculateTotals ();
+  }
+
+  private void _resetTotalAmounts ()
+  {
+    m_aTotalNetAmount = null;
+    m_aTotalGrossAmount = null;
+    m_aTotalTaxAmount = null;
+    m_bTotalAmountsAvailable = false;
+  }
+
+  @Nullable
+  private IReadonlyCurrencyValue _createTotalAmount (@Nullable final BigDecimal aValue)
+  {
+    if (aValue == null)
+      return null;
+    final ECurrency eCurrency = ECurrency.getFromIDOrNull (m_sTotalCurrencyID);
+    return eCurrency == null ? null : new ReadonlyCurrencyValue (eCurrency, aValue);
+  }
+
+  @Column (name = FIELD_TOTAL_CURRENCY)
+  @Nullable
+  public String getTotalCurrencyID ()
+  {
+    return m_sTotalCurrencyID;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalCurrencyID (@Nullable final String sTotalCurrencyID)
+  {
+    m_sTotalCurrencyID = sTotalCurrencyID;
+    _resetTotalAmounts ();
+  }
+
+  @Column (name = FIELD_TOTAL_NET)
+  @Nullable
+  public BigDecimal getTotalNetValue ()
+  {
+    return m_aTotalNetValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalNetValue (@Nullable final BigDecimal aTotalNetValue)
+  {
+    m_aTotalNetValue = aTotalNetValue;
+    m_aTotalNetAmount = null;
+  }
+
+  @Column (name = FIELD_TOTAL_GROSS)
+  @Index
+  @Nullable
+  public BigDecimal getTotalGrossValue ()
+  {
+    return m_aTotalGrossValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalGrossValue (@Nullable final BigDecimal aTotalGrossValue)
+  {
+    m_aTotalGrossValue = aTotalGrossValue;
+    m_aTotalGrossAmount = null;
+  }
+
+  @Column (name = FIELD_TOTAL_TAX)
+  @Nullable
+  public BigDecimal getTotalTaxValue ()
+  {
+    return m_aTotalTaxValue;
+  }
+
+  @DevelopersNote ("Used by EclipseLink only")
+  @Deprecated
+  public void setTotalTaxValue (@Nullable final BigDecimal aTotalTaxValue)
+  {
+    m_aTotalTaxValue = aTotalTaxValue;
+    m_aTotalTaxAmount = null;
+  }
+
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalNetAmount ()
   {
-    ICurrencyValue aValue = null;
-    if (m_aOrderItems != null)
-      for (final IProcOrderItem aItem : m_aOrderItems)
-        aValue = _addOrCreate (aValue, aItem.getTotalNetAmount ());
-    return aValue;
+    _ensureTotalAmounts ();
+    return m_aTotalNetAmount;
   }
 
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalGrossAmount ()
   {
-    ICurrencyValue aValue = null;
-    if (m_aOrderItems != null)
-      for (final IProcOrderItem aItem : m_aOrderItems)
-        aValue = _addOrCreate (aValue, aItem.getTotalGrossAmount ());
-    return aValue;
+    _ensureTotalAmounts ();
+    return m_aTotalGrossAmount;
   }
 
+  @Transient
   @Nullable
   public IReadonlyCurrencyValue getTotalTaxAmount ()
   {
-    ICurrencyValue aValue = null;
-    if (m_aOrderItems != null)
-      for (final IProcOrderItem aItem : m_aOrderItems)
-        aValue = _addOrCreate (aValue, aItem.getTotalTaxAmount ());
-    return aValue;
+    _ensureTotalAmounts ();
+    return m_aTotalTaxAmount;
   }
 
   @Override
@@ -27,11 +27,14 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
 import org.eclipse.persistence.annotations.Convert;
 import org.eclipse.persistence.annotations.Converter;
+import org.eclipse.persistence.annotations.Index;
 import org.joda.time.DateTime;
 
 import com.phloc.commons.equals.EqualsUtils;
@@ -40,6 +43,7 @@ import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.db.jpa.eclipselink.converter.JPAJodaDateTimeConverter;
 import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.CProcQuery;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.party.ProcCustomer;
 
@@ -51,6 +55,55 @@ import com.phloc.procurement.party.ProcCustomer;
 @Entity
 @Table (name = "orders_in")
 @Access (value = AccessType.PROPERTY)
+@NamedQueries ({ @NamedQuery (name = ProcOrderIncoming.QUERY_ALL,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_ALL + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_ALL + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_ALL + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_COUNT,
+                              query = "SELECT COUNT(p) FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_COUNT + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_COUNT + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT COUNT(p) FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_COUNT + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_PAGE,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_PAGE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_PAGE + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.state = :state ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_PAGE + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderIncoming p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.state = :state AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_HEADERS,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderIncoming p LEFT JOIN p.customer x WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderIncoming p LEFT JOIN p.customer x WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderIncoming p LEFT JOIN p.customer x WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderIncoming.QUERY_HEADERS + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderIncoming p LEFT JOIN p.customer x WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client") })
+@Index (name = "orders_in_client_state", columnNames = { ProcOrderIncoming.FIELD_CLIENT, ProcOrderIncoming.FIELD_STATE })
 @Converter (name = "joda-datetime", converterClass = JPAJodaDateTimeConverter.class)
 public final class ProcOrderIncoming extends AbstractProcObject implements IProcOrderIncoming
 {
@@ -61,6 +114,11 @@ public final class ProcOrderIncoming extends AbstractProcObject implements IProc
   public static final String FIELD_STATE = "state";
   public static final String FIELD_RECEIVEDT = "receivedt";
 
+  public static final String QUERY_ALL = "ProcOrderIncoming.all";
+  public static final String QUERY_COUNT = "ProcOrderIncoming.count";
+  public static final String QUERY_PAGE = "ProcOrderIncoming.page";
+  public static final String QUERY_HEADERS = "ProcOrderIncoming.headers";
+
   private int m_nClient;
   /** The customer where the order is placed */
   private ProcCustomer m_aCustomer;
@@ -137,6 +137,7 @@ public final class ProcOrderItem extends AbstractProcObject implements IProcOrde
     if (m_nQuantity == nQuantity)
       return EChange.UNCHANGED;
     m_nQuantity = nQuantity;
+    _onAmountChanged ();
     return EChange.CHANGED;
   }
 
@@ -165,6 +166,7 @@ public final class ProcOrderItem extends AbstractProcObject implements IProcOrde
       throw new NullPointerException ("unitPrice");
 
     m_aUnitPrice = new Price (aUnitPrice);
+    _onAmountChanged ();
     return EChange.CHANGED;
   }
 
@@ -208,6 +210,12 @@ public final class ProcOrderItem extends AbstractProcObject implements IProcOrde
     return EChange.CHANGED;
   }
 
+  private void _onAmountChanged ()
+  {
+    if (m_aOwner != null)
+      m_aOwner.onLineAmountChanged ();
+  }
+
   @Nullable
   public IReadonlyCurrencyValue getTotalNetAmount ()
   {
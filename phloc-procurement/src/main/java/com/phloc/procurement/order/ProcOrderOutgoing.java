@@ -27,14 +27,19 @@ import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
 
+import org.eclipse.persistence.annotations.Index;
+
 import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
 import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.CProcQuery;
 import com.phloc.procurement.domain.EProcState;
 import com.phloc.procurement.party.ProcSupplier;
 
@@ -46,6 +51,61 @@ import com.phloc.procurement.party.ProcSupplier;
 @Entity
 @Table (name = "orders_out")
 @Access (value = AccessType.PROPERTY)
+@NamedQueries ({ @NamedQuery (name = ProcOrderOutgoing.QUERY_ALL,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_ALL + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_ALL + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_ALL + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_COUNT,
+                              query = "SELECT COUNT(p) FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT COUNT(p) FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_COUNT + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT COUNT(p) FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_PAGE,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.state = :state ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_PAGE + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = :deleted AND p.ID > :afterid AND p.state = :state AND p.client = :client ORDER BY p.ID"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_HEADERS,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderOutgoing p LEFT JOIN p.supplier x WHERE p.order.deleted = :deleted"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderOutgoing p LEFT JOIN p.supplier x WHERE p.order.deleted = :deleted AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_STATE,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderOutgoing p LEFT JOIN p.supplier x WHERE p.order.deleted = :deleted AND p.state = :state"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_HEADERS + CProcQuery.SUFFIX_STATE + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT NEW com.phloc.procurement.db.ProcDocumentHeader (p.ID, p.order.orderNumber, p.order.issueDate, x.name, p.state, p.order.totalCurrencyID, p.order.totalGrossValue)" +
+                                      " FROM ProcOrderOutgoing p LEFT JOIN p.supplier x WHERE p.order.deleted = :deleted AND p.state = :state AND p.client = :client"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_BY_NUMBER,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = false AND p.order.orderNumber = :number"),
+                 @NamedQuery (name = ProcOrderOutgoing.QUERY_BY_NUMBER + CProcQuery.SUFFIX_CLIENT,
+                              query = "SELECT p FROM ProcOrderOutgoing p" +
+                                      " WHERE p.order.deleted = false AND p.order.orderNumber = :number AND p.client = :client") })
+@Index (name = "orders_out_client_state", columnNames = { ProcOrderOutgoing.FIELD_CLIENT, ProcOrderOutgoing.FIELD_STATE })
 public final class ProcOrderOutgoing extends AbstractProcObject implements IProcOrderOutgoing
 {
   public static final String FIELD_CLIENT = "client";
@@ -54,6 +114,12 @@ public final class ProcOrderOutgoing extends AbstractProcObject implements IProc
   public static final String FIELD_ORDER = "mainorder";
   public static final String FIELD_STATE = "state";
 
+  public static final String QUERY_ALL = "ProcOrderOutgoing.all";
+  public static final String QUERY_COUNT = "ProcOrderOutgoing.count";
+  public static final String QUERY_PAGE = "ProcOrderOutgoing.page";
+  public static final String QUERY_HEADERS = "ProcOrderOutgoing.headers";
+  public static final String QUERY_BY_NUMBER = "ProcOrderOutgoing.byNumber";
+
   private int m_nClient;
   /** The supplier where the order is placed */
   private ProcSupplier m_aSupplier;
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.outbox;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.id.IHasID;
+import com.phloc.commons.lang.EnumHelper;
+
+/**
+ * Contains all the different kind of changes recorded in the outbox. Never
+ * delete an item, as the index of an item is stored in the DB!
+ *
+ * @author Philip Helger
+ */
+public enum EProcChangeType implements IHasID <String>
+{
+  /* Created or modified */
+  SAVED ("saved"),
+  /* Marked as deleted */
+  DELETED ("deleted"),
+  /* Deletion mark removed */
+  UNDELETED ("undeleted"),
+  /* State changed (incl. accept and reject) */
+  STATE_CHANGED ("statechanged"),
+  /* Moved from the database to the archive */
+  ARCHIVED ("archived");
+
+  private final String m_sID;
+
+  private EProcChangeType (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  public static EProcChangeType getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EProcChangeType.class, sID);
+  }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.outbox;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import org.eclipse.persistence.annotations.Convert;
+import org.eclipse.persistence.annotations.Converter;
+import org.joda.time.DateTime;
+
+import com.phloc.commons.annotations.Nonempty;
+import com.phloc.commons.equals.EqualsUtils;
+import com.phloc.commons.hash.HashCodeGenerator;
+import com.phloc.commons.string.StringHelper;
+import com.phloc.commons.string.ToStringGenerator;
+import com.phloc.datetime.PDTFactory;
+import com.phloc.db.jpa.eclipselink.converter.JPAJodaDateTimeConverter;
+import com.phloc.procurement.domain.AbstractProcObject;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.domain.IProcObject;
+
+/**
+ * A single change of a domain object, stored in the outbox table within the
+ * same transaction as the change itself. The event only contains the
+ * identification of the changed object, so that consumers re-read the object
+ * if they need more details.
+ *
+ * @author Philip Helger
+ */
+@Entity
+@Table (name = "outbox")
+@Access (value = AccessType.PROPERTY)
+@Converter (name = "joda-datetime", converterClass = JPAJodaDateTimeConverter.class)
+public final class ProcOutboxEvent extends AbstractProcObject
+{
+  public static final String FIELD_ENTITYTYPE = "entitytype";
+  public static final String FIELD_ENTITYID = "entityid";
+  public static final String FIELD_CHANGETYPE = "changetype";
+  public static final String FIELD_STATE = "state";
+  public static final String FIELD_CREATIONDT = "creationdt";
+
+  private String m_sEntityType;
+  private int m_nEntityID;
+  private EProcChangeType m_eChangeType;
+  private EProcState m_eState;
+  private DateTime m_aCreationDT;
+
+  public ProcOutboxEvent ()
+  {}
+
+  public ProcOutboxEvent (@Nonnull @Nonempty final String sEntityType,
+                          final int nEntityID,
+                          @Nonnull final EProcChangeType eChangeType,
+                          @Nullable final EProcState eState)
+  {
+    if (StringHelper.hasNoText (sEntityType))
+      throw new IllegalArgumentException ("entityType");
+    if (eChangeType == null)
+      throw new NullPointerException ("changeType");
+    m_sEntityType = sEntityType;
+    m_nEntityID = nEntityID;
+    m_eChangeType = eChangeType;
+    m_eState = eState;
+    m_aCreationDT = PDTFactory.getCurrentDateTime ();
+  }
+
+  public ProcOutboxEvent (@Nonnull final Class <? extends IProcObject> aEntityClass,
+                          final int nEntityID,
+                          @Nonnull final EProcChangeType eChangeType,
+                          @Nullable final EProcState eState)
+  {
+    this (getEntityType (aEntityClass), nEntityID, eChangeType, eState);
+  }
+
+  /**
+   * Get the entity type to be stored for objects of the passed class, so that
+   * all events of the same class use the same name.
+   *
+   * @param aEntityClass
+   *        The entity class. May not be <code>null</code>.
+   * @return The JPA entity name, which is the simple class name.
+   */
+  @Nonnull
+  @Nonempty
+  public static String getEntityType (@Nonnull final Class <? extends IProcObject> aEntityClass)
+  {
+    if (aEntityClass == null)
+      throw new NullPointerException ("entityClass");
+    return aEntityClass.getSimpleName ();
+  }
+
+  /**
+   * @return The JPA entity name of the changed object, e.g.
+   *         <code>ProcOrderIncoming</code>.
+   */
+  @Column (name = FIELD_ENTITYTYPE, nullable = false, length = 64)
+  @Nullable
+  public String getEntityType ()
+  {
+    return m_sEntityType;
+  }
+
+  public void setEntityType (@Nullable final String sEntityType)
+  {
+    m_sEntityType = sEntityType;
+  }
+
+  @Column (name = FIELD_ENTITYID, nullable = false)
+  @Nonnegative
+  public int getEntityID ()
+  {
+    return m_nEntityID;
+  }
+
+  public void setEntityID (final int nEntityID)
+  {
+    m_nEntityID = nEntityID;
+  }
+
+  @Column (name = FIELD_CHANGETYPE, nullable = false)
+  @Nullable
+  public EProcChangeType getChangeType ()
+  {
+    return m_eChangeType;
+  }
+
+  public void setChangeType (@Nullable final EProcChangeType eChangeType)
+  {
+    m_eChangeType = eChangeType;
+  }
+
+  /**
+   * @return The new state of the document. Only present for
+   *         {@link EProcChangeType#STATE_CHANGED} events.
+   */
+  @Column (name = FIELD_STATE)
+  @Nullable
+  public EProcState getState ()
+  {
+    return m_eState;
+  }
+
+  public void setState (@Nullable final EProcState eState)
+  {
+    m_eState = eState;
+  }
+
+  @Column (name = FIELD_CREATIONDT, nullable = false)
+  @Convert ("joda-datetime")
+  @Nullable
+  public DateTime getCreationDateTime ()
+  {
+    return m_aCreationDT;
+  }
+
+  public void setCreationDateTime (@Nullable final DateTime aCreationDT)
+  {
+    m_aCreationDT = aCreationDT;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (!super.equals (o))
+      return false;
+    final ProcOutboxEvent rhs = (ProcOutboxEvent) o;
+    return EqualsUtils.equals (m_sEntityType, rhs.m_sEntityType) &&
+           m_nEntityID == rhs.m_nEntityID &&
+           EqualsUtils.equals (m_eChangeType, rhs.m_eChangeType) &&
+           EqualsUtils.equals (m_eState, rhs.m_eState) &&
+           EqualsUtils.equals (m_aCreationDT, rhs.m_aCreationDT);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return HashCodeGenerator.getDerived (super.hashCode ())
+                            .append (m_sEntityType)
+                            .append (m_nEntityID)
+                            .append (m_eChangeType)
+                            .append (m_eState)
+                            .append (m_aCreationDT)
+                            .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return ToStringGenerator.getDerived (super.toString ())
+                            .append ("entityType", m_sEntityType)
+                            .append ("entityID", m_nEntityID)
+                            .append ("changeType", m_eChangeType)
+                            .append ("state", m_eState)
+                            .append ("creationDT", m_aCreationDT)
+                            .toString ();
+  }
+}
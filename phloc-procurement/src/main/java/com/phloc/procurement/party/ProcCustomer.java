@@ -24,6 +24,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.Access;
 import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
@@ -31,6 +32,10 @@ import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+import org.eclipse.persistence.annotations.Index;
+
 import com.phloc.commons.annotations.ReturnsMutableObject;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.equals.EqualsUtils;
@@ -46,6 +51,9 @@ import com.phloc.commons.string.ToStringGenerator;
 @Entity
 @Table (name = "customer")
 @Access (value = AccessType.PROPERTY)
+@Cacheable
+@Cache (type = CacheType.CACHE)
+@Index (name = "customer_client_deleted", columnNames = { ProcCustomer.FIELD_CLIENT, ProcCustomer.FIELD_DELETED })
 public final class ProcCustomer extends AbstractProcParty implements IProcCustomer
 {
   public static final String FIELD_CLIENT = "client";
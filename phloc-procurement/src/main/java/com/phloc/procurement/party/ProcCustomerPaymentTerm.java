@@ -21,6 +21,7 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.Access;
 import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.JoinColumn;
@@ -29,6 +30,9 @@ import javax.persistence.PrimaryKeyJoinColumn;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+
 import com.phloc.commons.CGlobal;
 import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
@@ -41,6 +45,8 @@ import com.phloc.procurement.domain.CProcLengthConstraints;
 @Entity
 @Table (name = "paymentterms")
 @Access (value = AccessType.PROPERTY)
+@Cacheable
+@Cache (type = CacheType.CACHE)
 public final class ProcCustomerPaymentTerm extends AbstractProcObject implements IProcCustomerPaymentTerm
 {
   public static final String FIELD_PERCENTAGE = "percentage";
@@ -22,10 +22,14 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.Access;
 import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+
 import com.phloc.commons.equals.EqualsUtils;
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.state.EChange;
@@ -41,6 +45,8 @@ import com.phloc.procurement.domain.CProcLengthConstraints;
 @Entity
 @Table (name = "masterdata")
 @Access (value = AccessType.PROPERTY)
+@Cacheable
+@Cache (type = CacheType.CACHE)
 public final class ProcMasterData extends AbstractProcParty implements IProcMasterData
 {
   public static final String FIELD_CLIENT = "client";
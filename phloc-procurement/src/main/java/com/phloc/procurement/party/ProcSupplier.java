@@ -21,10 +21,15 @@ import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.persistence.Access;
 import javax.persistence.AccessType;
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
 
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+import org.eclipse.persistence.annotations.Index;
+
 import com.phloc.commons.hash.HashCodeGenerator;
 import com.phloc.commons.state.EChange;
 import com.phloc.commons.string.ToStringGenerator;
@@ -37,6 +42,9 @@ import com.phloc.commons.string.ToStringGenerator;
 @Entity
 @Table (name = "supplier")
 @Access (value = AccessType.PROPERTY)
+@Cacheable
+@Cache (type = CacheType.CACHE)
+@Index (name = "supplier_client_deleted", columnNames = { ProcSupplier.FIELD_CLIENT, ProcSupplier.FIELD_DELETED })
 public final class ProcSupplier extends AbstractProcParty implements IProcSupplier
 {
   public static final String FIELD_CLIENT = "client";
@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.phloc.commons.charset.CCharset;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.SimpleFileIO;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.mime.CMimeType;
+
+/**
+ * Test class for class {@link AbstractProcAttachmentDedupStorageHandlerSPI}.
+ *
+ * @author Philip Helger
+ */
+public final class AbstractProcAttachmentDedupStorageHandlerSPITest
+{
+  private static final File BASE_DIR = new File ("target/attachment-dedup-test");
+
+  private static final class MockStorageHandler extends AbstractProcAttachmentDedupStorageHandlerSPI
+  {
+    MockStorageHandler ()
+    {
+      super (BASE_DIR);
+    }
+  }
+
+  @Before
+  public void before ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+    FileOperations.createDirRecursive (BASE_DIR);
+  }
+
+  @After
+  public void after ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+  }
+
+  @Nonnull
+  private static IProcAttachment _create (final String sID, final String sContent)
+  {
+    return new ProcInMemoryAttachment (sID,
+                                       "title",
+                                       CMimeType.TEXT_PLAIN,
+                                       sContent.getBytes (CCharset.CHARSET_ISO_8859_1_OBJ));
+  }
+
+  @Nonnull
+  private static String _getContent (@Nonnull final IProcAttachment aAttachment)
+  {
+    return StreamUtils.getAllBytesAsString (aAttachment, CCharset.CHARSET_ISO_8859_1_OBJ);
+  }
+
+  @Test
+  public void testDedup ()
+  {
+    MockStorageHandler aHandler = new MockStorageHandler ();
+    aHandler.persistAttachment (_create ("a1", "Terms and conditions"));
+    aHandler.persistAttachment (_create ("a2", "Terms and conditions"));
+    aHandler.persistAttachment (_create ("a3", "Terms and conditions"));
+    aHandler.persistAttachment (_create ("b", "Other"));
+
+    ProcAttachmentDedupStatistics aStats = aHandler.getDedupStatistics ();
+    assertEquals (2, aStats.getBlobCount ());
+    assertEquals (4, aStats.getReferenceCount ());
+    assertEquals (3 * 20 + 5, aStats.getLogicalBytes ());
+    assertEquals (20 + 5, aStats.getPhysicalBytes ());
+    assertEquals (40, aStats.getSavedBytes ());
+    assertEquals (65.0 / 25, aStats.getDedupRatio (), 0.0001);
+    assertEquals ("Terms and conditions", _getContent (aHandler.getAttachmentOfID ("a2")));
+    assertFalse (new File (ProcAttachmentShardedLayout.getAttachmentDirectory (BASE_DIR, "a1"),
+                           AbstractProcAttachmentFileBasedStorageHandlerSPI.FILENAME_ATTACHMENT_DAT).exists ());
+
+    // Reference counts are restored
+    aHandler.close ();
+    aHandler = new MockStorageHandler ();
+    final ProcAttachmentDedupStatistics aRestored = aHandler.getDedupStatistics ();
+    assertEquals (aStats.getBlobCount (), aRestored.getBlobCount ());
+    assertEquals (aStats.getReferenceCount (), aRestored.getReferenceCount ());
+    assertEquals (aStats.getLogicalBytes (), aRestored.getLogicalBytes ());
+    assertEquals (aStats.getPhysicalBytes (), aRestored.getPhysicalBytes ());
+
+    // The content is deleted with the last reference
+    aHandler.removeAttachment ("a1");
+    aHandler.removeAttachment ("a2");
+    assertEquals ("Terms and conditions", _getContent (aHandler.getAttachmentOfID ("a3")));
+    aHandler.removeAttachment ("a3");
+    aStats = aHandler.getDedupStatistics ();
+    assertEquals (1, aStats.getBlobCount ());
+    assertEquals (1, aStats.getReferenceCount ());
+    assertEquals (5, aStats.getPhysicalBytes ());
+    assertEquals (0, aHandler.collectGarbage ());
+
+    // Replace the content of an attachment
+    aHandler.persistAttachment (_create ("b", "Changed"));
+    assertEquals ("Changed", _getContent (aHandler.getAttachmentOfID ("b")));
+    aStats = aHandler.getDedupStatistics ();
+    assertEquals (1, aStats.getBlobCount ());
+    assertEquals (7, aStats.getPhysicalBytes ());
+    aHandler.close ();
+  }
+
+  @Test
+  public void testGarbageCollection ()
+  {
+    final MockStorageHandler aHandler = new MockStorageHandler ();
+    aHandler.persistAttachment (_create ("a", "Content"));
+    aHandler.close ();
+
+    // Simulate a content left over by a crash
+    final File aOrphan = new File (BASE_DIR, "blobs/00/00/0000abcd");
+    FileOperations.createDirRecursive (aOrphan.getParentFile ());
+    SimpleFileIO.writeFile (aOrphan, "orphan", CCharset.CHARSET_ISO_8859_1_OBJ);
+
+    final MockStorageHandler aHandler2 = new MockStorageHandler ();
+    assertFalse (aOrphan.exists ());
+    assertEquals ("Content", _getContent (aHandler2.getAttachmentOfID ("a")));
+    assertEquals (1, aHandler2.getDedupStatistics ().getBlobCount ());
+    aHandler2.close ();
+  }
+
+  @Test
+  public void testPersistOverLegacyLayout ()
+  {
+    MockStorageHandler aHandler = new MockStorageHandler ();
+    aHandler.persistAttachment (_create ("a", "Old"));
+    aHandler.persistAttachment (_create ("b", "Same"));
+    aHandler.close ();
+
+    // Move both attachments back to the flat layout
+    for (final String sID : new String [] { "a", "b" })
+      assertTrue (FileOperations.renameDir (ProcAttachmentShardedLayout.getAttachmentDirectory (BASE_DIR, sID),
+                                            ProcAttachmentShardedLayout.getLegacyAttachmentDirectory (BASE_DIR, sID))
+                                .isSuccess ());
+
+    aHandler = new MockStorageHandler ();
+    assertEquals (2, aHandler.getDedupStatistics ().getReferenceCount ());
+
+    // The reference of the legacy directory is released
+    aHandler.persistAttachment (_create ("a", "New"));
+    aHandler.persistAttachment (_create ("b", "Same"));
+    assertFalse (ProcAttachmentShardedLayout.getLegacyAttachmentDirectory (BASE_DIR, "a").exists ());
+    assertFalse (ProcAttachmentShardedLayout.getLegacyAttachmentDirectory (BASE_DIR, "b").exists ());
+    final ProcAttachmentDedupStatistics aStats = aHandler.getDedupStatistics ();
+    assertEquals (2, aStats.getBlobCount ());
+    assertEquals (2, aStats.getReferenceCount ());
+    assertEquals (3 + 4, aStats.getLogicalBytes ());
+    assertEquals (3 + 4, aStats.getPhysicalBytes ());
+    assertEquals ("New", _getContent (aHandler.getAttachmentOfID ("a")));
+    assertEquals ("Same", _getContent (aHandler.getAttachmentOfID ("b")));
+    assertEquals (0, aHandler.collectGarbage ());
+    aHandler.close ();
+  }
+}
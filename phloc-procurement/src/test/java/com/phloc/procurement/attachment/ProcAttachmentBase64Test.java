@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.phloc.commons.base64.Base64;
+import com.phloc.commons.io.streams.NonBlockingByteArrayInputStream;
+import com.phloc.commons.io.streams.NonBlockingStringWriter;
+import com.phloc.commons.io.streams.StreamUtils;
+import com.phloc.commons.mime.CMimeType;
+
+/**
+ * Test class for class {@link ProcAttachmentBase64}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcAttachmentBase64Test
+{
+  @Test
+  public void testRoundTrip ()
+  {
+    // Sizes around the chunk boundaries
+    for (final int nSize : new int [] { 0, 1, 2, 3, 49151, 49152, 49153, 200000 })
+    {
+      final byte [] aData = new byte [nSize];
+      for (int i = 0; i < nSize; ++i)
+        aData[i] = (byte) (i * 31);
+
+      final NonBlockingStringWriter aSW = new NonBlockingStringWriter ();
+      assertTrue (ProcAttachmentBase64.writeBase64Encoded (new NonBlockingByteArrayInputStream (aData), aSW)
+                                      .isSuccess ());
+      final String sEncoded = aSW.getAsString ();
+      assertEquals (Base64.encodeBytes (aData), sEncoded);
+
+      assertArrayEquals (aData, StreamUtils.getAllBytes (ProcAttachmentBase64.getDecodingInputStream (sEncoded)));
+    }
+  }
+
+  @Test
+  public void testBase64Attachment ()
+  {
+    final ProcInMemoryAttachment aSrc = new ProcInMemoryAttachment ("id",
+                                                                    "title",
+                                                                    CMimeType.TEXT_PLAIN,
+                                                                    new byte [] { 1, 2, 3, 4, 5 });
+    final ProcBase64Attachment aAttachment = new ProcBase64Attachment ("id",
+                                                                       "title",
+                                                                       CMimeType.TEXT_PLAIN,
+                                                                       aSrc.getBase64Encoded ());
+    assertEquals (aSrc.getBase64Encoded (), aAttachment.getBase64Encoded ());
+    assertArrayEquals (new byte [] { 1, 2, 3, 4, 5 }, StreamUtils.getAllBytes (aAttachment));
+
+    // Whitespaces e.g. from formatted XML are ignored
+    final ProcBase64Attachment aFormatted = new ProcBase64Attachment ("id", "title", null, "AQID\n  BAU=\n");
+    assertArrayEquals (new byte [] { 1, 2, 3, 4, 5 }, StreamUtils.getAllBytes (aFormatted));
+  }
+}
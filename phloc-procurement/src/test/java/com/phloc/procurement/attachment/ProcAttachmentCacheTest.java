@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.phloc.commons.mime.CMimeType;
+
+/**
+ * Test class for class {@link ProcAttachmentCache}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcAttachmentCacheTest
+{
+  @Nonnull
+  private static IProcAttachment _create (final String sID)
+  {
+    return new ProcInMemoryAttachment (sID, "title " + sID, CMimeType.TEXT_PLAIN, new byte [] { 1, 2, 3 });
+  }
+
+  @Test
+  public void testEntryBound ()
+  {
+    // One segment, so that the eviction order is strictly LRU
+    final ProcAttachmentCache aCache = new ProcAttachmentCache (1, ProcAttachmentCache.DEFAULT_MAX_WEIGHT);
+    final IProcAttachment a = _create ("a");
+    aCache.put (a);
+    assertSame (a, aCache.get ("a"));
+    aCache.put (_create ("b"));
+    assertNull (aCache.get ("a"));
+    assertNotNull (aCache.get ("b"));
+
+    final ProcAttachmentCacheStatistics aStats = aCache.getStatistics ();
+    assertEquals (2, aStats.getHits ());
+    assertEquals (1, aStats.getMisses ());
+    assertEquals (1, aStats.getEvictions ());
+    assertEquals (1, aStats.getEntryCount ());
+    assertEquals (ProcAttachmentCache.getEstimatedWeight (_create ("b")), aStats.getWeight ());
+  }
+
+  @Test
+  public void testLRUOrder ()
+  {
+    final ProcAttachmentCache aCache = new ProcAttachmentCache (1000, ProcAttachmentCache.DEFAULT_MAX_WEIGHT);
+    for (int i = 0; i < 5000; ++i)
+      aCache.put (_create ("id" + i));
+    final ProcAttachmentCacheStatistics aStats = aCache.getStatistics ();
+    assertTrue (aStats.getEntryCount () <= 1000);
+    assertEquals (5000 - aStats.getEntryCount (), aStats.getEvictions ());
+    // The most recently added are still present
+    assertNotNull (aCache.peek ("id4999"));
+    assertNull (aCache.peek ("id0"));
+  }
+
+  @Test
+  public void testWeightBound ()
+  {
+    final IProcAttachment a = _create ("a");
+    final int nWeight = ProcAttachmentCache.getEstimatedWeight (a);
+    final ProcAttachmentCache aCache = new ProcAttachmentCache (1, nWeight);
+    aCache.put (a);
+    assertNotNull (aCache.peek ("a"));
+
+    // Too heavy for the whole cache
+    aCache.put (_create ("a much longer ID"));
+    assertNull (aCache.peek ("a much longer ID"));
+    assertNotNull (aCache.peek ("a"));
+
+    aCache.remove ("a");
+    assertEquals (0, aCache.getStatistics ().getWeight ());
+    assertEquals (0, aCache.getStatistics ().getEvictions ());
+
+    // Disabled
+    final ProcAttachmentCache aDisabled = new ProcAttachmentCache (0, 0);
+    aDisabled.put (a);
+    assertNull (aDisabled.get ("a"));
+  }
+
+  @Test
+  public void testConcurrentAccess () throws Exception
+  {
+    final ProcAttachmentCache aCache = new ProcAttachmentCache (64, ProcAttachmentCache.DEFAULT_MAX_WEIGHT);
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (8);
+    try
+    {
+      final List <Future <?>> aFutures = new ArrayList <Future <?>> ();
+      for (int t = 0; t < 8; ++t)
+      {
+        final int nThread = t;
+        aFutures.add (aExecutor.submit (new Runnable ()
+        {
+          public void run ()
+          {
+            for (int i = 0; i < 10000; ++i)
+            {
+              final String sID = "id" + ((i * 31 + nThread) % 200);
+              final IProcAttachment aAttachment = aCache.get (sID);
+              if (aAttachment == null)
+                aCache.put (_create (sID));
+              else
+                assertEquals (sID, aAttachment.getID ());
+            }
+          }
+        }));
+      }
+      for (final Future <?> aFuture : aFutures)
+        aFuture.get ();
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+      aExecutor.awaitTermination (10, TimeUnit.SECONDS);
+    }
+
+    final ProcAttachmentCacheStatistics aStats = aCache.getStatistics ();
+    assertTrue (aStats.getEntryCount () <= 64);
+    assertEquals (8 * 10000, aStats.getHits () + aStats.getMisses ());
+    int nEntryCount = 0;
+    long nWeight = 0;
+    for (int i = 0; i < 200; ++i)
+    {
+      final IProcAttachment aAttachment = aCache.peek ("id" + i);
+      if (aAttachment != null)
+      {
+        ++nEntryCount;
+        nWeight += ProcAttachmentCache.getEstimatedWeight (aAttachment);
+      }
+    }
+    assertEquals (aStats.getEntryCount (), nEntryCount);
+    assertEquals (aStats.getWeight (), nWeight);
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.phloc.commons.charset.CCharset;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.SimpleFileIO;
+import com.phloc.commons.mime.CMimeType;
+import com.phloc.commons.state.EChange;
+
+/**
+ * Test class for class {@link ProcAttachmentStorageMigration} and the sharded
+ * layout of {@link AbstractProcAttachmentFileBasedStorageHandlerSPI}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcAttachmentStorageMigrationTest
+{
+  private static final File BASE_DIR = new File ("target/attachment-migration-test");
+
+  private static final class MockStorageHandler extends AbstractProcAttachmentFileBasedStorageHandlerSPI
+  {
+    MockStorageHandler ()
+    {
+      super (BASE_DIR);
+    }
+  }
+
+  @Before
+  public void before ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+    FileOperations.createDirRecursive (BASE_DIR);
+  }
+
+  @After
+  public void after ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+  }
+
+  @Test
+  public void testShardedLayout ()
+  {
+    final String sPath = ProcAttachmentShardedLayout.getRelativePath ("abc");
+    assertEquals (sPath, ProcAttachmentShardedLayout.getRelativePath ("abc"));
+    assertTrue (sPath.endsWith ("/abc"));
+    assertTrue (ProcAttachmentShardedLayout.isShardName (sPath.substring (0, 2)));
+    assertTrue (ProcAttachmentShardedLayout.isShardName (sPath.substring (3, 5)));
+    assertFalse (ProcAttachmentShardedLayout.isShardName ("abc"));
+    assertFalse (ProcAttachmentShardedLayout.isShardName ("AB"));
+    assertFalse (ProcAttachmentShardedLayout.isShardName ("xy"));
+
+    final MockStorageHandler aHandler = new MockStorageHandler ();
+    aHandler.persistAttachment (new ProcInMemoryAttachment ("att1",
+                                                            "title",
+                                                            CMimeType.TEXT_PLAIN,
+                                                            "Hallo".getBytes (CCharset.CHARSET_ISO_8859_1_OBJ)));
+    assertTrue (ProcAttachmentShardedLayout.getAttachmentDirectory (BASE_DIR, "att1").isDirectory ());
+    assertFalse (new File (BASE_DIR, "att1").exists ());
+    assertNotNull (aHandler.getAttachmentOfID ("att1"));
+    assertEquals (EChange.CHANGED, aHandler.removeAttachment ("att1"));
+    assertFalse (ProcAttachmentShardedLayout.getAttachmentDirectory (BASE_DIR, "att1").exists ());
+    aHandler.close ();
+  }
+
+  @Test
+  public void testMigration ()
+  {
+    // Create an attachment in the flat layout
+    MockStorageHandler aHandler = new MockStorageHandler ();
+    aHandler.persistAttachment (new ProcInMemoryAttachment ("att1",
+                                                            "title",
+                                                            CMimeType.TEXT_PLAIN,
+                                                            "Hallo".getBytes (CCharset.CHARSET_ISO_8859_1_OBJ)));
+    aHandler.close ();
+    final File aShardedDir = ProcAttachmentShardedLayout.getAttachmentDirectory (BASE_DIR, "att1");
+    final File aLegacyDir = new File (BASE_DIR, "att1");
+    assertTrue (FileOperations.renameDir (aShardedDir, aLegacyDir).isSuccess ());
+
+    // Still readable before the migration
+    aHandler = new MockStorageHandler ();
+    assertEquals ("title", aHandler.getAttachmentOfID ("att1").getTitle ());
+    aHandler.close ();
+
+    assertEquals (1, ProcAttachmentStorageMigration.migrateToShardedLayout (BASE_DIR));
+    assertFalse (aLegacyDir.exists ());
+    assertTrue (aShardedDir.isDirectory ());
+    // Nothing left to do
+    assertEquals (0, ProcAttachmentStorageMigration.migrateToShardedLayout (BASE_DIR));
+
+    aHandler = new MockStorageHandler ();
+    assertEquals ("title", aHandler.getAttachmentOfID ("att1").getTitle ());
+    assertEquals ("Hallo",
+                  SimpleFileIO.readFileAsString (new File (aShardedDir, "attachment.dat"),
+                                                 CCharset.CHARSET_ISO_8859_1_OBJ));
+    aHandler.close ();
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.attachment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.phloc.commons.charset.CCharset;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.io.file.SimpleFileIO;
+
+/**
+ * Test class for class {@link ProcAttachmentTOCJournal}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcAttachmentTOCJournalTest
+{
+  private static final File BASE_DIR = new File ("target/toc-journal-test");
+  private final File m_aTOCFile = new File (BASE_DIR, "toc.xml");
+  private final File m_aJournalFile = new File (BASE_DIR, "toc.journal");
+
+  @Before
+  public void before ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+    FileOperations.createDirRecursive (BASE_DIR);
+  }
+
+  @After
+  public void after ()
+  {
+    FileOperations.deleteDirRecursiveIfExisting (BASE_DIR);
+  }
+
+  @Test
+  public void testAppendAndReplay ()
+  {
+    ProcAttachmentTOCJournal aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    final Set <String> aIDs = new TreeSet <String> ();
+    aJournal.replay (aIDs);
+    assertTrue (aIDs.isEmpty ());
+
+    aJournal.sync (aJournal.append (true, "a"));
+    aJournal.sync (aJournal.append (true, "b"));
+    aJournal.sync (aJournal.append (false, "a"));
+    aJournal.sync (aJournal.append (true, "c"));
+    aJournal.close ();
+    assertFalse (m_aTOCFile.exists ());
+
+    // Simulate a crash in the middle of writing an entry
+    SimpleFileIO.writeFile (m_aJournalFile,
+                            SimpleFileIO.readFileAsString (m_aJournalFile, CCharset.CHARSET_UTF_8_OBJ) + "+incompl",
+                            CCharset.CHARSET_UTF_8_OBJ);
+
+    aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    aIDs.clear ();
+    aJournal.replay (aIDs);
+    assertEquals (2, aIDs.size ());
+    assertTrue (aIDs.contains ("b"));
+    assertTrue (aIDs.contains ("c"));
+    assertEquals (4, aJournal.getJournalEntryCount ());
+
+    // The incomplete entry was cut off, so new entries are read correctly
+    aJournal.sync (aJournal.append (true, "d"));
+    aJournal.close ();
+    aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    aIDs.clear ();
+    aJournal.replay (aIDs);
+    assertEquals (3, aIDs.size ());
+    assertTrue (aIDs.contains ("d"));
+    aJournal.close ();
+  }
+
+  @Test
+  public void testCompaction ()
+  {
+    ProcAttachmentTOCJournal aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    final Set <String> aIDs = new TreeSet <String> ();
+    aJournal.replay (aIDs);
+    for (int i = 0; i < 10; ++i)
+    {
+      final String sID = "id" + i;
+      aIDs.add (sID);
+      aJournal.append (true, sID);
+    }
+    assertFalse (aJournal.isCompactionNeeded (aIDs.size (), 20));
+    assertTrue (aJournal.isCompactionNeeded (aIDs.size (), 5));
+
+    aJournal.compact (aIDs);
+    assertEquals (0, aJournal.getJournalEntryCount ());
+    assertEquals (0, m_aJournalFile.length ());
+    assertTrue (m_aTOCFile.exists ());
+
+    // Append after compaction
+    aIDs.remove ("id3");
+    aJournal.sync (aJournal.append (false, "id3"));
+    aJournal.close ();
+
+    aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    final Set <String> aReplayed = new TreeSet <String> ();
+    aJournal.replay (aReplayed);
+    assertEquals (aIDs, aReplayed);
+    assertEquals (1, aJournal.getJournalEntryCount ());
+    aJournal.close ();
+  }
+
+  @Test
+  public void testRotateAndRecover ()
+  {
+    final File aRotatedFile = new File (BASE_DIR, "toc.journal.rotated");
+    ProcAttachmentTOCJournal aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    final Set <String> aIDs = new TreeSet <String> ();
+    aJournal.replay (aIDs);
+    aJournal.append (true, "a");
+    aJournal.append (true, "b");
+    aJournal.rotate ();
+    assertTrue (aRotatedFile.exists ());
+    assertEquals (0, m_aJournalFile.length ());
+    assertEquals (2, aJournal.getJournalEntryCount ());
+
+    // Changes after the rotation go to the new journal
+    aJournal.sync (aJournal.append (false, "a"));
+    assertEquals (3, aJournal.getJournalEntryCount ());
+
+    // Simulate a crash before the TOC file was written
+    aJournal.close ();
+    aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    aIDs.clear ();
+    aJournal.replay (aIDs);
+    assertEquals ("[b]", aIDs.toString ());
+    assertEquals (3, aJournal.getJournalEntryCount ());
+
+    // The pending rotated entries are kept upon the next rotation
+    aJournal.append (true, "c");
+    aJournal.rotate ();
+    assertEquals (0, m_aJournalFile.length ());
+    aIDs.add ("c");
+    aJournal.writeTOC (aIDs);
+    assertFalse (aRotatedFile.exists ());
+    assertEquals (0, aJournal.getJournalEntryCount ());
+    aJournal.close ();
+
+    aJournal = new ProcAttachmentTOCJournal (m_aTOCFile, m_aJournalFile);
+    final Set <String> aReplayed = new TreeSet <String> ();
+    aJournal.replay (aReplayed);
+    assertEquals ("[b, c]", aReplayed.toString ());
+    assertEquals (0, aJournal.getJournalEntryCount ());
+    aJournal.close ();
+  }
+}
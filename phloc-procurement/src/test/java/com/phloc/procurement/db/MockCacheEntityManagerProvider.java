@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import com.phloc.db.jpa.IEntityManagerProvider;
+
+/**
+ * Entity manager provider whose entity manager only supports access to a
+ * simple in-memory shared cache.
+ *
+ * @author Philip Helger
+ */
+final class MockCacheEntityManagerProvider implements IEntityManagerProvider
+{
+  static final class MockCache implements Cache
+  {
+    private final Set <String> m_aEntries = new HashSet <String> ();
+
+    private static String _getKey (final Class <?> aClass, final Object aID)
+    {
+      return aClass.getSimpleName () + ":" + aID;
+    }
+
+    void put (final Class <?> aClass, final int nID)
+    {
+      m_aEntries.add (_getKey (aClass, Integer.valueOf (nID)));
+    }
+
+    public boolean contains (final Class aClass, final Object aID)
+    {
+      return m_aEntries.contains (_getKey (aClass, aID));
+    }
+
+    public void evict (final Class aClass, final Object aID)
+    {
+      m_aEntries.remove (_getKey (aClass, aID));
+    }
+
+    public void evict (final Class aClass)
+    {
+      final String sPrefix = aClass.getSimpleName () + ":";
+      for (final String sEntry : new HashSet <String> (m_aEntries))
+        if (sEntry.startsWith (sPrefix))
+          m_aEntries.remove (sEntry);
+    }
+
+    public void evictAll ()
+    {
+      m_aEntries.clear ();
+    }
+
+    public <T> T unwrap (final Class <T> aClass)
+    {
+      throw new UnsupportedOperationException ();
+    }
+  }
+
+  private final MockCache m_aCache = new MockCache ();
+  private final EntityManager m_aEM;
+
+  MockCacheEntityManagerProvider ()
+  {
+    final EntityManagerFactory aEMF = _createProxy (EntityManagerFactory.class, "getCache", m_aCache);
+    m_aEM = _createProxy (EntityManager.class, "getEntityManagerFactory", aEMF);
+  }
+
+  @SuppressWarnings ("unchecked")
+  private static <T> T _createProxy (final Class <T> aInterface, final String sMethodName, final Object aResult)
+  {
+    return (T) Proxy.newProxyInstance (aInterface.getClassLoader (), new Class <?> [] { aInterface }, new InvocationHandler ()
+    {
+      public Object invoke (final Object aProxy, final Method aMethod, final Object [] aArgs)
+      {
+        if (aMethod.getName ().equals (sMethodName))
+          return aResult;
+        throw new UnsupportedOperationException (aMethod.getName ());
+      }
+    });
+  }
+
+  MockCache getCache ()
+  {
+    return m_aCache;
+  }
+
+  public EntityManager getEntityManager ()
+  {
+    return m_aEM;
+  }
+}
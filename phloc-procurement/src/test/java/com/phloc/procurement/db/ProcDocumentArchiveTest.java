@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Set;
+
+import org.joda.time.LocalDate;
+
+import org.junit.Test;
+
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.commons.microdom.IMicroElement;
+import com.phloc.commons.microdom.impl.MicroElement;
+import com.phloc.commons.mock.PhlocTestUtils;
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.exchange.AbstractExchangeTestCase;
+import com.phloc.procurement.order.ProcOrder;
+import com.phloc.procurement.order.ProcOrderAttachment;
+import com.phloc.procurement.order.ProcOrderIncoming;
+
+/**
+ * Test class for class {@link ProcDocumentArchive}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcDocumentArchiveTest extends AbstractExchangeTestCase
+{
+  @Test
+  public void testWriteAndRead ()
+  {
+    final File aBaseDir = new File ("target/test-archive");
+    FileOperations.deleteDirRecursiveIfExisting (aBaseDir);
+    FileOperations.createDirRecursive (aBaseDir);
+
+    final ProcOrder aOrder = createOrder ();
+    final ProcOrderAttachment aAttachment = new ProcOrderAttachment (aOrder);
+    aAttachment.setAttachmentID ("attachment1");
+    aOrder.setAttachments (ContainerHelper.newList (aAttachment));
+
+    final ProcOrderIncoming aOrderIncoming = new ProcOrderIncoming ();
+    aOrderIncoming.setID (17);
+    aOrderIncoming.setClient (5);
+    aOrderIncoming.setState (EProcState.ACCEPTED);
+    aOrderIncoming.setOrder (aOrder);
+
+    final ProcDocumentArchive aArchive = new ProcDocumentArchive (aBaseDir);
+    assertFalse (aArchive.containsDocument (EProcDocumentType.ORDER_INCOMING, 17));
+    assertNull (aArchive.readDocument (EProcDocumentType.ORDER_INCOMING, 17));
+
+    assertTrue (aArchive.writeDocument (EProcDocumentType.ORDER_INCOMING,
+                                        17,
+                                        ProcDocumentArchiveSerializer.writeOrderIncoming (aOrderIncoming))
+                        .isSuccess ());
+    assertTrue (aArchive.containsDocument (EProcDocumentType.ORDER_INCOMING, 17));
+    assertFalse (aArchive.containsDocument (EProcDocumentType.ORDER_OUTGOING, 17));
+
+    final IMicroElement eElement = aArchive.readDocument (EProcDocumentType.ORDER_INCOMING, 17);
+    assertNotNull (eElement);
+    final ProcOrderIncoming aRead = ProcDocumentArchiveSerializer.readOrderIncoming (eElement, null);
+    assertEquals (17, aRead.getID ());
+    assertEquals (5, aRead.getClient ());
+    assertEquals (EProcState.ACCEPTED, aRead.getState ());
+    assertEquals (1, aRead.getOrder ().getAttachments ().size ());
+    assertEquals ("attachment1", aRead.getOrder ().getAttachments ().get (0).getAttachmentID ());
+    PhlocTestUtils.testDefaultImplementationWithEqualContentObject (aOrder, aRead.getOrder ());
+
+    assertTrue (aArchive.removeDocument (EProcDocumentType.ORDER_INCOMING, 17).isChanged ());
+    assertFalse (aArchive.removeDocument (EProcDocumentType.ORDER_INCOMING, 17).isChanged ());
+    assertFalse (aArchive.containsDocument (EProcDocumentType.ORDER_INCOMING, 17));
+  }
+
+  @Test
+  public void testPrepareCommitDiscard ()
+  {
+    final File aBaseDir = new File ("target/test-archive2");
+    FileOperations.deleteDirRecursiveIfExisting (aBaseDir);
+    FileOperations.createDirRecursive (aBaseDir);
+
+    final ProcDocumentArchive aArchive = new ProcDocumentArchive (aBaseDir);
+
+    // Discarded files never become visible
+    File aTempFile = aArchive.prepareDocument (EProcDocumentType.INVOICE_OUTGOING, 3, new MicroElement ("doc"));
+    assertNotNull (aTempFile);
+    assertTrue (aTempFile.isFile ());
+    assertFalse (aArchive.containsDocument (EProcDocumentType.INVOICE_OUTGOING, 3));
+    aArchive.discardDocument (aTempFile);
+    assertFalse (aTempFile.exists ());
+    assertFalse (aArchive.containsDocument (EProcDocumentType.INVOICE_OUTGOING, 3));
+
+    // Committed files replace an existing version
+    assertTrue (aArchive.writeDocument (EProcDocumentType.INVOICE_OUTGOING, 3, new MicroElement ("old")).isSuccess ());
+    aTempFile = aArchive.prepareDocument (EProcDocumentType.INVOICE_OUTGOING, 3, new MicroElement ("new"));
+    assertNotNull (aTempFile);
+    assertEquals ("old", aArchive.readDocument (EProcDocumentType.INVOICE_OUTGOING, 3).getTagName ());
+    assertTrue (aArchive.commitDocument (EProcDocumentType.INVOICE_OUTGOING, 3, aTempFile).isSuccess ());
+    assertFalse (aTempFile.exists ());
+    assertEquals ("new", aArchive.readDocument (EProcDocumentType.INVOICE_OUTGOING, 3).getTagName ());
+  }
+
+  @Test
+  public void testIsArchiveCandidate ()
+  {
+    final LocalDate aBefore = new LocalDate (2015, 1, 1);
+    final LocalDate aOld = aBefore.minusDays (1);
+    final Set <EProcState> aClosed = ContainerHelper.newEnumSet (EProcState.class, EProcState.PAID);
+
+    assertTrue (AbstractProcManager.isArchiveCandidate (aOld, null, true, EProcState.SENT, aBefore, aClosed));
+    assertTrue (AbstractProcManager.isArchiveCandidate (aOld, null, false, EProcState.PAID, aBefore, aClosed));
+    // Undeleted or reopened
+    assertFalse (AbstractProcManager.isArchiveCandidate (aOld, null, false, EProcState.SENT, aBefore, aClosed));
+    // Too young
+    assertFalse (AbstractProcManager.isArchiveCandidate (aBefore, null, true, EProcState.PAID, aBefore, aClosed));
+
+    // Fallback date is only used without an issue date
+    assertTrue (AbstractProcManager.isArchiveCandidate (null,
+                                                        aOld.toDateTimeAtStartOfDay (),
+                                                        true,
+                                                        EProcState.SENT,
+                                                        aBefore,
+                                                        aClosed));
+    assertFalse (AbstractProcManager.isArchiveCandidate (aBefore,
+                                                         aOld.toDateTimeAtStartOfDay (),
+                                                         true,
+                                                         EProcState.SENT,
+                                                         aBefore,
+                                                         aClosed));
+    assertFalse (AbstractProcManager.isArchiveCandidate (null, null, true, EProcState.PAID, aBefore, aClosed));
+  }
+}
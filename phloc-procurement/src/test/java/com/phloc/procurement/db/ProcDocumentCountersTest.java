@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.phloc.procurement.domain.EProcDocumentType;
+import com.phloc.procurement.domain.EProcState;
+
+/**
+ * Test class for class {@link ProcDocumentCounters}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcDocumentCountersTest
+{
+  @Test
+  public void testAdjust ()
+  {
+    final long [][][] aCounts = ProcDocumentCounters.createEmptyCounts ();
+    aCounts[EProcDocumentType.ORDER_INCOMING.ordinal ()][0][EProcState.RECEIVED.ordinal ()] = 3;
+    aCounts[EProcDocumentType.ORDER_INCOMING.ordinal ()][0][EProcState.ACCEPTED.ordinal ()] = 1;
+    aCounts[EProcDocumentType.INVOICE_OUTGOING.ordinal ()][1][EProcState.RECEIVED.ordinal ()] = 2;
+    final ProcDocumentCounters aCounters = new ProcDocumentCounters (aCounts, 0);
+    assertEquals (3, aCounters.getCountOfNew (EProcDocumentType.ORDER_INCOMING));
+    assertEquals (4, aCounters.getCount (EProcDocumentType.ORDER_INCOMING, false, null));
+    assertEquals (0, aCounters.getCount (EProcDocumentType.ORDER_INCOMING, true, null));
+    assertEquals (0, aCounters.getCountOfNew (EProcDocumentType.INVOICE_OUTGOING));
+    assertEquals (2, aCounters.getCount (EProcDocumentType.INVOICE_OUTGOING, true, EProcState.RECEIVED));
+
+    // Accept an order
+    final ProcDocumentCounters aAccepted = aCounters.getAdjusted (EProcDocumentType.ORDER_INCOMING,
+                                                                  false,
+                                                                  EProcState.RECEIVED,
+                                                                  false,
+                                                                  EProcState.ACCEPTED);
+    assertEquals (2, aAccepted.getCountOfNew (EProcDocumentType.ORDER_INCOMING));
+    assertEquals (2, aAccepted.getCount (EProcDocumentType.ORDER_INCOMING, false, EProcState.ACCEPTED));
+    assertEquals (4, aAccepted.getCount (EProcDocumentType.ORDER_INCOMING, false, null));
+    // Source is unchanged
+    assertEquals (3, aCounters.getCountOfNew (EProcDocumentType.ORDER_INCOMING));
+
+    // Delete it
+    final ProcDocumentCounters aDeleted = aAccepted.getAdjusted (EProcDocumentType.ORDER_INCOMING,
+                                                                 false,
+                                                                 EProcState.ACCEPTED,
+                                                                 true,
+                                                                 EProcState.ACCEPTED);
+    assertEquals (3, aDeleted.getCount (EProcDocumentType.ORDER_INCOMING, false, null));
+    assertEquals (1, aDeleted.getCount (EProcDocumentType.ORDER_INCOMING, true, EProcState.ACCEPTED));
+
+    // Never below zero
+    final ProcDocumentCounters aEmpty = aCounters.getAdjusted (EProcDocumentType.ORDER_OUTGOING,
+                                                               false,
+                                                               EProcState.RECEIVED,
+                                                               true,
+                                                               EProcState.RECEIVED);
+    assertEquals (0, aEmpty.getCountOfNew (EProcDocumentType.ORDER_OUTGOING));
+    assertEquals (1, aEmpty.getCount (EProcDocumentType.ORDER_OUTGOING, true, null));
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcKeysetPage}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcKeysetPageTest
+{
+  private static ProcSupplier _create (final int nID)
+  {
+    final ProcSupplier aSupplier = new ProcSupplier ();
+    aSupplier.setID (nID);
+    return aSupplier;
+  }
+
+  @Test
+  public void testCreateFromOverfetch ()
+  {
+    final List <ProcSupplier> aList = new ArrayList <ProcSupplier> ();
+
+    // Empty result
+    ProcKeysetPage <ProcSupplier> aPage = ProcKeysetPage.createFromOverfetch (aList, 2);
+    assertTrue (aPage.isEmpty ());
+    assertFalse (aPage.hasMore ());
+    assertEquals (ProcKeysetPage.FIRST_PAGE_KEY, aPage.getNextPageKey ());
+
+    // Exactly the page size
+    aList.add (_create (3));
+    aList.add (_create (7));
+    aPage = ProcKeysetPage.createFromOverfetch (aList, 2);
+    assertEquals (2, aPage.getItemCount ());
+    assertFalse (aPage.hasMore ());
+    assertEquals (7, aPage.getNextPageKey ());
+
+    // One more than the page size
+    aList.add (_create (8));
+    aPage = ProcKeysetPage.createFromOverfetch (aList, 2);
+    assertEquals (2, aPage.getItemCount ());
+    assertTrue (aPage.hasMore ());
+    assertEquals (7, aPage.getNextPageKey ());
+    assertEquals (3, aPage.getAllItems ().get (0).getID ());
+  }
+
+  @Test (expected = IllegalArgumentException.class)
+  public void testInvalidPageSize ()
+  {
+    ProcKeysetPage.createFromOverfetch (new ArrayList <ProcSupplier> (), 0);
+  }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.scopes.mgr.ScopeManager;
+import com.phloc.scopes.mock.ScopeTestRule;
+
+/**
+ * Test class for class {@link ProcManagerExecutor}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcManagerExecutorTest
+{
+  @Rule
+  public final TestRule m_aScopeRule = new ScopeTestRule ();
+
+  @Test
+  public void testSubmit () throws Exception
+  {
+    final ProcManagerExecutor aExecutor = new ProcManagerExecutor ("test", 2);
+    try
+    {
+      final Future <Boolean> aFuture = aExecutor.submit (new INonThrowingCallable <Boolean> ()
+      {
+        public Boolean call ()
+        {
+          // Each task runs in its own request scope
+          return Boolean.valueOf (ScopeManager.isRequestScopePresent ());
+        }
+      });
+      assertEquals (Boolean.TRUE, ProcManagerExecutor.get (aFuture, 10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+    }
+  }
+
+  @Test
+  public void testSupplyAsyncComposition () throws Exception
+  {
+    final ProcManagerExecutor aExecutor = new ProcManagerExecutor ("test", 2);
+    try
+    {
+      final CompletableFuture <Integer> aFirst = aExecutor.supplyAsync (new INonThrowingCallable <Integer> ()
+      {
+        public Integer call ()
+        {
+          return Integer.valueOf (ScopeManager.isRequestScopePresent () ? 20 : -1);
+        }
+      });
+      final CompletableFuture <Integer> aSecond = aExecutor.supplyAsync (new INonThrowingCallable <Integer> ()
+      {
+        public Integer call ()
+        {
+          return Integer.valueOf (22);
+        }
+      });
+
+      // Combine both results and transform the sum without blocking
+      final CompletableFuture <String> aResult = aFirst.thenCombine (aSecond,
+                                                                     new BiFunction <Integer, Integer, Integer> ()
+                                                                     {
+                                                                       public Integer apply (final Integer aA,
+                                                                                             final Integer aB)
+                                                                       {
+                                                                         return Integer.valueOf (aA.intValue () +
+                                                                                                 aB.intValue ());
+                                                                       }
+                                                                     })
+                                                       .thenApply (new Function <Integer, String> ()
+                                                       {
+                                                         public String apply (final Integer aSum)
+                                                         {
+                                                           return "sum=" + aSum;
+                                                         }
+                                                       });
+      assertEquals ("sum=42", ProcManagerExecutor.get (aResult, 10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aExecutor.shutdown ();
+    }
+  }
+
+  @Test
+  public void testTimeoutAndRejection () throws Exception
+  {
+    final ProcManagerExecutor aExecutor = new ProcManagerExecutor ("test", 1, 1);
+    final CountDownLatch aLatch = new CountDownLatch (1);
+    final INonThrowingCallable <String> aBlocking = new INonThrowingCallable <String> ()
+    {
+      public String call ()
+      {
+        try
+        {
+          aLatch.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+        }
+        return "done";
+      }
+    };
+    try
+    {
+      final Future <String> aRunning = aExecutor.submit (aBlocking);
+      final Future <String> aQueued = aExecutor.submit (aBlocking);
+      try
+      {
+        // Thread and queue are occupied
+        aExecutor.submit (aBlocking);
+        fail ();
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // expected
+      }
+
+      try
+      {
+        ProcManagerExecutor.get (aQueued, 10, TimeUnit.MILLISECONDS);
+        fail ();
+      }
+      catch (final TimeoutException ex)
+      {
+        // expected
+      }
+      assertTrue (aQueued.isCancelled ());
+
+      aLatch.countDown ();
+      assertEquals ("done", ProcManagerExecutor.get (aRunning, 10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      aLatch.countDown ();
+      aExecutor.shutdown ();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.phloc.commons.state.ESuccess;
+import com.phloc.commons.state.ISuccessIndicator;
+import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.outbox.EProcChangeType;
+import com.phloc.procurement.outbox.ProcOutboxEvent;
+
+/**
+ * Test class for class {@link ProcOutboxDispatcher}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcOutboxDispatcherTest
+{
+  private static final class MockOutboxManager implements IProcOutboxManager
+  {
+    private final List <ProcOutboxEvent> m_aEvents = new ArrayList <ProcOutboxEvent> ();
+    private boolean m_bRemoveFails = false;
+
+    void addEvent (final int nEntityID)
+    {
+      final ProcOutboxEvent aEvent = new ProcOutboxEvent (ProcOrderIncoming.class,
+                                                          nEntityID,
+                                                          EProcChangeType.SAVED,
+                                                          null);
+      aEvent.setID (m_aEvents.size () + 1);
+      m_aEvents.add (aEvent);
+    }
+
+    public List <ProcOutboxEvent> getPendingEvents (final int nMaxCount)
+    {
+      return new ArrayList <ProcOutboxEvent> (m_aEvents.subList (0, Math.min (nMaxCount, m_aEvents.size ())));
+    }
+
+    public long getCountPendingEvents ()
+    {
+      return m_aEvents.size ();
+    }
+
+    public ISuccessIndicator removeEvents (final Collection <Integer> aEventIDs)
+    {
+      if (m_bRemoveFails)
+        return ESuccess.FAILURE;
+      for (final ProcOutboxEvent aEvent : new ArrayList <ProcOutboxEvent> (m_aEvents))
+        if (aEventIDs.contains (Integer.valueOf (aEvent.getID ())))
+          m_aEvents.remove (aEvent);
+      return ESuccess.SUCCESS;
+    }
+  }
+
+  private static final class MockListener implements IProcOutboxEventListener
+  {
+    private final List <Integer> m_aReceived = new ArrayList <Integer> ();
+    private int m_nFailingEntityID = -1;
+    private boolean m_bThrow = false;
+
+    public ESuccess onOutboxEvent (final ProcOutboxEvent aEvent)
+    {
+      if (aEvent.getEntityID () == m_nFailingEntityID)
+      {
+        if (m_bThrow)
+          throw new IllegalStateException ("Delivery failed");
+        return ESuccess.FAILURE;
+      }
+      m_aReceived.add (Integer.valueOf (aEvent.getEntityID ()));
+      return ESuccess.SUCCESS;
+    }
+  }
+
+  @Test
+  public void testDeliverInBatches ()
+  {
+    final MockOutboxManager aMgr = new MockOutboxManager ();
+    for (int i = 1; i <= 5; ++i)
+      aMgr.addEvent (i);
+    final MockListener aListener = new MockListener ();
+    final ProcOutboxDispatcher aDispatcher = new ProcOutboxDispatcher (aMgr);
+
+    // Without listeners nothing is dispatched
+    aDispatcher.run ();
+    assertEquals (5, aMgr.getCountPendingEvents ());
+
+    aDispatcher.addListener (aListener);
+    aDispatcher.setBatchSize (2);
+    aDispatcher.run ();
+    assertEquals ("[1, 2, 3, 4, 5]", aListener.m_aReceived.toString ());
+    assertEquals (0, aMgr.getCountPendingEvents ());
+    assertEquals (5, aDispatcher.getDeliveredCount ());
+    assertEquals (0, aDispatcher.getFailedCount ());
+  }
+
+  @Test
+  public void testRetryFailedEvent ()
+  {
+    final MockOutboxManager aMgr = new MockOutboxManager ();
+    for (int i = 1; i <= 3; ++i)
+      aMgr.addEvent (i);
+    final MockListener aListener = new MockListener ();
+    aListener.m_nFailingEntityID = 2;
+    final ProcOutboxDispatcher aDispatcher = new ProcOutboxDispatcher (aMgr);
+    aDispatcher.addListener (aListener);
+
+    // Delivery stops at the failed event and only the delivered one is removed
+    aDispatcher.run ();
+    assertEquals ("[1]", aListener.m_aReceived.toString ());
+    assertEquals (2, aMgr.getCountPendingEvents ());
+    assertEquals (1, aDispatcher.getDeliveredCount ());
+    assertEquals (1, aDispatcher.getFailedCount ());
+
+    // Exceptions are handled like failures
+    aListener.m_bThrow = true;
+    aDispatcher.run ();
+    assertEquals (2, aMgr.getCountPendingEvents ());
+    assertEquals (2, aDispatcher.getFailedCount ());
+
+    // The next run retries with the same event
+    aListener.m_nFailingEntityID = -1;
+    aDispatcher.run ();
+    assertEquals ("[1, 2, 3]", aListener.m_aReceived.toString ());
+    assertEquals (0, aMgr.getCountPendingEvents ());
+    assertEquals (3, aDispatcher.getDeliveredCount ());
+  }
+
+  @Test
+  public void testRemoveFailure ()
+  {
+    final MockOutboxManager aMgr = new MockOutboxManager ();
+    aMgr.addEvent (1);
+    final MockListener aListener = new MockListener ();
+    final ProcOutboxDispatcher aDispatcher = new ProcOutboxDispatcher (aMgr);
+    aDispatcher.addListener (aListener);
+
+    // Events that could not be marked as dispatched are delivered again
+    aMgr.m_bRemoveFails = true;
+    aDispatcher.run ();
+    assertEquals (1, aMgr.getCountPendingEvents ());
+    assertEquals (0, aDispatcher.getDeliveredCount ());
+
+    aMgr.m_bRemoveFails = false;
+    aDispatcher.run ();
+    assertEquals ("[1, 1]", aListener.m_aReceived.toString ());
+    assertEquals (0, aMgr.getCountPendingEvents ());
+    assertEquals (1, aDispatcher.getDeliveredCount ());
+  }
+
+  @Test
+  public void testEntityType ()
+  {
+    assertEquals ("ProcOrderIncoming", ProcOutboxEvent.getEntityType (ProcOrderIncoming.class));
+    assertEquals ("ProcOrderIncoming",
+                  new ProcOutboxEvent (ProcOrderIncoming.class, 1, EProcChangeType.SAVED, null).getEntityType ());
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.callback.INonThrowingCallableWithParameter;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcPartyLookupCache}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcPartyLookupCacheTest
+{
+  private static class MockLoader implements INonThrowingCallable <ProcSupplier>
+  {
+    private final ProcSupplier m_aSupplier;
+    private int m_nCalls = 0;
+
+    MockLoader (final ProcSupplier aSupplier)
+    {
+      m_aSupplier = aSupplier;
+    }
+
+    public ProcSupplier call ()
+    {
+      ++m_nCalls;
+      return m_aSupplier;
+    }
+  }
+
+  private static final class MockResolver implements INonThrowingCallableWithParameter <ProcSupplier, Integer>
+  {
+    private final Map <Integer, ProcSupplier> m_aSuppliers = new HashMap <Integer, ProcSupplier> ();
+
+    MockResolver (final ProcSupplier... aSuppliers)
+    {
+      for (final ProcSupplier aSupplier : aSuppliers)
+        m_aSuppliers.put (Integer.valueOf (aSupplier.getID ()), aSupplier);
+    }
+
+    public ProcSupplier call (final Integer aID)
+    {
+      return m_aSuppliers.get (aID);
+    }
+  }
+
+  private static ProcSupplier _create (final int nID, final String sEntityID)
+  {
+    final ProcSupplier aSupplier = new ProcSupplier ();
+    aSupplier.setID (nID);
+    aSupplier.setEntityID (sEntityID);
+    return aSupplier;
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final ProcPartyLookupCache <ProcSupplier> aCache = new ProcPartyLookupCache <ProcSupplier> (2);
+    final ProcSupplier aS1 = _create (1, "a");
+    final ProcSupplier aS2 = _create (2, "b");
+    final ProcSupplier aS3 = _create (3, "c");
+    final MockLoader aLoader = new MockLoader (aS1);
+    final MockResolver aResolver = new MockResolver (aS1, aS2, aS3);
+
+    assertSame (aS1, aCache.get (null, "a", aLoader, aResolver));
+    assertSame (aS1, aCache.get (null, "a", aLoader, aResolver));
+    assertEquals (1, aLoader.m_nCalls);
+    assertEquals (1, aCache.getHits ());
+    assertEquals (1, aCache.getMisses ());
+
+    // Not found values are not cached
+    final MockLoader aNullLoader = new MockLoader (null);
+    assertNull (aCache.get (null, "x", aNullLoader, aResolver));
+    assertNull (aCache.get (null, "x", aNullLoader, aResolver));
+    assertEquals (2, aNullLoader.m_nCalls);
+    assertEquals (1, aCache.size ());
+
+    // Invalidation by ID
+    aCache.invalidate (_create (1, "changed"));
+    assertEquals (0, aCache.size ());
+    aCache.get (null, "a", aLoader, aResolver);
+    assertEquals (2, aLoader.m_nCalls);
+
+    // Eviction of the oldest entry
+    aCache.get (null, "b", new MockLoader (aS2), aResolver);
+    aCache.get (null, "c", new MockLoader (aS3), aResolver);
+    assertEquals (2, aCache.size ());
+    aCache.get (null, "a", aLoader, aResolver);
+    assertEquals (3, aLoader.m_nCalls);
+  }
+
+  @Test
+  public void testOutdatedEntries ()
+  {
+    final ProcPartyLookupCache <ProcSupplier> aCache = new ProcPartyLookupCache <ProcSupplier> (10);
+    final ProcSupplier aS1 = _create (1, "a");
+    final MockResolver aResolver = new MockResolver (aS1);
+
+    // Modified without invalidating the cache
+    assertSame (aS1, aCache.get (null, "a", new MockLoader (aS1), aResolver));
+    aS1.setEntityID ("b");
+    final MockLoader aNullLoader = new MockLoader (null);
+    assertNull (aCache.get (null, "a", aNullLoader, aResolver));
+    assertEquals (1, aNullLoader.m_nCalls);
+    assertEquals (0, aCache.size ());
+    assertEquals (0, aCache.getHits ());
+
+    // Invalidated while loading - the loaded value is not cached
+    final ProcSupplier aS2 = _create (2, "c");
+    final MockLoader aLoader = new MockLoader (aS2)
+    {
+      @Override
+      public ProcSupplier call ()
+      {
+        aCache.invalidate (aS2);
+        return super.call ();
+      }
+    };
+    assertSame (aS2, aCache.get (null, "c", aLoader, new MockResolver (aS2)));
+    assertEquals (0, aCache.size ());
+  }
+}
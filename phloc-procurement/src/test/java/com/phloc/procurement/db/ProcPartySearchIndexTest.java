@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcPartySearchIndex}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcPartySearchIndexTest
+{
+  private static ProcSupplier _create (final int nID, final String sName, final String sCity, final String sVATIN)
+  {
+    final ProcSupplier aSupplier = new ProcSupplier ();
+    aSupplier.setID (nID);
+    aSupplier.setName (sName);
+    aSupplier.setCity (sCity);
+    aSupplier.setVATIN (sVATIN);
+    return aSupplier;
+  }
+
+  @Test
+  public void testGetTokens ()
+  {
+    assertTrue (ProcPartySearchIndex.getTokens (null).isEmpty ());
+    assertTrue (ProcPartySearchIndex.getTokens (" - ").isEmpty ());
+    assertEquals (ContainerHelper.newList ("phloc", "systems", "gmbh"),
+                  ProcPartySearchIndex.getTokens ("Phloc Systems-GmbH"));
+  }
+
+  @Test
+  public void testSearch ()
+  {
+    final ProcPartySearchIndex <ProcSupplier> aIndex = new ProcPartySearchIndex <ProcSupplier> ();
+    final ProcSupplier aS1 = _create (1, "Phloc Systems", "Vienna", "ATU12345678");
+    final ProcSupplier aS2 = _create (2, "Vienna Paper Supplies", "Graz", null);
+    final ProcSupplier aS3 = _create (3, "Systemhaus Berger", "Linz", null);
+
+    // Not yet initialized
+    aIndex.update (aS1);
+    assertEquals (0, aIndex.getIndexedPartyCount ());
+
+    aIndex.initialize (ContainerHelper.newList (aS1, aS2, aS3));
+    assertEquals (3, aIndex.getIndexedPartyCount ());
+    assertTrue (aIndex.search (null, 10).isEmpty ());
+    assertTrue (aIndex.search ("xyz", 10).isEmpty ());
+
+    // Exact identifier match
+    assertEquals (ContainerHelper.newList (Integer.valueOf (1)), aIndex.search ("atu12345678", 10));
+
+    // Name match ranks higher than city match
+    List <Integer> aResult = aIndex.search ("vienna", 10);
+    assertEquals (ContainerHelper.newList (Integer.valueOf (2), Integer.valueOf (1)), aResult);
+
+    // Prefix match
+    aResult = aIndex.search ("syst", 10);
+    assertEquals (2, aResult.size ());
+    assertEquals (1, aIndex.search ("syst", 1).size ());
+
+    // Fuzzy match
+    assertEquals (ContainerHelper.newList (Integer.valueOf (3)), aIndex.search ("bergr", 10));
+
+    // All tokens must match
+    assertEquals (ContainerHelper.newList (Integer.valueOf (1)), aIndex.search ("sys vienna", 10));
+
+    // Deleted parties are removed
+    aS1.setDeleted (true);
+    aIndex.update (aS1);
+    assertEquals (2, aIndex.getIndexedPartyCount ());
+    assertTrue (aIndex.search ("atu12345678", 10).isEmpty ());
+  }
+
+  @Test
+  public void testUpdateDuringRebuild ()
+  {
+    final ProcPartySearchIndex <ProcSupplier> aIndex = new ProcPartySearchIndex <ProcSupplier> ();
+    final ProcSupplier aS1 = _create (1, "Phloc Systems", "Vienna", null);
+    final ProcSupplier aS2 = _create (2, "Vienna Paper Supplies", "Graz", null);
+
+    aIndex.rebuild (new INonThrowingCallable <List <ProcSupplier>> ()
+    {
+      public List <ProcSupplier> call ()
+      {
+        // The data was read before these changes were committed
+        final List <ProcSupplier> ret = ContainerHelper.newList (_create (1, "Phloc Systems", "Vienna", null),
+                                                                 _create (2, "Vienna Paper Supplies", "Graz", null));
+        aS1.setName ("Phloc Solutions");
+        aIndex.update (aS1);
+        aS2.setDeleted (true);
+        aIndex.update (aS2);
+        assertEquals (0, aIndex.getIndexedPartyCount ());
+        return ret;
+      }
+    });
+    assertTrue (aIndex.isInitialized ());
+    assertEquals (1, aIndex.getIndexedPartyCount ());
+    assertTrue (aIndex.search ("systems", 10).isEmpty ());
+    assertEquals (ContainerHelper.newList (Integer.valueOf (1)), aIndex.search ("solutions", 10));
+    assertTrue (aIndex.search ("paper", 10).isEmpty ());
+
+    // Already initialized
+    assertFalse (aIndex.ensureInitialized (new INonThrowingCallable <List <ProcSupplier>> ()
+    {
+      public List <ProcSupplier> call ()
+      {
+        throw new IllegalStateException ("Not expected");
+      }
+    }));
+  }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Test;
+
+import com.phloc.commons.callback.INonThrowingCallable;
+import com.phloc.db.jpa.IEntityManagerProvider;
+
+/**
+ * Test class for class {@link ProcRoutingEntityManagerProvider}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcRoutingEntityManagerProviderTest
+{
+  private static final class CountingProvider implements IEntityManagerProvider
+  {
+    private final AtomicInteger m_aCount = new AtomicInteger ();
+
+    public EntityManager getEntityManager ()
+    {
+      m_aCount.incrementAndGet ();
+      return null;
+    }
+  }
+
+  @Test
+  public void testRouting ()
+  {
+    final CountingProvider aPrimary = new CountingProvider ();
+    final CountingProvider aReplica = new CountingProvider ();
+    final ProcRoutingEntityManagerProvider aRouting = new ProcRoutingEntityManagerProvider (aPrimary);
+
+    // No replica present
+    aRouting.setUseReplica (true);
+    aRouting.getEntityManager ();
+    assertEquals (1, aPrimary.m_aCount.get ());
+
+    aRouting.setReplica (aReplica);
+    aRouting.getEntityManager ();
+    assertEquals (1, aPrimary.m_aCount.get ());
+    assertEquals (1, aReplica.m_aCount.get ());
+
+    aRouting.setUseReplica (false);
+    assertFalse (aRouting.isUseReplica ());
+    aRouting.getEntityManager ();
+    assertEquals (2, aPrimary.m_aCount.get ());
+    assertEquals (1, aReplica.m_aCount.get ());
+  }
+
+  @Test
+  public void testGetAllSharedCaches ()
+  {
+    final MockCacheEntityManagerProvider aPrimary = new MockCacheEntityManagerProvider ();
+    final MockCacheEntityManagerProvider aReplica = new MockCacheEntityManagerProvider ();
+    final ProcRoutingEntityManagerProvider aRouting = new ProcRoutingEntityManagerProvider (aPrimary);
+    assertEquals (1, aRouting.getAllSharedCaches ().size ());
+    assertSame (aPrimary.getCache (), aRouting.getAllSharedCaches ().get (0));
+
+    // The replica cache is contained independent of the routing
+    aRouting.setReplica (aReplica);
+    assertEquals (2, aRouting.getAllSharedCaches ().size ());
+    assertSame (aReplica.getCache (), aRouting.getAllSharedCaches ().get (1));
+  }
+
+  @Test
+  public void testRunOnPrimary ()
+  {
+    assertFalse (AbstractProcManager.isPrimaryForced ());
+    final Boolean aResult = AbstractProcManager.runOnPrimary (new INonThrowingCallable <Boolean> ()
+    {
+      public Boolean call ()
+      {
+        // Nested calls keep the primary forced
+        AbstractProcManager.runOnPrimary (new INonThrowingCallable <Void> ()
+        {
+          public Void call ()
+          {
+            return null;
+          }
+        });
+        return Boolean.valueOf (AbstractProcManager.isPrimaryForced ());
+      }
+    });
+    assertTrue (aResult.booleanValue ());
+    assertFalse (AbstractProcManager.isPrimaryForced ());
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+
+import org.junit.Test;
+
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcSaveResult}.
+ * 
+ * @author Philip Helger
+ */
+public final class ProcSaveResultTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final ProcSupplier aSupplier = new ProcSupplier ();
+    ProcSaveResult <ProcSupplier> aResult = ProcSaveResult.createSuccess (aSupplier, 1);
+    assertTrue (aResult.isSuccess ());
+    assertFalse (aResult.isConflict ());
+    assertSame (aSupplier, aResult.getSavedObject ());
+    assertEquals (1, aResult.getAttempts ());
+
+    final Exception aEx = new RollbackException (new OptimisticLockException ());
+    aResult = ProcSaveResult.createConflict (aSupplier, aEx, 2);
+    assertTrue (aResult.isFailure ());
+    assertTrue (aResult.isConflict ());
+    assertNull (aResult.getSavedObject ());
+    assertSame (aSupplier, aResult.getCurrentObject ());
+    assertSame (aEx, aResult.getThrowable ());
+
+    aResult = ProcSaveResult.createFailure (null, 1);
+    assertTrue (aResult.isFailure ());
+    assertFalse (aResult.isConflict ());
+  }
+
+  @Test
+  public void testIsOptimisticLockFailure ()
+  {
+    assertFalse (AbstractProcManager.isOptimisticLockFailure (null));
+    assertFalse (AbstractProcManager.isOptimisticLockFailure (new RollbackException ()));
+    assertTrue (AbstractProcManager.isOptimisticLockFailure (new OptimisticLockException ()));
+    assertTrue (AbstractProcManager.isOptimisticLockFailure (new RollbackException (new OptimisticLockException ())));
+  }
+}
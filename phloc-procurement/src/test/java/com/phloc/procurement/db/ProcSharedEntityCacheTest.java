@@ -0,0 +1,174 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.eclipse.persistence.annotations.Cache;
+import org.eclipse.persistence.annotations.CacheType;
+import org.junit.Test;
+
+import com.phloc.db.jpa.IEntityManagerProvider;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcSharedEntityCache}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcSharedEntityCacheTest
+{
+  private static final IEntityManagerProvider NO_EM = new IEntityManagerProvider ()
+  {
+    public EntityManager getEntityManager ()
+    {
+      throw new UnsupportedOperationException ();
+    }
+  };
+
+  @Test
+  public void testEntityManagerFactoryProperties ()
+  {
+    final Map <String, String> aProps = ProcSharedEntityCache.getEntityManagerFactoryProperties (50);
+    assertEquals ("ENABLE_SELECTIVE", aProps.get (ProcSharedEntityCache.PROPERTY_SHARED_CACHE_MODE));
+    assertEquals ("50", aProps.get ("eclipselink.cache.size.ProcSupplier"));
+    // The fixed size cache type is defined by the entity annotation
+    assertNull (aProps.get ("eclipselink.cache.type.ProcCustomer"));
+    for (final Class <?> aClass : ProcSharedEntityCache.getAllCachedEntityClasses ())
+      assertEquals (CacheType.CACHE, aClass.getAnnotation (Cache.class).type ());
+    assertNull (aProps.get ("eclipselink.cache.size.ProcOrderOutgoing"));
+
+    try
+    {
+      ProcSharedEntityCache.getEntityManagerFactoryProperties (0);
+      throw new IllegalStateException ();
+    }
+    catch (final IllegalArgumentException ex)
+    {
+      // expected
+    }
+  }
+
+  @Test
+  public void testCachedClasses ()
+  {
+    assertTrue (ProcSharedEntityCache.isCachedEntityClass (ProcSupplier.class));
+    assertTrue (ProcSharedEntityCache.isCachedEntityClass (ProcCustomer.class));
+    assertFalse (ProcSharedEntityCache.isCachedEntityClass (ProcOrderOutgoing.class));
+    assertFalse (ProcSharedEntityCache.isCachedEntityClass (null));
+    assertEquals (4, ProcSharedEntityCache.getAllCachedEntityClasses ().size ());
+
+    final ProcSharedEntityCache aCache = new ProcSharedEntityCache (NO_EM);
+    assertNotNull (aCache.getStatistics (ProcSupplier.class));
+    assertNull (aCache.getStatistics (ProcOrderOutgoing.class));
+    // Not cached classes are ignored without accessing the cache
+    aCache.invalidate (ProcOrderOutgoing.class, 1);
+  }
+
+  @Test
+  public void testStatistics ()
+  {
+    final ProcSharedCacheStatistics aStats = new ProcSharedCacheStatistics ();
+    assertEquals (0, aStats.getHitRatio (), 0);
+    aStats.onLookup (true);
+    aStats.onLookup (true);
+    aStats.onLookup (true);
+    aStats.onLookup (false);
+    assertEquals (3, aStats.getHits ());
+    assertEquals (1, aStats.getMisses ());
+    assertEquals (0.75, aStats.getHitRatio (), 0.0001);
+
+    aStats.onInvalidation (false);
+    aStats.onInvalidation (true);
+    aStats.onInvalidation (true);
+    assertEquals (1, aStats.getLocalInvalidations ());
+    assertEquals (2, aStats.getRemoteInvalidations ());
+  }
+
+  @Test
+  public void testLocalBroadcaster ()
+  {
+    final ProcLocalCacheInvalidationBroadcaster aBroadcaster = new ProcLocalCacheInvalidationBroadcaster ();
+    final ProcSharedEntityCache aCache = new ProcSharedEntityCache (NO_EM);
+    assertNull (aCache.getInvalidationBroadcaster ());
+    aBroadcaster.registerNode (aCache);
+    assertSame (aBroadcaster, aCache.getInvalidationBroadcaster ());
+
+    // The source itself is not notified
+    aBroadcaster.broadcastInvalidation (aCache, ProcSupplier.class, 1);
+    assertEquals (0, aCache.getStatistics (ProcSupplier.class).getRemoteInvalidations ());
+
+    aBroadcaster.unregisterNode (aCache);
+    assertNull (aCache.getInvalidationBroadcaster ());
+  }
+
+  @Test
+  public void testInvalidateReplica ()
+  {
+    final MockCacheEntityManagerProvider aPrimary = new MockCacheEntityManagerProvider ();
+    final MockCacheEntityManagerProvider aReplica = new MockCacheEntityManagerProvider ();
+    aPrimary.getCache ().put (ProcSupplier.class, 1);
+    aReplica.getCache ().put (ProcSupplier.class, 1);
+    aReplica.getCache ().put (ProcCustomer.class, 2);
+
+    final ProcSharedEntityCache aCache = new ProcSharedEntityCache (aPrimary, aReplica);
+    aCache.invalidate (ProcSupplier.class, 1);
+    assertFalse (aPrimary.getCache ().contains (ProcSupplier.class, Integer.valueOf (1)));
+    assertFalse (aReplica.getCache ().contains (ProcSupplier.class, Integer.valueOf (1)));
+    assertTrue (aReplica.getCache ().contains (ProcCustomer.class, Integer.valueOf (2)));
+
+    aCache.onRemoteInvalidation (ProcCustomer.class, 2);
+    assertFalse (aReplica.getCache ().contains (ProcCustomer.class, Integer.valueOf (2)));
+    assertEquals (1, aCache.getStatistics (ProcCustomer.class).getRemoteInvalidations ());
+  }
+
+  @Test
+  public void testRecordLookup ()
+  {
+    final MockCacheEntityManagerProvider aPrimary = new MockCacheEntityManagerProvider ();
+    final MockCacheEntityManagerProvider aReplica = new MockCacheEntityManagerProvider ();
+    aReplica.getCache ().put (ProcSupplier.class, 1);
+
+    // The statistics use the cache of the factory serving the lookup
+    final ProcSharedEntityCache aCache = new ProcSharedEntityCache (aPrimary, aReplica);
+    aCache.recordLookup (aPrimary.getCache (), ProcSupplier.class, 1);
+    aCache.recordLookup (aReplica.getCache (), ProcSupplier.class, 1);
+    aCache.recordLookup (aReplica.getCache (), ProcOrderOutgoing.class, 1);
+    assertEquals (1, aCache.getStatistics (ProcSupplier.class).getHits ());
+    assertEquals (1, aCache.getStatistics (ProcSupplier.class).getMisses ());
+  }
+
+  @Test
+  public void testReplicaEntityManagerFactoryProperties ()
+  {
+    final Map <String, String> aProps = ProcSharedEntityCache.getReplicaEntityManagerFactoryProperties ();
+    assertEquals ("NONE", aProps.get (ProcSharedEntityCache.PROPERTY_SHARED_CACHE_MODE));
+    assertEquals ("false", aProps.get ("eclipselink.cache.shared.default"));
+  }
+}
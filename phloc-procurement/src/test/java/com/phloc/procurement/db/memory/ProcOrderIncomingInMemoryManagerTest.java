@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.db.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import com.phloc.commons.collections.ContainerHelper;
+import com.phloc.commons.io.file.FileOperations;
+import com.phloc.procurement.db.ProcKeysetPage;
+import com.phloc.procurement.domain.EProcState;
+import com.phloc.procurement.exchange.AbstractExchangeTestCase;
+import com.phloc.procurement.order.ProcOrder;
+import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.party.ProcCustomer;
+import com.phloc.procurement.party.ProcSupplier;
+
+/**
+ * Test class for class {@link ProcOrderIncomingInMemoryManager}.
+ *
+ * @author Philip Helger
+ */
+public final class ProcOrderIncomingInMemoryManagerTest extends AbstractExchangeTestCase
+{
+  private static ProcOrderIncoming _create (final int nClient)
+  {
+    final ProcOrderIncoming aOrder = new ProcOrderIncoming ();
+    aOrder.setClient (nClient);
+    aOrder.setState (EProcState.RECEIVED);
+    final ProcOrder aOrderData = new ProcOrder ();
+    aOrderData.setOrderNumber ("order" + nClient);
+    aOrder.setOrder (aOrderData);
+    return aOrder;
+  }
+
+  @Test
+  public void testBasic ()
+  {
+    final ProcOrderIncomingInMemoryManager aMgr = new ProcOrderIncomingInMemoryManager ();
+    assertEquals (0, aMgr.getCountAllOrders ());
+
+    final ProcOrderIncoming aOrder1 = _create (1);
+    final ProcOrderIncoming aOrder2 = _create (2);
+    final ProcOrderIncoming aOrder3 = _create (1);
+    assertTrue (aMgr.saveOrder (aOrder1).isSuccess ());
+    assertTrue (aMgr.saveOrder (aOrder2).isSuccess ());
+    assertTrue (aMgr.saveOrder (aOrder3).isSuccess ());
+    assertEquals (1, aOrder1.getID ());
+    assertEquals (3, aOrder3.getID ());
+    assertEquals (1, aOrder1.getVersion ());
+    assertSame (aOrder2, aMgr.getActiveOrderOfID (2));
+
+    assertEquals (3, aMgr.getCountAllOrders ());
+    assertEquals (3, aMgr.getCountOfNewOrders ());
+    assertEquals (2, aMgr.getCountAllOrdersOfClient (1, null));
+    assertEquals (ContainerHelper.newList (aOrder1, aOrder3), aMgr.getAllOrdersOfClient (1, EProcState.RECEIVED));
+
+    // State index
+    assertTrue (aMgr.acceptOrder (aOrder1).isSuccess ());
+    assertEquals (1, aMgr.getCountAllOrders (EProcState.ACCEPTED));
+    assertEquals (2, aMgr.getCountOfNewOrders ());
+    assertEquals (ContainerHelper.newList (Integer.valueOf (2)),
+                  aMgr.rejectOrders (ContainerHelper.newList (Integer.valueOf (1), Integer.valueOf (2))));
+    assertEquals (EProcState.REJECTED, aOrder2.getState ());
+    assertEquals (1, aMgr.getCountOfNewOrders ());
+
+    // Soft delete view
+    assertTrue (aMgr.deleteOrder (aOrder3).isSuccess ());
+    assertNull (aMgr.getActiveOrderOfID (3));
+    assertSame (aOrder3, aMgr.getAnyOrderOfID (3));
+    assertEquals (2, aMgr.getCountAllOrders ());
+    assertEquals (1, aMgr.getCountAllDeletedOrders ());
+    assertEquals (1, aMgr.getCountAllDeletedOrdersOfClient (1, EProcState.RECEIVED));
+    assertEquals (0, aMgr.getCountOfNewOrders ());
+    assertTrue (aMgr.undeleteOrder (aOrder3).isSuccess ());
+    assertEquals (0, aMgr.getCountAllDeletedOrders ());
+    assertEquals (3, aMgr.getAllOrderHeaders ().size ());
+
+    // Unknown orders are not modified
+    assertFalse (aMgr.deleteOrder (_create (1)).isSuccess ());
+  }
+
+  @Test
+  public void testPage ()
+  {
+    final ProcOrderIncomingInMemoryManager aMgr = new ProcOrderIncomingInMemoryManager ();
+    for (int i = 0; i < 5; ++i)
+      aMgr.saveOrder (_create (i % 2));
+
+    ProcKeysetPage <ProcOrderIncoming> aPage = aMgr.getOrdersPage (ProcKeysetPage.FIRST_PAGE_KEY, 2);
+    assertEquals (2, aPage.getItemCount ());
+    assertTrue (aPage.hasMore ());
+    aPage = aMgr.getOrdersPage (aPage.getNextPageKey (), 2);
+    assertEquals (4, aPage.getNextPageKey ());
+    aPage = aMgr.getOrdersPage (aPage.getNextPageKey (), 2);
+    assertEquals (1, aPage.getItemCount ());
+    assertFalse (aPage.hasMore ());
+
+    // Client 0 has IDs 1, 3 and 5
+    aPage = aMgr.getOrdersPage (null, 0, 1, 10);
+    assertEquals (2, aPage.getItemCount ());
+    assertEquals (5, aPage.getNextPageKey ());
+  }
+
+  @Test
+  public void testSnapshot ()
+  {
+    final File aFile = new File ("target/test-snapshot/orders-incoming.xml.gz");
+    FileOperations.deleteFileIfExisting (aFile);
+
+    final ProcCustomer aCustomer = createCustomer ();
+    aCustomer.setID (42);
+    final ProcOrderIncomingInMemoryManager aMgr = new ProcOrderIncomingInMemoryManager ();
+    final ProcOrderIncoming aOrder = _create (3);
+    aOrder.setCustomer (aCustomer);
+    aMgr.saveOrder (aOrder);
+    aMgr.saveOrder (_create (3));
+    aMgr.acceptOrder (aOrder);
+    aMgr.deleteOrder (aMgr.getActiveOrderOfID (2));
+    assertTrue (aMgr.writeSnapshot (aFile).isSuccess ());
+
+    final ProcOrderIncomingInMemoryManager aMgr2 = new ProcOrderIncomingInMemoryManager ();
+    assertTrue (aMgr2.readSnapshot (aFile, new IProcPartyResolver ()
+    {
+      public ProcCustomer getCustomerOfID (final int nCustomerID)
+      {
+        return nCustomerID == 42 ? aCustomer : null;
+      }
+
+      public ProcSupplier getSupplierOfID (final int nSupplierID)
+      {
+        return null;
+      }
+    }).isSuccess ());
+    assertEquals (1, aMgr2.getCountAllOrders (EProcState.ACCEPTED));
+    assertEquals (1, aMgr2.getCountAllDeletedOrders ());
+    final ProcOrderIncoming aRead = aMgr2.getActiveOrderOfID (1);
+    assertNotNull (aRead);
+    assertEquals (3, aRead.getClient ());
+    assertSame (aCustomer, aRead.getCustomer ());
+
+    // New IDs continue after the snapshot
+    final ProcOrderIncoming aNew = _create (3);
+    aMgr2.saveOrder (aNew);
+    assertEquals (3, aNew.getID ());
+
+    assertFalse (aMgr2.readSnapshot (new File ("target/test-snapshot/nonexisting.xml.gz"), null).isSuccess ());
+    assertEquals (3, aMgr2.getCountAllOrders () + aMgr2.getCountAllDeletedOrders ());
+
+    // Replace the existing snapshot without leaving temporary files
+    assertTrue (aMgr2.writeSnapshot (aFile).isSuccess ());
+    assertEquals (1, aFile.getParentFile ().list ().length);
+    final ProcOrderIncomingInMemoryManager aMgr3 = new ProcOrderIncomingInMemoryManager ();
+    assertTrue (aMgr3.readSnapshot (aFile, null).isSuccess ());
+    assertEquals (3, aMgr3.getCountAllOrders () + aMgr3.getCountAllDeletedOrders ());
+  }
+}
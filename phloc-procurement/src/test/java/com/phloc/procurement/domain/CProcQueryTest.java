@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2006-2014 phloc systems
+ * http://www.phloc.com
+ * office[at]phloc[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.phloc.procurement.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+
+import org.junit.Test;
+
+import com.phloc.procurement.invoice.ProcInvoiceIncoming;
+import com.phloc.procurement.invoice.ProcInvoiceOutgoing;
+import com.phloc.procurement.order.ProcOrderIncoming;
+import com.phloc.procurement.order.ProcOrderOutgoing;
+
+/**
+ * Test class for class {@link CProcQuery}.
+ *
+ * @author Philip Helger
+ */
+public final class CProcQueryTest
+{
+  @Test
+  public void testGetQueryName ()
+  {
+    assertEquals ("X.all", CProcQuery.getQueryName ("X.all", false, false));
+    assertEquals ("X.all.state", CProcQuery.getQueryName ("X.all", true, false));
+    assertEquals ("X.all.client", CProcQuery.getQueryName ("X.all", false, true));
+    assertEquals ("X.all.state.client", CProcQuery.getQueryName ("X.all", true, true));
+  }
+
+  private static void _assertAllVariantsDeclared (final Class <?> aClass, final String... aBaseNames)
+  {
+    final Set <String> aDeclared = new HashSet <String> ();
+    for (final NamedQuery aNQ : aClass.getAnnotation (NamedQueries.class).value ())
+      assertTrue (aNQ.name (), aDeclared.add (aNQ.name ()));
+
+    for (final String sBaseName : aBaseNames)
+      for (final boolean bState : new boolean [] { false, true })
+        for (final boolean bClient : new boolean [] { false, true })
+        {
+          final String sName = CProcQuery.getQueryName (sBaseName, bState, bClient);
+          assertTrue (sName, aDeclared.contains (sName));
+        }
+  }
+
+  @Test
+  public void testAllNamedQueriesDeclared ()
+  {
+    _assertAllVariantsDeclared (ProcOrderIncoming.class,
+                                ProcOrderIncoming.QUERY_ALL,
+                                ProcOrderIncoming.QUERY_COUNT,
+                                ProcOrderIncoming.QUERY_PAGE,
+                                ProcOrderIncoming.QUERY_HEADERS);
+    _assertAllVariantsDeclared (ProcOrderOutgoing.class,
+                                ProcOrderOutgoing.QUERY_ALL,
+                                ProcOrderOutgoing.QUERY_COUNT,
+                                ProcOrderOutgoing.QUERY_PAGE,
+                                ProcOrderOutgoing.QUERY_HEADERS);
+    _assertAllVariantsDeclared (ProcInvoiceIncoming.class,
+                                ProcInvoiceIncoming.QUERY_ALL,
+                                ProcInvoiceIncoming.QUERY_COUNT,
+                                ProcInvoiceIncoming.QUERY_PAGE,
+                                ProcInvoiceIncoming.QUERY_HEADERS);
+    _assertAllVariantsDeclared (ProcInvoiceOutgoing.class,
+                                ProcInvoiceOutgoing.QUERY_ALL,
+                                ProcInvoiceOutgoing.QUERY_COUNT,
+                                ProcInvoiceOutgoing.QUERY_PAGE,
+                                ProcInvoiceOutgoing.QUERY_HEADERS);
+  }
+}
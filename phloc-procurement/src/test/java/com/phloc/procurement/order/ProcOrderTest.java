@@ -17,7 +17,11 @@
  */
 package com.phloc.procurement.order;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
 
 import org.junit.Test;
 
@@ -25,6 +29,8 @@ import com.phloc.commons.charset.CCharset;
 import com.phloc.commons.collections.ContainerHelper;
 import com.phloc.commons.mime.CMimeType;
 import com.phloc.commons.mock.PhlocTestUtils;
+import com.phloc.commons.state.EChange;
+import com.phloc.masterdata.currency.ECurrency;
 import com.phloc.procurement.attachment.ProcInMemoryAttachment;
 import com.phloc.procurement.exchange.AbstractExchangeTestCase;
 
@@ -48,4 +54,37 @@ public final class ProcOrderTest extends AbstractExchangeTestCase
     aOrder.setAttachments (ContainerHelper.newList (aAttach1));
     PhlocTestUtils.testMicroTypeConversion (aOrder);
   }
+
+  @Test
+  public void testTotals ()
+  {
+    final ProcOrder aOrder = createOrder ();
+    // Setting the items does not touch the persisted totals
+    assertNull (aOrder.getTotalNetValue ());
+    assertEquals (ECurrency.EUR, aOrder.getTotalNetAmount ().getCurrency ());
+    assertEquals (0, new BigDecimal ("999.00").compareTo (aOrder.getTotalNetAmount ().getValue ()));
+    assertEquals (EChange.CHANGED, aOrder.recalculateTotals ());
+    assertEquals (0, new BigDecimal ("999.00").compareTo (aOrder.getTotalNetValue ()));
+
+    // Modifying a contained item updates the totals
+    aOrder.getOrderItems ().get (0).setQuantity (20);
+    assertEquals (0, new BigDecimal ("1998.00").compareTo (aOrder.getTotalNetAmount ().getValue ()));
+
+    // No items - no totals
+    aOrder.setOrderItems (null);
+    assertNull (aOrder.getTotalNetAmount ());
+    assertEquals (EChange.CHANGED, aOrder.recalculateTotals ());
+    assertNull (aOrder.getTotalGrossValue ());
+  }
+
+  @Test
+  public void testTotalsWithoutItems ()
+  {
+    final ProcOrder aOrder = new ProcOrder ();
+    assertNull (aOrder.getTotalNetAmount ());
+    assertNull (aOrder.getTotalGrossAmount ());
+    assertNull (aOrder.getTotalTaxAmount ());
+    assertEquals (EChange.UNCHANGED, aOrder.recalculateTotals ());
+    assertNull (aOrder.getTotalCurrencyID ());
+  }
 }